@@ -70,6 +70,12 @@ public class ArrayDataSource
       // ... and push all connections passed to it
       for(int i = 0; i < conns.length; i++)
          m_connections.push(conns[i]);
+
+      // The pool can't hold more connections than were passed in. When all of
+      // them are in use, wait for one to be checked in. Idle connections are
+      // never closed, since closing only returns them to the array.
+      setMaxSize(conns.length);
+      setIdleTimeout(0);
    }
 
    //**************************************************************************
@@ -32,6 +32,15 @@ import javax.sql.*;
  * extend this class and implement the createObject and removeObject
  * methods from Pool.</p>
  *
+ * <p>Unlike Pool, ConnectionPool is bounded by default. It holds at most
+ * DEFAULT_MAXSIZE connections, waits up to Pool.DEFAULT_WAITTIMEOUT milliseconds
+ * for a connection when all are in use, and closes connections that have been
+ * idle for more than DEFAULT_IDLETIMEOUT milliseconds. Use the methods in Pool
+ * to change these values.</p>
+ *
+ * <p>Before a pooled connection is reused, ConnectionPool checks that it is not
+ * closed. If a validation query has been set, it also executes the query.</p>
+ *
  * @author Sean Walter, 2001
  * @author Ronald Bourret, 2001
  * @version 2.0
@@ -41,6 +50,16 @@ public abstract class ConnectionPool
    extends Pool
    implements CPConnectionEventListener
 {
+   //**************************************************************************
+   // Constants
+   //**************************************************************************
+
+   /** The default maximum number of connections. */
+   public static final int DEFAULT_MAXSIZE = 20;
+
+   /** The default idle timeout, in milliseconds. */
+   public static final long DEFAULT_IDLETIMEOUT = 600000;
+
    //**************************************************************************
    // Constructors
    //**************************************************************************
@@ -52,6 +71,8 @@ public abstract class ConnectionPool
    {
       super();
       m_statementPools = new Hashtable();
+      setMaxSize(DEFAULT_MAXSIZE);
+      setIdleTimeout(DEFAULT_IDLETIMEOUT);
    }
 
    //**************************************************************************
@@ -123,17 +144,43 @@ public abstract class ConnectionPool
       statements = conn.getStatementPool();
       conn.invalidate();
 
-      // Check the connection back into the connection pool and store the
-      // statement pool for later use.
+      // Store the statement pool for later use and check the connection back
+      // into the connection pool. The statement pool must be stored first, as
+      // another thread may check the connection out as soon as it is checked in.
 
+      if (statements != null) m_statementPools.put(realConn, statements);
       super.checkIn(realConn);
-      m_statementPools.put(realConn, statements);
 
       // Remove this connection pool as a listener on the CPConnection object.
 
       conn.removeConnectionEventListener(this);
    }
 
+   /**
+    * Set a query used to check that a pooled connection is still usable.
+    *
+    * <p>If this is non-null, it is executed each time a checked in connection
+    * is checked out. If it fails, the connection is closed and another connection
+    * is used. The query should be as cheap as possible, such as "SELECT 1" or
+    * "SELECT 1 FROM DUAL".</p>
+    *
+    * @param query The query. May be null.
+    */
+   public void setValidationQuery(String query)
+   {
+      m_validationQuery = query;
+   }
+
+   /**
+    * Get the query used to check that a pooled connection is still usable.
+    *
+    * @return The query. May be null.
+    */
+   public String getValidationQuery()
+   {
+      return m_validationQuery;
+   }
+
    //**************************************************************************
    // CPConnectionEventListener methods
    //**************************************************************************
@@ -244,9 +291,60 @@ public abstract class ConnectionPool
       conn.removeConnectionEventListener(this);
    }
 
+   /**
+    * Check that a checked in connection is not closed and, if a validation
+    * query is set, that the query can be executed.
+    *
+    * <p>Overrides Pool.validateObject(Object).</p>
+    *
+    * @param object The underlying connection.
+    * @return Whether the connection can be used.
+    */
+   protected boolean validateObject(Object object)
+   {
+      Connection conn = (Connection)object;
+      Statement  stmt;
+      String     query = m_validationQuery;
+
+      try
+      {
+         if (conn.isClosed()) return false;
+         if (query != null)
+         {
+            stmt = conn.createStatement();
+            try
+            {
+               stmt.execute(query);
+            }
+            finally
+            {
+               stmt.close();
+            }
+         }
+         return true;
+      }
+      catch (SQLException e)
+      {
+         return false;
+      }
+   }
+
+   /**
+    * Discard the statement pool of a connection closed by the pool.
+    *
+    * <p>Overrides Pool.objectClosed(Object).</p>
+    *
+    * @param object The underlying connection.
+    */
+   protected void objectClosed(Object object)
+   {
+      m_statementPools.remove(object);
+   }
+
    //**************************************************************************
    // Class members
    //**************************************************************************
 
    Hashtable m_statementPools;
+   String    m_validationQuery = null;
 }
@@ -434,8 +434,20 @@ public class SPPreparedStatement
    // Uncomment these methods to compile with JDK 1.2 or greater
 
 
-   public void addBatch() throws SQLException
-      { throw new SQLException("[XML-DBMS][SPreparedStatement] Not implemented.", "HY000"); }
+   public void addBatch()
+      throws SQLException
+   {
+      checkState();
+      try
+      {
+         m_statement.addBatch();
+      }
+      catch(SQLException e)
+      {
+         fireErrorEvent(e);
+         throw e;
+      }
+   }
 
    public void setCharacterStream(int parameterIndex, Reader reader, int length) throws SQLException
       { throw new SQLException("[XML-DBMS][SPreparedStatement] Not implemented.", "HY000"); }
@@ -486,7 +498,18 @@ public class SPPreparedStatement
  
    public ResultSet getGeneratedKeys()
       throws SQLException
-      { throw new SQLException("[XML-DBMS][SPreparedStatement] Not implemented.", "HY000"); }
+   {
+      checkState();
+      try
+      {
+         return m_statement.getGeneratedKeys();
+      }
+      catch(SQLException e)
+      {
+         fireErrorEvent(e);
+         throw e;
+      }
+   }
    
    public int executeUpdate(String sql, int autoGeneratedKeys)
       throws SQLException
@@ -812,11 +835,35 @@ public class SPPreparedStatement
    public void addBatch(String sql) throws SQLException
       { throw new SQLException("[XML-DBMS][SPreparedStatement] Not implemented.", "HY000"); }
 
-   public void clearBatch() throws SQLException
-      { throw new SQLException("[XML-DBMS][SPreparedStatement] Not implemented.", "HY000"); }
+   public void clearBatch()
+      throws SQLException
+   {
+      checkState();
+      try
+      {
+         m_statement.clearBatch();
+      }
+      catch(SQLException e)
+      {
+         fireErrorEvent(e);
+         throw e;
+      }
+   }
 
-   public int[] executeBatch() throws SQLException
-      { throw new SQLException("[XML-DBMS][SPreparedStatement] Not implemented.", "HY000"); }
+   public int[] executeBatch()
+      throws SQLException
+   {
+      checkState();
+      try
+      {
+         return m_statement.executeBatch();
+      }
+      catch(SQLException e)
+      {
+         fireErrorEvent(e);
+         throw e;
+      }
+   }
 
    public Connection getConnection() throws SQLException
       { throw new SQLException("[XML-DBMS][SPreparedStatement] Not implemented.", "HY000"); }
@@ -112,6 +112,20 @@ public class StatementPool
       stmt.removeStatementEventListener(this);
    }
 
+   /**
+    * Close all checked in statements for the specified SQL string.
+    *
+    * <p>Callers that cache statements use this to release statements for
+    * SQL strings they no longer use. Statements that are checked out are
+    * not affected.</p>
+    *
+    * @param sqlString The SQL string.
+    */
+   public void removeStatements(String sqlString)
+   {
+      removeCheckedIn(sqlString);
+   }
+
    //**************************************************************************
    // SPStatementEventListener methods
    //**************************************************************************
@@ -0,0 +1,159 @@
+// This software is in the public domain.
+//
+// The software is provided "as is", without warranty of any kind,
+// express or implied, including but not limited to the warranties
+// of merchantability, fitness for a particular purpose, and
+// noninfringement. In no event shall the author(s) be liable for any
+// claim, damages, or other liability, whether in an action of
+// contract, tort, or otherwise, arising from, out of, or in connection
+// with the software or the use or other dealings in the software.
+//
+// Parts of this software were originally developed in the Database
+// and Distributed Systems Group at the Technical University of
+// Darmstadt, Germany:
+//
+//    http://www.informatik.tu-darmstadt.de/DVS1/
+
+// Version 2.0
+// Changes from version 1.x: New in version 2.0
+
+package org.xmlmiddleware.utils;
+
+import java.util.*;
+
+/**
+ * A first-in, first-out queue with a maximum size.
+ *
+ * <p>The queue is used to hand objects from one thread to another. If the
+ * queue is full, put waits until another thread takes an object. If the
+ * queue is empty, take waits until another thread puts an object. Thus,
+ * a thread that produces objects faster than they are consumed is slowed
+ * down to the speed of the consumer.</p>
+ *
+ * <p>When the producer is finished, it calls close. Consumers then take the
+ * remaining objects, after which take returns null. A consumer that stops
+ * early can also call close, in which case put discards objects instead of
+ * waiting for room.</p>
+ *
+ * <p>The queue is thread-safe.</p>
+ *
+ * @version 2.0
+ */
+
+public class BoundedQueue
+{
+   //**************************************************************************
+   // Variables
+   //**************************************************************************
+
+   private Vector  m_objects;
+   private int     m_maxSize;
+   private boolean m_closed = false;
+
+   //**************************************************************************
+   // Constructors
+   //**************************************************************************
+
+   /**
+    * Construct a new BoundedQueue.
+    *
+    * @param maxSize The maximum number of objects in the queue. Must be 1 or more.
+    */
+   public BoundedQueue(int maxSize)
+   {
+      if (maxSize < 1)
+         throw new IllegalArgumentException("Maximum queue size must be 1 or more: " + maxSize);
+      m_maxSize = maxSize;
+      m_objects = new Vector(maxSize);
+   }
+
+   //**************************************************************************
+   // Public methods
+   //**************************************************************************
+
+   /**
+    * Add an object to the end of the queue.
+    *
+    * <p>If the queue is full, this method waits until there is room.</p>
+    *
+    * @param obj The object. Must not be null.
+    * @return Whether the object was added. False if the queue is closed.
+    * @exception InterruptedException Thrown if the thread is interrupted while
+    *    waiting.
+    */
+   public synchronized boolean put(Object obj)
+      throws InterruptedException
+   {
+      if (obj == null)
+         throw new IllegalArgumentException("Object must not be null.");
+
+      while (!m_closed && (m_objects.size() >= m_maxSize))
+      {
+         wait();
+      }
+      if (m_closed) return false;
+
+      m_objects.addElement(obj);
+      notifyAll();
+      return true;
+   }
+
+   /**
+    * Remove an object from the front of the queue.
+    *
+    * <p>If the queue is empty, this method waits until an object is added
+    * or the queue is closed.</p>
+    *
+    * @return The object. Null if the queue is closed and empty.
+    * @exception InterruptedException Thrown if the thread is interrupted while
+    *    waiting.
+    */
+   public synchronized Object take()
+      throws InterruptedException
+   {
+      Object obj;
+
+      while (!m_closed && m_objects.isEmpty())
+      {
+         wait();
+      }
+      if (m_objects.isEmpty()) return null;
+
+      obj = m_objects.elementAt(0);
+      m_objects.removeElementAt(0);
+      notifyAll();
+      return obj;
+   }
+
+   /**
+    * Close the queue.
+    *
+    * <p>Objects already in the queue can still be taken. Objects that are put
+    * in the queue after it is closed are discarded.</p>
+    */
+   public synchronized void close()
+   {
+      m_closed = true;
+      notifyAll();
+   }
+
+   /**
+    * Whether the queue is closed.
+    *
+    * @return Whether the queue is closed.
+    */
+   public synchronized boolean isClosed()
+   {
+      return m_closed;
+   }
+
+   /**
+    * Get the number of objects in the queue.
+    *
+    * @return The number of objects.
+    */
+   public synchronized int size()
+   {
+      return m_objects.size();
+   }
+}
@@ -32,6 +32,22 @@ import java.util.*;
  * the calling application never knows if new objects are allocated
  * during the check-out procedure.</p>
  *
+ * <p>The pool may be bounded. If a maximum size is set and that many objects
+ * exist, checkOut waits until an object is checked in or removed, or until the
+ * wait timeout expires. Waiting threads are served in the order in which they
+ * arrived. If a thread needs an object with an ID for which no object is
+ * checked in, an idle object with a different ID is closed to make room.</p>
+ *
+ * <p>Objects that have been checked in for longer than the idle timeout are
+ * closed, although the pool never shrinks below its minimum size. Idle objects
+ * are evicted during checkOut or when evictIdleObjects is called; the pool does
+ * not use a background thread. Before an idle object is returned by checkOut,
+ * it is checked with validateObject. Objects that are not valid are closed.</p>
+ *
+ * <p>The pool is thread-safe. Objects are created, validated, and closed outside
+ * the pool's lock, so a slow database does not block other threads from checking
+ * objects in and out.</p>
+ *
  * @author Sean Walter, 2001
  * @author Ronald Bourret, 2001
  * @version 2.0
@@ -39,6 +55,16 @@ import java.util.*;
 
 public abstract class Pool
 {
+   //**************************************************************************
+   // Constants
+   //**************************************************************************
+
+   /** The default wait timeout, in milliseconds. */
+   public static final long DEFAULT_WAITTIMEOUT = 30000;
+
+   // Returned by reserve() when a new object is to be created.
+   private static final Object CREATE = new Object();
+
    //**************************************************************************
    // Constructors and finalizers
    //**************************************************************************
@@ -73,30 +99,45 @@ public abstract class Pool
     * same ID. For example, when used to pool connections, this allows the pool to
     * contain more than one connection to the same databases.</p>
     *
+    * <p>If the pool is full, this method waits for an object to become available.</p>
+    *
     * @return The object.
     * @exception XMLMiddlewareException Thrown if the pool does not recognize the ID or cannot
     *                          return the specified object for any reason, such as lack
-    *                          of resources.
+    *                          of resources or the wait timeout expiring.
     */
    public Object checkOut(Object id)
       throws XMLMiddlewareException
    {
-      Object obj = null;
+      Object obj;
 
-      // Check if we have that id...
-      if(m_objects.containsKey(id))
+      evictIdleObjectsIfDue();
+
+      while (true)
       {
-         Stack stack = (Stack)m_objects.get(id);
+         // Reserve an object. This is either a checked in object, which must
+         // be validated, or a slot for a new object.
+
+         synchronized (this)
+         {
+            obj = reserve(id);
+         }
+
+         if (obj == CREATE)
+         {
+            obj = create(id);
+            break;
+         }
+         else if (validateObject(obj))
+         {
+            break;
+         }
 
-         // .. and if object available get it
-         if(!stack.empty())
-            obj = stack.pop();
+         // The object is not valid, so close it and try again.
+
+         discard(obj);
       }
 
-      // Otherwise create
-      if(obj == null)
-         obj = createObject(id);
-      
       // Put it in checked map. This map is indexed by object with the value
       // as the id for checking in again later.
       m_checked.put(obj, id);
@@ -110,7 +151,7 @@ public abstract class Pool
     * @param object The object.
     * @exception XMLMiddlewareException Thrown if the object does not belong to this pool.
     */
-   public void checkIn(Object object)
+   public synchronized void checkIn(Object object)
       throws XMLMiddlewareException
    {
       // Make sure this is our object
@@ -126,6 +167,167 @@ public abstract class Pool
 
       Stack stack = (Stack)m_objects.get(id);
       stack.push(object);
+      m_idleSince.put(object, new Long(System.currentTimeMillis()));
+
+      // Wake up any waiting threads
+      notifyAll();
+   }
+
+   /**
+    * Close checked in objects that have been idle for longer than the idle timeout.
+    *
+    * <p>Objects are closed, oldest first, until the pool reaches its minimum size.
+    * This method ignores any errors encountered while closing objects. It does
+    * nothing if the idle timeout is 0.</p>
+    */
+   public void evictIdleObjects()
+   {
+      Vector      evicted = new Vector();
+      Enumeration e;
+      Stack       stack;
+      Object      obj;
+      long        oldest;
+
+      synchronized (this)
+      {
+         if (m_idleTimeout <= 0) return;
+         oldest = System.currentTimeMillis() - m_idleTimeout;
+         m_nextEviction = System.currentTimeMillis() + (m_idleTimeout / 2);
+
+         // The oldest objects are at the bottom of each stack.
+
+         for (e = m_objects.elements(); e.hasMoreElements(); )
+         {
+            stack = (Stack)e.nextElement();
+            while (!stack.empty() && (m_size > m_minSize))
+            {
+               obj = stack.elementAt(0);
+               if (((Long)m_idleSince.get(obj)).longValue() > oldest) break;
+               stack.removeElementAt(0);
+               m_idleSince.remove(obj);
+               m_size--;
+               evicted.addElement(obj);
+            }
+         }
+      }
+
+      // Close the evicted objects outside the lock.
+
+      for (int i = 0; i < evicted.size(); i++)
+      {
+         closeQuietly(evicted.elementAt(i));
+      }
+   }
+
+   /**
+    * Set the maximum number of objects in the pool.
+    *
+    * <p>This includes objects that are checked in and objects that are checked out.
+    * If the pool already contains more objects, no objects are closed, but no new
+    * objects are created until the pool shrinks below the new maximum.</p>
+    *
+    * @param maxSize The maximum number of objects. 0 means there is no maximum.
+    */
+   public synchronized void setMaxSize(int maxSize)
+   {
+      if (maxSize < 0)
+         throw new IllegalArgumentException("Maximum pool size must be 0 or more: " + maxSize);
+      m_maxSize = maxSize;
+      notifyAll();
+   }
+
+   /**
+    * Get the maximum number of objects in the pool.
+    *
+    * @return The maximum number of objects. 0 means there is no maximum.
+    */
+   public int getMaxSize()
+   {
+      return m_maxSize;
+   }
+
+   /**
+    * Set the minimum number of objects in the pool.
+    *
+    * <p>Idle objects are not evicted if this would shrink the pool below this
+    * size. The pool does not create objects to reach this size.</p>
+    *
+    * @param minSize The minimum number of objects.
+    */
+   public synchronized void setMinSize(int minSize)
+   {
+      if (minSize < 0)
+         throw new IllegalArgumentException("Minimum pool size must be 0 or more: " + minSize);
+      m_minSize = minSize;
+   }
+
+   /**
+    * Get the minimum number of objects in the pool.
+    *
+    * @return The minimum number of objects.
+    */
+   public int getMinSize()
+   {
+      return m_minSize;
+   }
+
+   /**
+    * Set how long checkOut waits for an object when the pool is full.
+    *
+    * @param timeout The timeout, in milliseconds. 0 means that checkOut throws
+    *    an exception immediately. A negative value means that checkOut waits
+    *    indefinitely. The default is DEFAULT_WAITTIMEOUT.
+    */
+   public synchronized void setWaitTimeout(long timeout)
+   {
+      m_waitTimeout = timeout;
+   }
+
+   /**
+    * Get how long checkOut waits for an object when the pool is full.
+    *
+    * @return The timeout, in milliseconds.
+    */
+   public long getWaitTimeout()
+   {
+      return m_waitTimeout;
+   }
+
+   /**
+    * Set how long an object may be checked in before it is closed.
+    *
+    * @param timeout The timeout, in milliseconds. 0 means that idle objects
+    *    are never closed. This is the default.
+    */
+   public synchronized void setIdleTimeout(long timeout)
+   {
+      if (timeout < 0)
+         throw new IllegalArgumentException("Idle timeout must be 0 or more: " + timeout);
+      m_idleTimeout = timeout;
+      m_nextEviction = 0;
+   }
+
+   /**
+    * Get how long an object may be checked in before it is closed.
+    *
+    * @return The timeout, in milliseconds.
+    */
+   public long getIdleTimeout()
+   {
+      return m_idleTimeout;
+   }
+
+   /**
+    * Get the number of objects in the pool.
+    *
+    * <p>This includes objects that are checked in, objects that are checked out,
+    * and objects that are being created.</p>
+    *
+    * @return The number of objects.
+    */
+   public synchronized int getSize()
+   {
+      return m_size;
    }
 
    //**************************************************************************
@@ -155,6 +357,34 @@ public abstract class Pool
    // Protected methods
    //**************************************************************************
 
+   /**
+    * Check whether a checked in object can still be used.
+    *
+    * <p>This is called by checkOut before returning an object that was checked
+    * in. If it returns false, the object is closed and another object is used.
+    * It is not called for newly created objects. The default implementation
+    * returns true.</p>
+    *
+    * @param obj The object.
+    * @return Whether the object can be used.
+    */
+   protected boolean validateObject(Object obj)
+   {
+      return true;
+   }
+
+   /**
+    * Called after the pool has closed an object and no longer controls it.
+    *
+    * <p>Subclasses can override this to release any resources they associate
+    * with the object. The default implementation does nothing.</p>
+    *
+    * @param obj The object.
+    */
+   protected void objectClosed(Object obj)
+   {
+   }
+
    /**
     * Remove all objects from the pool.
     *
@@ -162,7 +392,7 @@ public abstract class Pool
     * are checked in or out. It ignores any errors encountered while closing
     * objects.</p>
     */
-   protected void clear()
+   protected synchronized void clear()
    {
       // Close all objects under control of the pool
       closeCheckedInObjects();
@@ -171,6 +401,9 @@ public abstract class Pool
       // Clear the hashtables
       m_objects.clear();
       m_checked.clear();
+      m_idleSince.clear();
+      m_size = 0;
+      notifyAll();
    }
 
    /**
@@ -185,62 +418,241 @@ public abstract class Pool
    protected void remove(Object object)
       throws XMLMiddlewareException
    {
-      if (!m_checked.containsKey(object))
+      // Remove it from the checked queue. Note that we do not need to remove
+      // the object from m_objects, since it is guaranteed to have been checked out.
+
+      if (m_checked.remove(object) == null)
          throw new XMLMiddlewareException("Object not in pool");
 
       // Close the object. Ignore any errors, since the object may no
       // longer be in a valid state.
 
-      try
+      discard(object);
+   }
+
+   /**
+    * Close and remove all checked in objects with the specified ID.
+    *
+    * <p>Objects with the ID that are currently checked out are not affected.
+    * This method ignores any errors encountered while closing objects.</p>
+    *
+    * @param id The ID.
+    */
+   protected void removeCheckedIn(Object id)
+   {
+      Stack stack;
+
+      synchronized (this)
       {
-         closeObject(object);
+         stack = (Stack)m_objects.remove(id);
+         if (stack == null) return;
+         for (int i = 0; i < stack.size(); i++)
+         {
+            m_idleSince.remove(stack.elementAt(i));
+         }
+         m_size -= stack.size();
+         notifyAll();
       }
-      catch (XMLMiddlewareException e)
+
+      while(!stack.empty())
       {
+         closeQuietly(stack.pop());
       }
-
-      // Remove it from the checked queue. Note that we do not need to remove
-      // the object from m_objects, since it is guaranteed to have been checked out.
-
-      m_checked.remove(object);
    }
 
    /**
     * Close all objects checked in to the pool.
     */
-   protected void closeCheckedInObjects()
+   protected synchronized void closeCheckedInObjects()
    {
       for(Enumeration e = m_objects.elements(); e.hasMoreElements(); )
       {
          Stack stack = (Stack)e.nextElement();
          while(!stack.empty())
          {
-            try
-            {
-               closeObject(stack.pop());
-            }
-            catch (XMLMiddlewareException p)
-            {
-            }
+            Object obj = stack.pop();
+            m_idleSince.remove(obj);
+            m_size--;
+            closeQuietly(obj);
          }
       }
+      notifyAll();
    }
 
    /**
     * Close all objects checked out of the pool.
     */
-   protected void closeCheckedOutObjects()
+   protected synchronized void closeCheckedOutObjects()
    {
       for(Enumeration e = m_checked.keys(); e.hasMoreElements(); )
       {
-         try
+         closeQuietly(e.nextElement());
+      }
+   }
+
+   //**************************************************************************
+   // Private methods
+   //**************************************************************************
+
+   private Object reserve(Object id)
+      throws XMLMiddlewareException
+   {
+      Object   obj, waiter;
+      long     deadline, remaining;
+
+      // Must be called while holding the lock. If no other threads are waiting,
+      // try to get an object immediately.
+
+      if (m_waiters.isEmpty())
+      {
+         obj = take(id);
+         if (obj != null) return obj;
+      }
+
+      if (m_waitTimeout == 0)
+         throw new XMLMiddlewareException("Pool is full. Maximum size: " + m_maxSize);
+
+      // Wait in line. Only the thread at the head of the line may take an
+      // object, so threads are served in the order in which they arrived.
+
+      waiter = new Object();
+      m_waiters.addElement(waiter);
+      deadline = System.currentTimeMillis() + m_waitTimeout;
+      try
+      {
+         while (true)
          {
-            closeObject(e.nextElement());
+            if (m_waiters.firstElement() == waiter)
+            {
+               obj = take(id);
+               if (obj != null) return obj;
+            }
+
+            if (m_waitTimeout < 0)
+            {
+               wait();
+            }
+            else
+            {
+               remaining = deadline - System.currentTimeMillis();
+               if (remaining <= 0)
+                  throw new XMLMiddlewareException("Timed out after " + m_waitTimeout + " ms waiting for an object from the pool. Maximum size: " + m_maxSize);
+               wait(remaining);
+            }
          }
-         catch (XMLMiddlewareException p)
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new XMLMiddlewareException(e);
+      }
+      finally
+      {
+         // Let the next thread in line try.
+
+         m_waiters.removeElement(waiter);
+         notifyAll();
+      }
+   }
+
+   private Object take(Object id)
+   {
+      Stack       stack;
+      Enumeration e;
+      Object      obj;
+
+      // Must be called while holding the lock. Use a checked in object with
+      // the same ID if there is one. The most recently used object is on top.
+
+      stack = (Stack)m_objects.get(id);
+      if ((stack != null) && !stack.empty())
+      {
+         obj = stack.pop();
+         m_idleSince.remove(obj);
+         return obj;
+      }
+
+      // If there is room, reserve a slot for a new object.
+
+      if ((m_maxSize == 0) || (m_size < m_maxSize))
+      {
+         m_size++;
+         return CREATE;
+      }
+
+      // The pool is full. If there is a checked in object with a different ID,
+      // close it to make room. This is rare, so we close it while holding the lock.
+
+      for (e = m_objects.elements(); e.hasMoreElements(); )
+      {
+         stack = (Stack)e.nextElement();
+         if (!stack.empty())
          {
+            obj = stack.elementAt(0);
+            stack.removeElementAt(0);
+            m_idleSince.remove(obj);
+            closeQuietly(obj);
+            return CREATE;
          }
       }
+
+      return null;
+   }
+
+   private Object create(Object id)
+      throws XMLMiddlewareException
+   {
+      // Create the object in the slot reserved for it. If this fails,
+      // release the slot.
+
+      try
+      {
+         return createObject(id);
+      }
+      catch (XMLMiddlewareException e)
+      {
+         release();
+         throw e;
+      }
+      catch (RuntimeException e)
+      {
+         release();
+         throw e;
+      }
+   }
+
+   private void discard(Object obj)
+   {
+      closeQuietly(obj);
+      release();
+   }
+
+   private synchronized void release()
+   {
+      m_size--;
+      notifyAll();
+   }
+
+   private void closeQuietly(Object obj)
+   {
+      try
+      {
+         closeObject(obj);
+      }
+      catch (XMLMiddlewareException e)
+      {
+      }
+      objectClosed(obj);
+   }
+
+   private void evictIdleObjectsIfDue()
+   {
+      // Don't scan the pool on every check out.
+
+      if ((m_idleTimeout > 0) && (System.currentTimeMillis() >= m_nextEviction))
+      {
+         evictIdleObjects();
+      }
    }
 
    //**************************************************************************
@@ -254,4 +666,19 @@ public abstract class Pool
    // Checked out objects
    // A Hashtable of id's indexed by object (for checking back in)
    protected Hashtable m_checked;
+
+   // Times (Longs) at which checked in objects were checked in, indexed by object
+   private Hashtable m_idleSince = new Hashtable();
+
+   // Threads waiting for an object, in order of arrival
+   private Vector m_waiters = new Vector();
+
+   // Number of objects checked in, checked out, or being created
+   private int m_size = 0;
+
+   private int  m_maxSize = 0;
+   private int  m_minSize = 0;
+   private long m_waitTimeout = DEFAULT_WAITTIMEOUT;
+   private long m_idleTimeout = 0;
+   private long m_nextEviction = 0;
 }
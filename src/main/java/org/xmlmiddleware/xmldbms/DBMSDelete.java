@@ -24,6 +24,7 @@ import org.xmlmiddleware.xmldbms.actions.*;
 import org.xmlmiddleware.xmldbms.datahandlers.*;
 import org.xmlmiddleware.xmldbms.filters.*;
 import org.xmlmiddleware.xmldbms.maps.*;
+import org.xmlmiddleware.xmldbms.maps.utils.*;
 import org.xmlmiddleware.xmlutils.*;
 
 import java.sql.*;
@@ -74,6 +75,26 @@ import java.util.*;
  *    dbmsDelete.deleteDocument(dbMap, filterSet, params, actions);
  * </pre>
  *
+ * <p>By default, DBMSDelete walks the hierarchy one row at a time: it selects
+ * the rows in each table and deletes the child rows of each row separately.
+ * If set-based deletes are turned on (see setSetBased), DBMSDelete instead
+ * compiles the hierarchy of tables under each root filter into one DELETE
+ * statement per table, such as:</p>
+ *
+ * <pre>
+ *    DELETE FROM Lines WHERE EXISTS (SELECT * FROM Orders P1
+ *       WHERE P1.Number = Lines.SONumber AND (Number = ?))
+ * </pre>
+ *
+ * <p>These are executed from the bottom of the hierarchy up, so the number of
+ * statements depends on the number of tables, not the number of rows. Filter
+ * conditions are applied to each table as before. Set-based deletes require
+ * that every table to be deleted contains the foreign key that links it to its
+ * parent table, that the map is not recursive, that linked tables are in the
+ * same database, and that the DataHandler extends DataHandlerBase. If this is
+ * not true for a root filter, the rows for that filter are deleted one at a
+ * time.</p>
+ *
  * @author Tobias Schilgen
  * @author Ronald Bourret
  * @author Jiri Zoth
@@ -91,6 +112,17 @@ public class DBMSDelete
    private DBEnabledMap dbMap = null;
    private Actions      actions;
    private FilterBase   filterBase;
+   private boolean      setBased = false;
+
+   // ************************************************************************
+   // Constants
+   // ************************************************************************
+
+   private static final String ALIAS = "P";
+   private static final String ALLROWS = "1 = 1";
+   private static final String AND = " AND ";
+   private static final String OPENPAREN = "(";
+   private static final String CLOSEPAREN = ")";
 
    // ************************************************************************
    // Constructors
@@ -135,6 +167,29 @@ public class DBMSDelete
       return commitMode;
    }
 
+   /**
+    * Set whether rows are deleted with one statement per table.
+    *
+    * <p>See the introduction for details. If this is not set, rows are deleted
+    * one at a time.</p>
+    *
+    * @param setBased Whether to use set-based deletes.
+    */
+   public void setSetBased(boolean setBased)
+   {
+      this.setBased = setBased;
+   }
+
+   /**
+    * Whether rows are deleted with one statement per table.
+    *
+    * @return Whether set-based deletes are used.
+    */
+   public boolean isSetBased()
+   {
+      return setBased;
+   }
+
    /**
     * Delete a document based on the specified map, filter, and action.
     *
@@ -313,7 +368,10 @@ public class DBMSDelete
 
          if (filter instanceof RootFilter)
          {
-            processRootTable((RootFilter)filter);
+            if (!setBased || !deleteSetBased((RootFilter)filter))
+            {
+               processRootTable((RootFilter)filter);
+            }
          }
       }
    }
@@ -443,7 +501,7 @@ public class DBMSDelete
          // We do not need to process leaf tables -- all we need to do for leaf
          // tables is save the information to delete them
 
-         if (!isLeafTable(relatedClassTableMap));
+         if (!isLeafTable(relatedClassTableMap))
          {
             processRelatedClassTable(classRow, relatedClassTableMap, relatedTableFilter, pkChildren);
          }
@@ -564,6 +622,220 @@ public class DBMSDelete
       }
    }
 
+   // ************************************************************************
+   // Methods to delete with set-based statements
+   // ************************************************************************
+
+   // These methods walk the tables in the map rather than the rows in the
+   // database. They visit tables in the same order as the row-by-row methods
+   // and build a RowInfo for each table to be deleted. The WHERE clause of the
+   // RowInfo restricts the table to rows whose ancestors meet the filter
+   // conditions, using nested EXISTS conditions. Since child tables are deleted
+   // before their parents, the ancestors still exist when each child table is
+   // deleted.
+   //
+   // If a table cannot be deleted this way, the methods return false. Nothing has
+   // been deleted at that point, so the caller deletes the rows one at a time.
+
+   private boolean deleteSetBased(RootFilter rootFilter)
+      throws SQLException, XMLMiddlewareException
+   {
+      FilterConditions rootConditions;
+      Table            rootTable;
+      ClassTableMap    rootTableMap;
+      Vector           path = new Vector(), rowInfos = new Vector();
+      int              action;
+
+      // Get the filter over the root table, the root table, and the
+      // ClassTableMap for the root table. Also get the action.
+
+      rootConditions = rootFilter.getRootFilterConditions();
+      rootTable = rootConditions.getTable();
+      rootTableMap = map.getClassTableMap(rootTable);
+      action = getActionFor(rootTableMap.getElementTypeName());
+
+      // Build the DELETE statements for the descendants of the root table,
+      // followed by the DELETE statement for the root table.
+
+      path.addElement(new PathEntry(rootTable, null, rootConditions));
+      if (!compileClassTable(rootTableMap, path, rowInfos)) return false;
+      if ((action == Action.DELETE) || (action == Action.SOFTDELETE))
+      {
+         if (!compileDelete(action, path, rowInfos)) return false;
+      }
+
+      // Execute the statements.
+
+      deleteRows(rowInfos);
+      return true;
+   }
+
+   private boolean compileClassTable(ClassTableMap classTableMap, Vector path, Vector rowInfos)
+      throws XMLMiddlewareException
+   {
+      TableFilter          classTableFilter;
+      Enumeration          e;
+      RelatedClassTableMap relatedClassTableMap;
+      PropertyTableMap     propTableMap;
+      ClassTableMap        childTableMap;
+      RelatedTableFilter   relatedTableFilter;
+      int                  action;
+      boolean              compiled;
+
+      classTableFilter = filterBase.getTableFilter(classTableMap.getTable());
+
+      // Process the related class tables. As in processRelatedClassTables, the
+      // descendants of a related table are processed even if the related table
+      // itself is not deleted.
+
+      e = classTableMap.getRelatedClassTableMaps();
+      while (e.hasMoreElements())
+      {
+         relatedClassTableMap = (RelatedClassTableMap)e.nextElement();
+         relatedTableFilter = (classTableFilter == null) ?
+                               null :
+                               classTableFilter.getRelatedTableFilter(relatedClassTableMap);
+         childTableMap = relatedClassTableMap.getClassTableMap();
+         action = getActionFor(relatedClassTableMap.getElementTypeName());
+
+         // If the map is recursive, there is no fixed set of statements.
+
+         if (isOnPath(path, childTableMap.getTable())) return false;
+
+         path.addElement(new PathEntry(childTableMap.getTable(), relatedClassTableMap.getLinkInfo(), relatedTableFilter));
+         compiled = compileClassTable(childTableMap, path, rowInfos);
+         if (compiled && ((action == Action.DELETE) || (action == Action.SOFTDELETE)))
+         {
+            compiled = compileDelete(action, path, rowInfos);
+         }
+         path.removeElementAt(path.size() - 1);
+         if (!compiled) return false;
+      }
+
+      // Process the property tables. As in processPropertyTables, these use
+      // the action for the parent class.
+
+      action = getActionFor(classTableMap.getElementTypeName());
+      if ((action != Action.DELETE) && (action != Action.SOFTDELETE)) return true;
+
+      e = classTableMap.getPropertyTableMaps();
+      while (e.hasMoreElements())
+      {
+         propTableMap = (PropertyTableMap)e.nextElement();
+         relatedTableFilter = (classTableFilter == null) ?
+                               null :
+                               classTableFilter.getRelatedTableFilter(propTableMap);
+
+         path.addElement(new PathEntry(propTableMap.getTable(), propTableMap.getLinkInfo(), relatedTableFilter));
+         compiled = compileDelete(action, path, rowInfos);
+         path.removeElementAt(path.size() - 1);
+         if (!compiled) return false;
+      }
+
+      return true;
+   }
+
+   private boolean compileDelete(int action, Vector path, Vector rowInfos)
+      throws XMLMiddlewareException
+   {
+      PathEntry    entry;
+      DataHandler  dataHandler;
+      DMLGenerator dml;
+      String       where;
+      Vector       columns = new Vector(), params = new Vector();
+
+      // Build a RowInfo that deletes the rows in the last table in the path.
+
+      entry = (PathEntry)path.lastElement();
+
+      // The rows in a child table are identified by the rows in its parent table.
+      // If the child table contains the primary key, its rows must be deleted
+      // after the parent rows, at which point they can no longer be identified.
+
+      if ((entry.linkInfo != null) && !entry.linkInfo.parentKeyIsUnique()) return false;
+
+      // A single statement can only use tables in a single database. We also need
+      // the DMLGenerator to build the statement.
+
+      for (int i = 0; i < path.size() - 1; i++)
+      {
+         if (!isSameDatabase(((PathEntry)path.elementAt(i)).table, entry.table)) return false;
+      }
+
+      dataHandler = dbMap.getDataHandler(entry.table.getDatabaseName());
+      if (!(dataHandler instanceof DataHandlerBase)) return false;
+      dml = ((DataHandlerBase)dataHandler).getDMLGenerator();
+
+      // Build the WHERE clause and the RowInfo.
+
+      where = buildWhere(path, path.size() - 1, dml.getTableName(entry.table), dml, columns, params);
+      if (where == null) where = ALLROWS;
+      rowInfos.addElement(new RowInfo(action, entry.table, where, columns, params));
+      return true;
+   }
+
+   private String buildWhere(Vector path, int index, String name, DMLGenerator dml, Vector columns, Vector params)
+      throws XMLMiddlewareException
+   {
+      PathEntry entry, parent;
+      String    where = null, condition, alias;
+
+      // Build the conditions for the table at index in the path. name is the
+      // name or correlation name by which the table is referred to.
+
+      entry = (PathEntry)path.elementAt(index);
+
+      // Add the filter conditions on the table. Unqualified column names in
+      // these refer to the table. Parameters are added in the order in which
+      // their markers (?) occur in the WHERE clause.
+
+      if (entry.conditions != null)
+      {
+         condition = entry.conditions.getWhereCondition();
+         if (condition.length() != 0)
+         {
+            where = OPENPAREN + condition + CLOSEPAREN;
+            if (entry.conditions.getColumns() != null)
+            {
+               copyElements(columns, entry.conditions.getColumns());
+               copyElements(params, entry.conditions.getParameterValues());
+            }
+         }
+      }
+
+      // Link the table to its parent table. The parent table's rows are
+      // restricted by its own conditions and its link to its parent, and so on
+      // up to the root table.
+
+      if (index > 0)
+      {
+         parent = (PathEntry)path.elementAt(index - 1);
+         alias = ALIAS + index;
+         condition = dml.getExistsLink(parent.table, alias, entry.linkInfo.getParentKey(),
+                                       name, entry.linkInfo.getChildKey(),
+                                       buildWhere(path, index - 1, alias, dml, columns, params));
+         where = (where == null) ? condition : where + AND + condition;
+      }
+
+      return where;
+   }
+
+   private boolean isOnPath(Vector path, Table table)
+   {
+      for (int i = 0; i < path.size(); i++)
+      {
+         if (((PathEntry)path.elementAt(i)).table == table) return true;
+      }
+      return false;
+   }
+
+   private boolean isSameDatabase(Table table1, Table table2)
+   {
+      String dbName1 = table1.getDatabaseName(), dbName2 = table2.getDatabaseName();
+
+      return (dbName1 == null) ? (dbName2 == null) : dbName1.equals(dbName2);
+   }
+
    // ************************************************************************
    // Helper methods
    // ************************************************************************
@@ -690,6 +962,17 @@ public class DBMSDelete
       Vector columns = null;
       Vector params = null;
 
+      RowInfo(int action, Table table, String where, Vector columns, Vector params)
+      {
+         // Used for set-based deletes. The WHERE clause identifies all the rows.
+
+         this.action = action;
+         this.table = table;
+         this.where = where;
+         this.columns = columns;
+         this.params = params;
+      }
+
       RowInfo(int action, Table table, LinkInfo linkInfo, Row parentRow, FilterConditions filterConditions)
          throws XMLMiddlewareException
       {
@@ -722,4 +1005,20 @@ public class DBMSDelete
          }
       }
    }
-}
\ No newline at end of file
+
+   // A table in the path from the root table to the table being deleted.
+
+   class PathEntry
+   {
+      Table            table;
+      LinkInfo         linkInfo;    // Link to the parent table. Null for the root table.
+      FilterConditions conditions;  // May be null.
+
+      PathEntry(Table table, LinkInfo linkInfo, FilterConditions conditions)
+      {
+         this.table = table;
+         this.linkInfo = linkInfo;
+         this.conditions = conditions;
+      }
+   }
+}
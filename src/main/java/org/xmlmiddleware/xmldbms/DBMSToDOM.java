@@ -21,6 +21,7 @@
 // * Replaced DocumentFactory with ParserUtils.
 // Changes from version 1.1:
 // * Heavily updated for new map objects / DTD features
+// * Added block fetch mode
 
 package org.xmlmiddleware.xmldbms;
 
@@ -36,6 +37,8 @@ import org.w3c.dom.*;
 
 import org.xml.sax.SAXException;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
@@ -110,6 +113,7 @@ public class DBMSToDOM
    private FragmentBuilder fragmentBuilder;
    private String          publicID;
    private String          systemID;
+   private int             blockSize = 0;
 
    // ************************************************************************
    // Constants
@@ -121,6 +125,8 @@ public class DBMSToDOM
    private static String FAKEENDTAG = "</fake>";
    private static String XMLNS = "xmlns:";
    private static String XMLNSURI = "http://www.w3.org/2000/xmlns/";
+   private static String NUMBERPREFIX = "#";
+   private static final BigInteger TEN = BigInteger.valueOf(10);
 
    private static final XMLName PCDATA = XMLName.create(null, "#PCDATA");
 
@@ -163,6 +169,42 @@ public class DBMSToDOM
       this.publicID = publicID;
    }
 
+   /**
+    * Set the block size.
+    *
+    * <p>If the block size is greater than 1, DBMSToDOM reads class rows in
+    * blocks of up to this many rows. For each related class table and property
+    * table, the child rows of all rows in a block are retrieved with a single
+    * SELECT statement of the form "WHERE Key IN (?, ...)" and are then
+    * distributed to their parents. This replaces one SELECT per parent row with
+    * one SELECT per block. The resulting document is the same.</p>
+    *
+    * <p>Child rows are matched to parent rows by comparing key values in Java.
+    * Numeric key values are compared by value, regardless of their Java type.
+    * All other key values must be equal according to Object.equals. Thus,
+    * block mode should not be used if the database matches key values that
+    * Java does not, such as CHAR values that differ only by trailing spaces.</p>
+    *
+    * <p>The default is 0, which means the child rows of each row are retrieved
+    * separately.</p>
+    *
+    * @param blockSize The block size.
+    */
+   public void setBlockSize(int blockSize)
+   {
+      this.blockSize = blockSize;
+   }
+
+   /**
+    * Get the block size.
+    *
+    * @return The block size.
+    */
+   public int getBlockSize()
+   {
+      return blockSize;
+   }
+
    /**
     * Retrieve a document based on the specified filters.
     *
@@ -381,12 +423,17 @@ public class DBMSToDOM
    {
       Row         classRow;
       Table       table;
-      Node        realClassNode;
       OrderedNode classNode;
-      long        orderValue;
-      boolean     ascending;
       TableFilter classTableFilter;
 
+      // If we are retrieving data in blocks, use the block methods.
+
+      if (blockSize > 1)
+      {
+         processClassResultSetInBlocks(parentNode, rs, classElementName, classElementOrder, classTableMap);
+         return;
+      }
+
       // Create a new row.
 
       classRow = new Row();
@@ -401,19 +448,10 @@ public class DBMSToDOM
          classRow.removeAllColumnValues();
          classRow.setColumnValues(rs, table, map.emptyStringIsNull());
 
-         // Create an element node for the row, get the order information, and
-         // insert the node into the parent node. An OrderedNode is returned.
-
-         realClassNode = doc.createElementNS(classElementName.getURI(),
-                                             classElementName.getQualifiedName());
-         orderValue = getOrderValue(classRow, classElementOrder);
-         ascending = getAscending(classElementOrder);
-         classNode = parentNode.insertChild(classElementName, realClassNode, orderValue, ascending);
+         // Create an element node for the row and process the columns in the
+         // row, then process the related tables for the row.
 
-         // Process the columns in the row, then process the related tables
-         // for the row.
-
-         processColumns(classNode, classRow, classTableMap.getColumnMaps());
+         classNode = addClassElement(parentNode, classRow, classElementName, classElementOrder, classTableMap);
 
          classTableFilter = filterBase.getTableFilter(table.getDatabaseName(), table.getCatalogName(), table.getSchemaName(), table.getTableName());
          processRelatedTables(classNode, classRow, classTableMap, classTableFilter);
@@ -425,6 +463,29 @@ public class DBMSToDOM
       }
    }
 
+   private OrderedNode addClassElement(OrderedNode parentNode, Row classRow, XMLName classElementName, OrderInfo classElementOrder, ClassTableMap classTableMap)
+      throws SQLException, XMLMiddlewareException
+   {
+      Node        realClassNode;
+      OrderedNode classNode;
+      long        orderValue;
+      boolean     ascending;
+
+      // Create an element node for the row, get the order information, and
+      // insert the node into the parent node. An OrderedNode is returned.
+
+      realClassNode = doc.createElementNS(classElementName.getURI(),
+                                          classElementName.getQualifiedName());
+      orderValue = getOrderValue(classRow, classElementOrder);
+      ascending = getAscending(classElementOrder);
+      classNode = parentNode.insertChild(classElementName, realClassNode, orderValue, ascending);
+
+      // Process the columns in the row.
+
+      processColumns(classNode, classRow, classTableMap.getColumnMaps());
+      return classNode;
+   }
+
    private void processColumns(OrderedNode classNode, Row classRow, Enumeration columnMaps)
       throws SQLException, XMLMiddlewareException
    {
@@ -666,6 +727,349 @@ public class DBMSToDOM
       }
    }
 
+   // ************************************************************************
+   // Block processing methods
+   // ************************************************************************
+
+   // In block mode, class rows are processed in blocks. The processing flow is:
+   //
+   //                                        1.
+   //    --->processClassResultSetInBlocks --> addClassElement
+   //    |            2. |
+   //    |               v
+   //    |         processBlock-----------------
+   //    |            3. |                      |
+   //    |               v                   5. |
+   //    |---processRelatedClassTableBlock      |
+   //      4.                                   v
+   //                              processPropertyTableBlock --> processColumn
+   //
+   // Each block is a Vector of ClassRows. The columns of each row are processed
+   // when its element is added. processBlock then retrieves the child rows of
+   // the whole block, one related table at a time. Because the children of any
+   // single parent are added in the same order as in row-at-a-time mode, and
+   // nodes in different subtrees do not affect each other's position, the
+   // resulting DOM tree is the same.
+
+   private void processClassResultSetInBlocks(OrderedNode parentNode, ResultSet rs, XMLName classElementName, OrderInfo classElementOrder, ClassTableMap classTableMap)
+      throws SQLException, XMLMiddlewareException
+   {
+      Vector      block = new Vector(blockSize);
+      Table       table;
+      Row         classRow;
+      OrderedNode classNode;
+
+      table = classTableMap.getTable();
+
+      while (rs.next())
+      {
+         // Read the row and add its element. Each row in a block needs its own
+         // Row object, since the row is used again when the block is processed.
+
+         classRow = new Row();
+         classRow.setColumnValues(rs, table, map.emptyStringIsNull());
+         classNode = addClassElement(parentNode, classRow, classElementName, classElementOrder, classTableMap);
+         block.addElement(new ClassRow(classNode, classRow));
+
+         if (block.size() >= blockSize)
+         {
+            processBlock(block, classTableMap);
+            block.removeAllElements();
+         }
+      }
+
+      if (block.size() > 0)
+      {
+         processBlock(block, classTableMap);
+      }
+   }
+
+   private void processBlock(Vector block, ClassTableMap classTableMap)
+      throws SQLException, XMLMiddlewareException
+   {
+      Table                table;
+      TableFilter          classTableFilter;
+      Enumeration          relatedClassTableMaps, propTableMaps;
+      RelatedClassTableMap relatedClassTableMap;
+      PropertyTableMap     propTableMap;
+      RelatedTableFilter   relatedTableFilter;
+
+      table = classTableMap.getTable();
+      classTableFilter = filterBase.getTableFilter(table.getDatabaseName(), table.getCatalogName(), table.getSchemaName(), table.getTableName());
+
+      // Process the related class tables. These are processed in the same
+      // order as in processRelatedTables.
+
+      relatedClassTableMaps = classTableMap.getRelatedClassTableMaps();
+      while (relatedClassTableMaps.hasMoreElements())
+      {
+         relatedClassTableMap = (RelatedClassTableMap)relatedClassTableMaps.nextElement();
+         relatedTableFilter = (classTableFilter == null) ?
+                               null :
+                               classTableFilter.getRelatedTableFilter(relatedClassTableMap);
+         processRelatedClassTableBlock(block, relatedClassTableMap, relatedTableFilter);
+      }
+
+      // Process the property tables.
+
+      propTableMaps = classTableMap.getPropertyTableMaps();
+      while (propTableMaps.hasMoreElements())
+      {
+         propTableMap = (PropertyTableMap)propTableMaps.nextElement();
+         relatedTableFilter = (classTableFilter == null) ?
+                               null :
+                               classTableFilter.getRelatedTableFilter(propTableMap);
+         processPropertyTableBlock(block, propTableMap, relatedTableFilter);
+      }
+
+      // We are done processing the classes in this block. Clear their children
+      // in the ordered DOM tree.
+
+      for (int i = 0; i < block.size(); i++)
+      {
+         ((ClassRow)block.elementAt(i)).node.clearChildren();
+      }
+   }
+
+   private void processRelatedClassTableBlock(Vector block, RelatedClassTableMap relatedClassTableMap, RelatedTableFilter relatedTableFilter)
+      throws SQLException, XMLMiddlewareException
+   {
+      Hashtable     parentNodes = new Hashtable();
+      Vector        keyValues = new Vector(), childBlock, nodes;
+      ClassTableMap childClassTableMap;
+      Table         childTable;
+      LinkInfo      linkInfo;
+      Key           childKey;
+      DataHandler   dataHandler;
+      OrderInfo     orderInfo;
+      XMLName       elementName;
+      String        where = null;
+      Vector        columns = null;
+      Vector        params = null;
+      ResultSet     rs;
+      Row           childRow;
+      OrderedNode   childNode;
+
+      // Add any inlined elements and group the parent nodes by key value.
+
+      linkInfo = relatedClassTableMap.getLinkInfo();
+      addParentNodes(block, relatedClassTableMap.getElementInsertionList(), linkInfo.getParentKey(), parentNodes, keyValues);
+      if (keyValues.size() == 0) return;
+
+      // Get the DataHandler used by the table
+
+      childClassTableMap = relatedClassTableMap.getClassTableMap();
+      childTable = childClassTableMap.getTable();
+      childKey = linkInfo.getChildKey();
+      dataHandler = dbMap.getDataHandler(childTable.getDatabaseName());
+
+      // Get the result set over the related class table for all parents in
+      // the block.
+
+      if (relatedTableFilter != null)
+      {
+         where = relatedTableFilter.getWhereCondition();
+         columns = relatedTableFilter.getColumns();
+         params = relatedTableFilter.getParameterValues();
+      }
+      orderInfo = relatedClassTableMap.getOrderInfo();
+      elementName = relatedClassTableMap.getElementTypeName();
+
+      rs = dataHandler.selectForKeys(childTable, childKey, keyValues, where, columns, params, orderInfo);
+
+      // Add an element for each child row to each of its parents. (More than
+      // one parent can have the same key value if the parent key is a foreign
+      // key.) The child elements form the next block, which is processed
+      // whenever it is full.
+
+      childBlock = new Vector(blockSize);
+      while (rs.next())
+      {
+         childRow = new Row();
+         childRow.setColumnValues(rs, childTable, map.emptyStringIsNull());
+         nodes = (Vector)parentNodes.get(getKeyHash(childRow.getColumnValues(childKey.getColumns())));
+         if (nodes == null) continue;
+
+         for (int i = 0; i < nodes.size(); i++)
+         {
+            childNode = addClassElement((OrderedNode)nodes.elementAt(i), childRow, elementName, orderInfo, childClassTableMap);
+            childBlock.addElement(new ClassRow(childNode, childRow));
+         }
+
+         if (childBlock.size() >= blockSize)
+         {
+            processBlock(childBlock, childClassTableMap);
+            childBlock.removeAllElements();
+         }
+      }
+      rs.close();
+
+      if (childBlock.size() > 0)
+      {
+         processBlock(childBlock, childClassTableMap);
+      }
+   }
+
+   private void processPropertyTableBlock(Vector block, PropertyTableMap propTableMap, RelatedTableFilter relatedTableFilter)
+      throws SQLException, XMLMiddlewareException
+   {
+      Hashtable   parentNodes = new Hashtable();
+      Vector      keyValues = new Vector(), nodes;
+      Table       propTable;
+      LinkInfo    linkInfo;
+      Key         propTableKey;
+      DataHandler dataHandler;
+      OrderInfo   rsOrderInfo;
+      String      where = null;
+      Vector      columns = null;
+      Vector      params = null;
+      ResultSet   rs;
+      Row         row = new Row();
+
+      // Add any inlined elements and group the parent nodes by key value.
+
+      linkInfo = propTableMap.getLinkInfo();
+      addParentNodes(block, propTableMap.getElementInsertionList(), linkInfo.getParentKey(), parentNodes, keyValues);
+      if (keyValues.size() == 0) return;
+
+      // Get the DataHandler used by the table
+
+      propTable = propTableMap.getTable();
+      propTableKey = linkInfo.getChildKey();
+      dataHandler = dbMap.getDataHandler(propTable.getDatabaseName());
+
+      // Get the result set over the property table for all parents in the
+      // block. See processPropertyTable for how the result set is sorted.
+
+      if (relatedTableFilter != null)
+      {
+         where = relatedTableFilter.getWhereCondition();
+         columns = relatedTableFilter.getColumns();
+         params = relatedTableFilter.getParameterValues();
+      }
+      rsOrderInfo = (propTableMap.isTokenList()) ? propTableMap.getTokenListOrderInfo() :
+                                                   propTableMap.getOrderInfo();
+
+      rs = dataHandler.selectForKeys(propTable, propTableKey, keyValues, where, columns, params, rsOrderInfo);
+
+      // Add each property value to each of its parents.
+
+      while (rs.next())
+      {
+         row.removeAllColumnValues();
+         row.setColumnValues(rs, propTable, map.emptyStringIsNull());
+         nodes = (Vector)parentNodes.get(getKeyHash(row.getColumnValues(propTableKey.getColumns())));
+         if (nodes == null) continue;
+
+         for (int i = 0; i < nodes.size(); i++)
+         {
+            processColumn((OrderedNode)nodes.elementAt(i), row, propTableMap);
+         }
+      }
+      rs.close();
+   }
+
+   private void addParentNodes(Vector block, ElementInsertionList list, Key parentKey, Hashtable parentNodes, Vector keyValues)
+   {
+      ClassRow    classRow;
+      OrderedNode parentNode;
+      Vector      keyValue, nodes;
+      Object      keyHash;
+
+      for (int i = 0; i < block.size(); i++)
+      {
+         // Add any inlined elements between the class element and the child
+         // elements. This is done even if the row has no children, as in
+         // processRelatedClassTable and processPropertyTable.
+
+         classRow = (ClassRow)block.elementAt(i);
+         parentNode = addInlinedElements(classRow.node, classRow.row, list);
+
+         // Rows with a NULL key value can't have children.
+
+         keyValue = classRow.row.getColumnValues(parentKey.getColumns());
+         keyHash = getKeyHash(keyValue);
+         if (keyHash == null) continue;
+
+         // Add the parent node to the list of nodes for the key value. Each
+         // key value is retrieved only once.
+
+         nodes = (Vector)parentNodes.get(keyHash);
+         if (nodes == null)
+         {
+            nodes = new Vector();
+            parentNodes.put(keyHash, nodes);
+            keyValues.addElement(keyValue);
+         }
+         nodes.addElement(parentNode);
+      }
+   }
+
+   private Object getKeyHash(Vector keyValue)
+   {
+      Vector keyHash = new Vector(keyValue.size());
+      Object value;
+
+      // Build an object that can be used as a hashtable key for a key value.
+      // Numeric values are normalized, since the parent and child columns
+      // might be retrieved as different Java types, such as Integer and
+      // BigDecimal. Returns null if any column in the key is null.
+
+      for (int i = 0; i < keyValue.size(); i++)
+      {
+         value = keyValue.elementAt(i);
+         if (value == null) return null;
+         if ((value instanceof Number) && !(value instanceof BigDecimal))
+         {
+            if ((value instanceof Double) || (value instanceof Float))
+            {
+               value = new BigDecimal(value.toString());
+            }
+            else if (value instanceof BigInteger)
+            {
+               value = new BigDecimal((BigInteger)value);
+            }
+            else
+            {
+               value = BigDecimal.valueOf(((Number)value).longValue());
+            }
+         }
+         if (value instanceof BigDecimal)
+         {
+            // BigDecimal.equals compares scale as well as value, so use the
+            // string form of the unscaled value with trailing zeros removed.
+
+            value = getNumberString((BigDecimal)value);
+         }
+         keyHash.addElement(value);
+      }
+      return keyHash;
+   }
+
+   private String getNumberString(BigDecimal value)
+   {
+      BigInteger unscaled;
+      int        scale;
+
+      // Build a string from the unscaled value and the scale after removing
+      // trailing zeros, so that values such as 1, 1.0, and 1.00 give the same
+      // string. Prefix the result so that it can't be equal to a String key value.
+
+      unscaled = value.unscaledValue();
+      scale = value.scale();
+      while ((scale > 0) && (unscaled.mod(TEN).signum() == 0))
+      {
+         unscaled = unscaled.divide(TEN);
+         scale--;
+      }
+      while (scale < 0)
+      {
+         unscaled = unscaled.multiply(TEN);
+         scale++;
+      }
+      return NUMBERPREFIX + unscaled.toString() + SPACE + String.valueOf(scale);
+   }
+
    // ************************************************************************
    // Helper methods -- initialization
    // ************************************************************************
@@ -1118,9 +1522,23 @@ public class DBMSToDOM
    }
 
    // ************************************************************************
-   // Inner class
+   // Inner classes
    // ************************************************************************
 
+   class ClassRow
+   {
+      // A class row in block mode: the row's data and the node for the row.
+
+      OrderedNode node;
+      Row         row;
+
+      ClassRow(OrderedNode node, Row row)
+      {
+         this.node = node;
+         this.row = row;
+      }
+   }
+
    class OrderedNode
    {
       // This class wraps a DOM node, adding an order value. The order value gives
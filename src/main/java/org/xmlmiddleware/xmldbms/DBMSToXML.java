@@ -0,0 +1,1255 @@
+// This software is in the public domain.
+//
+// The software is provided "as is", without warranty of any kind,
+// express or implied, including but not limited to the warranties
+// of merchantability, fitness for a particular purpose, and
+// noninfringement. In no event shall the author(s) be liable for any
+// claim, damages, or other liability, whether in an action of
+// contract, tort, or otherwise, arising from, out of, or in connection
+// with the software or the use or other dealings in the software.
+//
+// Parts of this software were originally developed in the Database
+// and Distributed Systems Group at the Technical University of
+// Darmstadt, Germany:
+//
+//    http://www.informatik.tu-darmstadt.de/DVS1/
+
+// Version 2.0
+// Changes from version 1.x: New in version 2.0
+
+package org.xmlmiddleware.xmldbms;
+
+import org.xmlmiddleware.conversions.formatters.*;
+import org.xmlmiddleware.utils.XMLMiddlewareException;
+import org.xmlmiddleware.xmldbms.datahandlers.*;
+import org.xmlmiddleware.xmldbms.filters.*;
+import org.xmlmiddleware.xmldbms.maps.*;
+import org.xmlmiddleware.xmlutils.*;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * Transfers data from the database to an XML document written to a Writer.
+ *
+ * <p>DBMSToXML retrieves the same data as DBMSToDOM, according to the same
+ * XMLDBMSMap and FilterSet, but does not build a DOM tree. Instead, it writes
+ * each element with an XMLWriter as soon as its position in the document is
+ * known, so memory use does not depend on the size of the document.</p>
+ *
+ * <p>To write elements in document order, DBMSToXML retrieves the rows of each
+ * related table sorted by their order column (ORDER BY) and merges the rows of
+ * the different tables as they are read. The data held in memory are the current
+ * row of each open result set, the column values of each open class element,
+ * and the values of attributes and token lists. Rows whose order column is NULL
+ * are also held in memory: as in DBMSToDOM, they are unordered and follow all
+ * ordered siblings.</p>
+ *
+ * <p>Because of this, a result set is open for each related table of each open
+ * class element. The JDBC driver must support multiple open result sets on a
+ * single connection.</p>
+ *
+ * <p>For example, the following code writes the data specified by the map
+ * document orders.map and the filter document ordersbynumber.ftr to the
+ * file orders.xml:</p>
+ *
+ * <pre>
+ *    // Create the XMLDBMSMap and FilterSet objects with user-defined functions.
+ *    <br />
+ *    map = createMap("orders.map");
+ *    filterSet = createFilterSet(map, "ordersbynumber.ftr");
+ *    <br />
+ *    // Create a data source and build a database-enabled map.
+ *    <br />
+ *    ds = new JDBC1DataSource("sun.jdbc.odbc.JdbcOdbcDriver", "jdbc:odbc:xmldbms");
+ *    dbMap = new DBEnabledMap(map, null, ds, "ron", "passwd");
+ *    <br />
+ *    // Build the parameters hashtable.
+ *    <br />
+ *    params = new Hashtable();
+ *    params.put("$Number", "123");
+ *    <br />
+ *    // Call retrieveDocument to write the data.
+ *    <br />
+ *    writer = new OutputStreamWriter(new FileOutputStream("orders.xml"), "UTF-8");
+ *    dbmsToXML = new DBMSToXML();
+ *    dbmsToXML.retrieveDocument(dbMap, filterSet, params, writer);
+ *    writer.close();
+ * </pre>
+ *
+ * <p>The document is the same as the one built by DBMSToDOM, except that the
+ * values of columns that contain XML are written as they are, without being
+ * parsed. Such values must be well-formed. Because DBMSToXML always writes a
+ * complete document, the filter set must contain wrapper elements if more than
+ * one root element is retrieved.</p>
+ *
+ * <p>DBMSToXML is not thread-safe. Use a separate object for each thread.</p>
+ *
+ * @version 2.0
+ * @see DBMSToDOM
+ */
+
+public class DBMSToXML
+{
+   // ************************************************************************
+   // Private variables
+   // ************************************************************************
+
+   // Per-execution globals
+
+   private XMLDBMSMap   map;
+   private FilterBase   filterBase;
+   private DBEnabledMap dbMap;
+   private XMLWriter    xmlWriter;
+   private boolean      singleRoot;
+   private boolean      rootWritten;
+   private int          seq;
+
+   // Truly global globals
+
+   private String  publicID;
+   private String  systemID;
+   private boolean pretty = false;
+   private int     increment = 3;
+
+   // ************************************************************************
+   // Constants
+   // ************************************************************************
+
+   private static String SPACE = " ";
+   private static String XMLNS = "xmlns:";
+
+   private static final XMLName PCDATA = XMLName.create(null, "#PCDATA");
+
+   // Item types
+
+   private static final int ELEMENT = 1;
+   private static final int TEXT    = 2;
+   private static final int INLINED = 3;
+
+   // ************************************************************************
+   // Constructors
+   // ************************************************************************
+
+   /**
+    * Construct a new DBMSToXML object.
+    */
+   public DBMSToXML()
+   {
+   }
+
+   // ************************************************************************
+   // Public methods
+   // ************************************************************************
+
+   /**
+    * Set the system and public IDs to use in the DOCTYPE statement.
+    *
+    * <p>If the system ID is null, no DOCTYPE statement is written.</p>
+    *
+    * @param systemID The system ID. Non-null if the public ID is non-null. Otherwise,
+    *    may be null.
+    * @param publicID The public ID. May be null.
+    */
+   public void setDTDInfo(String systemID, String publicID)
+   {
+      if ((publicID != null) && (systemID == null))
+         throw new IllegalArgumentException("If the public ID is non-null, the system ID must also be non-null.");
+      this.systemID = systemID;
+      this.publicID = publicID;
+   }
+
+   /**
+    * Set the pretty printing options.
+    *
+    * @param pretty Whether to perform pretty printing.
+    * @param increment The number of spaces by which to indent nested
+    *  child elements in their parent. If this is less then 0, it is
+    *  set to 3.
+    * @see org.xmlmiddleware.xmlutils.XMLWriter#setPrettyPrinting(boolean, int)
+    */
+   public void setPrettyPrinting(boolean pretty, int increment)
+   {
+      this.pretty = pretty;
+      this.increment = increment;
+   }
+
+   /**
+    * Retrieve a document based on the specified filters.
+    *
+    * <p>The filter set must contain at least one root filter.</p>
+    *
+    * @param dbMap A database-enabled map.
+    * @param filterSet The filter set specifying the data to retrieve.
+    * @param params A Hashtable containing the names (keys) and values (elements) of
+    *    any parameters used in the filters. Null if there are no parameters.
+    * @param writer The Writer to write the document to. To write an encoding
+    *    declaration, use an OutputStreamWriter. The Writer is flushed but not closed.
+    * @exception SQLException Thrown if a database error occurs retrieving data
+    * @exception XMLMiddlewareException Thrown if an XML-DBMS error occurs retrieving
+    *    data or an I/O error occurs writing the document.
+    */
+   public void retrieveDocument(DBEnabledMap dbMap, FilterSet filterSet, Hashtable params, Writer writer)
+      throws SQLException, XMLMiddlewareException
+   {
+      Hashtable resultSets = new Hashtable();
+
+      retrieveDocument(dbMap, resultSets, filterSet, params, writer);
+   }
+
+   /**
+    * Retrieve a document based on a result set.
+    *
+    * <p>The filter set must contain exactly one result set filter.</p>
+    *
+    * @param dbMap A database-enabled map.
+    * @param rs The result set. The filter for the result set must use the name "Default".
+    * @param filterSet The filter set specifying the data to retrieve.
+    * @param params A Hashtable containing the names (keys) and values (elements) of
+    *    any parameters used in the filters. Null if there are no parameters.
+    * @param writer The Writer to write the document to. The Writer is flushed
+    *    but not closed.
+    * @exception SQLException Thrown if a database error occurs retrieving data
+    * @exception XMLMiddlewareException Thrown if an XML-DBMS error occurs retrieving
+    *    data or an I/O error occurs writing the document.
+    */
+   public void retrieveDocument(DBEnabledMap dbMap, ResultSet rs, FilterSet filterSet, Hashtable params, Writer writer)
+      throws SQLException, XMLMiddlewareException
+   {
+      Hashtable resultSets = new Hashtable();
+
+      resultSets.put("Default", rs);
+      retrieveDocument(dbMap, resultSets, filterSet, params, writer);
+   }
+
+   /**
+    * Retrieve a document based on the specified result sets.
+    *
+    * <p>The filter set must contain at least one root filter.</p>
+    *
+    * @param dbMap A database-enabled map.
+    * @param resultSets An hashtable containing result sets keyed by result set name.
+    *    There must be one result set for each result set filter in the filter set.
+    * @param filterSet The filter set specifying the data to retrieve.
+    * @param params A Hashtable containing the names (keys) and values (elements) of
+    *    any parameters used in the filters. Null if there are no parameters.
+    * @param writer The Writer to write the document to. The Writer is flushed
+    *    but not closed.
+    * @exception SQLException Thrown if a database error occurs retrieving data
+    * @exception XMLMiddlewareException Thrown if an XML-DBMS error occurs retrieving
+    *    data or an I/O error occurs writing the document.
+    */
+   public void retrieveDocument(DBEnabledMap dbMap, Hashtable resultSets, FilterSet filterSet, Hashtable params, Writer writer)
+      throws SQLException, XMLMiddlewareException
+   {
+      Vector  filters, wrapperNames;
+      XMLName rootName;
+
+      // Initialize the per-execution global variables.
+
+      initGlobals(dbMap, writer);
+
+      try
+      {
+         // Check that we have at least one filter
+
+         filters = filterSet.getFilters();
+         if (filters.size() < 1)
+            throw new IllegalArgumentException("You must specify at least one filter.");
+
+         // Set the filter parameters.
+
+         filterSet.setFilterParameters(params);
+
+         // Write the XML declaration and the DOCTYPE statement.
+
+         wrapperNames = filterSet.getWrapperNames();
+         rootName = getRootName(filterSet, wrapperNames);
+         xmlWriter.writeXMLDecl();
+         if (systemID != null)
+         {
+            xmlWriter.writeDOCTYPE(rootName.getQualifiedName(), systemID, publicID);
+         }
+
+         // Write the wrapper start tags, retrieve the data, and write the
+         // wrapper end tags. If there are no wrapper elements, there must be
+         // exactly one root element.
+
+         writeWrapperStarts(wrapperNames, filterSet.getNamespaceURIs());
+         singleRoot = wrapperNames.isEmpty();
+         retrieveData(filters, resultSets);
+         writeWrapperEnds(wrapperNames);
+
+         writer.flush();
+      }
+      catch (IOException e)
+      {
+         throw new XMLMiddlewareException(e);
+      }
+      finally
+      {
+         // Reset the per-execution global variables.
+
+         resetGlobals();
+      }
+   }
+
+   // ************************************************************************
+   // Helper methods for getting started
+   // ************************************************************************
+
+   private XMLName getRootName(FilterSet filterSet, Vector wrapperNames)
+   {
+      Vector          filters;
+      Object          filter;
+      ResultSetFilter rsFilter;
+      ClassTableMap   rootTableMap;
+
+      // If there are wrapper elements, the root element is the top-level wrapper.
+      // Otherwise, it is the element type to which the root filter or result set
+      // is mapped. (See DBMSToDOM.getOrderedRootNode.)
+
+      if (!wrapperNames.isEmpty()) return (XMLName)wrapperNames.elementAt(0);
+
+      filters = filterSet.getFilters();
+      if (filters.size() > 1)
+         throw new IllegalArgumentException("There is more than one root filter and no wrapper elements.");
+      filter = filters.elementAt(0);
+      if (filter instanceof RootFilter)
+      {
+         rootTableMap = map.getClassTableMap(((RootFilter)filter).getRootFilterConditions().getTable());
+      }
+      else // if (filter instanceof ResultSetFilter)
+      {
+         rsFilter = (ResultSetFilter)filter;
+         rootTableMap = map.getClassTableMap(rsFilter.getDatabaseName(), rsFilter.getCatalogName(), rsFilter.getSchemaName(), rsFilter.getTableName());
+      }
+      return rootTableMap.getElementTypeName();
+   }
+
+   private void retrieveData(Vector filters, Hashtable resultSets)
+      throws SQLException, XMLMiddlewareException, IOException
+   {
+      Object          filter;
+      ResultSetFilter rsFilter;
+      String          rsName;
+      ResultSet       rs;
+
+      for (int i = 0; i < filters.size(); i++)
+      {
+         // Get the next filter and set the filterBase global.
+
+         filter = filters.elementAt(i);
+         filterBase = (FilterBase)filter;
+         if (filter instanceof RootFilter)
+         {
+            retrieveRootTableData((RootFilter)filter);
+         }
+         else // if (filter instanceof ResultSetFilter)
+         {
+            rsFilter = (ResultSetFilter)filter;
+            rsName = rsFilter.getResultSetName();
+            rs = (ResultSet)resultSets.get(rsName);
+            if (rs == null)
+               throw new IllegalArgumentException("No result set found for the result set name: " + rsName);
+            retrieveResultSetData(rsFilter, rs);
+         }
+      }
+   }
+
+   private void retrieveRootTableData(RootFilter rootFilter)
+      throws SQLException, XMLMiddlewareException, IOException
+   {
+      Table            rootTable;
+      FilterConditions rootConditions;
+      DataHandler      dataHandler;
+      ResultSet        rs;
+
+      // Construct a result set based on the filter conditions and write it.
+
+      rootConditions = rootFilter.getRootFilterConditions();
+      rootTable = rootConditions.getTable();
+      dataHandler = dbMap.getDataHandler(rootTable.getDatabaseName());
+      rs = dataHandler.select(rootTable, null, null, rootConditions.getWhereCondition(), rootConditions.getColumns(), rootConditions.getParameterValues(), null);
+      try
+      {
+         writeRootElements(rs, map.getClassTableMap(rootTable));
+      }
+      finally
+      {
+         rs.close();
+      }
+   }
+
+   private void retrieveResultSetData(ResultSetFilter rsFilter, ResultSet rs)
+      throws SQLException, XMLMiddlewareException, IOException
+   {
+      ClassTableMap rootTableMap;
+
+      rootTableMap = map.getClassTableMap(rsFilter.getDatabaseName(), rsFilter.getCatalogName(), rsFilter.getSchemaName(), rsFilter.getTableName());
+      writeRootElements(rs, rootTableMap);
+   }
+
+   private void writeRootElements(ResultSet rs, ClassTableMap rootTableMap)
+      throws SQLException, XMLMiddlewareException, IOException
+   {
+      Row   row = new Row();
+      Table table = rootTableMap.getTable();
+
+      // Root elements are unordered, so write them in the order in which
+      // they are retrieved. Namespace declarations are added to each root
+      // element, as in DBMSToDOM.
+
+      while (rs.next())
+      {
+         if (singleRoot)
+         {
+            if (rootWritten)
+               throw new XMLMiddlewareException("More than one root element was retrieved and there are no wrapper elements.");
+            rootWritten = true;
+         }
+
+         row.removeAllColumnValues();
+         row.setColumnValues(rs, table, map.emptyStringIsNull());
+         writeClassElement(row, rootTableMap.getElementTypeName(), rootTableMap, map.getNamespaceURIs());
+      }
+   }
+
+   // ************************************************************************
+   // Main processing methods
+   // ************************************************************************
+
+   // The processing flow is as follows. Each class element is processed in
+   // two steps. First, its content is gathered into a Content object. Column
+   // values, attributes, and token lists are stored in the Content object and
+   // a result set is opened for each related table. Second, the content is
+   // written. Items and the current rows of the result sets are merged by order
+   // value. Writing a row of a related class table starts the process over.
+   //
+   //                             1.
+   //    --->writeClassElement ------> addColumns ------> addValue
+   //    |         |      |                                  ^
+   //    |         |   2. |---------> addRelatedTables       |
+   //    |         |                    |         |          |
+   //    |       5.|                 3. |      4. |          |
+   //    |         v                    v         v          |
+   //    |    writeContent   addRelatedClassTable addPropertyTable
+   //    |         |
+   //    |_________|
+
+   private void writeClassElement(Row classRow, XMLName classElementName, ClassTableMap classTableMap, Hashtable namespaceURIs)
+      throws SQLException, XMLMiddlewareException, IOException
+   {
+      Content content = new Content(classElementName);
+
+      // Gather the content of the class element and write it. Always close
+      // the result sets opened for the content.
+
+      try
+      {
+         addColumns(content, classRow, classTableMap.getColumnMaps());
+         addRelatedTables(content, classRow, classTableMap);
+         writeContent(content, namespaceURIs);
+      }
+      finally
+      {
+         content.close();
+      }
+   }
+
+   private void addColumns(Content content, Row classRow, Enumeration columnMaps)
+      throws SQLException, XMLMiddlewareException
+   {
+      ColumnMap columnMap;
+      Content   parent;
+
+      while (columnMaps.hasMoreElements())
+      {
+         // Get the next column map, add any inlined elements, and add the
+         // column value. As in DBMSToDOM, columns for which the type is
+         // Types.NULL are not in the result set and are skipped.
+
+         columnMap = (ColumnMap)columnMaps.nextElement();
+         if (columnMap.getColumn().getType() == Types.NULL) continue;
+         parent = addInlinedElements(content, classRow, columnMap.getElementInsertionList());
+         addValue(parent, classRow, columnMap);
+      }
+   }
+
+   private void addValue(Content parent, Row row, PropertyMapBase propMapBase)
+      throws SQLException, XMLMiddlewareException
+   {
+      String    value;
+      OrderInfo orderInfo;
+      XMLName   name;
+      Item      item;
+
+      // Get the data value. If it is null, the column is NULL and no
+      // element/attribute/PCDATA is added.
+
+      value = getStringValue(row, propMapBase.getColumn());
+      if (value == null) return;
+
+      orderInfo = propMapBase.getOrderInfo();
+      name = propMapBase.getXMLName();
+
+      switch (propMapBase.getType())
+      {
+         case PropertyMapBase.ELEMENTTYPE:
+            // Token list values are appended to the existing element, if any.
+
+            item = propMapBase.isTokenList() ? parent.getUniqueItem(name) : null;
+            if ((item != null) && (item.type == ELEMENT))
+            {
+               item.value.append(SPACE);
+               item.value.append(value);
+            }
+            else
+            {
+               item = new Item(ELEMENT, name, value, propMapBase.containsXML());
+               parent.addItem(item, getOrderValue(row, orderInfo), getAscending(orderInfo));
+            }
+            break;
+
+         case PropertyMapBase.ATTRIBUTE:
+            parent.setAttribute(name, value, propMapBase.isTokenList());
+            break;
+
+         case PropertyMapBase.PCDATA:
+            item = propMapBase.isTokenList() ? parent.getUniqueItem(PCDATA) : null;
+            if ((item != null) && (item.type == TEXT))
+            {
+               item.value.append(SPACE);
+               item.value.append(value);
+            }
+            else
+            {
+               item = new Item(TEXT, PCDATA, value, false);
+               parent.addItem(item, getOrderValue(row, orderInfo), getAscending(orderInfo));
+            }
+            break;
+
+         case PropertyMapBase.UNKNOWN:
+            throw new XMLMiddlewareException("Column is not mapped to an element type, attribute, or PCDATA: " + propMapBase.getColumn().getName());
+      }
+   }
+
+   private void addRelatedTables(Content content, Row classRow, ClassTableMap classTableMap)
+      throws SQLException, XMLMiddlewareException
+   {
+      Table                table;
+      TableFilter          classTableFilter;
+      Enumeration          relatedClassTableMaps, propTableMaps;
+      RelatedClassTableMap relatedClassTableMap;
+      PropertyTableMap     propTableMap;
+      RelatedTableFilter   relatedTableFilter;
+
+      table = classTableMap.getTable();
+      classTableFilter = filterBase.getTableFilter(table.getDatabaseName(), table.getCatalogName(), table.getSchemaName(), table.getTableName());
+
+      // Add the related class tables.
+
+      relatedClassTableMaps = classTableMap.getRelatedClassTableMaps();
+      while (relatedClassTableMaps.hasMoreElements())
+      {
+         relatedClassTableMap = (RelatedClassTableMap)relatedClassTableMaps.nextElement();
+         relatedTableFilter = (classTableFilter == null) ?
+                               null :
+                               classTableFilter.getRelatedTableFilter(relatedClassTableMap);
+         addRelatedClassTable(content, classRow, relatedClassTableMap, relatedTableFilter);
+      }
+
+      // Add the property tables.
+
+      propTableMaps = classTableMap.getPropertyTableMaps();
+      while (propTableMaps.hasMoreElements())
+      {
+         propTableMap = (PropertyTableMap)propTableMaps.nextElement();
+         relatedTableFilter = (classTableFilter == null) ?
+                               null :
+                               classTableFilter.getRelatedTableFilter(propTableMap);
+         addPropertyTable(content, classRow, propTableMap, relatedTableFilter);
+      }
+   }
+
+   private void addRelatedClassTable(Content content, Row classRow, RelatedClassTableMap relatedClassTableMap, RelatedTableFilter relatedTableFilter)
+      throws SQLException, XMLMiddlewareException
+   {
+      Content       parent;
+      ClassTableMap childClassTableMap;
+      Table         childTable;
+      LinkInfo      linkInfo;
+      Vector        keyValue;
+      DataHandler   dataHandler;
+      OrderInfo     orderInfo;
+      String        where = null;
+      Vector        columns = null;
+      Vector        params = null;
+      ResultSet     rs;
+
+      // Add any inlined elements between the class element and the elements
+      // in the related class.
+
+      parent = addInlinedElements(content, classRow, relatedClassTableMap.getElementInsertionList());
+
+      // Open a result set over the related class table, sorted by the order
+      // column, and add it to the content. The rows are read as the content
+      // is written.
+
+      linkInfo = relatedClassTableMap.getLinkInfo();
+      keyValue = classRow.getColumnValues(linkInfo.getParentKey().getColumns());
+      childClassTableMap = relatedClassTableMap.getClassTableMap();
+      childTable = childClassTableMap.getTable();
+      dataHandler = dbMap.getDataHandler(childTable.getDatabaseName());
+
+      if (relatedTableFilter != null)
+      {
+         where = relatedTableFilter.getWhereCondition();
+         columns = relatedTableFilter.getColumns();
+         params = relatedTableFilter.getParameterValues();
+      }
+      orderInfo = relatedClassTableMap.getOrderInfo();
+
+      rs = dataHandler.select(childTable, linkInfo.getChildKey(), keyValue, where, columns, params, orderInfo);
+      parent.addSource(new Source(rs, childTable, orderInfo, relatedClassTableMap.getElementTypeName(), childClassTableMap, null));
+   }
+
+   private void addPropertyTable(Content content, Row classRow, PropertyTableMap propTableMap, RelatedTableFilter relatedTableFilter)
+      throws SQLException, XMLMiddlewareException
+   {
+      Content     parent;
+      Table       propTable;
+      LinkInfo    linkInfo;
+      Vector      keyValue;
+      DataHandler dataHandler;
+      OrderInfo   rsOrderInfo;
+      String      where = null;
+      Vector      columns = null;
+      Vector      params = null;
+      ResultSet   rs;
+      Row         row;
+
+      // Add any inlined elements between the class element and the property elements.
+
+      parent = addInlinedElements(content, classRow, propTableMap.getElementInsertionList());
+
+      // Get the result set over the property table. As in DBMSToDOM, token
+      // lists are sorted by the token order and other properties are sorted
+      // by their position in the parent.
+
+      linkInfo = propTableMap.getLinkInfo();
+      keyValue = classRow.getColumnValues(linkInfo.getParentKey().getColumns());
+      propTable = propTableMap.getTable();
+      dataHandler = dbMap.getDataHandler(propTable.getDatabaseName());
+
+      if (relatedTableFilter != null)
+      {
+         where = relatedTableFilter.getWhereCondition();
+         columns = relatedTableFilter.getColumns();
+         params = relatedTableFilter.getParameterValues();
+      }
+      rsOrderInfo = (propTableMap.isTokenList()) ? propTableMap.getTokenListOrderInfo() :
+                                                   propTableMap.getOrderInfo();
+
+      rs = dataHandler.select(propTable, linkInfo.getChildKey(), keyValue, where, columns, params, rsOrderInfo);
+
+      // Token lists and attributes become a single value, which must be known
+      // before the start tag is written, so read them now. Other properties
+      // are read as the content is written.
+
+      if (propTableMap.isTokenList() || (propTableMap.getType() == PropertyMapBase.ATTRIBUTE))
+      {
+         try
+         {
+            row = new Row();
+            while (rs.next())
+            {
+               row.removeAllColumnValues();
+               row.setColumnValues(rs, propTable, map.emptyStringIsNull());
+               addValue(parent, row, propTableMap);
+            }
+         }
+         finally
+         {
+            rs.close();
+         }
+      }
+      else
+      {
+         parent.addSource(new Source(rs, propTable, propTableMap.getOrderInfo(), null, null, propTableMap));
+      }
+   }
+
+   private void writeContent(Content content, Hashtable namespaceURIs)
+      throws SQLException, XMLMiddlewareException, IOException
+   {
+      Vector sources = content.sources;
+      Item   item;
+      Source source, s;
+      int    i, j;
+
+      // Write the start tag. If there is no content, this is an empty-element tag.
+
+      writeStartTag(content, namespaceURIs, content.isEmpty());
+      if (content.isEmpty()) return;
+
+      // Write the ordered children. These are the ordered items and the ordered
+      // rows of sorted result sets. At each step, write whichever comes first.
+      // Ties are broken by the order in which items and result sets were added,
+      // which is the order in which DBMSToDOM inserts nodes.
+
+      i = 0;
+      while (true)
+      {
+         item = (i < content.orderedItems.size()) ? (Item)content.orderedItems.elementAt(i) : null;
+         source = null;
+         for (j = 0; j < sources.size(); j++)
+         {
+            s = (Source)sources.elementAt(j);
+            if (!s.ordered || (s.current == null)) continue;
+            if ((source == null) || precedes(s.key, s.seq, source.key, source.seq))
+            {
+               source = s;
+            }
+         }
+
+         if ((item == null) && (source == null)) break;
+
+         if ((source == null) || ((item != null) && precedes(item.key, item.seq, source.key, source.seq)))
+         {
+            writeItem(item);
+            i++;
+         }
+         else
+         {
+            writeSourceRow(source, source.current);
+            source.advance();
+         }
+      }
+
+      // Write the unordered children in the order in which they were added.
+      // For each result set, these are the rows with a NULL order value, which
+      // have been saved, and the rows of an unordered result set, which have
+      // not yet been read.
+
+      i = 0;
+      j = 0;
+      while ((i < content.unorderedItems.size()) || (j < sources.size()))
+      {
+         item = (i < content.unorderedItems.size()) ? (Item)content.unorderedItems.elementAt(i) : null;
+         source = (j < sources.size()) ? (Source)sources.elementAt(j) : null;
+
+         if ((source == null) || ((item != null) && (item.seq < source.seq)))
+         {
+            writeItem(item);
+            i++;
+         }
+         else
+         {
+            for (int k = 0; k < source.unorderedRows.size(); k++)
+            {
+               writeSourceRow(source, (Row)source.unorderedRows.elementAt(k));
+            }
+            source.unorderedRows.removeAllElements();
+            while (source.current != null)
+            {
+               writeSourceRow(source, source.current);
+               source.advance();
+            }
+            j++;
+         }
+      }
+
+      xmlWriter.writeElementEnd(content.name.getQualifiedName());
+   }
+
+   private void writeItem(Item item)
+      throws SQLException, XMLMiddlewareException, IOException
+   {
+      switch (item.type)
+      {
+         case ELEMENT:
+            writeElement(item.name, item.value.toString(), item.containsXML);
+            break;
+
+         case TEXT:
+            xmlWriter.writeCharacters(item.value.toString());
+            break;
+
+         case INLINED:
+            writeContent(item.content, null);
+            break;
+      }
+   }
+
+   private void writeSourceRow(Source source, Row row)
+      throws SQLException, XMLMiddlewareException, IOException
+   {
+      PropertyTableMap propTableMap;
+      String           value;
+
+      // Rows of related class tables are class elements. Rows of property
+      // tables are elements or PCDATA.
+
+      if (source.classTableMap != null)
+      {
+         writeClassElement(row, source.elementName, source.classTableMap, null);
+      }
+      else
+      {
+         propTableMap = source.propTableMap;
+         value = getStringValue(row, propTableMap.getColumn());
+         if (propTableMap.getType() == PropertyMapBase.ELEMENTTYPE)
+         {
+            writeElement(propTableMap.getXMLName(), value, propTableMap.containsXML());
+         }
+         else if (propTableMap.getType() == PropertyMapBase.PCDATA)
+         {
+            xmlWriter.writeCharacters(value);
+         }
+         else
+         {
+            throw new XMLMiddlewareException("Column is not mapped to an element type, attribute, or PCDATA: " + propTableMap.getColumn().getName());
+         }
+      }
+   }
+
+   // ************************************************************************
+   // Helper methods -- initialization
+   // ************************************************************************
+
+   private void initGlobals(DBEnabledMap dbMap, Writer writer)
+   {
+      // Set up the global variables
+
+      this.dbMap = dbMap;
+      map = dbMap.getMap();
+      xmlWriter = new XMLWriter(writer);
+      xmlWriter.setPrettyPrinting(pretty, increment);
+      singleRoot = false;
+      rootWritten = false;
+      seq = 0;
+   }
+
+   private void resetGlobals()
+   {
+      // Set the per-execution global variables to null so we don't hold
+      // any unnecessary references.
+
+      dbMap = null;
+      map = null;
+      filterBase = null;
+      xmlWriter = null;
+   }
+
+   // ************************************************************************
+   // Helper methods -- inlined elements
+   // ************************************************************************
+
+   private Content addInlinedElements(Content parent, Row row, ElementInsertionList list)
+   {
+      ElementInsertionMap insertionMap;
+      XMLName             elementTypeName;
+      OrderInfo           orderInfo;
+      Item                item;
+
+      if (list == null) return parent;
+
+      for (int i = 0; i < list.size(); i++)
+      {
+         // Use the existing inlined element with this name, if any. As in
+         // DBMSToDOM, there is at most one such element in a parent.
+
+         insertionMap = list.getElementInsertionMap(i);
+         elementTypeName = insertionMap.getElementTypeName();
+         item = parent.getUniqueItem(elementTypeName);
+         if ((item == null) || (item.type != INLINED))
+         {
+            item = new Item(INLINED, elementTypeName, null, false);
+            item.content = new Content(elementTypeName);
+            orderInfo = insertionMap.getOrderInfo();
+            parent.addItem(item, getOrderValue(row, orderInfo), getAscending(orderInfo));
+         }
+         parent = item.content;
+      }
+
+      return parent;
+   }
+
+   // ************************************************************************
+   // Helper methods -- writing
+   // ************************************************************************
+
+   private void writeWrapperStarts(Vector wrapperNames, Hashtable namespaceURIs)
+      throws IOException
+   {
+      // Namespace declarations are added to the top-level wrapper element.
+      // Wrapper elements are never empty, even if no rows are retrieved,
+      // because their end tags are written by writeWrapperEnds.
+
+      for (int i = 0; i < wrapperNames.size(); i++)
+      {
+         writeStartTag(new Content((XMLName)wrapperNames.elementAt(i)), (i == 0) ? namespaceURIs : null, false);
+      }
+   }
+
+   private void writeWrapperEnds(Vector wrapperNames)
+      throws IOException
+   {
+      for (int i = wrapperNames.size() - 1; i >= 0; i--)
+      {
+         xmlWriter.writeElementEnd(((XMLName)wrapperNames.elementAt(i)).getQualifiedName());
+      }
+   }
+
+   private void writeStartTag(Content content, Hashtable namespaceURIs, boolean empty)
+      throws IOException
+   {
+      Enumeration prefixes;
+      String      prefix;
+      int         numAttrs, i;
+
+      // Make sure the attribute arrays in the XMLWriter are large enough.
+
+      numAttrs = content.attrNames.size();
+      if (namespaceURIs != null) numAttrs += namespaceURIs.size();
+      if ((numAttrs > 0) && ((xmlWriter.attrs == null) || (xmlWriter.attrs.length < numAttrs)))
+      {
+         xmlWriter.allocateAttrs(numAttrs);
+      }
+
+      // Add the namespace declarations, then the attributes.
+
+      i = 0;
+      if (namespaceURIs != null)
+      {
+         prefixes = namespaceURIs.keys();
+         while (prefixes.hasMoreElements())
+         {
+            prefix = (String)prefixes.nextElement();
+            xmlWriter.attrs[i] = XMLNS + prefix;
+            xmlWriter.values[i] = (String)namespaceURIs.get(prefix);
+            i++;
+         }
+      }
+      for (int j = 0; j < content.attrNames.size(); j++)
+      {
+         xmlWriter.attrs[i] = ((XMLName)content.attrNames.elementAt(j)).getQualifiedName();
+         xmlWriter.values[i] = content.attrValues.elementAt(j).toString();
+         i++;
+      }
+
+      xmlWriter.writeElementStart(content.name.getQualifiedName(), numAttrs, empty);
+   }
+
+   private void writeElement(XMLName name, String value, boolean containsXML)
+      throws IOException
+   {
+      // Write an element containing a single value. If the value contains XML
+      // markup, write it without escaping it.
+
+      xmlWriter.writeElementStart(name.getQualifiedName(), 0, false);
+      if (containsXML)
+      {
+         xmlWriter.writeMarkup(value);
+      }
+      else
+      {
+         xmlWriter.writeCharacters(value);
+      }
+      xmlWriter.writeElementEnd(name.getQualifiedName());
+   }
+
+   private boolean precedes(long key1, int seq1, long key2, int seq2)
+   {
+      return (key1 < key2) || ((key1 == key2) && (seq1 < seq2));
+   }
+
+   // ************************************************************************
+   // Helper methods -- rows
+   // ************************************************************************
+
+   private String getStringValue(Row row, Column column)
+      throws SQLException
+   {
+      Object          value;
+      StringFormatter formatter;
+
+      // Get the column value and check if it is null;
+
+      value = row.getColumnValue(column);
+      if (value == null) return null;
+
+      // Format the column value with the column's formatter.
+
+      formatter = column.getFormatter();
+      try
+      {
+         return formatter.format(value);
+      }
+      catch (XMLMiddlewareException e)
+      {
+         throw new SQLException("[XML-DBMS] Conversion error: " + e.getMessage());
+      }
+   }
+
+   private boolean getAscending(OrderInfo orderInfo)
+   {
+      if (orderInfo == null) return false;
+      return orderInfo.isAscending();
+   }
+
+   private long getOrderValue(Row row, OrderInfo orderInfo)
+   {
+      Object orderValue;
+
+      // Return OrderInfo.UNORDERED if the node is not ordered or the
+      // order column contains a null value. Otherwise, get the order value.
+
+      if (orderInfo == null)
+      {
+         return OrderInfo.UNORDERED;
+      }
+      else if (orderInfo.orderValueIsFixed())
+      {
+         return orderInfo.getFixedOrderValue();
+      }
+      else
+      {
+         orderValue = row.getColumnValue(orderInfo.getOrderColumn());
+         if (orderValue == null) return OrderInfo.UNORDERED;
+
+         // Cast the returned value as a Number. This is necessary because
+         // Oracle returns integers as BigDecimals.
+
+         return ((Number)orderValue).longValue();
+      }
+   }
+
+   // ************************************************************************
+   // Inner classes
+   // ************************************************************************
+
+   class Content
+   {
+      // The content of an element that has not yet been written: its
+      // attributes, the items that are held in memory, and the result sets
+      // from which child rows are read. Ordered items are kept sorted by order
+      // value; unordered items are kept in the order in which they were added.
+
+      XMLName   name;
+      Vector    attrNames = new Vector();      // XMLNames
+      Vector    attrValues = new Vector();     // StringBuffers
+      Vector    orderedItems = new Vector();
+      Vector    unorderedItems = new Vector();
+      Vector    sources = new Vector();
+      Hashtable uniqueItems = new Hashtable(); // Last item added for each name
+
+      Content(XMLName name)
+      {
+         this.name = name;
+      }
+
+      Item getUniqueItem(XMLName name)
+      {
+         // As with OrderedNode.getUniqueChild, this is only meaningful for
+         // inlined elements and token lists.
+
+         return (Item)uniqueItems.get(name);
+      }
+
+      void addItem(Item item, long orderValue, boolean ascending)
+      {
+         int i;
+
+         item.seq = seq++;
+         uniqueItems.put(item.name, item);
+
+         if (orderValue == OrderInfo.UNORDERED)
+         {
+            unorderedItems.addElement(item);
+            return;
+         }
+
+         // If the item is sorted in descending order, flip the order value.
+         // Then insert the item after any items with the same order value.
+
+         item.key = ascending ? orderValue : -1 * orderValue;
+         for (i = orderedItems.size(); i > 0; i--)
+         {
+            if (((Item)orderedItems.elementAt(i - 1)).key <= item.key) break;
+         }
+         orderedItems.insertElementAt(item, i);
+      }
+
+      void setAttribute(XMLName name, String value, boolean isTokenList)
+      {
+         int index = attrNames.indexOf(name);
+
+         // Token list values are appended to the existing value. Other
+         // values replace it.
+
+         if (index == -1)
+         {
+            attrNames.addElement(name);
+            attrValues.addElement(new StringBuffer(value));
+         }
+         else if (isTokenList)
+         {
+            ((StringBuffer)attrValues.elementAt(index)).append(SPACE).append(value);
+         }
+         else
+         {
+            attrValues.setElementAt(new StringBuffer(value), index);
+         }
+      }
+
+      void addSource(Source source)
+         throws SQLException
+      {
+         source.seq = seq++;
+         sources.addElement(source);
+         source.advance();
+      }
+
+      boolean isEmpty()
+      {
+         Source source;
+
+         if (!orderedItems.isEmpty() || !unorderedItems.isEmpty()) return false;
+         for (int i = 0; i < sources.size(); i++)
+         {
+            source = (Source)sources.elementAt(i);
+            if ((source.current != null) || !source.unorderedRows.isEmpty()) return false;
+         }
+         return true;
+      }
+
+      void close()
+         throws SQLException
+      {
+         Item item;
+
+         // Close the result sets used by this element and any inlined elements.
+
+         for (int i = 0; i < sources.size(); i++)
+         {
+            ((Source)sources.elementAt(i)).close();
+         }
+         for (int i = 0; i < orderedItems.size(); i++)
+         {
+            item = (Item)orderedItems.elementAt(i);
+            if (item.type == INLINED) item.content.close();
+         }
+         for (int i = 0; i < unorderedItems.size(); i++)
+         {
+            item = (Item)unorderedItems.elementAt(i);
+            if (item.type == INLINED) item.content.close();
+         }
+      }
+   }
+
+   class Item
+   {
+      // A child that is held in memory: an element containing a value, PCDATA,
+      // or an inlined element.
+
+      int          type;
+      XMLName      name;
+      StringBuffer value;
+      boolean      containsXML;
+      Content      content;
+      long         key;
+      int          seq;
+
+      Item(int type, XMLName name, String value, boolean containsXML)
+      {
+         this.type = type;
+         this.name = name;
+         this.value = (value == null) ? null : new StringBuffer(value);
+         this.containsXML = containsXML;
+      }
+   }
+
+   class Source
+   {
+      // A result set over a related class table or property table. The
+      // current row is the next row to be written. If the result set is
+      // ordered, rows with a NULL order value are saved in unorderedRows,
+      // since they are written after all ordered children.
+
+      ResultSet        rs;
+      Table            table;
+      OrderInfo        orderInfo;
+      XMLName          elementName;
+      ClassTableMap    classTableMap;
+      PropertyTableMap propTableMap;
+      boolean          ordered;
+      Row              current = null;
+      long             key;
+      int              seq;
+      Vector           unorderedRows = new Vector();
+
+      Source(ResultSet rs, Table table, OrderInfo orderInfo, XMLName elementName, ClassTableMap classTableMap, PropertyTableMap propTableMap)
+      {
+         this.rs = rs;
+         this.table = table;
+         this.orderInfo = orderInfo;
+         this.elementName = elementName;
+         this.classTableMap = classTableMap;
+         this.propTableMap = propTableMap;
+         ordered = (orderInfo != null);
+      }
+
+      void advance()
+         throws SQLException
+      {
+         Row  row;
+         long orderValue;
+
+         current = null;
+         if (rs == null) return;
+
+         while (rs.next())
+         {
+            row = new Row();
+            row.setColumnValues(rs, table, map.emptyStringIsNull());
+
+            // NULL property values don't produce any nodes.
+
+            if ((propTableMap != null) && (row.getColumnValue(propTableMap.getColumn()) == null)) continue;
+
+            orderValue = getOrderValue(row, orderInfo);
+            if (ordered)
+            {
+               if (orderValue == OrderInfo.UNORDERED)
+               {
+                  unorderedRows.addElement(row);
+                  continue;
+               }
+               key = getAscending(orderInfo) ? orderValue : -1 * orderValue;
+            }
+            current = row;
+            return;
+         }
+
+         close();
+      }
+
+      void close()
+         throws SQLException
+      {
+         if (rs != null)
+         {
+            rs.close();
+            rs = null;
+         }
+      }
+   }
+}
@@ -19,16 +19,15 @@
 package org.xmlmiddleware.xmldbms;
 
 import org.xmlmiddleware.conversions.*;
-import org.xmlmiddleware.conversions.formatters.*;
 import org.xmlmiddleware.utils.XMLMiddlewareException;
 import org.xmlmiddleware.xmldbms.datahandlers.*;
 import org.xmlmiddleware.xmldbms.filters.*;
-import org.xmlmiddleware.xmldbms.keygenerators.*;
 import org.xmlmiddleware.xmldbms.maps.*;
 import org.xmlmiddleware.xmldbms.actions.*;
 import org.xmlmiddleware.xmlutils.*;
 
 import java.io.*;
+import java.math.*;
 import java.sql.*;
 import java.util.*;
 import javax.sql.*;
@@ -77,56 +76,40 @@ import org.w3c.dom.*;
  * element that is not mapped. It then continues with the sibling of that element.
  * Thus, DOMToDBMS stores data from one or more contiguous fragments of the DOM tree.</p>
  *
+ * <p>DOMToDBMS is reentrant. All state used while storing a document is kept in
+ * a context object that is private to the call to storeDocument, so a single,
+ * configured DOMToDBMS object can be used by many threads at once. Each thread
+ * must use its own DBEnabledMap, since the DataHandlers in a DBEnabledMap use
+ * a single connection. Configure the DOMToDBMS object (commit mode, key
+ * generators, and so on) before sharing it; each call to storeDocument uses the
+ * configuration in effect when the call starts. Key generators are shared by all
+ * threads and must be thread-safe.</p>
+ *
  * @author Sean Walter
  * @version 2.0
  */
 
 public class DOMToDBMS
+   extends XMLToDBMSBase
 {
    // ************************************************************************
    // Private variables
    // ************************************************************************
 
-   // The transfer info used for a session of storeDocument
-
-   private DBEnabledMap m_dbMap;
-
-   // The commit mode (see processRoot)
-
-   private int m_commitMode;
-
-   // Whether to build/return a FilterSet identifying the stored document
-
-   private boolean m_returnFilterSet;
-
-   // Stop on Database errors (see processClassRow)
-
-   private boolean m_stopOnException;
-
-   // Stored Exceptions and Warnings (see getExceptions and getWarnings)
-
-   private SQLWarning m_sqlWarnings;
-   private SQLException m_sqlExceptions;
-
-   // Which actions to take for specific nodes
+   // Whether to update property tables by difference (see updatePropTableRows)
 
-   private Actions m_actions;
+   private boolean m_incrementalPropUpdates;
 
-   // Hash table of key generators
+   // Cached objects. These are here for efficiency (see getPropRowKey)
 
-   private Hashtable m_keyGenerators;
-
-   // Cached objects. These are here for efficiency (see getAllPropertyMaps)
-
-   private Hashtable m_classAllProperties;
+   private Hashtable m_propRowKeys;
 
    // ************************************************************************
    // Constants
    // ************************************************************************
 
    private static final String DUMMY = "dummy";
-   private static final String AND = "AND ";
-   private static final String SPACE = " ";
+   private static final String PROPROWKEY = "XMLDBMSPropRow_";
 
    // ************************************************************************
    // Constructors
@@ -139,12 +122,9 @@ public class DOMToDBMS
     */
    public DOMToDBMS()
    {
-      m_keyGenerators = new Hashtable();
-      m_commitMode = DataHandler.COMMIT_AFTERSTATEMENT;
-      m_returnFilterSet = false;
-      m_stopOnException = true;
-
-      m_classAllProperties = new Hashtable();
+      super();
+      m_incrementalPropUpdates = false;
+      m_propRowKeys = new Hashtable();
    }
 
    // ************************************************************************
@@ -152,141 +132,49 @@ public class DOMToDBMS
    // ************************************************************************
 
    /**
-    * Set the commit mode.
+    * Set whether property tables are updated incrementally.
     *
-    * <p>The commit mode must be one of DataHandler.COMMIT_AFTERSTATEMENT,
-    * COMMIT_AFTERDOCUMENT, COMMIT_NONE, or COMMIT_NOTRANSACTIONS. The default
-    * is COMMIT_AFTERSTATEMENT.</p>
+    * <p>When a class element is updated (the UPDATE or UPDATEORINSERT action)
+    * and a property is stored in a property table, the property table must
+    * be changed to contain exactly the values in the document. By default,
+    * this is done by deleting all the rows for the class row and inserting a
+    * row for each value.</p>
     *
-    * @param commitMode The commit mode.
-    */
-   public void setCommitMode(int commitMode)
-   {
-      if ((commitMode != DataHandler.COMMIT_AFTERSTATEMENT) &&
-          (commitMode != DataHandler.COMMIT_AFTERDOCUMENT) &&
-          (commitMode != DataHandler.COMMIT_NONE) &&
-          (commitMode != DataHandler.COMMIT_NOTRANSACTIONS))
-         throw new IllegalArgumentException("Invalid commit mode: " + commitMode);
-
-      m_commitMode = commitMode;
-   }
-
-   /**
-    * Get the commit mode.
+    * <p>If this is set to true, DOMToDBMS instead retrieves the existing rows
+    * and compares them to the values in the document. It then deletes, updates,
+    * and inserts only the rows that differ. If the order of the values is stored
+    * in a generated order column, rows are matched by order value and a row
+    * whose value has changed is updated; otherwise, rows are matched by value.
+    * This is faster when few values change, such as when one value in a long
+    * list is changed, but slower when most values change, since the existing
+    * rows must be retrieved first.</p>
     *
-    * @return The mode.
-    */
-   public int getCommitMode()
-   {
-      return m_commitMode;
-   }
-
-   /**
-    * Sets whether storeDocument returns a FilterSet or a null.
-    *
-    * <p>storeDocument can return a FilterSet describing the document it
-    * processes. This can be used at a later point in time to retrieve the
-    * document. Whether such a FilterSet is useful depends on the application.
-    * As a general rule, it is not useful for data-centric applications. For these
-    * applications, XML is usually a data transport and documents have no persistent identity.
-    * It is useful for document-centric applications, for which documents do
-    * have a persistent identity.</p>
-    *
-    * <p>By default, storeDocument returns a null. This saves some processing
-    * time, although the amount saved is likely to be noticeable only for very
-    * large documents.</p>
-    *
-    * @param value Whether storeDocument returns a FilterSet
-    */
-   public void setFilterSetReturned(boolean value)
-   {
-      m_returnFilterSet = value;
-   }
-
-   /**
-    * Whether storeDocument returns a FilterSet or a null.
+    * <p>Rows are updated only if the property table has a primary key that
+    * does not include the property column; otherwise, the row is deleted and
+    * a new row inserted. Inserted rows are batched if the batch size is
+    * greater than 0. If the property table is used by more than one property,
+    * or values cannot be compared (such as when values are NULL), the property
+    * is updated by deleting and inserting all rows.</p>
     *
-    * <p>For more information, see setFilterSetReturned.</p>
+    * <p>The default is false.</p>
     *
-    * @return Whether storeDocument returns a FilterSet
+    * @param incremental Whether to update property tables incrementally.
     */
-   public boolean isFilterSetReturned()
+   public void setIncrementalPropertyUpdates(boolean incremental)
    {
-      return m_returnFilterSet;
+      m_incrementalPropUpdates = incremental;
    }
 
    /**
-    * Add a key generator by name
+    * Whether property tables are updated incrementally.
     *
-    * <p>Applications call this method only if the map requires
-    * XML-DBMS to generate primary keys. (This does not include
-    * database-generated keys.)</p>
+    * <p>For more information, see setIncrementalPropertyUpdates.</p>
     *
-    * @param name The logical name of the key generator.
-    * @param generator An object that implements the KeyGenerator interface
+    * @return Whether property tables are updated incrementally.
     */
-   public void addKeyGenerator(String name, KeyGenerator generator)
+   public boolean isIncrementalPropertyUpdates()
    {
-      m_keyGenerators.put(name, generator);
-   }
-
-   /**
-    * Remove a key generator.
-    *
-    * @param name The logical name of the key genenerator.
-    */
-   public void removeKeyGenerator(String name)
-   {
-      m_keyGenerators.remove(name);
-   }
-
-   /**
-    * Remove all key generators.
-    */
-   public void removeAllKeyGenerators()
-   {
-      m_keyGenerators.clear();
-   }
-
-   /**
-    * Defines how SQLExceptions are handled.
-    *
-    * <p>When a database exception occurs, one of two things happens. If this
-    * is set to false, then the exception is added to the list returned
-    * by getExceptions and processing continues at the next class element.
-    * If this is set to true, then processing stops and the transaction (if any)
-    * is rolled back.</p>
-    *
-    * <p>By default, processing stops on exceptions.</p>
-    *
-    * @param stopOnException Stop or not.
-    */
-   public void stopOnException(boolean stopOnException)
-   {
-      m_stopOnException = stopOnException;
-   }
-
-   /**
-    * Returns a chain of all SQLWarnings generated while processing
-    * the last document.
-    *
-    * @return The chain. Null if there were no SQLWarnings.
-    */
-   public SQLWarning getWarnings()
-   {
-      return m_sqlWarnings;
-   }
-
-   /**
-    * Returns a chain of all SQLExceptions generated while processing
-    * the last document.
-    *
-    * @return The chain. Null if there were no SQLExceptions or stopOnException
-    *   is set to true.
-    */
-   public SQLException getExceptions()
-   {
-      return m_sqlExceptions;
+      return m_incrementalPropUpdates;
    }
 
    /**
@@ -348,74 +236,40 @@ public class DOMToDBMS
    public FilterSet storeDocument(DBEnabledMap dbMap, Element element, Actions actions)
       throws SQLException, XMLMiddlewareException
    {
-      FilterSet filterSet = (m_returnFilterSet) ? new FilterSet(dbMap.getMap()) : null;
+      // Create the context for this call. This holds all per-document state,
+      // so that calls on different threads don't interfere with each other.
 
-      // TODO: Make this reentrant
-
-      m_dbMap = dbMap;
-      m_sqlExceptions = null;
-      m_sqlWarnings = null;
-      m_actions = actions;
-
-      // Call startDocument here
-
-      Enumeration e = dbMap.getDataHandlers();
-      while(e.hasMoreElements())
-      {
-         ((DataHandler)e.nextElement()).startDocument(m_commitMode);
-      }
-
-      // Process the document
+      DOMContext ctx = new DOMContext(dbMap, actions);
 
       try
       {
-         processRoot(filterSet, element, 1);
+         storeDocument(ctx, element);
+         return ctx.filterSet;
       }
-      catch (Exception ex)
+      finally
       {
-         // If an exception occurs, notify the DataHandlers so they
-         // can roll back the current transaction.
-
-         e = dbMap.getDataHandlers();
-         while(e.hasMoreElements())
-         {
-            ((DataHandler)e.nextElement()).recoverFromException();
-         }
+         ctx.release();
+      }
+   }
 
-         // Rethrow the exception so the calling code knows about it.
+   private void storeDocument(DOMContext ctx, Element element)
+      throws SQLException, XMLMiddlewareException
+   {
+      startDocument(ctx);
 
-         if (ex instanceof SQLException)
-            throw (SQLException)ex;
-         else if (ex instanceof XMLMiddlewareException)
-            throw (XMLMiddlewareException)ex;
-         else
-         {
-            // Exit the program. We only get here if there is a programming
-            // error, so not exiting gracefully is tolerable.
+      // Process the document. If an exception occurs, abortDocument notifies
+      // the DataHandlers so they can roll back the current transaction, then
+      // rethrows the exception so the calling code knows about it.
 
-            System.out.println("XML-DBMS programming error");
-            ex.printStackTrace();
-            System.exit(1);
-         }
+      try
+      {
+         processRoot(ctx, element, 1);
+         endDocument(ctx);
       }
-
-      // Call endDocument here
-
-      e = dbMap.getDataHandlers();
-      while(e.hasMoreElements())
+      catch (Exception ex)
       {
-         ((DataHandler)e.nextElement()).endDocument();
+         abortDocument(ctx, ex);
       }
-
-      // Set the DBEnabledMap and Actions objects to null so we don't hold
-      // any unnecessary references, such as to connection objects, etc.
-
-      m_dbMap = null;
-      m_actions = null;
-
-      // Return the FilterSet.
-
-      return filterSet;
    }
 
    // ************************************************************************
@@ -468,34 +322,28 @@ public class DOMToDBMS
     * Processes the nodes from the root of the DOM Document that are not mapped.
     * The tree is searched until a node is found that is mapped.
     *
-    * @param filterSet FilterSet to add root elements to.
+    * @param ctx The context of the current call to storeDocument.
     * @param el The node to recusively process.
     * @param orderInParent Position of this element in parent
     */
-   private void processRoot(FilterSet filterSet, Element el, long orderInParent)
+   private void processRoot(DOMContext ctx, Element el, long orderInParent)
       throws SQLException, XMLMiddlewareException
    {
       // Check if the node is mapped as a class
 
-      ClassMap classMap = m_dbMap.getMap().getClassMap(el.getNamespaceURI(), el.getLocalName());
+      ClassMap classMap = ctx.dbMap.getMap().getClassMap(el.getNamespaceURI(), el.getLocalName());
 
       if (classMap != null)
       {
          // Process the node
 
-         Row row = processClassRow(null, classMap, null, el, orderInParent);
+         Row row = processClassRow(ctx, null, classMap, null, el, orderInParent);
+
+         // Add this row to the FilterSet
 
-         if ((m_returnFilterSet) && (row != null))
+         if (row != null)
          {
-            // Add this row to the FilterSet
-
-            Table table = classMap.getTable();
-            Key priKey = table.getPrimaryKey();
-            RootFilter rootFilter = filterSet.createRootFilter();
-            FilterConditions rootConditions = rootFilter.createRootFilterConditions(table);
-            String where = buildCondition(priKey.getColumns(),
-                                          row.getColumnValues(priKey.getColumns()));
-            rootConditions.addCondition(where);
+            addRootFilter(ctx, classMap.getTable(), row);
          }
       }
       else
@@ -513,7 +361,7 @@ public class DOMToDBMS
 
             if (children.item(i).getNodeType() == Node.ELEMENT_NODE)
             {
-               processRoot(filterSet, (Element)children.item(i), childOrder);
+               processRoot(ctx, (Element)children.item(i), childOrder);
                childOrder++;
             }
          }
@@ -530,23 +378,24 @@ public class DOMToDBMS
     * @param classNode The node with data for this class.
     * @param orderInParent The order of this node within its parent.
     */
-   private Row processClassRow(Row parentRow, ClassMap classMap, RelatedClassMap relMap,
+   private Row processClassRow(DOMContext ctx, Row parentRow, ClassMap classMap, RelatedClassMap relMap,
                                Element classNode, long orderInParent)
       throws SQLException, XMLMiddlewareException
    {
       // This method is called from processRoot and from processRow. When
       // it is called from processRoot, relMap and parentRow are null.
 
-      Action   action;
-      Vector   fkChildren = new Vector();
-      Vector   useProps;
-      Table    table;
-      LinkInfo linkInfo;
-      Row      classRow;
+      Action    action;
+      Vector    fkChildren = new Vector();
+      Vector    useProps;
+      Table     table;
+      LinkInfo  linkInfo;
+      Row       classRow;
+      Hashtable propRows;
 
       // Get the action for the node
 
-      action = getActionFor(classNode);
+      action = getActionFor(ctx, classNode.getNamespaceURI(), classNode.getLocalName());
 
       // Get the list of columns we will insert or update in the database
 
@@ -582,7 +431,7 @@ public class DOMToDBMS
          // require PK rows to be inserted before FK rows. Because the PK can be in
          // either the parent or child class, we need to handle both cases.
 
-         processChildren(classRow, classMap, classNode, fkChildren, action, useProps);
+         processChildren(ctx, classRow, classMap, classNode, fkChildren, action, useProps);
 
          // If any fields in the table haven't been set, set them to NULL
 
@@ -590,7 +439,7 @@ public class DOMToDBMS
 
          // Insert or update the class row.
 
-         storeRow(table, classRow, action.getAction());
+         storeRow(ctx, table, classRow, action.getAction());
 
          // If we are doing an update and we are using property tables,
          // delete the rows from these tables. This is because updating
@@ -598,13 +447,30 @@ public class DOMToDBMS
          // and adding the new rows. Note that we don't add the new rows
          // until we call processFKNodes. This is because rows in property
          // tables always contain the FK.
+         //
+         // If property tables are updated incrementally, processFKNodes
+         // instead collects the new property table rows in propRows and
+         // updatePropTableRows compares them to the existing rows.
 
-         deletePropTableRows(classRow, useProps, action);
+         propRows = null;
+         if (ctx.incrementalPropUpdates && isUpdate(action))
+         {
+            propRows = new Hashtable();
+         }
+         else
+         {
+            deletePropTableRows(ctx, classRow, useProps, action);
+         }
 
          // Process children stored in child tables for which the child
          // row contains the FK.
 
-         processFKNodes(classRow, fkChildren, action);
+         processFKNodes(ctx, classRow, fkChildren, action, propRows);
+
+         if (propRows != null)
+         {
+            updatePropTableRows(ctx, classRow, useProps, propRows);
+         }
       }
       catch(SQLException e)
       {
@@ -616,11 +482,11 @@ public class DOMToDBMS
          // row is dependent on errors. Do we handle this or just let
          // it blow with two errors (one for the child and then one here)?
 
-         if (m_stopOnException)
+         if (ctx.stopOnException)
             throw e;
          else
          {
-            pushException(e);
+            pushException(ctx, e);
          }
       }
 
@@ -630,7 +496,7 @@ public class DOMToDBMS
    /**
     * Process the children of a class element. This includes the attributes.
     */
-   private void processChildren(Row parentRow, ClassMapBase parentMap, Node parentNode,
+   private void processChildren(DOMContext ctx, Row parentRow, ClassMapBase parentMap, Node parentNode,
                                 Vector fkChildren, Action action, Vector useProps)
       throws SQLException, XMLMiddlewareException
    {
@@ -670,7 +536,7 @@ public class DOMToDBMS
 
          // Process the child.
 
-         processChild(parentRow, childMap, childNode, childOrder,
+         processChild(ctx, parentRow, childMap, childNode, childOrder,
                       fkChildren, action, useProps);
 
          // Increment the count of the child in its parent.
@@ -694,7 +560,7 @@ public class DOMToDBMS
             childNode = attrs.item(i);
             childMap = parentMap.getAttributeMap(childNode.getNamespaceURI(),
                                                  childNode.getLocalName());
-            processChild(parentRow, childMap, childNode, 0,
+            processChild(ctx, parentRow, childMap, childNode, 0,
                          fkChildren, action, useProps);
          }
       }
@@ -703,7 +569,7 @@ public class DOMToDBMS
    /**
     * This is the other half of processChildren. It is called for every node that is mapped.
     */
-   private void processChild(Row parentRow, Object childMap, Node childNode, long childOrder,
+   private void processChild(DOMContext ctx, Row parentRow, Object childMap, Node childNode, long childOrder,
                              Vector fkChildren, Action action, Vector useProps)
       throws SQLException, XMLMiddlewareException
    {
@@ -723,7 +589,7 @@ public class DOMToDBMS
             // the class table, this calls setPropertyColumn. For properties
             // in property tables, this calls processRowChild.
 
-            processProperty(parentRow, (PropertyMap)childMap, childNode,
+            processProperty(ctx, parentRow, (PropertyMap)childMap, childNode,
                             childOrder, fkChildren, action);
          }
       }
@@ -731,7 +597,7 @@ public class DOMToDBMS
       {
          // Process the related class
 
-         processRowChild(parentRow, childMap, ((RelatedClassMap)childMap).getLinkInfo(),
+         processRowChild(ctx, parentRow, childMap, ((RelatedClassMap)childMap).getLinkInfo(),
                          childNode, childOrder, fkChildren, action);
       }
       else if (childMap instanceof InlineClassMap)
@@ -745,7 +611,7 @@ public class DOMToDBMS
          // children of this element will be processed as if they were children
          // of the class element (which owns the parent row).
 
-         processChildren(parentRow, (InlineClassMap)childMap, childNode, fkChildren, action, useProps);
+         processChildren(ctx, parentRow, (InlineClassMap)childMap, childNode, fkChildren, action, useProps);
       }
    }
 
@@ -753,7 +619,7 @@ public class DOMToDBMS
     * Adds the property value to the class row or (in the case of properties
     * stored in a separate property table) calls processRowChild.
     */
-   private void processProperty(Row parentRow, PropertyMap propMap, Node propNode, long order, Vector fkNodes, Action action)
+   private void processProperty(DOMContext ctx, Row parentRow, PropertyMap propMap, Node propNode, long order, Vector fkNodes, Action action)
       throws SQLException, XMLMiddlewareException
    {
       // NOTE: Called from processChild
@@ -772,7 +638,7 @@ public class DOMToDBMS
 
          // Create a StringTokenizer over the property value.
 
-         StringTokenizer s = new StringTokenizer(getNodeValue(propNode, propMap.containsXML()), " \n\r\t", false);
+         StringTokenizer s = new StringTokenizer(getNodeValue(ctx, propNode, propMap.containsXML()), " \n\r\t", false);
 
          // Start the token order at 1. This is because order here refers to the
          // order of the token in the list, not the order of the property in its
@@ -827,7 +693,7 @@ public class DOMToDBMS
                // property map we constructed has the tokenList flag set to false.
                // This removes any possibility of an infinite loop.
 
-               processProperty(parentRow, tokenMap, tokenNode, tokenOrder,
+               processProperty(ctx, parentRow, tokenMap, tokenNode, tokenOrder,
                                fkNodes, action);
 
                // Increment the token order.
@@ -845,14 +711,14 @@ public class DOMToDBMS
          {
             // If the property is stored in the class table, set the value now.
 
-            setPropertyColumn(parentRow, propMap, propNode);
+            setPropertyColumn(ctx, parentRow, propMap, propNode);
          }
          else
          {
             // Otherwise, the property is stored in a separate property table. In
             // this case, pass it to processRowChild for processing.
 
-            processRowChild(parentRow, propMap, propMap.getLinkInfo(), propNode,
+            processRowChild(ctx, parentRow, propMap, propMap.getLinkInfo(), propNode,
                             order, fkNodes, action);
          }
       }
@@ -862,7 +728,7 @@ public class DOMToDBMS
     * General function for processing children that are stored in separate rows --
     * that is, in child tables. These can be related class tables or property tables.
     */
-   private void processRowChild(Row parentRow, Object map, LinkInfo linkInfo, Node node,
+   private void processRowChild(DOMContext ctx, Row parentRow, Object map, LinkInfo linkInfo, Node node,
                                 long orderInParent, Vector fkNodes, Action action)
       throws SQLException, XMLMiddlewareException
    {
@@ -887,7 +753,7 @@ public class DOMToDBMS
          // If the child row has the unique key, process the node now and copy
          // the unique key from the child row to the parent row.
 
-         Row childRow = processRow(parentRow, map, node, orderInParent, action);
+         Row childRow = processRow(ctx, parentRow, map, node, orderInParent, action);
          if (childRow != null)
          {
             setParentKey(parentRow, childRow, linkInfo);
@@ -899,7 +765,7 @@ public class DOMToDBMS
     * When it's actually time for a row to get inserted this sends it to the
     * appropriate location.
     */
-   private Row processRow(Row parentRow, Object map, Node node, long orderInParent,
+   private Row processRow(DOMContext ctx, Row parentRow, Object map, Node node, long orderInParent,
                           Action action)
       throws SQLException, XMLMiddlewareException
    {
@@ -909,7 +775,7 @@ public class DOMToDBMS
       {
          // If the map is a property map, call processPropRow.
 
-         return processPropRow(parentRow, (PropertyMap)map, node, orderInParent, action);
+         return processPropRow(ctx, parentRow, (PropertyMap)map, node, orderInParent, action);
       }
       else // if (map instanceof RelatedClassMap)
       {
@@ -919,7 +785,7 @@ public class DOMToDBMS
 
          RelatedClassMap relMap = (RelatedClassMap)map;
 
-         return processClassRow(parentRow, relMap.getClassMap(), relMap, (Element)node,
+         return processClassRow(ctx, parentRow, relMap.getClassMap(), relMap, (Element)node,
                                 orderInParent);
       }
    }
@@ -927,25 +793,14 @@ public class DOMToDBMS
    /**
     * This method creates and inserts a row in a property table.
     */
-   private Row processPropRow(Row parentRow, PropertyMap propMap, Node propNode,
+   private Row processPropRow(DOMContext ctx, Row parentRow, PropertyMap propMap, Node propNode,
                               long orderInParent, Action action)
       throws SQLException, XMLMiddlewareException
    {
       // NOTE: This method is called from processRow
 
-      // Create the row object and set/generate keys
-
       Table table = propMap.getTable();
-      LinkInfo linkInfo = propMap.getLinkInfo();
-      Row propRow = createRow(table, parentRow, linkInfo);
-
-      // Generate the order column value, if any.
-
-      generateOrder(propRow, propMap.getOrderInfo(), orderInParent);
-
-      // Set the property value
-
-      setPropertyColumn(propRow, propMap, propNode);
+      Row propRow = createPropRow(ctx, parentRow, propMap, propNode, orderInParent);
 
       // Get the action. If it is UPDATE or UPDATEORINSERT, change it to
       // INSERT. This is because "updating" a property that is stored in
@@ -964,7 +819,31 @@ public class DOMToDBMS
 
       // Insert the row in the property table and return it to the calling method.
 
-      storeRow(table, propRow, act);
+      storeRow(ctx, table, propRow, act);
+      return propRow;
+   }
+
+   /**
+    * Creates a row for a property table.
+    */
+   private Row createPropRow(DOMContext ctx, Row parentRow, PropertyMap propMap, Node propNode,
+                             long orderInParent)
+      throws XMLMiddlewareException
+   {
+      // NOTE: Called from processPropRow and processFKNodes
+
+      // Create the row object and set/generate keys
+
+      Row propRow = createRow(propMap.getTable(), parentRow, propMap.getLinkInfo());
+
+      // Generate the order column value, if any.
+
+      generateOrder(propRow, propMap.getOrderInfo(), orderInParent);
+
+      // Set the property value
+
+      setPropertyColumn(ctx, propRow, propMap, propNode);
+
       return propRow;
    }
 
@@ -972,21 +851,44 @@ public class DOMToDBMS
     * Process nodes that were left until later because the parent table
     * contained the primary key.
     */
-   private void processFKNodes(Row parentRow, Vector fkNodes, Action action)
+   private void processFKNodes(DOMContext ctx, Row parentRow, Vector fkNodes, Action action,
+                               Hashtable propRows)
       throws SQLException, XMLMiddlewareException
    {
       // NOTE: Called from processClassRow
 
-      FKNode fkNode;
+      FKNode      fkNode;
+      PropertyMap propMap;
+      Vector      rows;
 
       for (int i = 0; i < fkNodes.size(); i++)
       {
-         // For each node, call processRow. This does one of two things. For
-         // nodes stored in property tables, it calls processPropRow. For nodes
-         // stored in related class tables, it calls processClassRow.
-
          fkNode = (FKNode)fkNodes.elementAt(i);
-         processRow(parentRow, fkNode.map, fkNode.node, fkNode.orderInParent, action);
+
+         if ((propRows != null) && (fkNode.map instanceof PropertyMap))
+         {
+            // If property tables are updated incrementally, create the property
+            // table row but don't store it. Rows are grouped by property column,
+            // since the property map for a token is not the property map for
+            // the token list (see processProperty).
+
+            propMap = (PropertyMap)fkNode.map;
+            rows = (Vector)propRows.get(propMap.getColumn());
+            if (rows == null)
+            {
+               rows = new Vector();
+               propRows.put(propMap.getColumn(), rows);
+            }
+            rows.addElement(createPropRow(ctx, parentRow, propMap, fkNode.node, fkNode.orderInParent));
+         }
+         else
+         {
+            // For each node, call processRow. This does one of two things. For
+            // nodes stored in property tables, it calls processPropRow. For nodes
+            // stored in related class tables, it calls processClassRow.
+
+            processRow(ctx, parentRow, fkNode.map, fkNode.node, fkNode.orderInParent, action);
+         }
       }
    }
 
@@ -1014,35 +916,9 @@ public class DOMToDBMS
       // row, these are copied to the parent in processChild. (processChild first
       // creates the child row, which creates the keys by one of the above methods.)
 
-      // Create the actual row
+      // Create the actual row and generate the primary key (if necessary)
 
-      Row row = new Row();
-
-      // Generate the primary key (if necessary)
-
-      Key priKey = table.getPrimaryKey();
-      if (priKey != null)
-      {
-         if (priKey.getKeyGeneration() == Key.KEYGENERATOR)
-         {
-            generateKey(row, priKey);
-         }
-      }
-
-/*
-      // Generate the unique keys (if necessary). Note that this code is not used
-      // at the moment, but may be used in the future.
-
-      Enumeration e = table.getUniqueKeys();
-      while (e.hasMoreElements())
-      {
-         Key uniqueKey = (Key)e.nextElement();
-         if (uniqueKey.getKeyGeneration() == Key.KEYGENERATOR)
-         {
-            generateKey(row, uniqueKey);
-         }
-      }
-*/
+      Row row = createRow(table);
 
       // If the row has a parent and the primary / unique key is in the
       // parent, copy it to the child. Note that parentRow and linkInfo
@@ -1060,36 +936,10 @@ public class DOMToDBMS
       return row;
    }
 
-   /**
-    * Called before row is stored. Sets missing fields to null.
-    */
-   private void setMissingFieldsToNull(Row classRow, Vector useProps)
-      throws XMLMiddlewareException
-   {
-      // This method is called after all the children (including attributes)
-      // of a class element have been processed. If any properties in which
-      // we are interested (useProps) have not yet been set -- that is, they
-      // weren't in the XML document -- set them to null now. Note that this
-      // only applies to properties stored in the class table; it doesn't
-      // apply to properties stored in property tables.
-
-      for(int i = 0; i < useProps.size(); i++)
-      {
-         PropertyMap propMap = (PropertyMap)useProps.elementAt(i);
-         if (propMap.getTable() == null)
-         {
-            if (!classRow.isColumnSet(propMap.getColumn()))
-            {
-               classRow.setColumnValue(propMap.getColumn(), null);
-            }
-         }
-      }
-   }
-
    /**
     * Get the value for a node.
     */
-   private String getNodeValue(Node propNode, boolean containsXML)
+   private String getNodeValue(DOMContext ctx, Node propNode, boolean containsXML)
    {
       String s;
 
@@ -1114,456 +964,460 @@ public class DOMToDBMS
          s = propNode.getNodeValue();
       }
 
-      // If the string is empty (length == 0), then:
-      //
-      // (a) If we treat empty strings in the XML document as NULLs, then
-      //     set the value to null, which is later interpreted as NULL.
-      //
-      // (b) If we treat empty strings as empty strings, then set the value to a
-      //     single space. We do this because most relational databases cannot
-      //     store empty strings; when they encounter an empty string in an INSERT
-      //     statement, they store a NULL instead. To get around this, we store
-      //     a space instead of an empty string. While this is technically incorrect
-      //     -- it means we confuse <foo></foo> with <foo> </foo> -- the latter case
-      //    is much less common and we simply live with it.
-
-      if (s.length() == 0)
-      {
-         if (m_dbMap.getMap().emptyStringIsNull())
-         {
-            s = null;
-         }
-         else
-         {
-            s = SPACE;
-         }
-      }
-
-      if (m_dbMap.getMap().emptyStringIsNull() && s.length() == 0)
-      {
-         s = null;
-      }
+      // Empty strings are either NULLs or single spaces (see getValue).
 
-      return s;
+      return getValue(ctx, s);
    }
 
    /**
     * Set the value for column
     */
-   private void setPropertyColumn(Row row, PropertyMap propMap, Node node)
+   private void setPropertyColumn(DOMContext ctx, Row row, PropertyMap propMap, Node node)
       throws XMLMiddlewareException
    {
-      Column column = propMap.getColumn();
-
       // Get the node value (a string) and parse it with the column's StringFormatter.
-      // The result is an Object of the type corresponding to the column's SQL type.
-
-      StringFormatter formatter = column.getFormatter();
-      Object val = formatter.parse(getNodeValue(node, propMap.containsXML()), column.getType());
-
-      // Set the column value to the parsed value.
 
-      row.setColumnValue(column, val);
+      setPropertyColumn(row, propMap, getNodeValue(ctx, node, propMap.containsXML()));
    }
 
+   // ************************************************************************
+   // Helper methods -- general
+   // ************************************************************************
+
    /**
-    * Generate the order column value, if any.
+    * Whether an action updates existing rows.
     */
-   private void generateOrder(Row row, OrderInfo o, long orderValue)
-      throws XMLMiddlewareException
+   private boolean isUpdate(Action action)
    {
-      // If the property is ordered, the order is stored in an order column,
-      // and XML-DBMS generates the order, the store the current order value
-      // in the order column. We use ConvertObject to convert the order value
-      // from a Long to whatever type is used by the order column.
-
-      if ((o != null) && (!o.orderValueIsFixed()) && (o.generateOrder()))
-      {
-         Column col = o.getOrderColumn();
-         Object val = ConvertObject.convertObject(new Long(orderValue), col.getType(), col.getFormatter());
-         row.setColumnValue(col, val);
-      }
+      return (action.getAction() == Action.UPDATE) ||
+             (action.getAction() == Action.UPDATEORINSERT);
    }
 
    // ************************************************************************
-   // Helper methods -- general
+   // Helper methods -- database
    // ************************************************************************
 
    /**
-    * Get the changeable properties for a ClassMap/Action combination.
+    * Brings property tables up to date by difference.
     */
-   private Vector getUseProps(ClassMap classMap, Action action)
+   private void updatePropTableRows(DOMContext ctx, Row classRow, Vector useProps, Hashtable propRows)
+      throws SQLException, XMLMiddlewareException
    {
-      Vector useProps = null;
+      // This is called instead of deletePropTableRows when property tables
+      // are updated incrementally. propRows contains the new property table
+      // rows, indexed by property column. Because processChildren only
+      // processes the properties in useProps, there are no other rows.
+
+      Hashtable   tableUses = new Hashtable();
+      PropertyMap propMap;
+      Table       propTable;
+      Vector      newRows;
+      Integer     uses;
+
+      // Count the properties stored in each property table. The existing
+      // rows are retrieved by the key of the class row, so if a table holds
+      // more than one property, rows can't be assigned to properties.
 
-      if (action.getAction() == Action.UPDATE)
+      for (int i = 0; i < useProps.size(); i++)
       {
-         useProps = action.getUpdatePropertyMaps();
+         propTable = ((PropertyMap)useProps.elementAt(i)).getTable();
+         if (propTable != null)
+         {
+            uses = (Integer)tableUses.get(propTable);
+            tableUses.put(propTable, new Integer((uses == null) ? 1 : uses.intValue() + 1));
+         }
       }
 
-      if (useProps == null)
+      for (int i = 0; i < useProps.size(); i++)
       {
-         useProps = getAllPropertyMaps(classMap);
-      }
+         propMap = (PropertyMap)useProps.elementAt(i);
+         propTable = propMap.getTable();
+         if (propTable == null) continue;
+
+         newRows = (Vector)propRows.get(propMap.getColumn());
+         if (newRows == null) newRows = new Vector();
 
-      return useProps;
+         if (((Integer)tableUses.get(propTable)).intValue() > 1)
+         {
+            replacePropTableRows(ctx, classRow, propMap, newRows);
+         }
+         else
+         {
+            diffPropTableRows(ctx, classRow, propMap, newRows);
+         }
+      }
    }
 
    /**
-    * Gets all properties for a ClassMap.
+    * Compares the rows in a property table to the new rows and stores the differences.
     */
-   private Vector getAllPropertyMaps(ClassMapBase classMapBase)
+   private void diffPropTableRows(DOMContext ctx, Row classRow, PropertyMap propMap, Vector newRows)
+      throws SQLException, XMLMiddlewareException
    {
-      // TODO: Test if caching this is worth it!
-
-      if (m_classAllProperties.contains(classMapBase))
+      Table     propTable = propMap.getTable();
+      Column    propColumn = propMap.getColumn();
+      OrderInfo orderInfo = getPropOrderInfo(propMap);
+      Vector    oldRows, inserts = new Vector(), deletes = new Vector(), updates = new Vector();
+      Hashtable oldByKey = new Hashtable();
+      Object    key;
+      Row       newRow, oldRow;
+      Vector    matches, updateCols;
+      Key       rowKey;
+      Enumeration e;
+
+      // Get the existing rows.
+
+      oldRows = selectPropTableRows(ctx, classRow, propMap, orderInfo);
+
+      if (orderInfo != null)
       {
-         return (Vector)m_classAllProperties.get(classMapBase);
-      }
+         // If the order is stored in a generated order column, match rows
+         // by order value. Rows with the same order value but different
+         // property values are updated. If order values are missing or
+         // duplicated, give up and replace all the rows.
 
-      // Q: Could this be moved to ClassMap for efficiency?
-      // A: Nope, it can't because ClassMap needs to be threadsafe.
+         for (int i = 0; i < oldRows.size(); i++)
+         {
+            oldRow = (Row)oldRows.elementAt(i);
+            key = getOrderValue(oldRow, orderInfo);
+            if ((key == null) || (oldByKey.put(key, oldRow) != null))
+            {
+               replacePropTableRows(ctx, classRow, propMap, newRows);
+               return;
+            }
+         }
 
-      Vector v = new Vector();
-      PropertyMap propMap;
+         for (int i = 0; i < newRows.size(); i++)
+         {
+            newRow = (Row)newRows.elementAt(i);
+            key = getOrderValue(newRow, orderInfo);
+            oldRow = (key == null) ? null : (Row)oldByKey.remove(key);
+            if (oldRow == null)
+            {
+               inserts.addElement(newRow);
+            }
+            else if (!valuesEqual(oldRow.getColumnValue(propColumn), newRow.getColumnValue(propColumn)))
+            {
+               if (canUpdatePropRow(propTable, propColumn, oldRow))
+               {
+                  oldRow.setColumnValue(propColumn, newRow.getColumnValue(propColumn));
+                  updates.addElement(oldRow);
+               }
+               else
+               {
+                  deletes.addElement(oldRow);
+                  inserts.addElement(newRow);
+               }
+            }
+         }
 
-      // PCDATAMap
+         // Any old rows that are left have order values that are not in the
+         // new rows; that is, the list got shorter. Delete them.
 
-      propMap = classMapBase.getPCDATAMap();
-      if (propMap != null)
-      {
-         v.addElement(propMap);
+         e = oldByKey.elements();
+         while (e.hasMoreElements())
+         {
+            deletes.addElement(e.nextElement());
+         }
       }
-
-      // Attributes
-
-      Enumeration e = classMapBase.getAttributeMaps();
-      while(e.hasMoreElements())
+      else
       {
-         v.addElement(e.nextElement());
-      }
-
-      // Child Elements
+         // Otherwise, match rows by property value. Because the same value
+         // can occur more than once, we count the rows for each value. Since
+         // the rows for a value are deleted with "WHERE FK = ? AND Column = ?",
+         // NULLs can't be deleted this way, so give up if there are any.
 
-      e = classMapBase.getChildMaps();
-      while(e.hasMoreElements())
-      {
-         Object map = e.nextElement();
-         if (map instanceof PropertyMap)
+         for (int i = 0; i < oldRows.size(); i++)
          {
-            v.addElement(map);
+            oldRow = (Row)oldRows.elementAt(i);
+            key = oldRow.getColumnValue(propColumn);
+            if (key == null)
+            {
+               replacePropTableRows(ctx, classRow, propMap, newRows);
+               return;
+            }
+            addMatch(oldByKey, key, oldRow);
          }
-         else if (map instanceof InlineClassMap)
+
+         for (int i = 0; i < newRows.size(); i++)
          {
-            Vector v1 = getAllPropertyMaps((InlineClassMap)map);
-            for (int i = 0; i < v1.size(); i++)
+            newRow = (Row)newRows.elementAt(i);
+            key = newRow.getColumnValue(propColumn);
+            matches = (key == null) ? null : (Vector)oldByKey.get(key);
+            if ((matches == null) || (matches.size() == 0))
+            {
+               inserts.addElement(newRow);
+            }
+            else
             {
-               v.addElement(v1.elementAt(i));
+               matches.removeElementAt(matches.size() - 1);
             }
          }
+
+         // If any old rows remain for a value, there are more old rows than new
+         // rows with that value. Since a DELETE removes all the rows with the
+         // value, delete them all and insert the number of new rows.
+
+         replaceUnmatchedValues(oldByKey, propColumn, newRows, deletes, inserts);
       }
 
-      // Cache
+      // Delete the old rows first, since an insert or update might conflict with
+      // them. Deletes and updates are not batched; DataHandler executes any
+      // batched rows before each one.
 
-      m_classAllProperties.put(classMapBase, v);
+      rowKey = getPropRowKey(propMap, orderInfo);
+      for (int i = 0; i < deletes.size(); i++)
+      {
+         deleteRow(ctx, propTable, (Row)deletes.elementAt(i), rowKey, false);
+      }
+
+      updateCols = new Vector(1);
+      updateCols.addElement(propColumn);
+      for (int i = 0; i < updates.size(); i++)
+      {
+         updateRow(ctx, propTable, (Row)updates.elementAt(i), updateCols);
+      }
 
-      return v;
+      insertPropTableRows(ctx, propTable, inserts);
    }
 
    /**
-    * Gets the action for a given element.
+    * Deletes all rows for a property and inserts the new rows.
     */
-   private Action getActionFor(Element el)
-      throws XMLMiddlewareException
+   private void replacePropTableRows(DOMContext ctx, Row classRow, PropertyMap propMap, Vector newRows)
+      throws SQLException, XMLMiddlewareException
    {
-      // See if there is an action for the specified element. If so, use it. If
-      // not, use the default. If there is no default, throw an exception.
+      Table    propTable = propMap.getTable();
+      LinkInfo li = propMap.getLinkInfo();
 
-      Action action = m_actions.getAction(el.getNamespaceURI(), el.getLocalName());
+      // This is what deletePropTableRows and processPropRow do.
 
-      if (action == null)
-      {
-         action = m_actions.getDefaultAction();
-      }
-
-      if (action == null)
-         throw new XMLMiddlewareException("No default action specified.");
+      deleteRow(ctx, propTable, createKeyRow(propTable, classRow, li), li.getChildKey(), true);
+      insertPropTableRows(ctx, propTable, newRows);
+   }
 
-      // TODO: When action: attributes are implemented put code here
+   private void insertPropTableRows(DOMContext ctx, Table propTable, Vector rows)
+      throws SQLException, XMLMiddlewareException
+   {
+      // storeRow batches the rows if the batch size is greater than 0.
 
-      return action;
+      for (int i = 0; i < rows.size(); i++)
+      {
+         storeRow(ctx, propTable, (Row)rows.elementAt(i), Action.INSERT);
+      }
    }
 
    /**
-    * Builds a set of expressions of the form "Column=value AND ..."
+    * Retrieves the existing rows in a property table for a class row.
     */
-   private String buildCondition(Vector columns, Vector values)
-      throws XMLMiddlewareException
+   private Vector selectPropTableRows(DOMContext ctx, Row classRow, PropertyMap propMap, OrderInfo orderInfo)
+      throws SQLException, XMLMiddlewareException
    {
-      String       value;
-      StringBuffer sb = new StringBuffer();
-      Column       column;
+      Table       propTable = propMap.getTable();
+      LinkInfo    li = propMap.getLinkInfo();
+      Key         childKey = li.getChildKey();
+      Row         keyRow;
+      DataHandler dataHandler;
+      ResultSet   rs;
+      Vector      rows = new Vector();
+      Row         row;
+
+      dataHandler = getDataHandler(ctx, propTable);
+
+      // Create a fake property table row containing the key from the
+      // class row, as in deletePropTableRows.
 
-      for (int i = 0; i < columns.size(); i++)
+      keyRow = createKeyRow(propTable, classRow, li);
+
+      rs = dataHandler.select(propTable, childKey, keyRow.getColumnValues(childKey.getColumns()),
+                              null, null, null, orderInfo);
+      while (rs.next())
       {
-         column = (Column)columns.elementAt(i);
-         if (i != 0) sb.append(AND);
-         sb.append(column.getName());
-         sb.append('=');
-         value = SQLLiterals.buildLiteral(column.getType(), values.elementAt(i), column.getFormatter());
-         sb.append(value);
-         sb.append(' ');
+         row = new Row();
+         row.setColumnValues(rs, propTable, false);
+         rows.addElement(row);
       }
-      return sb.toString();
-   }
+      rs.close();
 
-   // ************************************************************************
-   // Helper methods -- keys
-   // ************************************************************************
+      return rows;
+   }
 
    /**
-    * Copy the child key to parent row.
+    * Get the OrderInfo by which property table rows are matched. Null if
+    * rows are matched by value.
     */
-   private void setParentKey(Row parentRow, Row childRow, LinkInfo l)
-      throws XMLMiddlewareException
+   private OrderInfo getPropOrderInfo(PropertyMap propMap)
    {
-      Vector childCols = l.getChildKey().getColumns();
+      OrderInfo orderInfo;
+      Column    orderColumn;
+
+      // The order of a token is stored according to the token list order
+      // info. The order of any other property is stored according to the
+      // property's order info (see processProperty and processPropRow).
 
-      // We shouldn't ever hit this, but it might be possible if a
-      // database-generated key value isn't generated.
+      orderInfo = (propMap.isTokenList()) ? propMap.getTokenListOrderInfo() : propMap.getOrderInfo();
+      if ((orderInfo == null) || orderInfo.orderValueIsFixed() || !orderInfo.generateOrder())
+         return null;
 
-      if (!childRow.areColumnsSet(childCols))
-         throw new XMLMiddlewareException("Internal error. The child key is not set yet.");
+      orderColumn = orderInfo.getOrderColumn();
+      if (propMap.getTable().getColumn(orderColumn.getName()) != orderColumn)
+         return null;
 
-      parentRow.setColumnValues(l.getParentKey().getColumns(),
-                                childRow.getColumnValues(childCols));
+      return orderInfo;
    }
 
    /**
-    * Copy the parent key to a child row.
+    * Get the key that identifies a single property table row (or the rows
+    * with a single value).
     */
-   private void setChildKey(Row parentRow, Row childRow, LinkInfo l)
-      throws XMLMiddlewareException
+   private Key getPropRowKey(PropertyMap propMap, OrderInfo orderInfo)
    {
-      Vector parentCols = l.getParentKey().getColumns();
+      Key    key;
+      Column column;
+      Vector columns;
 
-      // We shouldn't ever hit this, but it might be possible if a
-      // database-generated key value isn't generated.
+      key = (Key)m_propRowKeys.get(propMap);
+      if (key == null)
+      {
+         // The key is the key to the class table plus the order column (if rows
+         // are matched by order) or property column (if rows are matched by value).
+         // The key name is used by SQLStrings to cache the DELETE statement.
 
-      if (!parentRow.areColumnsSet(parentCols))
-         throw new XMLMiddlewareException("Internal error. The parent key is not set yet.");
+         column = (orderInfo != null) ? orderInfo.getOrderColumn() : propMap.getColumn();
+         columns = (Vector)propMap.getLinkInfo().getChildKey().getColumns().clone();
+         columns.addElement(column);
 
-      childRow.setColumnValues(l.getChildKey().getColumns(),
-                               parentRow.getColumnValues(parentCols));
+         key = Key.createUniqueKey(PROPROWKEY + column.getName());
+         key.setColumns(columns);
+         m_propRowKeys.put(propMap, key);
+      }
+      return key;
    }
 
    /**
-    * Use a KeyGenerator to generate a key.
+    * Whether an existing property table row can be updated by primary key.
     */
-   private void generateKey(Row row, Key key)
-      throws XMLMiddlewareException
+   private boolean canUpdatePropRow(Table propTable, Column propColumn, Row oldRow)
    {
-      KeyGenerator keyGen = (KeyGenerator)m_keyGenerators.get(key.getKeyGeneratorName());
-
-      if (keyGen == null)
-         throw new XMLMiddlewareException("No KeyGenerator added for the key generator named " + key.getKeyGeneratorName());
-
-      Vector columns = key.getColumns();
-      Vector values = keyGen.generateKey();
+      Key    priKey = propTable.getPrimaryKey();
+      Vector priCols;
 
-      if (columns.size() != values.size())
-         throw new XMLMiddlewareException("Invalid number of columns generated by key generator: " + key.getKeyGeneratorName());
+      if (priKey == null) return false;
+      priCols = priKey.getColumns();
+      if (priCols.contains(propColumn)) return false;
 
-      for(int i = 0; i < columns.size(); i++)
+      for (int i = 0; i < priCols.size(); i++)
       {
-         // Convert each generated key column value to the appropriate type for
-         // the actual column, then set the column in the row.
-
-         Column column = (Column)columns.elementAt(i);
-         Object value = ConvertObject.convertObject(values.elementAt(i), column.getType(), column.getFormatter());
-         row.setColumnValue(column, value);
+         if (oldRow.getColumnValue((Column)priCols.elementAt(i)) == null) return false;
       }
+      return true;
    }
 
-   // ************************************************************************
-   // Helper methods -- database
-   // ************************************************************************
-
    /**
-    * Send a row to a DataHandler for processing.
+    * Adds old rows whose values occur fewer times in the new rows to the
+    * delete list and the new rows with those values to the insert list.
     */
-   private void storeRow(Table table, Row row, int action)
-      throws SQLException, XMLMiddlewareException
+   private void replaceUnmatchedValues(Hashtable oldByValue, Column propColumn, Vector newRows,
+                                       Vector deletes, Vector inserts)
    {
-
-      boolean soft = false;
-
-      // Get the database
-      // TODO: (What about the 'null' or default database?)
-      DataHandler dataHandler = m_dbMap.getDataHandler(table.getDatabaseName());
-
-      if (dataHandler == null)
-         throw new XMLMiddlewareException("DataHandler not set for the database named " + table.getDatabaseName());
-
-      try
+      Hashtable   replaced = new Hashtable();
+      Enumeration values;
+      Object      value;
+      Vector      matches;
+      Row         newRow;
+
+      values = oldByValue.keys();
+      while (values.hasMoreElements())
       {
-         switch(action)
+         value = values.nextElement();
+         matches = (Vector)oldByValue.get(value);
+         if (matches.size() > 0)
          {
-            case Action.NONE:
-               break;
-
-            case Action.SOFTINSERT:
-               soft = true;
-            case Action.INSERT:
-               dataHandler.insert(table, row);
-               break;
-
-            case Action.UPDATEORINSERT:
-               dataHandler.updateOrInsert(table, row);
-               break;
-
-            case Action.UPDATE:
-               // NOTE: We only set the appropriate columns in the row anyway
-               // so there's no need to pass in a set of columns to update
-               dataHandler.update(table, row, null);
-               break;
+            deletes.addElement(matches.elementAt(0));
+            replaced.put(value, value);
+         }
+      }
 
-            case Action.SOFTDELETE:
-            case Action.DELETE:
-               throw new XMLMiddlewareException("DELETE and SOFTDELETE actions cannot be used with DOMToDBMS.");
+      // All the new rows with these values were matched, so none are
+      // already in the insert list.
 
-            default:
-               throw new XMLMiddlewareException("Internal error. Invalid action in storeRow.");
-         };
-      }
-      catch(SQLException e)
+      for (int i = 0; i < newRows.size(); i++)
       {
-         if (soft)
+         newRow = (Row)newRows.elementAt(i);
+         value = newRow.getColumnValue(propColumn);
+         if ((value != null) && replaced.containsKey(value))
          {
-            pushWarning(new SQLWarning(e.getMessage(), e.getSQLState()));
+            inserts.addElement(newRow);
          }
-         else
-            throw e;
       }
    }
 
-   /**
-    * Deletes rows from a property table for a particular property.
-    */
-   private void deletePropTableRows(Row classRow, Vector useProps, Action action)
-      throws SQLException, XMLMiddlewareException
+   private void addMatch(Hashtable hash, Object key, Row row)
    {
-      // When a property (usually multi-valued) is stored in a property table,
-      // "updating" the property means deleting all the old rows and inserting
-      // the new rows.
+      Vector matches = (Vector)hash.get(key);
 
-      if (action.getAction() == Action.UPDATE ||
-          action.getAction() == Action.UPDATEORINSERT)
+      if (matches == null)
       {
-         for(int i = 0; i < useProps.size(); i++)
-         {
-            // For each property stored in a property table, delete any
-            // existing rows from the property table.
-
-            PropertyMap propMap = (PropertyMap)useProps.elementAt(i);
-
-            Table propTable = propMap.getTable();
-            if (propTable != null)
-            {
-               // Note that for the link between class tables and property tables,
-               // the unique key is always in the class table.
-
-               LinkInfo li = propMap.getLinkInfo();
+         matches = new Vector();
+         hash.put(key, matches);
+      }
+      matches.addElement(row);
+   }
 
-               // Create a fake property table row. This contains the key from
-               // the parent (class table) row, so it can be used to delete
-               // the child (property table) row or rows.
+   private Object getOrderValue(Row row, OrderInfo orderInfo)
+      throws XMLMiddlewareException
+   {
+      Column column = orderInfo.getOrderColumn();
+      Object value = row.getColumnValue(column);
 
-               Row propRow = createRow(propTable, classRow, li);
+      // Convert the order value to a Long so that values retrieved from the
+      // database can be compared with generated values.
 
-               // Delete the row from the property table. Note that we set the
-               // soft parameter to true, since all we care about is making sure
-               // that there are no rows for this key in the property table -- it
-               // doesn't matter if any previously existed or not.
+      return (value == null) ? null : ConvertObject.convertObject(value, Types.BIGINT, column.getFormatter());
+   }
 
-               deleteRow(propTable, propRow, li.getChildKey(), true);
-            }
-         }
-      }
+   private boolean valuesEqual(Object o1, Object o2)
+   {
+      // If the values are not equal according to equals(), the row is
+      // updated. This is never incorrect, although it might be unnecessary.
+
+      if (o1 == null) return (o2 == null);
+      if (o2 == null) return false;
+      if ((o1 instanceof BigDecimal) && (o2 instanceof BigDecimal))
+         return ((BigDecimal)o1).compareTo((BigDecimal)o2) == 0;
+      return o1.equals(o2);
    }
 
    /**
-    * Delete a row or rows.
+    * Update a row.
     */
-   private void deleteRow(Table table, Row row, Key key, boolean soft)
+   private void updateRow(DOMContext ctx, Table table, Row row, Vector columns)
       throws SQLException, XMLMiddlewareException
    {
-      // Get the DataHandler for the database
-      // TODO: (What about the 'null' or default database?)
-
-      DataHandler dataHandler = m_dbMap.getDataHandler(table.getDatabaseName());
-      if (dataHandler == null)
-         throw new XMLMiddlewareException("Database '" + table.getDatabaseName() + "' not set.");
+      DataHandler dataHandler = getDataHandler(ctx, table);
 
-      // Delete the row or rows
-
-      try
-      {
-         dataHandler.delete(table, row, key);
-      }
-      catch(SQLException e)
-      {
-         if (soft)
-         {
-            pushWarning(new SQLWarning(e.getMessage(), e.getSQLState()));
-         }
-         else
-            throw e;
-      }
+      dataHandler.update(table, row, columns);
    }
 
    // ************************************************************************
-   // Helper methods -- exception handling
+   // Inner classes
    // ************************************************************************
 
-   /**
-    * Adds an SQLException to the chain (returned from getExceptions)
-    */
-   private void pushException(SQLException e)
-   {
-      // TODO: What order do we chain the exceptions?
+   // The state of a single call to storeDocument. The configuration properties
+   // are copied when the call starts, so changing them while a document is being
+   // stored on another thread does not affect that document.
 
-      if (m_sqlExceptions == null)
-      {
-         m_sqlExceptions = e;
-      }
-      else
-      {
-         m_sqlExceptions.setNextException(e);
-      }
-   }
-
-   /**
-    * Adds an SQLWarning to the chain (returned from getWarnings)
-    */
-   private void pushWarning(SQLWarning w)
+   class DOMContext extends StoreContext
    {
-      // TODO: What order do we chain the warnings?
+      boolean incrementalPropUpdates;
 
-      if (m_sqlWarnings == null)
-      {
-         m_sqlWarnings = w;
-      }
-      else
+      DOMContext(DBEnabledMap dbMap, Actions actions)
       {
-         m_sqlWarnings.setNextWarning(w);
+         super(dbMap, actions);
+         this.incrementalPropUpdates = m_incrementalPropUpdates;
       }
    }
 
-   // ************************************************************************
-   // Inner classes
-   // ************************************************************************
-
    // Class used to save nodes for later processing. These nodes are mapped
    // to tables in which the candidate key of the parent's table is used as a
    // foreign key in the node's table. Such rows must be processed after the
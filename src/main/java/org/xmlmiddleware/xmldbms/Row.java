@@ -29,6 +29,13 @@ import java.util.*;
 
 /**
  * Caches data for a single row. For internal use.
+ *
+ * <p>Column values are stored in an array indexed by Column ordinal. The
+ * Column whose value is stored in each position is stored in a parallel
+ * array; a position is set only if it holds the Column being looked up, so
+ * a null value in a set position is a NULL. Values for Columns that do
+ * not have an ordinal, or whose position is held by a Column from another
+ * Table, are stored in a Hashtable.</p>
  */
 
 public class Row
@@ -37,7 +44,10 @@ public class Row
    // Variables
    // ********************************************************************
 
-   private Hashtable m_columnValues;
+   private Object[]  m_values;          // Values indexed by Column ordinal
+   private Column[]  m_columns;         // Columns for which m_values is set
+   private int       m_size = 0;        // One more than the highest ordinal set
+   private Hashtable m_otherValues = null; // Values that don't fit in m_values
 
    // ********************************************************************
    // Constants
@@ -45,6 +55,11 @@ public class Row
 
    private static final String EMPTYSTRING = "";
    private static final String SPACE = " ";
+   private static final int    INITIALSIZE = 16;
+
+   // Hashtable won't accept null objects, so we use a placeholder for NULL
+
+   private static final Object NULL = new Object();
 
    // ********************************************************************
    // Constructors
@@ -55,7 +70,8 @@ public class Row
     */
    public Row()
    {
-      m_columnValues = new Hashtable();
+      m_values = new Object[INITIALSIZE];
+      m_columns = new Column[INITIALSIZE];
    }
 
    // ********************************************************************
@@ -70,17 +86,27 @@ public class Row
     */
    public void setColumnValue(Column column, Object value)
    {
-      // Hashtable won't accept null objects, so we create
-      // a placeholder for NULL
+      int ordinal = column.getOrdinal();
 
-      if(value == null)
-      {
-         m_columnValues.put(column, new Null());
-      }
-      else
+      if (ordinal >= 0)
       {
-         m_columnValues.put(column, value);
+         if (ordinal >= m_columns.length) grow(ordinal);
+         if ((m_columns[ordinal] == null) || (m_columns[ordinal] == column))
+         {
+            m_columns[ordinal] = column;
+            m_values[ordinal] = value;
+            if (ordinal >= m_size) m_size = ordinal + 1;
+
+            // If the position was previously held by a column from another
+            // table, the value might be in the Hashtable, so remove it.
+
+            if (m_otherValues != null) m_otherValues.remove(column);
+            return;
+         }
       }
+
+      if (m_otherValues == null) m_otherValues = new Hashtable();
+      m_otherValues.put(column, (value == null) ? NULL : value);
    }
 
    /**
@@ -92,16 +118,15 @@ public class Row
     */
    public Object getColumnValue(Column column)
    {
-      Object val = m_columnValues.get(column);
+      int    ordinal = column.getOrdinal();
+      Object val;
 
-      if(val == null || val instanceof Null)
-      {
-         return null;
-      }
-      else
-      {
-         return val;
-      }
+      if ((ordinal >= 0) && (ordinal < m_size) && (m_columns[ordinal] == column))
+         return m_values[ordinal];
+
+      if (m_otherValues == null) return null;
+      val = m_otherValues.get(column);
+      return (val == NULL) ? null : val;
    }
 
    /**
@@ -111,15 +136,33 @@ public class Row
     */
    public void removeColumnValue(Column column)
    {
-      m_columnValues.remove(column);
+      int ordinal = column.getOrdinal();
+
+      if ((ordinal >= 0) && (ordinal < m_size) && (m_columns[ordinal] == column))
+      {
+         m_columns[ordinal] = null;
+         m_values[ordinal] = null;
+      }
+      else if (m_otherValues != null)
+      {
+         m_otherValues.remove(column);
+      }
    }
 
    /**
     * Remove all column values.
+    *
+    * <p>The Row keeps its arrays, so it can be reused for another row.</p>
     */
    public void removeAllColumnValues()
    {
-      m_columnValues.clear();
+      for (int i = 0; i < m_size; i++)
+      {
+         m_columns[i] = null;
+         m_values[i] = null;
+      }
+      m_size = 0;
+      m_otherValues = null;
    }
 
    /**
@@ -270,13 +313,16 @@ public class Row
     */
    public Vector getColumnVectorFor(Table table)
    {
-      Vector cols = new Vector();
-      Enumeration e = table.getColumns();
+      int    count = table.getOrdinalCount();
+      Vector cols = new Vector(count);
+      Column col;
 
-      while(e.hasMoreElements())
+      // Columns are returned in ordinal order.
+
+      for (int i = 0; i < count; i++)
       {
-         Column col = (Column)e.nextElement();
-         if(isColumnSet(col))
+         col = table.getColumn(i);
+         if ((col != null) && isColumnSet(col))
          {
             cols.addElement(col);
          }
@@ -285,6 +331,34 @@ public class Row
       return cols;
    }
 
+   /**
+    * Get a BitSet identifying the columns in a table that have values in the row.
+    *
+    * <p>Bit n is set if the column with ordinal n in the table has a value
+    * (including null). Rows with equal BitSets have the same column Vector
+    * for the table.</p>
+    *
+    * @param table The table.
+    * @return The BitSet.
+    */
+   public BitSet getColumnBitSetFor(Table table)
+   {
+      int    count = table.getOrdinalCount();
+      BitSet bits = new BitSet(count);
+      Column col;
+
+      for (int i = 0; i < count; i++)
+      {
+         col = table.getColumn(i);
+         if ((col != null) && isColumnSet(col))
+         {
+            bits.set(i);
+         }
+      }
+
+      return bits;
+   }
+
    /**
     * Whether a column has a value (including null).
     *
@@ -293,7 +367,12 @@ public class Row
     */
    boolean isColumnSet(Column column)
    {
-      return m_columnValues.get(column) != null;
+      int ordinal = column.getOrdinal();
+
+      if ((ordinal >= 0) && (ordinal < m_size) && (m_columns[ordinal] == column))
+         return true;
+
+      return (m_otherValues != null) && m_otherValues.containsKey(column);
    }
 
    /**
@@ -318,14 +397,22 @@ public class Row
    }
 
    // ********************************************************************
-   // Variables
+   // Private methods
    // ********************************************************************
 
-   /**
-    * Denotes a null value in the row.
-    */
-   class Null
+   private void grow(int ordinal)
    {
-   };
-
+      int      size = m_columns.length * 2;
+      Object[] values;
+      Column[] columns;
+
+      if (size <= ordinal) size = ordinal + 1;
+
+      values = new Object[size];
+      columns = new Column[size];
+      System.arraycopy(m_values, 0, values, 0, m_size);
+      System.arraycopy(m_columns, 0, columns, 0, m_size);
+      m_values = values;
+      m_columns = columns;
+   }
 }
@@ -0,0 +1,1121 @@
+// This software is in the public domain.
+//
+// The software is provided "as is", without warranty of any kind,
+// express or implied, including but not limited to the warranties
+// of merchantability, fitness for a particular purpose, and
+// noninfringement. In no event shall the author(s) be liable for any
+// claim, damages, or other liability, whether in an action of
+// contract, tort, or otherwise, arising from, out of, or in connection
+// with the software or the use or other dealings in the software.
+//
+// Parts of this software were originally developed in the Database
+// and Distributed Systems Group at the Technical University of
+// Darmstadt, Germany:
+//
+//    http://www.informatik.tu-darmstadt.de/DVS1/
+
+// Version 2.0
+// Changes from version 1.x: New in version 2.0
+
+package org.xmlmiddleware.xmldbms;
+
+import org.xmlmiddleware.utils.XMLMiddlewareException;
+import org.xmlmiddleware.xmldbms.filters.*;
+import org.xmlmiddleware.xmldbms.maps.*;
+import org.xmlmiddleware.xmldbms.actions.*;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+
+import org.xml.sax.*;
+import org.xml.sax.helpers.*;
+
+/**
+ * Transfers data from a stream of SAX events to the database.
+ *
+ * <p>SAXToDBMS stores the same data as DOMToDBMS, according to the same
+ * XMLDBMSMap and Actions objects, but does not build a DOM tree. Instead,
+ * it listens to the events of an XMLReader and builds rows as it goes. A
+ * row is stored when the end tag of its class element is reached (or, if
+ * the row contains a foreign key to its parent's row, after the parent row
+ * has been stored). If nothing inside a class element changes its row --
+ * that is, all the properties stored in the class table are attributes and
+ * no child row contains the unique key of the link to the row -- the row is
+ * stored at the start tag instead, and the rows that point to it are stored
+ * as soon as they are complete. Thus, SAXToDBMS usually holds only the stack
+ * of open elements and the rows of the class elements currently being
+ * processed. Rows that point to a row that is not stored until its end tag
+ * are kept until then, so if such a class element is the root element, the
+ * rows of the whole document are kept in memory.</p>
+ *
+ * <p>For example, the following code transfers data from orders.xml according
+ * to the map document orders.map and the action document orders.act:</p>
+ *
+ * <pre>
+ *    // Create the XMLDBMSMap and Actions objects with user-defined functions.
+ *    <br />
+ *    map = createMap("orders.map");
+ *    actions = createActions(map, "orders.act");
+ *    <br />
+ *    // Create a data source and build a database-enabled map.
+ *    <br />
+ *    ds = new JDBC1DataSource("sun.jdbc.odbc.JdbcOdbcDriver", "jdbc:odbc:xmldbms");
+ *    dbMap = new DBEnabledMap(map, null, ds, "ron", "passwd");
+ *    <br />
+ *    // Get an XMLReader and call storeDocument to transfer the data.
+ *    <br />
+ *    utils = new ParserUtilsXerces();
+ *    saxToDBMS = new SAXToDBMS();
+ *    saxToDBMS.storeDocument(dbMap, utils.getXMLReader(false),
+ *                            new InputSource(new FileInputStream("orders.xml")), actions);
+ * </pre>
+ *
+ * <p>Like DOMToDBMS, SAXToDBMS stores data starting with the first element it
+ * finds that is mapped as a class and ignores elements that are not mapped.
+ * There are two differences. First, rows in child tables that contain a foreign
+ * key are stored after all of the parent's content has been read, rather than
+ * in document order. Second, namespace declarations are not serialized in the
+ * values of properties that contain XML, since the XMLReader does not report
+ * them as attributes.</p>
+ *
+ * <p>As in DOMToDBMS, the DELETE and SOFTDELETE actions are not supported;
+ * storeDocument throws an XMLMiddlewareException if an element is to be
+ * deleted. Use DBMSDelete to delete documents.</p>
+ *
+ * <p>SAXToDBMS is reentrant. All state used while storing a document, including
+ * the stack of open elements, is kept in a context object that is private to the
+ * call to storeDocument. This object is also the ContentHandler passed to the
+ * XMLReader. Thus, a single, configured SAXToDBMS object can be used by many
+ * threads at once, as long as each thread uses its own DBEnabledMap and
+ * XMLReader. For more information, see XMLToDBMSBase.</p>
+ *
+ * @version 2.0
+ * @see DOMToDBMS
+ */
+
+public class SAXToDBMS
+   extends XMLToDBMSBase
+{
+   // ************************************************************************
+   // Private variables
+   // ************************************************************************
+
+   // Cached objects. These are here for efficiency (see getClassCompleteAtStart)
+
+   private Hashtable m_classCompleteAtStart;
+
+   // ************************************************************************
+   // Constants
+   // ************************************************************************
+
+   // Frame types
+
+   private static final int ROOT     = 1; // Unmapped element outside any class element
+   private static final int CLASS    = 2; // Class element
+   private static final int INLINE   = 3; // Inlined class element
+   private static final int PROPERTY = 4; // Property element
+   private static final int IGNORE   = 5; // Unmapped element inside a class element
+
+   private static final String NAMESPACES = "http://xml.org/sax/features/namespaces";
+
+   private static final String DUMMY = "dummy";
+   private static final String AMPENTITY = "&amp;";
+   private static final String LTENTITY = "&lt;";
+   private static final String QUOTENTITY = "&quot;";
+
+   // ************************************************************************
+   // Constructors
+   // ************************************************************************
+
+   /**
+    * Create a SAXToDBMS object.
+    */
+   public SAXToDBMS()
+   {
+      super();
+      m_classCompleteAtStart = new Hashtable();
+   }
+
+   // ************************************************************************
+   // Public methods
+   // ************************************************************************
+
+   /**
+    * Store an XML document in the database using a single action.
+    *
+    * @param dbMap A database-enabled map.
+    * @param xmlReader The XMLReader used to parse the document. This must
+    *    support namespaces.
+    * @param src The document to store.
+    * @param action Action to take on the document.
+    * @return Null or a FilterSet describing the stored data. See setFilterSetReturned().
+    */
+   public FilterSet storeDocument(DBEnabledMap dbMap, XMLReader xmlReader, InputSource src, int action)
+      throws SQLException, XMLMiddlewareException
+   {
+      Action act = new Action();
+      act.setAction(action);
+
+      Actions actions = new Actions(dbMap.getMap());
+      actions.setDefaultAction(act);
+
+      return storeDocument(dbMap, xmlReader, src, actions);
+   }
+
+   /**
+    * Store an XML document in the database using a set of actions.
+    *
+    * @param dbMap A database-enabled map.
+    * @param xmlReader The XMLReader used to parse the document. This must
+    *    support namespaces.
+    * @param src The document to store.
+    * @param actions Actions to take on various elements of the document.
+    * @return Null or a FilterSet describing the stored data. See setFilterSetReturned().
+    */
+   public FilterSet storeDocument(DBEnabledMap dbMap, XMLReader xmlReader, InputSource src, Actions actions)
+      throws SQLException, XMLMiddlewareException
+   {
+      // Create the context for this call. This holds all per-document state,
+      // including the stack of open elements, and is the ContentHandler for
+      // the XMLReader, so that calls on different threads don't interfere
+      // with each other.
+
+      SAXContext ctx = new SAXContext(dbMap, actions);
+
+      try
+      {
+         storeDocument(ctx, xmlReader, src);
+         return ctx.filterSet;
+      }
+      finally
+      {
+         ctx.release();
+      }
+   }
+
+   private void storeDocument(SAXContext ctx, XMLReader xmlReader, InputSource src)
+      throws SQLException, XMLMiddlewareException
+   {
+      startDocument(ctx);
+
+      // Parse the document. Rows are stored from the ContentHandler methods.
+      // If an exception occurs, abortDocument notifies the DataHandlers so they
+      // can roll back the current transaction, then rethrows the exception so
+      // the calling code knows about it.
+
+      try
+      {
+         xmlReader.setFeature(NAMESPACES, true);
+         xmlReader.setContentHandler(ctx);
+         xmlReader.parse(src);
+         endDocument(ctx);
+      }
+      catch (Exception ex)
+      {
+         // Get the embedded Exception (if any).
+
+         if ((ex instanceof SAXException) && (((SAXException)ex).getException() != null))
+         {
+            ex = ((SAXException)ex).getException();
+         }
+
+         abortDocument(ctx, ex);
+      }
+   }
+
+   // ************************************************************************
+   // org.xml.sax.ContentHandler methods
+   // ************************************************************************
+
+   // These are called by the SAXContext of the current call, which is the
+   // ContentHandler for the XMLReader.
+
+   private void startElement(SAXContext ctx, String uri, String localName, String qName, Attributes attrs)
+      throws SAXException
+   {
+      Frame parent, frame;
+
+      // SAX uses an empty string for elements that are not in a namespace. The
+      // maps use null.
+
+      if ((uri != null) && (uri.length() == 0)) uri = null;
+
+      parent = (ctx.frames.empty()) ? null : (Frame)ctx.frames.peek();
+
+      try
+      {
+         if ((parent == null) || (parent.type == ROOT))
+         {
+            frame = startRootChild(ctx, parent, uri, localName, attrs);
+         }
+         else if ((parent.type == CLASS) || (parent.type == INLINE))
+         {
+            processText(ctx, parent);
+            frame = startChild(ctx, parent, uri, localName, attrs);
+         }
+         else if (parent.type == PROPERTY)
+         {
+            // Elements inside a property element are part of the property value.
+
+            appendStartTag(parent, qName, attrs);
+            parent.depth++;
+            frame = null;
+         }
+         else // if (parent.type == IGNORE)
+         {
+            parent.depth++;
+            frame = null;
+         }
+      }
+      catch (Exception e)
+      {
+         // If the exception was saved, ignore the rest of the class element.
+
+         handleException(ctx, parent, e);
+         frame = new Frame(IGNORE, parent.owner, 0);
+      }
+
+      if (frame != null) ctx.frames.push(frame);
+   }
+
+   private void endElement(SAXContext ctx, String uri, String localName, String qName)
+      throws SAXException
+   {
+      Frame frame = (Frame)ctx.frames.peek();
+
+      // Elements that are ignored or that are inside a property element
+      // have no frame of their own.
+
+      if ((frame.type == IGNORE) || (frame.type == PROPERTY))
+      {
+         if (frame.depth > 0)
+         {
+            if (frame.type == PROPERTY) appendEndTag(frame, qName);
+            frame.depth--;
+            return;
+         }
+      }
+
+      ctx.frames.pop();
+
+      try
+      {
+         switch (frame.type)
+         {
+            case CLASS:
+               processText(ctx, frame);
+               endClass(ctx, frame);
+               break;
+
+            case INLINE:
+               processText(ctx, frame);
+               processAttributes(ctx, frame);
+               break;
+
+            case PROPERTY:
+               processProperty(ctx, frame.owner, frame.propMap, getValue(ctx, frame.value.toString()), frame.orderInParent);
+               break;
+
+            default:
+               ctx.text.setLength(0);
+               break;
+         }
+      }
+      catch (Exception e)
+      {
+         handleException(ctx, (frame.type == CLASS) ? frame : frame.owner, e);
+      }
+   }
+
+   private void characters(SAXContext ctx, char ch[], int start, int length)
+      throws SAXException
+   {
+      Frame frame = (ctx.frames.empty()) ? null : (Frame)ctx.frames.peek();
+
+      if (frame == null) return;
+
+      switch (frame.type)
+      {
+         case CLASS:
+         case INLINE:
+            // Save the text. It is processed when the next tag is reached, so
+            // that adjacent text, CDATA sections, and entities are concatenated.
+
+            if (!frame.owner.failed) ctx.text.append(ch, start, length);
+            break;
+
+         case PROPERTY:
+            if (frame.propMap.containsXML())
+               appendEscaped(frame.value, ch, start, length);
+            else
+               frame.value.append(ch, start, length);
+            break;
+
+         default:
+            break;
+      }
+   }
+
+   // ************************************************************************
+   // Main Processing Methods
+   // ************************************************************************
+
+   // The processing flow follows that of DOMToDBMS. The main difference is that
+   // rows that contain a foreign key pointing to their parent's row cannot be
+   // stored until the parent row has been stored, and the parent row is not
+   // complete until its end tag is reached. Such rows are therefore saved as
+   // PendingRows in the parent's frame and are stored by storeClassRow. Rows
+   // that contain the unique key of the link are stored as soon as the end
+   // tag of their element is reached. Rows that are complete at the start tag
+   // are stored then (see isCompleteAtStart), and the rows that point to them
+   // are stored without being saved as PendingRows.
+
+   /**
+    * Start an element that is not inside a class element.
+    */
+   private Frame startRootChild(SAXContext ctx, Frame parent, String uri, String localName, Attributes attrs)
+      throws SQLException, XMLMiddlewareException
+   {
+      long     orderInParent = (parent == null) ? 1 : parent.childOrder++;
+      ClassMap classMap = ctx.dbMap.getMap().getClassMap(uri, localName);
+
+      // If the element is not mapped as a class element, ignore it and
+      // process its children. Otherwise, start a new class row.
+
+      if (classMap == null)
+         return new Frame(ROOT, null, orderInParent);
+      else
+         return startClass(ctx, null, classMap, null, uri, localName, attrs, orderInParent);
+   }
+
+   /**
+    * Start a child element of a class or inlined class element.
+    */
+   private Frame startChild(SAXContext ctx, Frame parent, String uri, String localName, Attributes attrs)
+      throws SQLException, XMLMiddlewareException
+   {
+      Frame  frame;
+      Object childMap;
+      long   order;
+      Frame  owner = parent.owner;
+
+      if (owner.failed) return new Frame(IGNORE, owner, 0);
+
+      order = parent.childOrder++;
+      childMap = parent.map.getChildMap(uri, localName);
+
+      if (childMap instanceof PropertyMap)
+      {
+         // Only process the property if it is being used (useProps).
+
+         if (owner.useProps.contains(childMap))
+         {
+            frame = new Frame(PROPERTY, owner, order);
+            frame.propMap = (PropertyMap)childMap;
+            frame.value = new StringBuffer();
+            return frame;
+         }
+      }
+      else if (childMap instanceof RelatedClassMap)
+      {
+         RelatedClassMap relMap = (RelatedClassMap)childMap;
+         return startClass(ctx, owner, relMap.getClassMap(), relMap, uri, localName, attrs, order);
+      }
+      else if (childMap instanceof InlineClassMap)
+      {
+         // Generate the order column value of the inline element, if any. The
+         // children of the element are processed as if they were children of
+         // the class element (which owns the row).
+
+         generateOrder(owner.row, ((InlineClassMap)childMap).getOrderInfo(), order);
+
+         frame = new Frame(INLINE, owner, order);
+         frame.map = (InlineClassMap)childMap;
+         frame.attrs = new AttributesImpl(attrs);
+         return frame;
+      }
+
+      // The element is not mapped or the property is not used.
+
+      return new Frame(IGNORE, owner, 0);
+   }
+
+   /**
+    * Start a class element and create its row.
+    */
+   private Frame startClass(SAXContext ctx, Frame parent, ClassMap classMap, RelatedClassMap relMap,
+                            String uri, String localName, Attributes attrs, long orderInParent)
+      throws SQLException, XMLMiddlewareException
+   {
+      Frame frame = new Frame(CLASS, null, orderInParent);
+
+      frame.owner = frame;
+      frame.map = classMap;
+      frame.relMap = relMap;
+      frame.attrs = new AttributesImpl(attrs);
+      frame.action = getActionFor(ctx, uri, localName);
+      frame.useProps = getUseProps(classMap, frame.action);
+      frame.pending = new PendingRow(classMap.getTable(), createRow(classMap.getTable()), frame.action,
+                                     frame.useProps, (relMap == null) ? null : relMap.getLinkInfo());
+      frame.row = frame.pending.row;
+      frame.parentRow = (parent == null) ? null : parent.row;
+
+      // Generate the order column value, if any.
+
+      if (relMap != null)
+      {
+         generateOrder(frame.row, relMap.getOrderInfo(), orderInParent);
+      }
+
+      // If the row is complete at the start tag, store it now. Rows that
+      // point to it are then stored as soon as they are complete, instead of
+      // being kept until the end tag. This matters most when the root element
+      // is a class element, since its end tag is the end of the document.
+
+      if (isCompleteAtStart(frame, parent))
+      {
+         processAttributes(ctx, frame);
+         setMissingFieldsToNull(frame.row, frame.useProps);
+         storeFrameRow(ctx, frame);
+      }
+
+      return frame;
+   }
+
+   /**
+    * Whether a class row is complete at the start tag of its element -- that
+    * is, whether nothing inside the element changes the row.
+    */
+   private boolean isCompleteAtStart(Frame frame, Frame parent)
+   {
+      ClassMap    classMap = (ClassMap)frame.map;
+      Table       table = classMap.getTable();
+      LinkInfo    linkInfo = frame.pending.linkInfo;
+      PropertyMap propMap;
+
+      // If the row contains a foreign key pointing to its parent's row, the
+      // parent row must have been stored.
+
+      if ((linkInfo != null) && linkInfo.parentKeyIsUnique() &&
+          ((parent == null) || !parent.stored || parent.failed))
+         return false;
+
+      // The row is not complete if a child element sets its foreign key or
+      // generated order value (see getClassCompleteAtStart).
+
+      if (!getClassCompleteAtStart(classMap)) return false;
+
+      // Properties stored in the class table must be attributes of the class
+      // element. Properties stored in property tables must not set a foreign
+      // key in the class row. Generated order values must not be stored in
+      // the class table.
+
+      for (int i = 0; i < frame.useProps.size(); i++)
+      {
+         propMap = (PropertyMap)frame.useProps.elementAt(i);
+         if (propMap.getTable() == null)
+         {
+            if ((propMap.getType() != PropertyMap.ATTRIBUTE) ||
+                (classMap.getAttributeMap(propMap.getXMLName()) != propMap))
+               return false;
+         }
+         else if (!propMap.getLinkInfo().parentKeyIsUnique())
+            return false;
+
+         if (isGeneratedOrderIn(table, propMap.getOrderInfo())) return false;
+      }
+      return true;
+   }
+
+   /**
+    * Whether the related and inlined classes of a class allow the class row to
+    * be stored at the start tag. That is, no related class row contains the
+    * unique key of the class row and no inlined class sets a generated order
+    * value in the class table.
+    */
+   private boolean getClassCompleteAtStart(ClassMap classMap)
+   {
+      Boolean complete = (Boolean)m_classCompleteAtStart.get(classMap);
+
+      if (complete == null)
+      {
+         complete = new Boolean(childrenAllowStoreAtStart(classMap, classMap.getTable()));
+         m_classCompleteAtStart.put(classMap, complete);
+      }
+      return complete.booleanValue();
+   }
+
+   private boolean childrenAllowStoreAtStart(ClassMapBase classMapBase, Table table)
+   {
+      Enumeration e = classMapBase.getChildMaps();
+      Object      map;
+
+      while (e.hasMoreElements())
+      {
+         map = e.nextElement();
+         if (map instanceof RelatedClassMap)
+         {
+            if (!((RelatedClassMap)map).getLinkInfo().parentKeyIsUnique()) return false;
+         }
+         else if (map instanceof InlineClassMap)
+         {
+            if (isGeneratedOrderIn(table, ((InlineClassMap)map).getOrderInfo())) return false;
+            if (!childrenAllowStoreAtStart((InlineClassMap)map, table)) return false;
+         }
+      }
+      return true;
+   }
+
+   private boolean isGeneratedOrderIn(Table table, OrderInfo o)
+   {
+      Column col;
+
+      if ((o == null) || o.orderValueIsFixed() || !o.generateOrder()) return false;
+      col = o.getOrderColumn();
+      return (table.getColumn(col.getName()) == col);
+   }
+
+   /**
+    * Finish a class element.
+    */
+   private void endClass(SAXContext ctx, Frame frame)
+      throws SQLException, XMLMiddlewareException
+   {
+      LinkInfo linkInfo;
+      Frame    parent;
+
+      if (frame.failed) return;
+
+      if (!frame.stored)
+      {
+         // Process the attributes. DOMToDBMS processes these after the child
+         // nodes, so we do too.
+
+         processAttributes(ctx, frame);
+
+         // If any fields in the table haven't been set, set them to NULL
+
+         setMissingFieldsToNull(frame.row, frame.useProps);
+
+         linkInfo = frame.pending.linkInfo;
+         parent = (linkInfo == null) ? null : ((Frame)ctx.frames.peek()).owner;
+         if ((linkInfo == null) || !linkInfo.parentKeyIsUnique() || parent.stored)
+         {
+            // The row is a root row, contains the unique key of the link to its
+            // parent, or points to a parent row that has been stored. Store it
+            // now, along with any rows that point to it.
+
+            storeFrameRow(ctx, frame);
+         }
+         else
+         {
+            // The row contains a foreign key pointing to its parent's row. Store it
+            // after the parent row has been stored.
+
+            parent.pending.addChild(frame.pending);
+            return;
+         }
+      }
+
+      // Add a root row to the FilterSet
+
+      if ((frame.relMap == null) && !frame.failed)
+      {
+         addRootFilter(ctx, ((ClassMap)frame.map).getTable(), frame.row);
+      }
+   }
+
+   /**
+    * Stores the row of a class element, along with any rows that point to it.
+    */
+   private void storeFrameRow(SAXContext ctx, Frame frame)
+      throws SQLException, XMLMiddlewareException
+   {
+      LinkInfo linkInfo = frame.pending.linkInfo;
+
+      if ((linkInfo != null) && linkInfo.parentKeyIsUnique())
+      {
+         frame.failed = !storeClassRow(ctx, frame.pending, frame.parentRow);
+      }
+      else
+      {
+         frame.failed = !storeClassRow(ctx, frame.pending, null);
+         if ((linkInfo != null) && !frame.failed)
+         {
+            setParentKey(frame.parentRow, frame.row, linkInfo);
+         }
+      }
+      frame.stored = true;
+   }
+
+   /**
+    * Process the text that has been read since the last tag.
+    */
+   private void processText(SAXContext ctx, Frame frame)
+      throws SQLException, XMLMiddlewareException
+   {
+      String text;
+
+      if (ctx.text.length() == 0) return;
+
+      text = ctx.text.toString();
+      ctx.text.setLength(0);
+
+      processChild(ctx, frame.owner, frame.map.getPCDATAMap(), text, frame.childOrder++);
+   }
+
+   /**
+    * Process the attributes of a class or inlined class element.
+    */
+   private void processAttributes(SAXContext ctx, Frame frame)
+      throws SQLException, XMLMiddlewareException
+   {
+      Attributes attrs = frame.attrs;
+      String     uri;
+
+      if (frame.owner.failed) return;
+
+      for (int i = 0; i < attrs.getLength(); i++)
+      {
+         uri = attrs.getURI(i);
+         if (uri.length() == 0) uri = null;
+         processChild(ctx, frame.owner, frame.map.getAttributeMap(uri, attrs.getLocalName(i)),
+                      getValue(ctx, attrs.getValue(i)), 0);
+      }
+      frame.attrs = null;
+   }
+
+   /**
+    * Process a property value if the property is used.
+    */
+   private void processChild(SAXContext ctx, Frame owner, PropertyMap propMap, String value, long order)
+      throws SQLException, XMLMiddlewareException
+   {
+      if ((propMap != null) && owner.useProps.contains(propMap))
+      {
+         processProperty(ctx, owner, propMap, value, order);
+      }
+   }
+
+   /**
+    * Adds the property value to the class row or creates a row in a property table.
+    */
+   private void processProperty(SAXContext ctx, Frame owner, PropertyMap propMap, String value, long order)
+      throws SQLException, XMLMiddlewareException
+   {
+      // Generate the order column value, if any.
+
+      generateOrder(owner.row, propMap.getOrderInfo(), order);
+
+      if (propMap.isTokenList())
+      {
+         // If the property is a token list, process each value as a separate
+         // property. See DOMToDBMS.processProperty for details.
+
+         StringTokenizer s = new StringTokenizer((value == null) ? "" : value, " \n\r\t", false);
+         long tokenOrder = 1;
+
+         PropertyMap tokenMap = PropertyMap.create(DUMMY, DUMMY, propMap.getType());
+
+         tokenMap.setTable(propMap.getTable(), propMap.getLinkInfo());
+         tokenMap.setColumn(propMap.getColumn());
+         tokenMap.setIsTokenList(false);
+         tokenMap.setOrderInfo(propMap.getTokenListOrderInfo());
+
+         while(s.hasMoreElements())
+         {
+            processProperty(ctx, owner, tokenMap, s.nextToken(), tokenOrder);
+            tokenOrder++;
+         }
+      }
+      else if (propMap.getTable() == null)
+      {
+         // If the property is stored in the class table, set the value now.
+
+         setPropertyColumn(owner.row, propMap, value);
+      }
+      else
+      {
+         // Otherwise, the property is stored in a separate property table.
+
+         processPropRow(ctx, owner, propMap, value, order);
+      }
+   }
+
+   /**
+    * Creates a row in a property table.
+    */
+   private void processPropRow(SAXContext ctx, Frame owner, PropertyMap propMap, String value, long orderInParent)
+      throws SQLException, XMLMiddlewareException
+   {
+      Table    table = propMap.getTable();
+      LinkInfo linkInfo = propMap.getLinkInfo();
+      Row      propRow = createRow(table);
+
+      // Generate the order column value, if any, and set the property value.
+
+      generateOrder(propRow, propMap.getOrderInfo(), orderInParent);
+      setPropertyColumn(propRow, propMap, value);
+
+      // Get the action. As in DOMToDBMS, UPDATE and UPDATEORINSERT are
+      // changed to INSERT, since the old rows are deleted by deletePropTableRows.
+
+      int act = owner.action.getAction();
+      if ((act == Action.UPDATE) || (act == Action.UPDATEORINSERT))
+      {
+         act = Action.INSERT;
+      }
+
+      if (linkInfo.parentKeyIsUnique() && owner.stored)
+      {
+         // The property row contains the foreign key and the class row has
+         // been stored (see startClass). Store the property row now.
+
+         setChildKey(owner.row, propRow, linkInfo);
+         storeRow(ctx, table, propRow, act);
+      }
+      else if (linkInfo.parentKeyIsUnique())
+      {
+         // The property row contains the foreign key. Store it after the
+         // class row has been stored.
+
+         owner.pending.addChild(new PendingRow(table, propRow, act, linkInfo));
+      }
+      else
+      {
+         // The property row contains the unique key. Store it now and copy
+         // the key to the class row.
+
+         storeRow(ctx, table, propRow, act);
+         setParentKey(owner.row, propRow, linkInfo);
+      }
+   }
+
+   /**
+    * Stores a class row, then stores all rows that point to it. Returns
+    * false if an exception occurred and was saved.
+    */
+   private boolean storeClassRow(SAXContext ctx, PendingRow pending, Row parentRow)
+      throws SQLException, XMLMiddlewareException
+   {
+      // This method is called from endClass for rows that can be stored
+      // immediately and recursively for rows that contain a foreign key.
+
+      try
+      {
+         if (parentRow != null)
+         {
+            setChildKey(parentRow, pending.row, pending.linkInfo);
+         }
+
+         // Insert or update the class row. As in DOMToDBMS, rows in property
+         // tables are deleted and then re-inserted when updating.
+
+         storeRow(ctx, pending.table, pending.row, pending.action.getAction());
+         deletePropTableRows(ctx, pending.row, pending.useProps, pending.action);
+
+         // Store the rows that point to this row.
+
+         storeChildren(ctx, pending);
+         return true;
+      }
+      catch(SQLException e)
+      {
+         // Rows that depend on this row are not stored.
+
+         if (ctx.stopOnException)
+            throw e;
+         else
+            pushException(ctx, e);
+         return false;
+      }
+   }
+
+   /**
+    * Stores the rows that contain a foreign key pointing to a row.
+    */
+   private void storeChildren(SAXContext ctx, PendingRow pending)
+      throws SQLException, XMLMiddlewareException
+   {
+      PendingRow child;
+
+      if (pending.children == null) return;
+
+      for (int i = 0; i < pending.children.size(); i++)
+      {
+         child = (PendingRow)pending.children.elementAt(i);
+         if (child.useProps != null)
+         {
+            storeClassRow(ctx, child, pending.row);
+         }
+         else
+         {
+            setChildKey(pending.row, child.row, child.linkInfo);
+            storeRow(ctx, child.table, child.row, child.actionType);
+         }
+      }
+
+      // Release the rows as soon as they are stored.
+
+      pending.children = null;
+   }
+
+   // ************************************************************************
+   // Helper methods -- serialization
+   // ************************************************************************
+
+   // These methods serialize the contents of property elements in the same
+   // way as DOMNormalizer.serialize.
+
+   private void appendStartTag(Frame frame, String qName, Attributes attrs)
+   {
+      StringBuffer value = frame.value;
+
+      value.append('<');
+      value.append(qName);
+      for (int i = 0; i < attrs.getLength(); i++)
+      {
+         value.append(' ');
+         value.append(attrs.getQName(i));
+         value.append('=');
+         appendQuoted(value, attrs.getValue(i));
+      }
+      value.append('>');
+   }
+
+   private void appendEndTag(Frame frame, String qName)
+   {
+      frame.value.append("</");
+      frame.value.append(qName);
+      frame.value.append('>');
+   }
+
+   private void appendEscaped(StringBuffer value, char[] ch, int start, int length)
+   {
+      int end = start + length;
+
+      for (int i = start; i < end; i++)
+      {
+         if (ch[i] == '&')
+            value.append(AMPENTITY);
+         else if (ch[i] == '<')
+            value.append(LTENTITY);
+         else
+            value.append(ch[i]);
+      }
+   }
+
+   private void appendQuoted(StringBuffer value, String attrValue)
+   {
+      if (attrValue.indexOf('"') == -1)
+      {
+         value.append('"').append(attrValue).append('"');
+      }
+      else if (attrValue.indexOf('\'') == -1)
+      {
+         value.append('\'').append(attrValue).append('\'');
+      }
+      else
+      {
+         value.append('"');
+         for (int i = 0; i < attrValue.length(); i++)
+         {
+            char c = attrValue.charAt(i);
+            if (c == '"')
+               value.append(QUOTENTITY);
+            else
+               value.append(c);
+         }
+         value.append('"');
+      }
+   }
+
+   // ************************************************************************
+   // Helper methods -- exception handling
+   // ************************************************************************
+
+   /**
+    * Handles an exception thrown while processing an element.
+    */
+   private void handleException(SAXContext ctx, Frame frame, Exception e)
+      throws SAXException
+   {
+      // SQLExceptions are handled at the level of the class element that owns
+      // the element being processed. If we don't stop on exceptions, the
+      // exception is saved and the rest of the class element is ignored, as
+      // in DOMToDBMS.processClassRow. All other exceptions stop processing.
+
+      if ((e instanceof SQLException) && !ctx.stopOnException && (frame != null) && (frame.owner != null))
+      {
+         pushException(ctx, (SQLException)e);
+         frame.owner.failed = true;
+         ctx.text.setLength(0);
+         return;
+      }
+
+      if (e instanceof SAXException) throw (SAXException)e;
+      throw new SAXException(e);
+   }
+
+   // ************************************************************************
+   // Inner classes
+   // ************************************************************************
+
+   // The state of a single call to storeDocument. This is the ContentHandler
+   // for the XMLReader and passes the events to SAXToDBMS.
+
+   class SAXContext extends StoreContext
+      implements ContentHandler
+   {
+      // frames is the stack of open elements and text contains character
+      // data that has not yet been processed.
+
+      Stack        frames = new Stack();
+      StringBuffer text = new StringBuffer();
+
+      SAXContext(DBEnabledMap dbMap, Actions actions)
+      {
+         super(dbMap, actions);
+      }
+
+      void release()
+      {
+         super.release();
+         frames = null;
+         text = null;
+      }
+
+      public void startDocument() throws SAXException
+      {
+      }
+
+      public void endDocument() throws SAXException
+      {
+      }
+
+      public void startElement(String uri, String localName, String qName, Attributes attrs)
+         throws SAXException
+      {
+         SAXToDBMS.this.startElement(this, uri, localName, qName, attrs);
+      }
+
+      public void endElement(String uri, String localName, String qName)
+         throws SAXException
+      {
+         SAXToDBMS.this.endElement(this, uri, localName, qName);
+      }
+
+      public void characters(char ch[], int start, int length)
+         throws SAXException
+      {
+         SAXToDBMS.this.characters(this, ch, start, length);
+      }
+
+      public void ignorableWhitespace(char ch[], int start, int length)
+         throws SAXException
+      {
+      }
+
+      public void processingInstruction(String target, String data)
+         throws SAXException
+      {
+      }
+
+      public void startPrefixMapping(String prefix, String uri)
+         throws SAXException
+      {
+      }
+
+      public void endPrefixMapping(String prefix)
+         throws SAXException
+      {
+      }
+
+      public void setDocumentLocator(Locator locator)
+      {
+      }
+
+      public void skippedEntity(String name)
+         throws SAXException
+      {
+      }
+   }
+
+   // Information about an open element.
+
+   class Frame
+   {
+      int          type;
+      Frame        owner;          // Frame of the class element that owns the row
+      long         orderInParent;
+      long         childOrder = 1;
+      int          depth = 0;      // Depth of elements inside IGNORE and PROPERTY frames
+
+      // CLASS and INLINE frames
+
+      ClassMapBase map;
+      Attributes   attrs;
+
+      // CLASS frames
+
+      RelatedClassMap relMap;
+      Action       action;
+      Vector       useProps;
+      Row          row;
+      Row          parentRow;
+      PendingRow   pending;
+      boolean      stored = false; // Whether the row has been stored
+      boolean      failed = false;
+
+      // PROPERTY frames
+
+      PropertyMap  propMap;
+      StringBuffer value;
+
+      Frame(int type, Frame owner, long orderInParent)
+      {
+         this.type = type;
+         this.owner = owner;
+         this.orderInParent = orderInParent;
+      }
+   }
+
+   // A row that has been built but not stored. Class rows (useProps != null)
+   // may have children, which are rows that contain a foreign key pointing to
+   // the row. These are stored after the row itself.
+
+   class PendingRow
+   {
+      Table    table;
+      Row      row;
+      Action   action;     // Class rows
+      Vector   useProps;   // Class rows
+      int      actionType; // Property rows
+      LinkInfo linkInfo;   // Link to the parent row. Null for root rows.
+      Vector   children = null;
+
+      PendingRow(Table table, Row row, Action action, Vector useProps, LinkInfo linkInfo)
+      {
+         this.table = table;
+         this.row = row;
+         this.action = action;
+         this.useProps = useProps;
+         this.linkInfo = linkInfo;
+      }
+
+      PendingRow(Table table, Row row, int actionType, LinkInfo linkInfo)
+      {
+         this.table = table;
+         this.row = row;
+         this.actionType = actionType;
+         this.linkInfo = linkInfo;
+      }
+
+      void addChild(PendingRow child)
+      {
+         if (children == null) children = new Vector();
+         children.addElement(child);
+      }
+   }
+}
@@ -0,0 +1,96 @@
+// This software is in the public domain.
+//
+// The software is provided "as is", without warranty of any kind,
+// express or implied, including but not limited to the warranties
+// of merchantability, fitness for a particular purpose, and
+// noninfringement. In no event shall the author(s) be liable for any
+// claim, damages, or other liability, whether in an action of
+// contract, tort, or otherwise, arising from, out of, or in connection
+// with the software or the use or other dealings in the software.
+//
+// Parts of this software were originally developed in the Database
+// and Distributed Systems Group at the Technical University of
+// Darmstadt, Germany:
+//
+//    http://www.informatik.tu-darmstadt.de/DVS1/
+
+// Version 2.0
+// Changes from version 1.x: New in version 2.0
+
+package org.xmlmiddleware.xmldbms;
+
+import org.xmlmiddleware.xmldbms.actions.*;
+import org.xmlmiddleware.xmldbms.filters.*;
+import org.xmlmiddleware.xmldbms.maps.*;
+
+import java.sql.*;
+
+/**
+ * The state of a single call to storeDocument. For internal use.
+ *
+ * <p>DOMToDBMS and SAXToDBMS create a StoreContext (or a subclass containing
+ * their own state) for each call to storeDocument and pass it to the methods
+ * of XMLToDBMSBase. XMLToDBMSBase.startDocument copies the configuration
+ * properties to the context, so changing them while a document is being
+ * stored on another thread does not affect that document.</p>
+ *
+ * @version 2.0
+ */
+
+class StoreContext
+{
+   // ********************************************************************
+   // Variables
+   // ********************************************************************
+
+   DBEnabledMap dbMap;
+   Actions      actions;
+   FilterSet    filterSet = null;
+
+   // Configuration (see XMLToDBMSBase.startDocument)
+
+   int          commitMode;
+   int          batchSize;
+   boolean      stopOnException;
+
+   // Exceptions and warnings (see XMLToDBMSBase.getExceptions and getWarnings)
+
+   SQLWarning   sqlWarnings = null;
+   SQLException sqlExceptions = null;
+
+   // ********************************************************************
+   // Constructors
+   // ********************************************************************
+
+   /**
+    * Construct a new StoreContext object.
+    *
+    * @param dbMap The DBEnabledMap passed to storeDocument.
+    * @param actions The Actions passed to storeDocument.
+    */
+   StoreContext(DBEnabledMap dbMap, Actions actions)
+   {
+      this.dbMap = dbMap;
+      this.actions = actions;
+   }
+
+   // ********************************************************************
+   // Methods
+   // ********************************************************************
+
+   /**
+    * Drop everything except the warnings and exceptions. Called when the
+    * call ends, whether or not it succeeded.
+    */
+   void release()
+   {
+      // Don't hold any unnecessary references, such as to connection
+      // objects, etc. The context is kept for getExceptions and getWarnings,
+      // so it lives until the next call on this thread, which may be much
+      // later on a pooled thread.
+
+      dbMap = null;
+      actions = null;
+      filterSet = null;
+   }
+}
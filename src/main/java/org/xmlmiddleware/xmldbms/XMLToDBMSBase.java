@@ -0,0 +1,925 @@
+// This software is in the public domain.
+//
+// The software is provided "as is", without warranty of any kind,
+// express or implied, including but not limited to the warranties
+// of merchantability, fitness for a particular purpose, and
+// noninfringement. In no event shall the author(s) be liable for any
+// claim, damages, or other liability, whether in an action of
+// contract, tort, or otherwise, arising from, out of, or in connection
+// with the software or the use or other dealings in the software.
+//
+// Parts of this software were originally developed in the Database
+// and Distributed Systems Group at the Technical University of
+// Darmstadt, Germany:
+//
+//    http://www.informatik.tu-darmstadt.de/DVS1/
+
+// Version 2.0
+// Changes from version 1.x: New in version 2.0
+
+package org.xmlmiddleware.xmldbms;
+
+import org.xmlmiddleware.conversions.*;
+import org.xmlmiddleware.conversions.formatters.*;
+import org.xmlmiddleware.utils.XMLMiddlewareException;
+import org.xmlmiddleware.xmldbms.datahandlers.*;
+import org.xmlmiddleware.xmldbms.filters.*;
+import org.xmlmiddleware.xmldbms.keygenerators.*;
+import org.xmlmiddleware.xmldbms.maps.*;
+import org.xmlmiddleware.xmldbms.actions.*;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Base class for classes that transfer data from XML to the database.
+ *
+ * <p>XMLToDBMSBase contains the configuration and the row storage code shared
+ * by DOMToDBMS and SAXToDBMS. Subclasses read the document, build rows, and
+ * pass the rows to storeRow; XMLToDBMSBase sends them to the DataHandlers
+ * and commits or rolls back transactions according to the commit mode.</p>
+ *
+ * <p>All state used while storing a document is kept in a StoreContext that
+ * is private to the call to storeDocument. Thus, a single, configured object
+ * can be used by many threads at once. Each thread must use its own
+ * DBEnabledMap, since the DataHandlers in a DBEnabledMap use a single
+ * connection. Configure the object (commit mode, key generators, and so on)
+ * before sharing it; each call to storeDocument uses the configuration in
+ * effect when the call starts. Key generators are shared by all threads and
+ * must be thread-safe.</p>
+ *
+ * @version 2.0
+ * @see DOMToDBMS
+ * @see SAXToDBMS
+ */
+
+public abstract class XMLToDBMSBase
+{
+   // ************************************************************************
+   // Private variables
+   // ************************************************************************
+
+   // The commit mode (see startDocument)
+
+   private int m_commitMode;
+
+   // The number of rows to batch before executing them (see storeRow)
+
+   private int m_batchSize;
+
+   // Whether to build/return a FilterSet identifying the stored document
+
+   private boolean m_returnFilterSet;
+
+   // Stop on Database errors
+
+   private boolean m_stopOnException;
+
+   // The context of the last call to storeDocument on each thread (see
+   // getExceptions and getWarnings)
+
+   private ThreadLocal m_lastContext = new ThreadLocal();
+
+   // Hash table of key generators
+
+   private Hashtable m_keyGenerators;
+
+   // Cached objects. These are here for efficiency (see getAllPropertyMaps)
+
+   private Hashtable m_classAllProperties;
+
+   // ************************************************************************
+   // Constants
+   // ************************************************************************
+
+   private static final String AND = "AND ";
+   private static final String SPACE = " ";
+
+   // ************************************************************************
+   // Constructors
+   // ************************************************************************
+
+   /**
+    * Construct a new XMLToDBMSBase object.
+    */
+   protected XMLToDBMSBase()
+   {
+      m_keyGenerators = new Hashtable();
+      m_commitMode = DataHandler.COMMIT_AFTERSTATEMENT;
+      m_batchSize = 0;
+      m_returnFilterSet = false;
+      m_stopOnException = true;
+
+      m_classAllProperties = new Hashtable();
+   }
+
+   // ************************************************************************
+   // Public methods
+   // ************************************************************************
+
+   /**
+    * Set the commit mode.
+    *
+    * <p>The commit mode must be one of DataHandler.COMMIT_AFTERSTATEMENT,
+    * COMMIT_AFTERDOCUMENT, COMMIT_NONE, or COMMIT_NOTRANSACTIONS. The default
+    * is COMMIT_AFTERSTATEMENT.</p>
+    *
+    * @param commitMode The commit mode.
+    */
+   public void setCommitMode(int commitMode)
+   {
+      if ((commitMode != DataHandler.COMMIT_AFTERSTATEMENT) &&
+          (commitMode != DataHandler.COMMIT_AFTERDOCUMENT) &&
+          (commitMode != DataHandler.COMMIT_NONE) &&
+          (commitMode != DataHandler.COMMIT_NOTRANSACTIONS))
+         throw new IllegalArgumentException("Invalid commit mode: " + commitMode);
+
+      m_commitMode = commitMode;
+   }
+
+   /**
+    * Get the commit mode.
+    *
+    * @return The mode.
+    */
+   public int getCommitMode()
+   {
+      return m_commitMode;
+   }
+
+   /**
+    * Set the batch size.
+    *
+    * <p>If the batch size is greater than 0, rows inserted with the INSERT action
+    * are passed to DataHandler.batchInsert, which groups rows for the same table
+    * and set of columns into JDBC batches and executes them when the batch size
+    * is reached. Rows stored with the UPDATEORINSERT action are passed to
+    * DataHandler.batchUpdateOrInsert, which batches them if the database
+    * supports a single-statement upsert. Rows inserted with the SOFTINSERT
+    * action are never batched.
+    * The default is 0, which means rows are inserted one at a time.</p>
+    *
+    * <p>Because batched rows are not executed immediately, a database error may
+    * be reported while processing a later class element. If stopOnException is
+    * false, this means the exception may not refer to the element being processed.</p>
+    *
+    * @param batchSize The batch size.
+    */
+   public void setBatchSize(int batchSize)
+   {
+      m_batchSize = batchSize;
+   }
+
+   /**
+    * Get the batch size.
+    *
+    * @return The batch size.
+    */
+   public int getBatchSize()
+   {
+      return m_batchSize;
+   }
+
+   /**
+    * Sets whether storeDocument returns a FilterSet or a null.
+    *
+    * <p>storeDocument can return a FilterSet describing the document it
+    * processes. This can be used at a later point in time to retrieve the
+    * document. Whether such a FilterSet is useful depends on the application.
+    * As a general rule, it is not useful for data-centric applications. For these
+    * applications, XML is usually a data transport and documents have no persistent identity.
+    * It is useful for document-centric applications, for which documents do
+    * have a persistent identity.</p>
+    *
+    * <p>By default, storeDocument returns a null. This saves some processing
+    * time, although the amount saved is likely to be noticeable only for very
+    * large documents.</p>
+    *
+    * @param value Whether storeDocument returns a FilterSet
+    */
+   public void setFilterSetReturned(boolean value)
+   {
+      m_returnFilterSet = value;
+   }
+
+   /**
+    * Whether storeDocument returns a FilterSet or a null.
+    *
+    * <p>For more information, see setFilterSetReturned.</p>
+    *
+    * @return Whether storeDocument returns a FilterSet
+    */
+   public boolean isFilterSetReturned()
+   {
+      return m_returnFilterSet;
+   }
+
+   /**
+    * Add a key generator by name
+    *
+    * <p>Applications call this method only if the map requires
+    * XML-DBMS to generate primary keys. (This does not include
+    * database-generated keys.)</p>
+    *
+    * @param name The logical name of the key generator.
+    * @param generator An object that implements the KeyGenerator interface
+    */
+   public void addKeyGenerator(String name, KeyGenerator generator)
+   {
+      m_keyGenerators.put(name, generator);
+   }
+
+   /**
+    * Remove a key generator.
+    *
+    * @param name The logical name of the key genenerator.
+    */
+   public void removeKeyGenerator(String name)
+   {
+      m_keyGenerators.remove(name);
+   }
+
+   /**
+    * Remove all key generators.
+    */
+   public void removeAllKeyGenerators()
+   {
+      m_keyGenerators.clear();
+   }
+
+   /**
+    * Defines how SQLExceptions are handled.
+    *
+    * <p>When a database exception occurs, one of two things happens. If this
+    * is set to false, then the exception is added to the list returned
+    * by getExceptions and processing continues at the next class element.
+    * If this is set to true, then processing stops and the transaction (if any)
+    * is rolled back.</p>
+    *
+    * <p>By default, processing stops on exceptions.</p>
+    *
+    * @param stopOnException Stop or not.
+    */
+   public void stopOnException(boolean stopOnException)
+   {
+      m_stopOnException = stopOnException;
+   }
+
+   /**
+    * Returns a chain of all SQLWarnings generated while processing
+    * the last document on the current thread.
+    *
+    * @return The chain. Null if there were no SQLWarnings.
+    */
+   public SQLWarning getWarnings()
+   {
+      StoreContext ctx = (StoreContext)m_lastContext.get();
+      return (ctx == null) ? null : ctx.sqlWarnings;
+   }
+
+   /**
+    * Returns a chain of all SQLExceptions generated while processing
+    * the last document on the current thread.
+    *
+    * @return The chain. Null if there were no SQLExceptions or stopOnException
+    *   is set to true.
+    */
+   public SQLException getExceptions()
+   {
+      StoreContext ctx = (StoreContext)m_lastContext.get();
+      return (ctx == null) ? null : ctx.sqlExceptions;
+   }
+
+   // ************************************************************************
+   // Document methods
+   // ************************************************************************
+
+   // A call to storeDocument in a subclass creates a StoreContext and calls
+   // startDocument. It then reads the document, calling storeRow for each row.
+   // If this succeeds, it calls endDocument. If an exception occurs, it calls
+   // abortDocument. In either case, it calls StoreContext.release when it is
+   // done.
+
+   /**
+    * Start storing a document.
+    *
+    * <p>Copies the configuration to the context, makes the context the
+    * last context on the current thread, and calls DataHandler.startDocument.</p>
+    */
+   void startDocument(StoreContext ctx)
+      throws SQLException
+   {
+      Enumeration e;
+      DataHandler dataHandler;
+
+      ctx.filterSet = (m_returnFilterSet) ? new FilterSet(ctx.dbMap.getMap()) : null;
+      ctx.commitMode = m_commitMode;
+      ctx.batchSize = m_batchSize;
+      ctx.stopOnException = m_stopOnException;
+      m_lastContext.set(ctx);
+
+      e = ctx.dbMap.getDataHandlers();
+      while(e.hasMoreElements())
+      {
+         dataHandler = (DataHandler)e.nextElement();
+         dataHandler.setBatchSize(ctx.batchSize);
+         dataHandler.startDocument(ctx.commitMode);
+      }
+   }
+
+   /**
+    * Finish storing a document. Commits the last transaction. If this fails,
+    * call abortDocument as for any other exception.
+    */
+   void endDocument(StoreContext ctx)
+      throws SQLException, XMLMiddlewareException
+   {
+      Enumeration e = ctx.dbMap.getDataHandlers();
+      while(e.hasMoreElements())
+      {
+         ((DataHandler)e.nextElement()).endDocument();
+      }
+   }
+
+   /**
+    * Roll back after an exception and rethrow the exception.
+    *
+    * <p>The DataHandlers roll back the current transaction. Exceptions other
+    * than SQLExceptions and XMLMiddlewareExceptions, such as a
+    * NullPointerException, are wrapped in an XMLMiddlewareException, so that
+    * they fail only this document.</p>
+    */
+   void abortDocument(StoreContext ctx, Exception ex)
+      throws SQLException, XMLMiddlewareException
+   {
+      Enumeration e = ctx.dbMap.getDataHandlers();
+      while(e.hasMoreElements())
+      {
+         ((DataHandler)e.nextElement()).recoverFromException();
+      }
+
+      if (ex instanceof SQLException)
+         throw (SQLException)ex;
+      else if (ex instanceof XMLMiddlewareException)
+         throw (XMLMiddlewareException)ex;
+      else
+         throw new XMLMiddlewareException(ex);
+   }
+
+   /**
+    * Adds a root class row to the FilterSet, if one is being built.
+    */
+   void addRootFilter(StoreContext ctx, Table table, Row row)
+      throws SQLException, XMLMiddlewareException
+   {
+      if (ctx.filterSet == null) return;
+
+      Key priKey = table.getPrimaryKey();
+      RootFilter rootFilter = ctx.filterSet.createRootFilter();
+      FilterConditions rootConditions = rootFilter.createRootFilterConditions(table);
+      String where = buildCondition(priKey.getColumns(),
+                                    row.getColumnValues(priKey.getColumns()));
+      rootConditions.addCondition(where);
+   }
+
+   // ************************************************************************
+   // Row/column processing methods
+   // ************************************************************************
+
+   /**
+    * Creates a Row object and generates its primary key, if necessary.
+    */
+   Row createRow(Table table)
+      throws XMLMiddlewareException
+   {
+      Row row = new Row();
+
+      // Generate the primary key (if necessary)
+
+      Key priKey = table.getPrimaryKey();
+      if (priKey != null)
+      {
+         if (priKey.getKeyGeneration() == Key.KEYGENERATOR)
+         {
+            generateKey(row, priKey);
+         }
+      }
+
+/*
+      // Generate the unique keys (if necessary). Note that this code is not used
+      // at the moment, but may be used in the future.
+
+      Enumeration e = table.getUniqueKeys();
+      while (e.hasMoreElements())
+      {
+         Key uniqueKey = (Key)e.nextElement();
+         if (uniqueKey.getKeyGeneration() == Key.KEYGENERATOR)
+         {
+            generateKey(row, uniqueKey);
+         }
+      }
+*/
+
+      return row;
+   }
+
+   /**
+    * Called before row is stored. Sets missing fields to null.
+    */
+   void setMissingFieldsToNull(Row classRow, Vector useProps)
+   {
+      // This method is called after all the children (including attributes)
+      // of a class element have been processed. If any properties in which
+      // we are interested (useProps) have not yet been set -- that is, they
+      // weren't in the XML document -- set them to null now. Note that this
+      // only applies to properties stored in the class table; it doesn't
+      // apply to properties stored in property tables.
+
+      for(int i = 0; i < useProps.size(); i++)
+      {
+         PropertyMap propMap = (PropertyMap)useProps.elementAt(i);
+         if (propMap.getTable() == null)
+         {
+            if (!classRow.isColumnSet(propMap.getColumn()))
+            {
+               classRow.setColumnValue(propMap.getColumn(), null);
+            }
+         }
+      }
+   }
+
+   /**
+    * Gets the value to store for a string from the document.
+    */
+   String getValue(StoreContext ctx, String s)
+   {
+      // If the string is empty (length == 0), then:
+      //
+      // (a) If we treat empty strings in the XML document as NULLs, then
+      //     return null, which is later interpreted as NULL.
+      //
+      // (b) If we treat empty strings as empty strings, then return a
+      //     single space. We do this because most relational databases cannot
+      //     store empty strings; when they encounter an empty string in an INSERT
+      //     statement, they store a NULL instead. To get around this, we store
+      //     a space instead of an empty string. While this is technically incorrect
+      //     -- it means we confuse <foo></foo> with <foo> </foo> -- the latter case
+      //    is much less common and we simply live with it.
+
+      if (s.length() == 0)
+      {
+         return (ctx.dbMap.getMap().emptyStringIsNull()) ? null : SPACE;
+      }
+      return s;
+   }
+
+   /**
+    * Set the value for column
+    */
+   void setPropertyColumn(Row row, PropertyMap propMap, String value)
+      throws XMLMiddlewareException
+   {
+      Column column = propMap.getColumn();
+
+      // Parse the value with the column's StringFormatter. The result is an
+      // Object of the type corresponding to the column's SQL type.
+
+      StringFormatter formatter = column.getFormatter();
+      row.setColumnValue(column, formatter.parse(value, column.getType()));
+   }
+
+   /**
+    * Generate the order column value, if any.
+    */
+   void generateOrder(Row row, OrderInfo o, long orderValue)
+      throws XMLMiddlewareException
+   {
+      // If the property is ordered, the order is stored in an order column,
+      // and XML-DBMS generates the order, the store the current order value
+      // in the order column. We use ConvertObject to convert the order value
+      // from a Long to whatever type is used by the order column.
+
+      if ((o != null) && (!o.orderValueIsFixed()) && (o.generateOrder()))
+      {
+         Column col = o.getOrderColumn();
+         Object val = ConvertObject.convertObject(new Long(orderValue), col.getType(), col.getFormatter());
+         row.setColumnValue(col, val);
+      }
+   }
+
+   // ************************************************************************
+   // Helper methods -- general
+   // ************************************************************************
+
+   /**
+    * Get the changeable properties for a ClassMap/Action combination.
+    */
+   Vector getUseProps(ClassMap classMap, Action action)
+   {
+      Vector useProps = null;
+
+      if (action.getAction() == Action.UPDATE)
+      {
+         useProps = action.getUpdatePropertyMaps();
+      }
+
+      if (useProps == null)
+      {
+         useProps = getAllPropertyMaps(classMap);
+      }
+
+      return useProps;
+   }
+
+   /**
+    * Gets all properties for a ClassMap.
+    */
+   Vector getAllPropertyMaps(ClassMapBase classMapBase)
+   {
+      // Q: Could this be moved to ClassMap for efficiency?
+      // A: Nope, it can't because ClassMap needs to be threadsafe.
+
+      Vector v = (Vector)m_classAllProperties.get(classMapBase);
+      if (v != null) return v;
+
+      v = new Vector();
+      PropertyMap propMap;
+
+      // PCDATAMap
+
+      propMap = classMapBase.getPCDATAMap();
+      if (propMap != null)
+      {
+         v.addElement(propMap);
+      }
+
+      // Attributes
+
+      Enumeration e = classMapBase.getAttributeMaps();
+      while(e.hasMoreElements())
+      {
+         v.addElement(e.nextElement());
+      }
+
+      // Child Elements
+
+      e = classMapBase.getChildMaps();
+      while(e.hasMoreElements())
+      {
+         Object map = e.nextElement();
+         if (map instanceof PropertyMap)
+         {
+            v.addElement(map);
+         }
+         else if (map instanceof InlineClassMap)
+         {
+            Vector v1 = getAllPropertyMaps((InlineClassMap)map);
+            for (int i = 0; i < v1.size(); i++)
+            {
+               v.addElement(v1.elementAt(i));
+            }
+         }
+      }
+
+      // Cache
+
+      m_classAllProperties.put(classMapBase, v);
+
+      return v;
+   }
+
+   /**
+    * Gets the action for a given element.
+    */
+   Action getActionFor(StoreContext ctx, String uri, String localName)
+      throws XMLMiddlewareException
+   {
+      // See if there is an action for the specified element. If so, use it. If
+      // not, use the default. If there is no default, throw an exception.
+
+      Action action = ctx.actions.getAction(uri, localName);
+
+      if (action == null)
+      {
+         action = ctx.actions.getDefaultAction();
+      }
+
+      if (action == null)
+         throw new XMLMiddlewareException("No default action specified.");
+
+      // TODO: When action: attributes are implemented put code here
+
+      return action;
+   }
+
+   /**
+    * Builds a set of expressions of the form "Column=value AND ..."
+    */
+   String buildCondition(Vector columns, Vector values)
+      throws XMLMiddlewareException
+   {
+      String       value;
+      StringBuffer sb = new StringBuffer();
+      Column       column;
+
+      for (int i = 0; i < columns.size(); i++)
+      {
+         column = (Column)columns.elementAt(i);
+         if (i != 0) sb.append(AND);
+         sb.append(column.getName());
+         sb.append('=');
+         value = SQLLiterals.buildLiteral(column.getType(), values.elementAt(i), column.getFormatter());
+         sb.append(value);
+         sb.append(' ');
+      }
+      return sb.toString();
+   }
+
+   // ************************************************************************
+   // Helper methods -- keys
+   // ************************************************************************
+
+   /**
+    * Copy the child key to parent row.
+    */
+   void setParentKey(Row parentRow, Row childRow, LinkInfo l)
+      throws XMLMiddlewareException
+   {
+      Vector childCols = l.getChildKey().getColumns();
+
+      // We shouldn't ever hit this, but it might be possible if a
+      // database-generated key value isn't generated.
+
+      if (!childRow.areColumnsSet(childCols))
+         throw new XMLMiddlewareException("Internal error. The child key is not set yet.");
+
+      parentRow.setColumnValues(l.getParentKey().getColumns(),
+                                childRow.getColumnValues(childCols));
+   }
+
+   /**
+    * Copy the parent key to a child row.
+    */
+   void setChildKey(Row parentRow, Row childRow, LinkInfo l)
+      throws XMLMiddlewareException
+   {
+      Vector parentCols = l.getParentKey().getColumns();
+
+      // We shouldn't ever hit this, but it might be possible if a
+      // database-generated key value isn't generated.
+
+      if (!parentRow.areColumnsSet(parentCols))
+         throw new XMLMiddlewareException("Internal error. The parent key is not set yet.");
+
+      childRow.setColumnValues(l.getChildKey().getColumns(),
+                               parentRow.getColumnValues(parentCols));
+   }
+
+   /**
+    * Creates a row containing the key of a parent row. The row is used to
+    * delete or select the child rows.
+    */
+   Row createKeyRow(Table table, Row parentRow, LinkInfo linkInfo)
+      throws XMLMiddlewareException
+   {
+      Row row = createRow(table);
+
+      setChildKey(parentRow, row, linkInfo);
+      return row;
+   }
+
+   /**
+    * Use a KeyGenerator to generate a key.
+    */
+   void generateKey(Row row, Key key)
+      throws XMLMiddlewareException
+   {
+      KeyGenerator keyGen = (KeyGenerator)m_keyGenerators.get(key.getKeyGeneratorName());
+
+      if (keyGen == null)
+         throw new XMLMiddlewareException("No KeyGenerator added for the key generator named " + key.getKeyGeneratorName());
+
+      Vector columns = key.getColumns();
+      Vector values = keyGen.generateKey();
+
+      if (columns.size() != values.size())
+         throw new XMLMiddlewareException("Invalid number of columns generated by key generator: " + key.getKeyGeneratorName());
+
+      for(int i = 0; i < columns.size(); i++)
+      {
+         // Convert each generated key column value to the appropriate type for
+         // the actual column, then set the column in the row.
+
+         Column column = (Column)columns.elementAt(i);
+         Object value = ConvertObject.convertObject(values.elementAt(i), column.getType(), column.getFormatter());
+         row.setColumnValue(column, value);
+      }
+   }
+
+   // ************************************************************************
+   // Helper methods -- database
+   // ************************************************************************
+
+   /**
+    * Send a row to a DataHandler for processing.
+    */
+   void storeRow(StoreContext ctx, Table table, Row row, int action)
+      throws SQLException, XMLMiddlewareException
+   {
+      boolean soft = false;
+
+      // Get the database
+      // TODO: (What about the 'null' or default database?)
+      DataHandler dataHandler = getDataHandler(ctx, table);
+
+      // Soft inserts are never batched. Execute any batched rows now so that
+      // errors in those rows are not reported as warnings.
+
+      if ((action == Action.SOFTINSERT) && (ctx.batchSize > 0))
+      {
+         dataHandler.executeBatch();
+      }
+
+      try
+      {
+         switch(action)
+         {
+            case Action.NONE:
+               break;
+
+            case Action.SOFTINSERT:
+               soft = true;
+               dataHandler.insert(table, row);
+               break;
+
+            case Action.INSERT:
+               if (ctx.batchSize > 0)
+               {
+                  dataHandler.batchInsert(table, row);
+               }
+               else
+               {
+                  dataHandler.insert(table, row);
+               }
+               break;
+
+            case Action.UPDATEORINSERT:
+               if (ctx.batchSize > 0)
+               {
+                  dataHandler.batchUpdateOrInsert(table, row);
+               }
+               else
+               {
+                  dataHandler.updateOrInsert(table, row);
+               }
+               break;
+
+            case Action.UPDATE:
+               // NOTE: We only set the appropriate columns in the row anyway
+               // so there's no need to pass in a set of columns to update
+               dataHandler.update(table, row, null);
+               break;
+
+            case Action.SOFTDELETE:
+            case Action.DELETE:
+               throw new XMLMiddlewareException("DELETE and SOFTDELETE actions cannot be used when storing documents. Use DBMSDelete.");
+
+            default:
+               throw new XMLMiddlewareException("Internal error. Invalid action in storeRow.");
+         };
+      }
+      catch(SQLException e)
+      {
+         if (soft)
+         {
+            pushWarning(ctx, new SQLWarning(e.getMessage(), e.getSQLState()));
+         }
+         else
+            throw e;
+      }
+   }
+
+   /**
+    * Deletes rows from a property table for a particular property.
+    */
+   void deletePropTableRows(StoreContext ctx, Row classRow, Vector useProps, Action action)
+      throws SQLException, XMLMiddlewareException
+   {
+      // When a property (usually multi-valued) is stored in a property table,
+      // "updating" the property means deleting all the old rows and inserting
+      // the new rows.
+
+      if (action.getAction() == Action.UPDATE ||
+          action.getAction() == Action.UPDATEORINSERT)
+      {
+         for(int i = 0; i < useProps.size(); i++)
+         {
+            // For each property stored in a property table, delete any
+            // existing rows from the property table.
+
+            PropertyMap propMap = (PropertyMap)useProps.elementAt(i);
+
+            Table propTable = propMap.getTable();
+            if (propTable != null)
+            {
+               // Note that for the link between class tables and property tables,
+               // the unique key is always in the class table.
+
+               LinkInfo li = propMap.getLinkInfo();
+
+               // Create a fake property table row. This contains the key from
+               // the parent (class table) row, so it can be used to delete
+               // the child (property table) row or rows.
+
+               Row propRow = createKeyRow(propTable, classRow, li);
+
+               // Delete the row from the property table. Note that we set the
+               // soft parameter to true, since all we care about is making sure
+               // that there are no rows for this key in the property table -- it
+               // doesn't matter if any previously existed or not.
+
+               deleteRow(ctx, propTable, propRow, li.getChildKey(), true);
+            }
+         }
+      }
+   }
+
+   /**
+    * Delete a row or rows.
+    */
+   void deleteRow(StoreContext ctx, Table table, Row row, Key key, boolean soft)
+      throws SQLException, XMLMiddlewareException
+   {
+      // Get the DataHandler for the database
+      // TODO: (What about the 'null' or default database?)
+
+      DataHandler dataHandler = getDataHandler(ctx, table);
+
+      // Delete the row or rows
+
+      try
+      {
+         dataHandler.delete(table, row, key);
+      }
+      catch(SQLException e)
+      {
+         if (soft)
+         {
+            pushWarning(ctx, new SQLWarning(e.getMessage(), e.getSQLState()));
+         }
+         else
+            throw e;
+      }
+   }
+
+   /**
+    * Get the DataHandler for the database of a table.
+    */
+   DataHandler getDataHandler(StoreContext ctx, Table table)
+      throws XMLMiddlewareException
+   {
+      DataHandler dataHandler = ctx.dbMap.getDataHandler(table.getDatabaseName());
+
+      if (dataHandler == null)
+         throw new XMLMiddlewareException("DataHandler not set for the database named " + table.getDatabaseName());
+      return dataHandler;
+   }
+
+   // ************************************************************************
+   // Helper methods -- exception handling
+   // ************************************************************************
+
+   /**
+    * Adds an SQLException to the chain (returned from getExceptions)
+    */
+   void pushException(StoreContext ctx, SQLException e)
+   {
+      // TODO: What order do we chain the exceptions?
+
+      if (ctx.sqlExceptions == null)
+      {
+         ctx.sqlExceptions = e;
+      }
+      else
+      {
+         ctx.sqlExceptions.setNextException(e);
+      }
+   }
+
+   /**
+    * Adds an SQLWarning to the chain (returned from getWarnings)
+    */
+   void pushWarning(StoreContext ctx, SQLWarning w)
+   {
+      // TODO: What order do we chain the warnings?
+
+      if (ctx.sqlWarnings == null)
+      {
+         ctx.sqlWarnings = w;
+      }
+      else
+      {
+         ctx.sqlWarnings.setNextWarning(w);
+      }
+   }
+}
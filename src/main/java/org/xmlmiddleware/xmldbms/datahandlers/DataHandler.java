@@ -106,8 +106,8 @@ public interface DataHandler
    /**
     * Finish processing a new document.
     *
-    * <p>Implementations commit the transaction if the commit mode is
-    * COMMIT_AFTERDOCUMENT.</p>
+    * <p>Implementations execute any batched statements and commit the
+    * transaction if the commit mode is COMMIT_AFTERDOCUMENT.</p>
     *
     * @exception SQLException Thrown if a database error occurs.
     */
@@ -118,7 +118,8 @@ public interface DataHandler
     * Recover from an exception.
     *
     * <p>This method performs any cleanup necessary to recover from an
-    * exception encountered while processing a document. If the commit mode
+    * exception encountered while processing a document. Implementations discard
+    * any batched statements that have not been executed. If the commit mode
     * is COMMIT_AFTERDOCUMENT, implementations roll back any changes made
     * in the current transaction.</p>
     *
@@ -159,6 +160,53 @@ public interface DataHandler
    public void insert(Table table, Row row)
       throws SQLException;
 
+   /**
+    * Set the number of rows that batchInsert and batchUpdateOrInsert collect
+    * before sending them to the database.
+    *
+    * @param batchSize The batch size. If this is 0 or less, batchInsert and
+    *    batchUpdateOrInsert process rows immediately.
+    */
+   public void setBatchSize(int batchSize);
+
+   /**
+    * Get the batch size.
+    *
+    * @return The batch size.
+    */
+   public int getBatchSize();
+
+   /**
+    * Insert a row into a table, deferring execution until the current batch
+    * is executed.
+    *
+    * <p>Rows for the same table and set of columns are grouped into a single
+    * JDBC batch. Batches are executed when the batch size is reached, when
+    * executeBatch or endDocument is called, and before any other statement is
+    * executed. Batches are executed in the order in which they were started, so
+    * rows are inserted after the rows they reference.</p>
+    *
+    * <p>Rows that cannot be batched, such as rows in tables with database-generated
+    * keys, are inserted immediately. Because errors in batched rows are not
+    * reported until the batch is executed, the exception may be thrown while a
+    * later row is being processed.</p>
+    *
+    * @param table The table.
+    * @param row The row. This may contain values for columns that do not
+    *    belong to the table.
+    * @exception SQLException Thrown if a database error occurs.
+    */
+   public void batchInsert(Table table, Row row)
+      throws SQLException;
+
+   /**
+    * Execute all batched INSERT and upsert statements.
+    *
+    * @exception SQLException Thrown if a database error occurs.
+    */
+   public void executeBatch()
+      throws SQLException;
+
    /**
     * Update the specified columns in a table using values from the Row object.
     *
@@ -189,6 +237,10 @@ public interface DataHandler
     * from the Row object. All non-nullable columns must have non-null values in
     * the Row object.</p>
     *
+    * <p>If the database supports it, this is done with a single statement,
+    * such as MERGE. Otherwise, an UPDATE statement is executed and, if no row
+    * was updated, an INSERT statement is executed.</p>
+    *
     * @param table The table.
     * @param row The row. This may contain values for columns that do not
     *    belong to the table.
@@ -197,6 +249,22 @@ public interface DataHandler
    public void updateOrInsert(Table table, Row row)
       throws SQLException;
 
+   /**
+    * Update or insert a row, deferring execution until the current batch
+    * is executed.
+    *
+    * <p>Rows can only be batched if the database supports a single-statement
+    * upsert. They are batched in the same way as rows passed to batchInsert.
+    * Rows that cannot be batched are passed to updateOrInsert.</p>
+    *
+    * @param table The table.
+    * @param row The row. This may contain values for columns that do not
+    *    belong to the table.
+    * @exception SQLException Thrown if a database error occurs.
+    */
+   public void batchUpdateOrInsert(Table table, Row row)
+      throws SQLException;
+
    /**
     * Delete a row or rows from a table.
     *
@@ -258,4 +326,34 @@ public interface DataHandler
     */
    public ResultSet select(Table table, Key key, Vector keyValue, String where, Vector paramColumns, Vector paramValues, OrderInfo orderInfo)
       throws SQLException;
+
+   /**
+    * Select the rows from a given table that match any of several key values.
+    *
+    * <p>The SELECT statement has the form:</p>
+    *
+    * <pre>
+    *   SELECT * FROM Table WHERE Key IN (?, ...) AND &lt;where> ORDER BY ?
+    * </pre>
+    *
+    * <p>This is used to retrieve the child rows of several parent rows with a
+    * single statement. Rows for different key values are interleaved in the
+    * result set; within the rows for a single key value, the sort order is the
+    * same as for select.</p>
+    *
+    * @param t The table to select from. Must not be null.
+    * @param key The key to restrict with. Must not be null.
+    * @param keyValues A Vector of key values. Each key value is a Vector
+    *   containing a value for each column in the key. Must not be empty.
+    * @param where An additional where constraint. May be null.
+    * @param paramColumns The columns corresponding to parameters in the where constraint.
+    *   Null if there are no parameters.
+    * @param paramValues The values of parameters in the where constraint. Null if there
+    *   are no parameters.
+    * @param order The sort information. May be null.
+    * @return The result set.
+    * @exception SQLException Thrown if a database error occurs.
+    */
+   public ResultSet selectForKeys(Table table, Key key, Vector keyValues, String where, Vector paramColumns, Vector paramValues, OrderInfo orderInfo)
+      throws SQLException;
 }
@@ -48,15 +48,25 @@ public abstract class DataHandlerBase
    private Connection   m_connection = null;
    private DMLGenerator m_dml = null;
    private SQLStrings   m_strings = null;
+   private InsertCache  m_inserts = null;
    private boolean      m_dirtyConnection = false;
    private int          m_commitMode = DataHandler.COMMIT_AFTERSTATEMENT;
    private Hashtable    m_refreshCols = null; // Indexed by table.
+   private int          m_batchSize = 0;
+   private int          m_batchedRows = 0;
+   private long         m_modifiedRows = 0;
+   private Hashtable    m_batches = null;     // Indexed by InsertCache signature.
+   private Vector       m_batchOrder = null;  // Batches in the order they were started.
+   private boolean      m_useMerge = false;
+   private boolean      m_terminateMerge = false; // Whether MERGE must end with a semicolon.
 
    // ************************************************************************
    // Constants
    // ************************************************************************
 
    private static final Object OBJECT = new Object();
+   private static final String SEMICOLON = ";";
+   private static final String SQLSERVER = "Microsoft SQL Server";
 
    // ************************************************************************
    // Constructor
@@ -116,6 +126,43 @@ public abstract class DataHandlerBase
       return m_commitMode;
    }
 
+   /**
+    * Get the cache of prepared INSERT statements used by the DataHandler.
+    *
+    * <p>Applications can use this to set the size of the cache and to check
+    * how often statements are reused.</p>
+    *
+    * @return The InsertCache. Null if initialize() has not been called.
+    */
+   public final InsertCache getInsertCache()
+   {
+      return m_inserts;
+   }
+
+   /**
+    * Get the number of rows waiting in batches to be executed.
+    *
+    * @return The number of rows.
+    */
+   public final int getBatchedRowCount()
+   {
+      return m_batchedRows;
+   }
+
+   /**
+    * Get the number of rows sent to the database.
+    *
+    * <p>Each batched row and each statement that modifies the database counts
+    * as one row. Rows are counted when they are executed, not when they are
+    * committed, and are counted across documents and calls to initialize().</p>
+    *
+    * @return The number of rows.
+    */
+   public final long getModifiedRowCount()
+   {
+      return m_modifiedRows;
+   }
+
    // ************************************************************************
    // Public Methods -- DataHandler interface
    // ************************************************************************
@@ -131,8 +178,16 @@ public abstract class DataHandlerBase
    public void initialize(DataSource dataSource, String user, String password)
       throws SQLException
    {
+      String product;
+
       if (m_dirtyConnection)
          throw new IllegalStateException("Cannot initialize the DataHandler. A connection has uncommitted results.");
+      if (m_batchedRows > 0)
+         throw new IllegalStateException("Cannot initialize the DataHandler. A connection has unexecuted batches.");
+
+      // Close any statements cached for the previous connection.
+
+      if (m_inserts != null) m_inserts.clear();
 
       // Get the connection
 
@@ -143,12 +198,19 @@ public abstract class DataHandlerBase
 
       m_dml = new DMLGenerator(m_connection.getMetaData());
       m_strings = new SQLStrings(m_dml);
+      m_inserts = new InsertCache(m_connection, m_dml);
+      product = m_connection.getMetaData().getDatabaseProductName();
+      m_useMerge = supportsMerge(product);
+      m_terminateMerge = SQLSERVER.equals(product);
 
       // Set the remaining variables.
 
       m_commitMode = DataHandler.COMMIT_AFTERSTATEMENT;
       m_dirtyConnection = false;
       m_refreshCols = new Hashtable();
+      m_batches = new Hashtable();
+      m_batchOrder = new Vector();
+      m_batchedRows = 0;
    }
 
    /**
@@ -204,6 +266,10 @@ public abstract class DataHandlerBase
    {
       checkState();
 
+      // Execute any rows that are still waiting in batches.
+
+      executeBatch();
+
       // Commit the transaction if any statements have been executed and
       // we commit after processing the entire document.
 
@@ -222,6 +288,10 @@ public abstract class DataHandlerBase
    public void recoverFromException()
       throws SQLException
    {
+      // Discard any batched rows. They belong to the document that failed.
+
+      closeBatches();
+
       // If the commit mode is AFTERDOCUMENT, attempt to roll back changes. Note
       // that we don't check the dirty flag, since the error might have occurred
       // after the changes were made but before the dirty flag was set.
@@ -234,16 +304,200 @@ public abstract class DataHandlerBase
    }
 
    /**
-    * Implements the insert method in the DataHandler interface; must be implemented
-    * by child classes.
+    * Implements the insert method in the DataHandler interface.
+    *
+    * <p>Any batched rows are executed first so that rows are inserted in
+    * order. The row is then inserted by insertRow, which is implemented by
+    * child classes.</p>
     *
     * @param table The table.
     * @param row The row. This may contain values for columns that do not
     *    belong to the table.
     * @exception SQLException Thrown if a database error occurs.
     */
-   public abstract void insert(Table table, Row row)
-      throws SQLException;
+   public final void insert(Table table, Row row)
+      throws SQLException
+   {
+      checkState();
+      executeBatch();
+      insertRow(table, row);
+   }
+
+   /**
+    * Implements the setBatchSize method in the DataHandler interface.
+    *
+    * @param batchSize The batch size. If this is 0 or less, batchInsert
+    *    inserts rows immediately.
+    */
+   public void setBatchSize(int batchSize)
+   {
+      m_batchSize = batchSize;
+   }
+
+   /**
+    * Implements the getBatchSize method in the DataHandler interface.
+    *
+    * @return The batch size.
+    */
+   public int getBatchSize()
+   {
+      return m_batchSize;
+   }
+
+   /**
+    * Implements the batchInsert method in the DataHandler interface.
+    *
+    * <p>Rows in tables with database-generated keys are passed to insert, since
+    * the generated values must be set in the Row before any rows that refer to
+    * it are processed.</p>
+    *
+    * @param table The table.
+    * @param row The row. This may contain values for columns that do not
+    *    belong to the table.
+    * @exception SQLException Thrown if a database error occurs.
+    */
+   public void batchInsert(Table table, Row row)
+      throws SQLException
+   {
+      InsertCache.Signature signature;
+
+      checkState();
+
+      if ((m_batchSize <= 0) || (getDBGeneratedKeyCols(table).size() > 0))
+      {
+         insert(table, row);
+         return;
+      }
+
+      // The INSERT string is built only if no batch or cached statement exists
+      // for the signature.
+
+      signature = m_inserts.getSignature(table, row, InsertCache.TYPE_INSERT);
+      addToBatch(table, signature, null, row.getColumnVectorFor(table), row);
+   }
+
+   /**
+    * Implements the batchUpdateOrInsert method in the DataHandler interface.
+    *
+    * <p>Rows are only batched if the database supports a single-statement upsert
+    * (see getUpsertString) and the table does not have database-generated keys.
+    * Otherwise, they are passed to updateOrInsert.</p>
+    *
+    * @param table The table.
+    * @param row The row. This may contain values for columns that do not
+    *    belong to the table.
+    * @exception SQLException Thrown if a database error occurs.
+    */
+   public void batchUpdateOrInsert(Table table, Row row)
+      throws SQLException
+   {
+      InsertCache.Signature signature;
+      Vector                cols;
+      String                sql = null;
+
+      checkState();
+
+      if ((m_batchSize <= 0) || (getDBGeneratedKeyCols(table).size() > 0))
+      {
+         updateOrInsert(table, row);
+         return;
+      }
+
+      // Build the upsert string only if the statement isn't already batched
+      // or cached.
+
+      signature = m_inserts.getSignature(table, row, InsertCache.TYPE_UPSERT);
+      cols = row.getColumnVectorFor(table);
+      if (!m_batches.containsKey(signature) && (m_inserts.getStatement(signature) == null))
+      {
+         sql = getUpsertString(table, cols, getUpdateColumns(table, row));
+         if (sql == null)
+         {
+            updateOrInsert(table, row);
+            return;
+         }
+      }
+
+      addToBatch(table, signature, sql, cols, row);
+   }
+
+   private void addToBatch(Table table, InsertCache.Signature signature, String sql, Vector cols, Row row)
+      throws SQLException
+   {
+      PreparedStatement stmt;
+      Batch             batch;
+
+      // Get the batch for the statement. If the row references a table used by
+      // a batch started after this batch, that batch would be executed too late,
+      // so execute everything now and start over.
+
+      batch = (Batch)m_batches.get(signature);
+
+      if ((batch != null) && referencesLaterBatch(batch))
+      {
+         executeBatch();
+         batch = null;
+      }
+
+      if (batch == null)
+      {
+         // Get the statement from the InsertCache. If it isn't cached, prepare
+         // it. Hold the statement so the cache doesn't close it before the
+         // batch is executed.
+
+         stmt = m_inserts.getStatement(signature);
+         if (stmt == null)
+         {
+            if (sql == null) sql = m_dml.getInsert(table, cols);
+            stmt = m_inserts.addStatement(signature, sql, cols);
+         }
+         m_inserts.hold(signature);
+         batch = new Batch(table, stmt);
+         m_batches.put(signature, batch);
+         m_batchOrder.addElement(batch);
+      }
+
+      // Add the row to the batch.
+
+      Parameters.setParameters(batch.stmt, 0, cols, row.getColumnValues(cols));
+      batch.stmt.addBatch();
+      m_batchedRows++;
+
+      // Execute the batches if we have reached the batch size.
+
+      if (m_batchedRows >= m_batchSize)
+      {
+         executeBatch();
+      }
+   }
+
+   /**
+    * Implements the executeBatch method in the DataHandler interface.
+    *
+    * <p>insert calls this method before inserting a row that is not batched,
+    * so that rows are inserted in the correct order.</p>
+    *
+    * @exception SQLException Thrown if a database error occurs.
+    */
+   public void executeBatch()
+      throws SQLException
+   {
+      if (m_batchedRows == 0) return;
+
+      try
+      {
+         for (int i = 0; i < m_batchOrder.size(); i++)
+         {
+            ((Batch)m_batchOrder.elementAt(i)).stmt.executeBatch();
+         }
+         m_modifiedRows += m_batchedRows;
+         setDirty();
+      }
+      finally
+      {
+         closeBatches();
+      }
+   }
 
    /**
     * Implements the update method in the DataHandler interface.
@@ -259,6 +513,7 @@ public abstract class DataHandlerBase
       throws SQLException
    {
       checkState();
+      executeBatch();
 
       PreparedStatement stmt = buildUpdate(table, row, cols);
       int numRows = stmt.executeUpdate();
@@ -283,13 +538,29 @@ public abstract class DataHandlerBase
       throws SQLException
    {
       checkState();
+      executeBatch();
+
+      // If the database can insert-or-update in a single statement, use it.
+      // This saves a round trip for new rows and closes the window between the
+      // UPDATE and the INSERT in which another connection could insert the row.
+
+      PreparedStatement stmt = buildUpsert(table, row);
+      if (stmt != null)
+      {
+         stmt.executeUpdate();
+         databaseModified();
+         return;
+      }
 
-      PreparedStatement stmt = buildUpdate(table, row, null);
+      stmt = buildUpdate(table, row, null);
       int numRows = stmt.executeUpdate();
 
       if(numRows == 0)
       {
+         // insert() counts the row, so don't count it again.
+
          insert(table, row);
+         return;
       }
       else if(numRows > 1)
          throw new SQLException("[xmldbms] Primary key not unique. Multiple rows updated!");
@@ -310,6 +581,7 @@ public abstract class DataHandlerBase
       throws SQLException
    {
       checkState();
+      executeBatch();
 
       PreparedStatement stmt = buildDelete(table, row, key);
       int numRows = stmt.executeUpdate();
@@ -342,6 +614,7 @@ public abstract class DataHandlerBase
       throws SQLException
    {
       checkState();
+      executeBatch();
 
       PreparedStatement stmt = buildDelete(table, key, keyValue, where, paramColumns, paramValues);
       int numRows = stmt.executeUpdate();
@@ -379,11 +652,37 @@ public abstract class DataHandlerBase
       throws SQLException
    {
       checkState();
+      executeBatch();
 
       PreparedStatement stmt = buildSelect(table, key, keyValue, where, paramColumns, paramValues, orderInfo);
       return stmt.executeQuery();
    }
 
+   /**
+    * Implements the selectForKeys method in the DataHandler interface.
+    *
+    * @param t The table to select from. Must not be null.
+    * @param key The key to restrict with. Must not be null.
+    * @param keyValues A Vector of key values, each of which is a Vector.
+    * @param where An additional where constraint. May be null.
+    * @param paramColumns The columns corresponding to parameters in the where constraint.
+    *   Null if there are no parameters.
+    * @param paramValues The values of parameters in the where constraint. Null if there
+    *   are no parameters.
+    * @param order The sort information. May be null.
+    * @return The result set.
+    * @exception SQLException Thrown if a database error occurs.
+    */
+   public ResultSet selectForKeys(Table table, Key key, Vector keyValues, String where, Vector paramColumns, Vector paramValues, OrderInfo orderInfo)
+      throws SQLException
+   {
+      checkState();
+      executeBatch();
+
+      PreparedStatement stmt = buildSelectForKeys(table, key, keyValues, where, paramColumns, paramValues, orderInfo);
+      return stmt.executeQuery();
+   }
+
    // ************************************************************************
    // Public methods -- build statements
    // ************************************************************************
@@ -391,6 +690,8 @@ public abstract class DataHandlerBase
    /**
     * Builds a prepared INSERT statement
     *
+    * <p>The statement is retrieved from the InsertCache and must not be closed.</p>
+    *
     * @param table The table into which to insert rows.
     * @param row The row containing data to insert.
     * @return The prepared INSERT statement
@@ -399,8 +700,8 @@ public abstract class DataHandlerBase
    public PreparedStatement buildInsert(Table table, Row row)
       throws SQLException
    {
-      // NOTE: The insert string is not cached because the row can have a
-      // different set of columns each time.
+      // NOTE: The row can have a different set of columns each time, so
+      // statements are cached by table and the set of columns with values.
 
 /*
 RPB: This code does not appear to be necessary. If the key column has a value
@@ -431,19 +732,53 @@ needs to solve.
       colVec.copyInto(cols);
 */
 
-      // Get a list of the columns that have values in the row.
+      // Get the INSERT statement and set the parameters.
 
-      Vector cols = row.getColumnVectorFor(table);
+      return m_inserts.getInsert(table, row);
+   }
 
-      // Build the INSERT statement
+   /**
+    * Builds a prepared statement that inserts a row or, if a row with the same
+    * primary key already exists, updates it.
+    *
+    * <p>All non-unique/primary key columns for which there is data in the row
+    * are updated.</p>
+    *
+    * <p>The statement is retrieved from the InsertCache and must not be closed.</p>
+    *
+    * @param table The table into which to insert or update data.
+    * @param row The row containing the data.
+    * @return The prepared statement. This is null if the database does not
+    *    support a single-statement upsert or the table has database-generated keys.
+    * @exception SQLException Thrown if a database error occurs.
+    */
+   public PreparedStatement buildUpsert(Table table, Row row)
+      throws SQLException
+   {
+      InsertCache.Signature signature;
+      Vector                cols;
+      String                sql;
+      PreparedStatement     stmt;
 
-      String sql = m_dml.getInsert(table, cols);
-      PreparedStatement stmt = m_connection.prepareStatement(sql);
+      // Database-generated keys are retrieved by insert, so don't use an upsert.
 
-      // Set the parameters
+      if (getDBGeneratedKeyCols(table).size() > 0) return null;
 
-      Parameters.setParameters(stmt, 0, cols, row.getColumnValues(cols));
+      // The upsert string depends only on the columns with values in the row,
+      // so the statement is cached with the INSERT statements.
+
+      signature = m_inserts.getSignature(table, row, InsertCache.TYPE_UPSERT);
+      cols = row.getColumnVectorFor(table);
+      stmt = m_inserts.getStatement(signature);
+      if (stmt == null)
+      {
+         sql = getUpsertString(table, cols, getUpdateColumns(table, row));
+         if (sql == null) return null;
+         stmt = m_inserts.addStatement(signature, sql, cols);
+      }
 
+      stmt.clearParameters();
+      Parameters.setParameters(stmt, 0, cols, row.getColumnValues(cols));
       return stmt;
    }
 
@@ -460,10 +795,7 @@ needs to solve.
    public PreparedStatement buildUpdate(Table table, Row row, Vector cols)
       throws SQLException
    {
-      Vector            priCols, keyCols, colVec;
-      Hashtable         colHash;
-      int               i;
-      Enumeration       e;
+      Vector            priCols;
       String            sql;
       PreparedStatement stmt;
 
@@ -479,44 +811,7 @@ needs to solve.
 
       if(cols == null)
       {
-         // Build a hashtable from the columns in the row that apply to this table.
-
-         colVec = row.getColumnVectorFor(table);
-         colHash = new Hashtable(colVec.size());
-         for (i = 0; i < colVec.size(); i++)
-         {
-            colHash.put(colVec.elementAt(i), OBJECT);
-         }
-         
-         // Remove the primary key columns. We don't update primary keys.
-
-         for(i = 0; i < priCols.size(); i++)
-         {
-            if(colHash.remove(priCols.elementAt(i)) == null)
-               throw new SQLException("[xmldbms] When updating data, you must supply values for all primary key columns. No value supplied for the " + ((Column)priCols.elementAt(i)).getName() + " column.");
-         }
-
-         // Remove the unique key columns. We don't update unique keys.
-
-         e = table.getUniqueKeys();
-         while(e.hasMoreElements())
-         {
-            keyCols = ((Key)e.nextElement()).getColumns();
-            for(i = 0; i < keyCols.size(); i++)
-            {
-               colHash.remove(keyCols.elementAt(i));
-            }
-         }
-
-         // Copy the remaining columns for the table into a vector.
-
-         cols = new Vector(colHash.size());
-         e = colHash.keys();
-         i = 0;
-         while (e.hasMoreElements())
-         {
-            cols.addElement(e.nextElement());
-         }
+         cols = getUpdateColumns(table, row);
       }
 
       // Build the UPDATE statement
@@ -662,10 +957,91 @@ RPB - Nobody uses this, so let's delete it and force people to pass the primary
       return stmt;
    }
 
+   /**
+    * Builds a SELECT statement of the form
+    * "SELECT * FROM Table WHERE Key IN (?, ...) AND &lt;where> ORDER BY ?".
+    *
+    * @param table The table from which to select data.
+    * @param key The key to restrict with. Must not be null.
+    * @param keyValues A Vector of key values, each of which is a Vector.
+    * @param where An additional where constraint. May be null.
+    * @param paramColumns The columns corresponding to parameters in the where constraint.
+    *   Null if there are no parameters.
+    * @param paramValues The values of parameters in the where constraint. Null if there
+    *   are no parameters.
+    * @param order The sort information. May be null.
+    * @return The prepared SELECT statement
+    * @exception SQLException Thrown if a database error occurs.
+    */
+   public PreparedStatement buildSelectForKeys(Table table, Key key, Vector keyValues, String where, Vector paramColumns, Vector paramValues, OrderInfo orderInfo)
+      throws SQLException
+   {
+      // These can be cached. Use SQLStrings
+
+      String sql = m_strings.getSelect(table, key, keyValues.size(), where, orderInfo);
+
+      // Build the SELECT statement
+
+      PreparedStatement stmt = m_connection.prepareStatement(sql);
+
+      // Set the parameters for each key value, then for the where constraint.
+
+      Vector keyColumns = key.getColumns();
+      int start = 0;
+      for (int i = 0; i < keyValues.size(); i++)
+      {
+         Parameters.setParameters(stmt, start, keyColumns, (Vector)keyValues.elementAt(i));
+         start += keyColumns.size();
+      }
+      if (paramColumns != null)
+      {
+         Parameters.setParameters(stmt, start, paramColumns, paramValues);
+      }
+
+      // Return the statement.
+
+      return stmt;
+   }
+
    // ************************************************************************
    // Public methods -- helpers
    // ************************************************************************
 
+   /**
+    * Commit the current transaction, regardless of the commit mode.
+    *
+    * <p>This is for applications that store documents with COMMIT_NONE and
+    * commit groups of documents themselves. Batched rows are executed first
+    * so that they are part of the transaction.</p>
+    *
+    * @exception SQLException Thrown if a database error occurs.
+    */
+   public void commitTransaction()
+      throws SQLException
+   {
+      checkState();
+      executeBatch();
+      m_connection.commit();
+      m_dirtyConnection = false;
+   }
+
+   /**
+    * Roll back the current transaction, regardless of the commit mode.
+    *
+    * <p>This is the counterpart of commitTransaction. Batched rows are
+    * discarded.</p>
+    *
+    * @exception SQLException Thrown if a database error occurs.
+    */
+   public void rollbackTransaction()
+      throws SQLException
+   {
+      checkState();
+      closeBatches();
+      m_connection.rollback();
+      m_dirtyConnection = false;
+   }
+
    /**
     * Checks if the DataHandler has been initialized.
     *
@@ -685,12 +1061,8 @@ RPB - Nobody uses this, so let's delete it and force people to pass the primary
     */
    public void databaseModified()
    {
-      if(m_commitMode == COMMIT_AFTERDOCUMENT)
-      {
-         m_dirtyConnection = true;
-      }
-
-      // For COMMIT_AFTERSTATEMENT we use auto commit
+      m_modifiedRows++;
+      setDirty();
    }
 
    /**
@@ -776,11 +1148,40 @@ RPB - Nobody uses this, so let's delete it and force people to pass the primary
       return key;
    }
 
+   /**
+    * Discards all batched rows without executing them.
+    *
+    * <p>The batched statements stay in the InsertCache. This method ignores
+    * any errors encountered while clearing their batches.</p>
+    */
+   public void closeBatches()
+   {
+      if (m_batchOrder == null) return;
+
+      for (int i = 0; i < m_batchOrder.size(); i++)
+      {
+         try
+         {
+            ((Batch)m_batchOrder.elementAt(i)).stmt.clearBatch();
+         }
+         catch (SQLException e)
+         {
+            // Ignore errors and continue clearing statements. If an error
+            // occurred on a statement, the InsertCache replaces it.
+         }
+      }
+
+      m_batches.clear();
+      m_batchOrder.removeAllElements();
+      m_batchedRows = 0;
+      m_inserts.releaseHolds();
+   }
+
    /**
     * Retrieves the PreparedStatement used by the driver.
     *
     * <p>If the PreparedStatement has been wrapped by SPPreparedStatement, the
-    * driver's PreparedStatement is returned. Otherwise, the input PreparedStatement
+    * driver's PreparedStatement is returned, even if it has been wrapped more than once. Otherwise, the input PreparedStatement
     * is returned.</p>
     *
     * @param stmt The (possibly wrapped) PreparedStatement.
@@ -788,10 +1189,14 @@ RPB - Nobody uses this, so let's delete it and force people to pass the primary
     */
    public PreparedStatement getRawStatement(PreparedStatement stmt)
    {
-      if(stmt instanceof SPPreparedStatement)
-         return ((SPPreparedStatement)stmt).getUnderlyingStatement();
-      else
-         return stmt;
+      // Statements may be wrapped more than once, such as when the InsertCache
+      // checks statements out of a connection returned by StatementPoolDataSource.
+
+      while(stmt instanceof SPPreparedStatement)
+      {
+         stmt = ((SPPreparedStatement)stmt).getUnderlyingStatement();
+      }
+      return stmt;
    }
 
    /**
@@ -816,4 +1221,165 @@ RPB - Nobody uses this, so let's delete it and force people to pass the primary
          throw new SQLException("[xmldbms]Conversion error: " + e.getMessage());
       }
    }
-}
\ No newline at end of file
+
+   // ************************************************************************
+   // Protected methods
+   // ************************************************************************
+
+   /**
+    * Inserts a row into the table; must be implemented by child classes.
+    *
+    * <p>This method is called by insert after any batched rows have been
+    * executed. It must set the columns in the row of any primary or unique
+    * keys that were generated by the database.</p>
+    *
+    * @param table The table.
+    * @param row The row. This may contain values for columns that do not
+    *    belong to the table.
+    * @exception SQLException Thrown if a database error occurs.
+    */
+   protected abstract void insertRow(Table table, Row row)
+      throws SQLException;
+
+   /**
+    * Gets a string for a statement that inserts a row or, if a row with the
+    * same primary key already exists, updates it.
+    *
+    * <p>The statement must have one parameter for each column in cols, in the
+    * same order. The default implementation returns a standard SQL MERGE
+    * statement for databases known to support MERGE with a VALUES row
+    * constructor (H2, HSQLDB, and SQL Server) and null for all other databases.
+    * For SQL Server, which rejects MERGE statements that are not terminated,
+    * the statement ends with a semicolon. Child classes override this method
+    * to use database-specific syntax.</p>
+    *
+    * @param table The table.
+    * @param cols The columns to insert. These include the primary key columns.
+    * @param updateCols The columns to update if the row exists. May be empty.
+    * @return The statement string or null if the database does not support
+    *    a single-statement upsert.
+    */
+   protected String getUpsertString(Table table, Vector cols, Vector updateCols)
+   {
+      String merge;
+
+      if (!m_useMerge) return null;
+      merge = m_dml.getMerge(table, table.getPrimaryKey(), cols, updateCols);
+      return (m_terminateMerge) ? merge + SEMICOLON : merge;
+   }
+
+   // ************************************************************************
+   // Private methods
+   // ************************************************************************
+
+   private void setDirty()
+   {
+      if(m_commitMode == COMMIT_AFTERDOCUMENT)
+      {
+         m_dirtyConnection = true;
+      }
+
+      // For COMMIT_AFTERSTATEMENT we use auto commit
+   }
+
+   private boolean supportsMerge(String name)
+   {
+      // Only use MERGE where we know that "USING (VALUES (...)) AS S (...)"
+      // works. Other databases, such as Oracle and DB2, need a different
+      // source clause, so they use UPDATE and INSERT.
+
+      if (name == null) return false;
+      return name.equals("H2") ||
+             name.equals("HSQL Database Engine") ||
+             name.equals(SQLSERVER);
+   }
+
+   private Vector getUpdateColumns(Table table, Row row)
+      throws SQLException
+   {
+      Vector      priCols, keyCols, colVec, cols;
+      Hashtable   colHash;
+      int         i;
+      Enumeration e;
+
+      // Build a hashtable from the columns in the row that apply to this table.
+
+      colVec = row.getColumnVectorFor(table);
+      colHash = new Hashtable(colVec.size());
+      for (i = 0; i < colVec.size(); i++)
+      {
+         colHash.put(colVec.elementAt(i), OBJECT);
+      }
+
+      // Remove the primary key columns. We don't update primary keys.
+
+      priCols = table.getPrimaryKey().getColumns();
+      for(i = 0; i < priCols.size(); i++)
+      {
+         if(colHash.remove(priCols.elementAt(i)) == null)
+            throw new SQLException("[xmldbms] When updating data, you must supply values for all primary key columns. No value supplied for the " + ((Column)priCols.elementAt(i)).getName() + " column.");
+      }
+
+      // Remove the unique key columns. We don't update unique keys.
+
+      e = table.getUniqueKeys();
+      while(e.hasMoreElements())
+      {
+         keyCols = ((Key)e.nextElement()).getColumns();
+         for(i = 0; i < keyCols.size(); i++)
+         {
+            colHash.remove(keyCols.elementAt(i));
+         }
+      }
+
+      // Copy the remaining columns for the table into a vector.
+
+      cols = new Vector(colHash.size());
+      e = colHash.keys();
+      while (e.hasMoreElements())
+      {
+         cols.addElement(e.nextElement());
+      }
+      return cols;
+   }
+
+   private boolean referencesLaterBatch(Batch batch)
+   {
+      Enumeration e;
+      Table       remoteTable;
+
+      // Check if the batch's table has a foreign key that points to the table
+      // of any batch started after it. Note that the last batch can't
+      // reference a later batch.
+
+      for (int i = m_batchOrder.indexOf(batch) + 1; i < m_batchOrder.size(); i++)
+      {
+         remoteTable = ((Batch)m_batchOrder.elementAt(i)).table;
+         e = batch.table.getForeignKeys();
+         while (e.hasMoreElements())
+         {
+            if (((Key)e.nextElement()).getRemoteTable() == remoteTable) return true;
+         }
+      }
+      return false;
+   }
+
+   // ************************************************************************
+   // Inner classes
+   // ************************************************************************
+
+   // A cached INSERT or upsert statement to which rows with the same
+   // signature are added.
+
+   class Batch
+   {
+      Table             table;
+      PreparedStatement stmt;
+
+      Batch(Table table, PreparedStatement stmt)
+      {
+         this.table = table;
+         this.stmt = stmt;
+      }
+   }
+}
@@ -0,0 +1,413 @@
+// This software is in the public domain.
+//
+// The software is provided "as is", without warranty of any kind,
+// express or implied, including but not limited to the warranties
+// of merchantability, fitness for a particular purpose, and
+// noninfringement. In no event shall the author(s) be liable for any
+// claim, damages, or other liability, whether in an action of
+// contract, tort, or otherwise, arising from, out of, or in connection
+// with the software or the use or other dealings in the software.
+//
+// Parts of this software were originally developed in the Database
+// and Distributed Systems Group at the Technical University of
+// Darmstadt, Germany:
+//
+//    http://www.informatik.tu-darmstadt.de/DVS1/
+
+// Version 2.0
+// Changes from version 1.x: New in version 2.0
+
+package org.xmlmiddleware.xmldbms.datahandlers;
+
+import org.xmlmiddleware.xmldbms.*;
+import org.xmlmiddleware.xmldbms.maps.*;
+
+import java.sql.*;
+import java.util.*;
+import javax.sql.*;
+
+/**
+ * DataHandler that records statements instead of executing them.
+ *
+ * <p>DeferredDataHandler separates deciding which rows to store from storing
+ * them. For example, DOMToDBMS can convert a document to rows on one thread
+ * while the rows for the previous document are stored on another. The
+ * recorded operations are retrieved with removeOperations and later passed
+ * to execute along with a DataHandler that is connected to the database.</p>
+ *
+ * <p>Because nothing is executed until later, DeferredDataHandler cannot be
+ * used when information is needed from the database while the rows are
+ * being decided:</p>
+ *
+ * <ul>
+ * <li>Inserting a row in a table whose primary key is generated by the
+ * database throws an exception, since the key cannot be returned.</li>
+ * <li>select and selectForKeys throw an exception. Thus, DOMToDBMS must not
+ * update property tables incrementally.</li>
+ * <li>Errors are reported by execute, not by the method that recorded the
+ * operation. In particular, errors in soft inserts (Action.SOFTINSERT) cause
+ * execute to fail instead of being returned as warnings.</li>
+ * </ul>
+ *
+ * <p>startDocument and endDocument are not recorded. The caller of execute
+ * is responsible for transactions. The Row objects passed to DeferredDataHandler
+ * are recorded, not copied, and must not be changed until the operations
+ * are executed.</p>
+ *
+ * @version 2.0
+ */
+
+public class DeferredDataHandler
+   implements DataHandler
+{
+   // ************************************************************************
+   // Variables
+   // ************************************************************************
+
+   private Vector m_operations = new Vector();
+   private int    m_batchSize = 0;
+
+   // ************************************************************************
+   // Constants
+   // ************************************************************************
+
+   private static final int INSERT = 1;
+   private static final int BATCHINSERT = 2;
+   private static final int EXECUTEBATCH = 3;
+   private static final int UPDATE = 4;
+   private static final int UPDATEORINSERT = 5;
+   private static final int BATCHUPDATEORINSERT = 6;
+   private static final int DELETEROW = 7;
+   private static final int DELETEWHERE = 8;
+
+   // ************************************************************************
+   // Constructor
+   // ************************************************************************
+
+   /**
+    * Creates a DeferredDataHandler.
+    */
+   public DeferredDataHandler()
+   {
+   }
+
+   // ************************************************************************
+   // Recorded operations
+   // ************************************************************************
+
+   /**
+    * Get the recorded operations and start a new list.
+    *
+    * @return A Vector of recorded operations. Pass this to execute.
+    */
+   public synchronized Vector removeOperations()
+   {
+      Vector operations = m_operations;
+
+      m_operations = new Vector();
+      return operations;
+   }
+
+   /**
+    * Execute recorded operations.
+    *
+    * <p>The operations are executed in the order in which they were recorded.
+    * This method does not start, commit, or roll back transactions.</p>
+    *
+    * @param operations A Vector returned by removeOperations.
+    * @param dataHandler The DataHandler with which to execute the operations.
+    * @exception SQLException Thrown if a database error occurs.
+    */
+   public static void execute(Vector operations, DataHandler dataHandler)
+      throws SQLException
+   {
+      Operation op;
+
+      for (int i = 0; i < operations.size(); i++)
+      {
+         op = (Operation)operations.elementAt(i);
+         switch (op.type)
+         {
+            case INSERT:
+               dataHandler.insert(op.table, op.row);
+               break;
+
+            case BATCHINSERT:
+               dataHandler.batchInsert(op.table, op.row);
+               break;
+
+            case EXECUTEBATCH:
+               dataHandler.executeBatch();
+               break;
+
+            case UPDATE:
+               dataHandler.update(op.table, op.row, op.columns);
+               break;
+
+            case UPDATEORINSERT:
+               dataHandler.updateOrInsert(op.table, op.row);
+               break;
+
+            case BATCHUPDATEORINSERT:
+               dataHandler.batchUpdateOrInsert(op.table, op.row);
+               break;
+
+            case DELETEROW:
+               dataHandler.delete(op.table, op.row, op.key);
+               break;
+
+            case DELETEWHERE:
+               dataHandler.delete(op.table, op.key, op.keyValue, op.where, op.columns, op.paramValues);
+               break;
+         }
+      }
+   }
+
+   // ************************************************************************
+   // DataHandler methods
+   // ************************************************************************
+
+   /**
+    * Implements the initialize method in the DataHandler interface.
+    *
+    * <p>DeferredDataHandler does not connect to a database, so all
+    * arguments are ignored.</p>
+    *
+    * @param dataSource Ignored.
+    * @param user Ignored.
+    * @param password Ignored.
+    */
+   public void initialize(DataSource dataSource, String user, String password)
+   {
+   }
+
+   /**
+    * Implements the startDocument method in the DataHandler interface.
+    *
+    * @param commitMode Ignored.
+    */
+   public void startDocument(int commitMode)
+   {
+   }
+
+   /**
+    * Implements the endDocument method in the DataHandler interface.
+    */
+   public void endDocument()
+   {
+   }
+
+   /**
+    * Implements the recoverFromException method in the DataHandler interface.
+    *
+    * <p>Discards all recorded operations.</p>
+    */
+   public synchronized void recoverFromException()
+   {
+      m_operations.removeAllElements();
+   }
+
+   /**
+    * Implements the insert method in the DataHandler interface.
+    *
+    * @param table The table.
+    * @param row The row.
+    * @exception SQLException Thrown if the table's primary key is generated by
+    *    the database.
+    */
+   public void insert(Table table, Row row)
+      throws SQLException
+   {
+      checkKeyGeneration(table);
+      record(INSERT, table, row);
+   }
+
+   /**
+    * Implements the setBatchSize method in the DataHandler interface.
+    *
+    * @param batchSize The batch size.
+    */
+   public void setBatchSize(int batchSize)
+   {
+      m_batchSize = batchSize;
+   }
+
+   /**
+    * Implements the getBatchSize method in the DataHandler interface.
+    *
+    * @return The batch size.
+    */
+   public int getBatchSize()
+   {
+      return m_batchSize;
+   }
+
+   /**
+    * Implements the batchInsert method in the DataHandler interface.
+    *
+    * @param table The table.
+    * @param row The row.
+    * @exception SQLException Thrown if the table's primary key is generated by
+    *    the database.
+    */
+   public void batchInsert(Table table, Row row)
+      throws SQLException
+   {
+      checkKeyGeneration(table);
+      record(BATCHINSERT, table, row);
+   }
+
+   /**
+    * Implements the executeBatch method in the DataHandler interface.
+    */
+   public void executeBatch()
+   {
+      record(EXECUTEBATCH, null, null);
+   }
+
+   /**
+    * Implements the update method in the DataHandler interface.
+    *
+    * @param table The table.
+    * @param row The row.
+    * @param columns The columns to update. May be null.
+    */
+   public void update(Table table, Row row, Vector columns)
+   {
+      Operation op = record(UPDATE, table, row);
+      op.columns = columns;
+   }
+
+   /**
+    * Implements the updateOrInsert method in the DataHandler interface.
+    *
+    * @param table The table.
+    * @param row The row.
+    * @exception SQLException Thrown if the table's primary key is generated by
+    *    the database.
+    */
+   public void updateOrInsert(Table table, Row row)
+      throws SQLException
+   {
+      checkKeyGeneration(table);
+      record(UPDATEORINSERT, table, row);
+   }
+
+   /**
+    * Implements the batchUpdateOrInsert method in the DataHandler interface.
+    *
+    * @param table The table.
+    * @param row The row.
+    * @exception SQLException Thrown if the table's primary key is generated by
+    *    the database.
+    */
+   public void batchUpdateOrInsert(Table table, Row row)
+      throws SQLException
+   {
+      checkKeyGeneration(table);
+      record(BATCHUPDATEORINSERT, table, row);
+   }
+
+   /**
+    * Implements the delete method in the DataHandler interface.
+    *
+    * @param table The table.
+    * @param row The row.
+    * @param key The key.
+    */
+   public void delete(Table table, Row row, Key key)
+   {
+      Operation op = record(DELETEROW, table, row);
+      op.key = key;
+   }
+
+   /**
+    * Implements the delete method in the DataHandler interface.
+    *
+    * @param table The table to delete from.
+    * @param key The key to restrict with. May be null.
+    * @param keyValue The value of the key. Null if the key is null.
+    * @param where An additional where constraint. May be null.
+    * @param paramColumns The columns corresponding to parameters in the where constraint.
+    * @param paramValues The values of parameters in the where constraint.
+    */
+   public void delete(Table table, Key key, Vector keyValue, String where, Vector paramColumns, Vector paramValues)
+   {
+      Operation op = record(DELETEWHERE, table, null);
+      op.key = key;
+      op.keyValue = keyValue;
+      op.where = where;
+      op.columns = paramColumns;
+      op.paramValues = paramValues;
+   }
+
+   /**
+    * Implements the select method in the DataHandler interface.
+    *
+    * <p>Always throws an exception, since there is no database to select from.</p>
+    *
+    * @exception SQLException Always thrown.
+    */
+   public ResultSet select(Table table, Key key, Vector keyValue, String where, Vector paramColumns, Vector paramValues, OrderInfo orderInfo)
+      throws SQLException
+   {
+      throw new SQLException("[xmldbms] DeferredDataHandler cannot select rows from " + table.getUniversalName() + ".");
+   }
+
+   /**
+    * Implements the selectForKeys method in the DataHandler interface.
+    *
+    * <p>Always throws an exception, since there is no database to select from.</p>
+    *
+    * @exception SQLException Always thrown.
+    */
+   public ResultSet selectForKeys(Table table, Key key, Vector keyValues, String where, Vector paramColumns, Vector paramValues, OrderInfo orderInfo)
+      throws SQLException
+   {
+      throw new SQLException("[xmldbms] DeferredDataHandler cannot select rows from " + table.getUniversalName() + ".");
+   }
+
+   // ************************************************************************
+   // Private methods
+   // ************************************************************************
+
+   private synchronized Operation record(int type, Table table, Row row)
+   {
+      Operation op = new Operation(type, table, row);
+
+      m_operations.addElement(op);
+      return op;
+   }
+
+   private void checkKeyGeneration(Table table)
+      throws SQLException
+   {
+      Key priKey = table.getPrimaryKey();
+
+      if ((priKey != null) && (priKey.getKeyGeneration() == Key.DATABASE))
+         throw new SQLException("[xmldbms] Rows cannot be deferred for tables with database-generated keys: " + table.getUniversalName());
+   }
+
+   // ************************************************************************
+   // Inner classes
+   // ************************************************************************
+
+   static class Operation
+   {
+      int    type;
+      Table  table;
+      Row    row;
+      Key    key = null;
+      Vector keyValue = null;
+      String where = null;
+      Vector columns = null;
+      Vector paramValues = null;
+
+      Operation(int type, Table table, Row row)
+      {
+         this.type = type;
+         this.table = table;
+         this.row = row;
+      }
+   }
+}
@@ -61,11 +61,11 @@ public class GenericHandler
    }
 
    // ************************************************************************
-   // Public methods
+   // Protected methods
    // ************************************************************************
 
    /**
-    * Inserts a row into the table.
+    * Implements DataHandlerBase.insertRow(). Inserts a row into the table.
     *
     * <p>This method sets the columns in the row of any primary or unique keys
     * that were generated by the database. It does this by selecting rows with
@@ -75,11 +75,9 @@ public class GenericHandler
     * @param row Row to insert.
     * @exception SQLException A database error occurred while inserting data.
     */
-   public void insert(Table table, Row row)
+   protected void insertRow(Table table, Row row)
       throws SQLException
    {
-      checkState();
-
       PreparedStatement stmt = buildInsert(table, row);
       int numRows = stmt.executeUpdate();
 
@@ -0,0 +1,457 @@
+// This software is in the public domain.
+//
+// The software is provided "as is", without warranty of any kind,
+// express or implied, including but not limited to the warranties
+// of merchantability, fitness for a particular purpose, and
+// noninfringement. In no event shall the author(s) be liable for any
+// claim, damages, or other liability, whether in an action of
+// contract, tort, or otherwise, arising from, out of, or in connection
+// with the software or the use or other dealings in the software.
+//
+// Parts of this software were originally developed in the Database
+// and Distributed Systems Group at the Technical University of
+// Darmstadt, Germany:
+//
+//    http://www.informatik.tu-darmstadt.de/DVS1/
+
+// Version 2.0
+// Changes from version 1.x: New in version 2.0
+
+package org.xmlmiddleware.xmldbms.datahandlers;
+
+import org.xmlmiddleware.db.*;
+import org.xmlmiddleware.utils.*;
+import org.xmlmiddleware.xmldbms.*;
+import org.xmlmiddleware.xmldbms.maps.*;
+import org.xmlmiddleware.xmldbms.maps.utils.*;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Caches prepared INSERT statements for a single connection.
+ *
+ * <p>Statements are identified by a signature: the table, the set of columns
+ * that have values in the row, and the type of statement. When a row has the
+ * same shape as a previous row, the cached statement is reused, so neither
+ * the INSERT string nor the prepared statement needs to be built again.
+ * DataHandlerBase also uses signatures to identify its batches, and caches
+ * upsert statements here.</p>
+ *
+ * <p>Statements are checked out of a StatementPool for the connection and
+ * stay checked out while they are in the cache. When the cache is full, the
+ * least recently used statement is checked back in and closed.</p>
+ *
+ * <p>A statement to which rows have been added with addBatch must not be
+ * closed before the batch is executed, so it can be held. Held statements
+ * are not evicted until releaseHolds is called.</p>
+ *
+ * <p>Statements returned by the cache must not be closed by the caller. The
+ * cache is not synchronized; DataHandlers use a separate cache for each
+ * connection.</p>
+ *
+ * @version 2.0
+ * @see org.xmlmiddleware.db.StatementPool
+ */
+
+public class InsertCache
+{
+   //**************************************************************************
+   // Constants
+   //**************************************************************************
+
+   /** The default maximum number of statements in the cache. */
+   public static final int DEFAULT_MAXSIZE = 32;
+
+   /** Signature type: INSERT statement. */
+   public static final int TYPE_INSERT = 0;
+
+   /** Signature type: statement that inserts or updates a row. */
+   public static final int TYPE_UPSERT = 1;
+
+   //**************************************************************************
+   // Member variables
+   //**************************************************************************
+
+   private StatementPool m_pool;
+   private DMLGenerator  m_dml;
+   private Hashtable     m_entries = new Hashtable(); // Indexed by Signature
+   private Entry         m_head = null;  // Most recently used
+   private Entry         m_tail = null;  // Least recently used
+   private int           m_maxSize = DEFAULT_MAXSIZE;
+   private int           m_held = 0;     // Number of held entries
+   private long          m_hits = 0;
+   private long          m_misses = 0;
+
+   //**************************************************************************
+   // Constructors
+   //**************************************************************************
+
+   /**
+    * Create a new InsertCache.
+    *
+    * @param conn The connection to prepare statements on.
+    * @param dml The DMLGenerator to build INSERT strings with.
+    */
+   public InsertCache(Connection conn, DMLGenerator dml)
+   {
+      m_pool = new StatementPool(conn);
+      m_dml = dml;
+   }
+
+   //**************************************************************************
+   // Public methods
+   //**************************************************************************
+
+   /**
+    * Get a prepared INSERT statement for a row and set its parameters.
+    *
+    * @param table The table to insert into.
+    * @param row The row. This may contain values for columns that do not
+    *    belong to the table.
+    * @return The prepared statement. Do not close this statement.
+    * @exception SQLException Thrown if a database error occurs.
+    */
+   public PreparedStatement getInsert(Table table, Row row)
+      throws SQLException
+   {
+      Signature signature;
+      Entry     entry;
+      Vector    cols;
+
+      signature = getSignature(table, row, TYPE_INSERT);
+      entry = getEntry(signature);
+      if (entry != null)
+      {
+         entry.stmt.clearParameters();
+      }
+      else
+      {
+         cols = row.getColumnVectorFor(table);
+         entry = addEntry(signature, m_dml.getInsert(table, cols), cols);
+      }
+
+      Parameters.setParameters(entry.stmt, 0, entry.cols, row.getColumnValues(entry.cols));
+      return entry.stmt;
+   }
+
+   /**
+    * Set the maximum number of statements in the cache.
+    *
+    * <p>If the cache holds more statements than this, the least recently used
+    * statements that are not held are closed.</p>
+    *
+    * @param maxSize The maximum number of statements. Must be 1 or more.
+    */
+   public void setMaxSize(int maxSize)
+   {
+      if (maxSize < 1)
+         throw new IllegalArgumentException("Maximum cache size must be 1 or more: " + maxSize);
+      m_maxSize = maxSize;
+      trim();
+   }
+
+   /**
+    * Get the maximum number of statements in the cache.
+    *
+    * @return The maximum number of statements.
+    */
+   public int getMaxSize()
+   {
+      return m_maxSize;
+   }
+
+   /**
+    * Get the number of statements in the cache.
+    *
+    * @return The number of statements.
+    */
+   public int getSize()
+   {
+      return m_entries.size();
+   }
+
+   /**
+    * Get the number of times a cached statement was reused.
+    *
+    * @return The number of hits.
+    */
+   public long getHits()
+   {
+      return m_hits;
+   }
+
+   /**
+    * Get the number of times a new statement was prepared.
+    *
+    * @return The number of misses.
+    */
+   public long getMisses()
+   {
+      return m_misses;
+   }
+
+   /**
+    * Reset the hit and miss counters to 0.
+    */
+   public void resetStatistics()
+   {
+      m_hits = 0;
+      m_misses = 0;
+   }
+
+   /**
+    * Close all statements in the cache, including held statements.
+    *
+    * <p>This method ignores any errors encountered while closing statements.
+    * The hit and miss counters are not reset.</p>
+    */
+   public void clear()
+   {
+      while (m_tail != null)
+      {
+         evict(m_tail);
+      }
+      m_held = 0;
+   }
+
+   //**************************************************************************
+   // Package methods -- used by DataHandlerBase
+   //**************************************************************************
+
+   /**
+    * Get the signature of the statement for a row.
+    *
+    * @param table The table.
+    * @param row The row.
+    * @param type TYPE_INSERT or TYPE_UPSERT.
+    * @return The signature.
+    */
+   Signature getSignature(Table table, Row row, int type)
+   {
+      return new Signature(table, row.getColumnBitSetFor(table), type);
+   }
+
+   /**
+    * Get a cached statement.
+    *
+    * @param signature The signature of the statement.
+    * @return The statement or null if no statement is cached. Do not close
+    *    this statement.
+    */
+   PreparedStatement getStatement(Signature signature)
+   {
+      Entry entry = getEntry(signature);
+
+      return (entry == null) ? null : entry.stmt;
+   }
+
+   /**
+    * Prepare a statement and add it to the cache.
+    *
+    * @param signature The signature of the statement.
+    * @param sql The SQL string.
+    * @param cols The columns of the statement's parameters.
+    * @return The statement. Do not close this statement.
+    * @exception SQLException Thrown if a database error occurs.
+    */
+   PreparedStatement addStatement(Signature signature, String sql, Vector cols)
+      throws SQLException
+   {
+      return addEntry(signature, sql, cols).stmt;
+   }
+
+   /**
+    * Hold a statement so it is not evicted.
+    *
+    * @param signature The signature of a cached statement.
+    */
+   void hold(Signature signature)
+   {
+      Entry entry = (Entry)m_entries.get(signature);
+
+      if ((entry != null) && !entry.held)
+      {
+         entry.held = true;
+         m_held++;
+      }
+   }
+
+   /**
+    * Release all held statements. If the cache is larger than its maximum
+    * size, the least recently used statements are closed.
+    */
+   void releaseHolds()
+   {
+      if (m_held == 0) return;
+      for (Entry entry = m_head; entry != null; entry = entry.next)
+      {
+         entry.held = false;
+      }
+      m_held = 0;
+      trim();
+   }
+
+   //**************************************************************************
+   // Private methods
+   //**************************************************************************
+
+   private Entry getEntry(Signature signature)
+   {
+      Entry entry = (Entry)m_entries.get(signature);
+
+      // If an error occurred on the statement, the pool has already removed
+      // and closed it, so discard the entry and prepare a new statement.
+
+      if ((entry != null) && (((SPPreparedStatement)entry.stmt).getUnderlyingStatement() == null))
+      {
+         evict(entry);
+         entry = null;
+      }
+
+      if (entry == null) return null;
+
+      m_hits++;
+      moveToHead(entry);
+      return entry;
+   }
+
+   private Entry addEntry(Signature signature, String sql, Vector cols)
+      throws SQLException
+   {
+      Entry entry;
+
+      m_misses++;
+      entry = new Entry(signature);
+      entry.cols = cols;
+      entry.sql = sql;
+      try
+      {
+         entry.stmt = (PreparedStatement)m_pool.checkOut(sql);
+      }
+      catch (XMLMiddlewareException e)
+      {
+         Exception ex = e.getException();
+         if (ex instanceof SQLException) throw (SQLException)ex;
+         throw new SQLException("[xmldbms] " + e.getMessage());
+      }
+
+      m_entries.put(signature, entry);
+      addToHead(entry);
+      trim();
+      return entry;
+   }
+
+   private void trim()
+   {
+      Entry entry = m_tail, prev;
+
+      // Evict the least recently used statements that are not held. The most
+      // recently used statement is never evicted, since the caller may have
+      // just asked for it.
+
+      while ((m_entries.size() > m_maxSize) && (entry != m_head))
+      {
+         prev = entry.prev;
+         if (!entry.held) evict(entry);
+         entry = prev;
+      }
+   }
+
+   private void evict(Entry entry)
+   {
+      remove(entry);
+      m_entries.remove(entry.signature);
+
+      // Closing the statement checks it back in to the pool. Then close the
+      // underlying statement, since no one else will ask for it.
+
+      try
+      {
+         entry.stmt.close();
+      }
+      catch (SQLException e)
+      {
+         // The statement has been invalidated, such as after an error.
+         // The pool has already removed it.
+      }
+      m_pool.removeStatements(entry.sql);
+   }
+
+   private void addToHead(Entry entry)
+   {
+      entry.prev = null;
+      entry.next = m_head;
+      if (m_head != null) m_head.prev = entry;
+      m_head = entry;
+      if (m_tail == null) m_tail = entry;
+   }
+
+   private void remove(Entry entry)
+   {
+      if (entry.prev != null) entry.prev.next = entry.next; else m_head = entry.next;
+      if (entry.next != null) entry.next.prev = entry.prev; else m_tail = entry.prev;
+      entry.prev = null;
+      entry.next = null;
+   }
+
+   private void moveToHead(Entry entry)
+   {
+      if (entry == m_head) return;
+      remove(entry);
+      addToHead(entry);
+   }
+
+   //**************************************************************************
+   // Inner classes
+   //**************************************************************************
+
+   // Identifies a statement by table, the set of columns with values, and
+   // the type of statement.
+
+   static class Signature
+   {
+      Table  table;
+      BitSet cols;
+      int    type;
+
+      Signature(Table table, BitSet cols, int type)
+      {
+         this.table = table;
+         this.cols = cols;
+         this.type = type;
+      }
+
+      public boolean equals(Object obj)
+      {
+         if (!(obj instanceof Signature)) return false;
+         Signature signature = (Signature)obj;
+         return (table == signature.table) && (type == signature.type) &&
+                cols.equals(signature.cols);
+      }
+
+      public int hashCode()
+      {
+         return System.identityHashCode(table) ^ cols.hashCode() ^ (type << 16);
+      }
+   }
+
+   // A cached statement. Entries are kept in a doubly linked list in order
+   // of use.
+
+   class Entry
+   {
+      Signature         signature;
+      String            sql;
+      Vector            cols;
+      PreparedStatement stmt;
+      boolean           held;    // Whether stmt has unexecuted batches
+      Entry             prev;
+      Entry             next;
+
+      Entry(Signature signature)
+      {
+         this.signature = signature;
+      }
+   }
+}
@@ -51,6 +51,7 @@ public class SQLStrings
    //**************************************************************************
 
    private static final String SELECT = "SELECT_";
+   private static final String SELECTIN = "SELECTIN_";
    private static final String DELETE = "DELETE_";
    private static final String DELETEWHERE = "DELETEWHERE_";
 
@@ -133,6 +134,48 @@ public class SQLStrings
       return str;
    }
 
+   /**
+    * Returns a "SELECT * WHERE Key IN (?, ...) AND &lt;where> ORDER BY ?" SQL
+    * string for a given table.
+    *
+    * @param t The table to select from. Must not be null.
+    * @param key The key to restrict with. Must not be null.
+    * @param numKeyValues The number of key values. Must be 1 or more.
+    * @param where An additional where clause. May be null.
+    * @param order The sort information. May be null.
+    * @return The SELECT string.
+    * @see org.xmlmiddleware.xmldbms.maps.utils.DMLGenerator#getSelect(Table, Key, int, String, OrderInfo)
+    */
+   public String getSelect(Table t, Key key, int numKeyValues, String where, OrderInfo order)
+   {
+      String id, str;
+
+      // Build the id.
+
+      id = SELECTIN + t.getUniversalName() + key.getName() + ";" + String.valueOf(numKeyValues);
+      if (where != null)
+      {
+         id += ";" + String.valueOf(where.hashCode());
+      }
+      if (order != null)
+      {
+         id += ";" + String.valueOf(order.hashCode());
+      }
+
+      // Get the cached string or build and cache the string.
+
+      str = (String)m_strings.get(id);
+      if (str == null)
+      {
+         str = m_dml.getSelect(t, key, numKeyValues, where, order);
+         m_strings.put(id, str);
+      }
+
+      // Return the string.
+
+      return str;
+   }
+
    /**
     * Returns a DELETE SQL string for a given table.
     *
@@ -54,11 +54,11 @@ public class JDBC3Handler
    }
 
    // ************************************************************************
-   // Public methods
+   // Protected methods
    // ************************************************************************
 
    /**
-    * Inserts a row into the table.
+    * Implements DataHandlerBase.insertRow(). Inserts a row into the table.
     *
     * <p>This method sets the columns in the row of any primary or unique keys that were
     * generated by the database. It does this via Statement.getGeneratedKeys().</p>
@@ -67,11 +67,9 @@ public class JDBC3Handler
     * @param row Row to insert.
     * @exception SQLException A database error occurred while inserting data.
     */
-   public void insert(Table table, Row row)
+   protected void insertRow(Table table, Row row)
       throws SQLException
    {
-      checkState();
-
       PreparedStatement stmt = buildInsert(table, row);
 
       // IMPL: Statement.executeUpdate has an argument which tells it
@@ -100,8 +100,12 @@ public class MySQLHandler
       m_usedKeys = new Hashtable();
    }
 
+   // ************************************************************************
+   // Protected methods
+   // ************************************************************************
+
    /**
-    * Inserts a row into the table.
+    * Implements DataHandlerBase.insertRow(). Inserts a row into the table.
     *
     * <p>This method sets the columns in the row of any primary or unique keys
     * that were generated by the database. It does this via an AUTO_INCREMENT
@@ -111,11 +115,9 @@ public class MySQLHandler
     * @param row Row to insert.
     * @exception SQLException A database error occurred while inserting data.
     */
-   public void insert(Table table, Row row)
+   protected void insertRow(Table table, Row row)
       throws SQLException
    {
-      checkState();
-
       PreparedStatement stmt = buildInsert(table, row);
       int numRows = stmt.executeUpdate();
 
@@ -173,9 +175,21 @@ public class MySQLHandler
       }
    }
 
-   // ************************************************************************
-   // Protected methods
-   // ************************************************************************
+   /**
+    * Overrides DataHandlerBase.getUpsertString().
+    *
+    * <p>Returns an INSERT ... ON DUPLICATE KEY UPDATE statement. This requires
+    * MySQL 4.1 or later.</p>
+    *
+    * @param table The table.
+    * @param cols The columns to insert.
+    * @param updateCols The columns to update if the row exists.
+    * @return The statement string.
+    */
+   protected String getUpsertString(Table table, Vector cols, Vector updateCols)
+   {
+      return getDMLGenerator().getInsertOnDuplicateKey(table, table.getPrimaryKey(), cols, updateCols);
+   }
 
    /**
     * Retrieves the AUTO_INCREMENT column for a given table.
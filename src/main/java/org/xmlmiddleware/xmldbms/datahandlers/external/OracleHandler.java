@@ -55,11 +55,11 @@ public class OracleHandler
    }
 
    // ************************************************************************
-   // Public methods
+   // Protected methods
    // ************************************************************************
 
    /**
-    * Inserts a row into the table.
+    * Implements DataHandlerBase.insertRow(). Inserts a row into the table.
     *
     * <p>This method sets the columns in the row of any primary or unique keys
     * that were generated by the database.</p>
@@ -68,11 +68,9 @@ public class OracleHandler
     * @param row Row to insert.
     * @exception SQLException A database error occurred while inserting data.
     */
-   public void insert(Table table, Row row)
+   protected void insertRow(Table table, Row row)
       throws SQLException
    {
-      checkState();
-
       // Make and execute the statement...
 
       PreparedStatement stmt = buildInsert(table, row);
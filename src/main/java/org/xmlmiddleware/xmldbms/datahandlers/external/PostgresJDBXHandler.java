@@ -48,6 +48,9 @@ public class PostgresJDBXHandler
    // The key for the 'oid' column
    private Key m_oidKey = null;
 
+   // Whether the server supports INSERT ... ON CONFLICT (9.5 or later)
+   private boolean m_supportsOnConflict = false;
+
    // ************************************************************************
    // Constants
    // ************************************************************************
@@ -86,10 +89,18 @@ public class PostgresJDBXHandler
       // Create the key
 
       m_oidKey = createColumnKey(OIDNAME, Types.INTEGER);
+
+      // Check whether the server supports ON CONFLICT
+
+      m_supportsOnConflict = supportsOnConflict(getConnection().getMetaData());
    }
 
+   // ************************************************************************
+   // Protected methods
+   // ************************************************************************
+
    /**
-    * Inserts a row into the table.
+    * Implements DataHandlerBase.insertRow(). Inserts a row into the table.
     *
     * <p>This method sets the columns in the row of any primary or unique keys
     * that were generated by the database. It does this via the oid column.</p>
@@ -98,11 +109,9 @@ public class PostgresJDBXHandler
     * @param row Row to insert.
     * @exception SQLException A database error occurred while inserting data.
     */
-   public void insert(Table table, Row row)
+   protected void insertRow(Table table, Row row)
       throws SQLException
    {
-      checkState();
-
       PreparedStatement stmt = buildInsert(table, row);
       int numRows = stmt.executeUpdate();
 
@@ -144,4 +153,39 @@ public class PostgresJDBXHandler
          }
       }
    }
+
+   // ************************************************************************
+   // Protected methods
+   // ************************************************************************
+
+   /**
+    * Overrides DataHandlerBase.getUpsertString().
+    *
+    * <p>Returns an INSERT ... ON CONFLICT DO UPDATE statement if the server
+    * is PostgreSQL 9.5 or later and null otherwise, in which case rows are
+    * updated and inserted separately.</p>
+    *
+    * @param table The table.
+    * @param cols The columns to insert.
+    * @param updateCols The columns to update if the row exists.
+    * @return The statement string.
+    */
+   protected String getUpsertString(Table table, Vector cols, Vector updateCols)
+   {
+      if (!m_supportsOnConflict) return null;
+      return getDMLGenerator().getInsertOnConflict(table, table.getPrimaryKey(), cols, updateCols);
+   }
+
+   // ************************************************************************
+   // Private methods
+   // ************************************************************************
+
+   private boolean supportsOnConflict(DatabaseMetaData meta)
+      throws SQLException
+   {
+      int major = meta.getDatabaseMajorVersion(),
+          minor = meta.getDatabaseMinorVersion();
+
+      return (major > 9) || ((major == 9) && (minor >= 5));
+   }
 }
@@ -42,13 +42,25 @@ import javax.sql.*;
  * assumed to be HighKey.</p>
  *
  * <p>HighLow constructs keys
- * from a high key value and a low key value: the high key value forms the
- * upper 24 bits of the key and the low key value forms the lower 8 bits of
- * the key. The high key value is retrieved from the high key table, which
- * is then incremented by 1. The low key value is initialized to 0 and
- * incremented by 1 each time generateKey() is called; when it reaches 255,
- * a new high key value is retrieved. Thus, HighLow can generate
- * 256 unique key values with a single database access.</p>
+ * from a high key value and a low key value: the key is the high key value
+ * multiplied by the block size, plus the low key value. The high key value is
+ * retrieved from the high key table, which is then incremented by 1. The low
+ * key value is initialized to 0 and incremented by 1 each time generateKey() is
+ * called; when it reaches the block size, a new high key value is retrieved.
+ * Thus, HighLow can generate a block of unique key values with a single database
+ * access. The block size is 256 by default and can be set with the
+ * HighLowBlockSize property. It is safe to increase the block size used with an
+ * existing high key table, but not to decrease it.</p>
+ *
+ * <p>By default, HighLow retrieves the next high key value in a background thread
+ * when 80% of the current block has been used, so generateKey() usually does not
+ * wait for the database. The HighLowPrefetch property sets this percentage; 0
+ * turns prefetching off. Note that a prefetched block is lost if the generator
+ * is closed before it is used. This leaves a gap in the key values, but does
+ * not cause duplicate keys.</p>
+ *
+ * <p>HighLow is thread-safe, so a single HighLow object can be used by a
+ * DOMToDBMS object that stores documents on several threads.</p>
  *
  * <p>For example, the following code instantiates HighLow and
  * passes it to DOMToDBMS, which uses it to generate keys.</p>
@@ -83,7 +95,16 @@ public class HighLow implements KeyGenerator
    // Variables
    //**************************************************************************
 
-   private int        highKeyValue = -1, lowKeyValue = 0xFF;
+   // The current block of keys is nextKey to endKey - 1. When nextKey reaches
+   // prefetchKey, the next block is fetched in the background. All variables
+   // except conn, selectString, and updateString are guarded by this object.
+   // conn is used only by the thread that has set fetching to true.
+
+   private boolean    initialized = false, fetching = false, closed = false;
+   private long       nextKey = 0, endKey = 0, prefetchKey = Long.MAX_VALUE;
+   private long       nextBlockStart = -1;
+   private int        blockSize = DEFAULT_BLOCKSIZE, prefetchPercent = DEFAULT_PREFETCH;
+   private Thread     fetcher = null;
    private Connection conn = null;
    private String     selectString, updateString;
 
@@ -103,6 +124,19 @@ public class HighLow implements KeyGenerator
    /* Name of the high key column. If this is not present, HighKey is used.*/
    public static final String HIGHLOWCOLUMN = "HighLowColumn";
 
+   /* Number of keys generated per high key value. If this is not present, 256 is used.*/
+   public static final String HIGHLOWBLOCKSIZE = "HighLowBlockSize";
+
+   /* Percentage of a block used before the next block is fetched. If this is
+      not present, 80 is used. 0 means blocks are fetched only when needed.*/
+   public static final String HIGHLOWPREFETCH = "HighLowPrefetch";
+
+   /** The default block size. */
+   public static final int DEFAULT_BLOCKSIZE = 256;
+
+   /** The default prefetch percentage. */
+   public static final int DEFAULT_PREFETCH = 80;
+
    private static final String PERIOD = ".";
    private static final String XMLDBMSKEY = "XMLDBMSKey";
    private static final String HIGHKEY = "HighKey";
@@ -144,6 +178,11 @@ public class HighLow implements KeyGenerator
     *     XMLDBMSKey is used.</li>
     * <li>HighLowColumn: Name of the high key table. If this is not present,
     *     HighKey is used.</li>
+    * <li>HighLowBlockSize: Number of keys generated for each high key value.
+    *     If this is not present, 256 is used.</li>
+    * <li>HighLowPrefetch: Percentage of a block that is used before the next
+    *     high key value is retrieved in the background. If this is not present,
+    *     80 is used. 0 means that high key values are retrieved only when needed.</li>
     * </ul>
     *
     * <p>When the data source class is org.xmlmiddleware.db.JDBC1DataSource, the
@@ -185,6 +224,7 @@ public class HighLow implements KeyGenerator
       {
          // Set the database properties and names to use.
 
+         setBlockProperties(props, suffix);
          setDatabaseProperties(props, suffix);
          dbm = conn.getMetaData();
          setDBNames(dbm, props, suffix);
@@ -196,9 +236,13 @@ public class HighLow implements KeyGenerator
             conn.setAutoCommit(false);
          }
 
-         // Get the initial high key value.
+         // Get the initial block of keys.
 
-         getHighKey();
+         synchronized (this)
+         {
+            startBlock(fetchBlock());
+            initialized = true;
+         }
       }
       catch (Exception e)
       {
@@ -217,26 +261,64 @@ public class HighLow implements KeyGenerator
     *                         or if a SQLException occurs.
     */
 
-   public Vector generateKey() throws XMLMiddlewareException
+   public synchronized Vector generateKey() throws XMLMiddlewareException
    {
       Vector pk = new Vector();
 
-      if (highKeyValue == -1)
+      if (!initialized)
          throw new IllegalStateException("Key generator HighLow not initialized.");
 
-      if (lowKeyValue == 0xFF)
+      // If the current block is used up, start the prefetched block. If the
+      // next block is still being fetched, wait for it. If there is no next
+      // block -- because prefetching is off or failed -- fetch it now.
+
+      try
       {
-         try
+         while (nextKey >= endKey)
          {
-            getHighKey();
-         }
-         catch (SQLException e)
-         {
-            throw new XMLMiddlewareException(e);
+            if (nextBlockStart != -1)
+            {
+               startBlock(nextBlockStart);
+               nextBlockStart = -1;
+            }
+            else if (fetching)
+            {
+               wait();
+            }
+            else
+            {
+               fetching = true;
+               try
+               {
+                  startBlock(fetchBlock());
+               }
+               finally
+               {
+                  fetching = false;
+               }
+            }
          }
       }
+      catch (SQLException e)
+      {
+         throw new XMLMiddlewareException(e);
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new XMLMiddlewareException(e);
+      }
+
+      pk.addElement(new Integer((int)nextKey++));
+
+      // If enough of the block has been used, fetch the next block in the background.
+
+      if ((nextKey >= prefetchKey) && (nextBlockStart == -1) && !fetching)
+      {
+         prefetchKey = Long.MAX_VALUE;
+         startPrefetch();
+      }
 
-      pk.addElement(new Integer(highKeyValue + lowKeyValue++));
       return pk;
    }
 
@@ -249,6 +331,26 @@ public class HighLow implements KeyGenerator
     */
    public void close() throws XMLMiddlewareException
    {
+      // Stop the prefetch thread and wait for any fetch in progress to finish,
+      // so that the connection is not closed while it is in use.
+
+      synchronized (this)
+      {
+         closed = true;
+         notifyAll();
+         try
+         {
+            while (fetching)
+            {
+               wait();
+            }
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+         }
+      }
+
       try
       {
          if (conn != null) conn.close();
@@ -263,10 +365,50 @@ public class HighLow implements KeyGenerator
    // Private methods
    //**************************************************************************
 
-   private void getHighKey() throws SQLException
+   private void startBlock(long blockStart)
+   {
+      // Must be called while holding the lock.
+
+      nextKey = blockStart;
+      endKey = blockStart + blockSize;
+      prefetchKey = (prefetchPercent == 0) ? Long.MAX_VALUE :
+                                             blockStart + ((long)blockSize * prefetchPercent / 100);
+   }
+
+   private void startPrefetch()
+   {
+      // Must be called while holding the lock. The fetcher thread is a daemon
+      // thread, so it does not keep the application alive if close is not called.
+
+      fetching = true;
+      if (fetcher == null)
+      {
+         fetcher = new Thread(new Fetcher(), "HighLow prefetch");
+         fetcher.setDaemon(true);
+         fetcher.start();
+      }
+      notifyAll();
+   }
+
+   private long fetchBlock() throws SQLException
+   {
+      long highKeyValue;
+
+      // Check if the high key value will cause an overflow, then multiply.
+
+      highKeyValue = getHighKey();
+      if (((highKeyValue + 1) * blockSize) - 1 > Integer.MAX_VALUE)
+      {
+         throw new IllegalStateException("High key value has exceeded maximum.");
+      }
+      return highKeyValue * blockSize;
+   }
+
+   private int getHighKey() throws SQLException
    {
       Statement select, update;
       ResultSet rs;
+      int       highKeyValue;
 
       // Create the statements.
 
@@ -286,26 +428,47 @@ public class HighLow implements KeyGenerator
       }
       highKeyValue = rs.getInt(1);
 
-      // Check if the high key value will cause an overflow, then shift.
-      if (highKeyValue > 0x00FFFFFF)
-      {
-         throw new IllegalStateException("High key value has exceeded maximum.");
-      }
-      else
-      {
-         highKeyValue = highKeyValue << 8;
-      }
-
-      // Set the low key value.
-
-      lowKeyValue = 0;
-
       // Close the statements and commit the transaction.
 
       update.close();
       rs.close();
       select.close();
       conn.commit();
+
+      return highKeyValue;
+   }
+
+   private void setBlockProperties(Properties props, int suffix)
+   {
+      String value;
+
+      value = props.getProperty(getPropName(HIGHLOWBLOCKSIZE, suffix));
+      if (value != null)
+      {
+         blockSize = parseInt(HIGHLOWBLOCKSIZE, value);
+         if (blockSize < 1)
+            throw new IllegalArgumentException(HIGHLOWBLOCKSIZE + " must be 1 or more: " + value);
+      }
+
+      value = props.getProperty(getPropName(HIGHLOWPREFETCH, suffix));
+      if (value != null)
+      {
+         prefetchPercent = parseInt(HIGHLOWPREFETCH, value);
+         if ((prefetchPercent < 0) || (prefetchPercent > 100))
+            throw new IllegalArgumentException(HIGHLOWPREFETCH + " must be between 0 and 100: " + value);
+      }
+   }
+
+   private int parseInt(String propName, String value)
+   {
+      try
+      {
+         return Integer.parseInt(value);
+      }
+      catch (NumberFormatException e)
+      {
+         throw new IllegalArgumentException("Invalid " + propName + " value: " + value);
+      }
    }
 
    private void setDatabaseProperties(Properties props, int suffix)
@@ -439,4 +602,59 @@ public class HighLow implements KeyGenerator
    {
       return (suffix == 0) ? name : name + String.valueOf(suffix);
    }
-}
\ No newline at end of file
+
+   //**************************************************************************
+   // Inner classes
+   //**************************************************************************
+
+   // Fetches the next block of keys when generateKey asks for it. If the fetch
+   // fails, generateKey fetches the block itself and reports any error.
+
+   class Fetcher implements Runnable
+   {
+      public void run()
+      {
+         long blockStart;
+
+         while (true)
+         {
+            synchronized (HighLow.this)
+            {
+               try
+               {
+                  while (!fetching && !closed)
+                  {
+                     HighLow.this.wait();
+                  }
+               }
+               catch (InterruptedException e)
+               {
+                  return;
+               }
+               if (closed)
+               {
+                  fetching = false;
+                  HighLow.this.notifyAll();
+                  return;
+               }
+            }
+
+            try
+            {
+               blockStart = fetchBlock();
+            }
+            catch (Exception e)
+            {
+               blockStart = -1;
+            }
+
+            synchronized (HighLow.this)
+            {
+               nextBlockStart = blockStart;
+               fetching = false;
+               HighLow.this.notifyAll();
+            }
+         }
+      }
+   }
+}
@@ -47,8 +47,11 @@ import java.sql.*;
  * DBMSToDOM and DOMToDBMS to buffer column values.</li>
  * </ul>
  *
- * <p>Row objects are hashtable-based and return column values by Column
- * object. These are designed for random access.</p>
+ * <p>Row objects are array-based and return column values by Column
+ * object. These are designed for random access. To make this possible, the
+ * Table that owns a Column gives it an ordinal when the Column is added to
+ * the Table. The Row stores the column value at that position in its
+ * arrays.</p>
  *
  * <p>Result sets are index-based and must be accessed in ascending order for
  * interoperability reasons. To make this possible, each Column is given a
@@ -68,6 +71,7 @@ public class Column extends MapBase
    // ********************************************************************
 
    private String name = null;
+   private int    ordinal = -1;
 
    private int             resultSetIndex;
    private int             type;
@@ -125,6 +129,34 @@ public class Column extends MapBase
       return name;
    }
 
+   // ********************************************************************
+   // Ordinal
+   // ********************************************************************
+
+   /**
+    * Get the ordinal of the column.
+    *
+    * <p>This is the position of the column in its Table. It is assigned when
+    * the column is added to the Table and does not change when other columns
+    * are added. 0-based. -1 if the column has not been added to a Table.</p>
+    *
+    * @return The ordinal.
+    */
+   public final int getOrdinal()
+   {
+      return ordinal;
+   }
+
+   /**
+    * Set the ordinal of the column. Called by Table.
+    *
+    * @param ordinal The ordinal.
+    */
+   final void setOrdinal(int ordinal)
+   {
+      this.ordinal = ordinal;
+   }
+
    // ********************************************************************
    // Result setindex
    // ********************************************************************
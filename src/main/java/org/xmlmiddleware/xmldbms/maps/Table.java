@@ -81,6 +81,8 @@ public class Table extends MapBase
 
    private Hashtable columns = new Hashtable();
    private Vector   rsColumns = null;
+   private Column[] ordinalColumns = new Column[8]; // Columns indexed by ordinal
+   private int      ordinalCount = 0;
 
    private Key primaryKey = null;
    private Hashtable uniqueKeys = new Hashtable();
@@ -284,6 +286,35 @@ public class Table extends MapBase
       return columns.elements();
    }
 
+   /**
+    * Get the Column with a given ordinal.
+    *
+    * <p>For more information, see the Column class.</p>
+    *
+    * @param ordinal The ordinal of the column.
+    *
+    * @return The Column. Null if the column has been removed.
+    */
+   public final Column getColumn(int ordinal)
+   {
+      if ((ordinal < 0) || (ordinal >= ordinalCount))
+         throw new IllegalArgumentException("Invalid column ordinal: " + ordinal);
+      return ordinalColumns[ordinal];
+   }
+
+   /**
+    * Get the number of Column ordinals that have been assigned.
+    *
+    * <p>This is one more than the largest ordinal. It is greater than the
+    * number of Columns if Columns have been removed.</p>
+    *
+    * @return The number of ordinals.
+    */
+   public final int getOrdinalCount()
+   {
+      return ordinalCount;
+   }
+
    /**
     * Get all Columns in ascending order according to their result set index.
     *
@@ -343,6 +374,7 @@ public class Table extends MapBase
       {
          column = Column.create(columnName);
          columns.put(columnName, column);
+         addOrdinal(column);
       }
 
       rsColumns = null;
@@ -368,6 +400,7 @@ public class Table extends MapBase
       if (o != null)
          throw new XMLMiddlewareException("Column " + name + " already exists in " + getUniversalName() + ".");
       columns.put(name, column);
+      addOrdinal(column);
 
       rsColumns = null;
    }
@@ -392,6 +425,7 @@ public class Table extends MapBase
       o = columns.remove(columnName);
       if (o == null)
          throw new XMLMiddlewareException("Column " + columnName + " not found in table " + getUniversalName());
+      removeOrdinal((Column)o);
 
       rsColumns = null;
    }
@@ -405,6 +439,11 @@ public class Table extends MapBase
    public void removeAllColumns()
    {
       columns.clear();
+      for (int i = 0; i < ordinalCount; i++)
+      {
+         ordinalColumns[i] = null;
+      }
+      ordinalCount = 0;
       rsColumns = null;
    }
 
@@ -707,4 +746,33 @@ public class Table extends MapBase
       if (o == null)
          throw new XMLMiddlewareException("Key " + keyName + " not found in table " + getUniversalName() + ".");
    }
+
+   private void addOrdinal(Column column)
+   {
+      Column[] temp;
+
+      if (ordinalCount == ordinalColumns.length)
+      {
+         temp = new Column[ordinalColumns.length * 2];
+         System.arraycopy(ordinalColumns, 0, temp, 0, ordinalCount);
+         ordinalColumns = temp;
+      }
+      ordinalColumns[ordinalCount] = column;
+      column.setOrdinal(ordinalCount++);
+   }
+
+   private void removeOrdinal(Column column)
+   {
+      // Leave a hole rather than renumbering, so that the ordinals of the
+      // remaining columns do not change.
+
+      for (int i = 0; i < ordinalCount; i++)
+      {
+         if (ordinalColumns[i] == column)
+         {
+            ordinalColumns[i] = null;
+            break;
+         }
+      }
+   }
 }
@@ -25,7 +25,7 @@ import java.sql.*;
 import java.util.*;
 
 /**
- * Generate SELECT, UPDATE, INSERT, and DELETE strings.
+ * Generate SELECT, UPDATE, INSERT, DELETE, and upsert strings.
  *
  * @author Sean Walter, 2001
  * @version 2.0
@@ -68,6 +68,25 @@ public class DMLGenerator
    private final static String AND         = " AND ";
    private final static String EQUALSPARAM = " = ? ";
    private final static String PERIOD      = ".";
+   private final static String MERGE       = "MERGE INTO ";
+   private final static String USINGVALUES = " USING (VALUES (";
+   private final static String TARGET      = "T";
+   private final static String SOURCE      = "S";
+   private final static String ON          = " ON (";
+   private final static String MATCHED     = " WHEN MATCHED THEN UPDATE SET ";
+   private final static String NOTMATCHED  = " WHEN NOT MATCHED THEN INSERT (";
+   private final static String ONCONFLICT  = " ON CONFLICT (";
+   private final static String DOUPDATE    = ") DO UPDATE SET ";
+   private final static String DONOTHING   = ") DO NOTHING";
+   private final static String EXCLUDED    = "EXCLUDED.";
+   private final static String ONDUPLICATE = " ON DUPLICATE KEY UPDATE ";
+   private final static String VALUESFUNC  = "VALUES(";
+   private final static String EQUALS      = " = ";
+   private final static String AS          = " AS ";
+   private final static String IN          = " IN (";
+   private final static String OR          = " OR ";
+   private final static String OPEN        = "(";
+   private final static String EXISTS      = "EXISTS (SELECT * FROM ";
 
    //**************************************************************************
    // Constructors
@@ -186,6 +205,173 @@ public class DMLGenerator
       return insert.toString();
    }
 
+   /**
+    * Returns a standard SQL MERGE string that inserts a row or, if a row
+    * with the same key already exists, updates it.
+    *
+    * <p>The MERGE string has the form:</p>
+    *
+    * <pre>
+    *    MERGE INTO Table T USING (VALUES (?, ...)) AS S (Col, ...)
+    *       ON (T.Key = S.Key AND ...)
+    *       WHEN MATCHED THEN UPDATE SET UpdateCol = S.UpdateCol, ...
+    *       WHEN NOT MATCHED THEN INSERT (Col, ...) VALUES (S.Col, ...)
+    * </pre>
+    *
+    * <p>There is one parameter for each column in cols. The WHEN MATCHED
+    * clause is omitted if there are no update columns.</p>
+    *
+    * @param t The table. Must not be null.
+    * @param key The key used to match rows. Must not be null. All key columns
+    *    must be in cols.
+    * @param cols The columns to insert. Must not be null.
+    * @param updateCols The columns to update if the row exists. May be empty.
+    * @return The MERGE string.
+    */
+   public String getMerge(Table t, Key key, Vector cols, Vector updateCols)
+   {
+      StringBuffer merge = new StringBuffer(1000);
+      Vector       keyCols = key.getColumns();
+      Column       col;
+
+      merge.append(MERGE);
+      merge.append(getTableName(t));
+      merge.append(SPACE);
+      merge.append(TARGET);
+
+      // Add the row of values and name its columns.
+
+      merge.append(USINGVALUES);
+      merge.append(PARAM);
+      for (int i = 1; i < cols.size(); i++)
+      {
+         merge.append(COMMAPARAM);
+      }
+      merge.append(CLOSEPAREN);
+      merge.append(CLOSEPAREN);
+      merge.append(AS);
+      merge.append(SOURCE);
+      merge.append(OPENPAREN);
+      appendColumnNames(merge, cols, null);
+      merge.append(CLOSEPAREN);
+
+      // Match rows on the key.
+
+      merge.append(ON);
+      for (int i = 0; i < keyCols.size(); i++)
+      {
+         col = (Column)keyCols.elementAt(i);
+         if (i != 0) merge.append(AND);
+         merge.append(TARGET).append(PERIOD).append(makeColumnName(col, false));
+         merge.append(EQUALS);
+         merge.append(SOURCE).append(PERIOD).append(makeColumnName(col, false));
+      }
+      merge.append(CLOSEPAREN);
+
+      // Update matched rows and insert the rest.
+
+      if (updateCols.size() > 0)
+      {
+         merge.append(MATCHED);
+         appendAssignments(merge, updateCols, SOURCE + PERIOD, null);
+      }
+
+      merge.append(NOTMATCHED);
+      appendColumnNames(merge, cols, null);
+      merge.append(CLOSEPAREN);
+      merge.append(VALUES);
+      appendColumnNames(merge, cols, SOURCE + PERIOD);
+      merge.append(CLOSEPAREN);
+
+      return merge.toString();
+   }
+
+   /**
+    * Returns a PostgreSQL INSERT ... ON CONFLICT string that inserts a row
+    * or, if a row with the same key already exists, updates it.
+    *
+    * <p>The string has the form:</p>
+    *
+    * <pre>
+    *    INSERT INTO Table (Col, ...) VALUES (?, ...)
+    *       ON CONFLICT (Key, ...) DO UPDATE SET UpdateCol = EXCLUDED.UpdateCol, ...
+    * </pre>
+    *
+    * <p>There is one parameter for each column in cols. If there are no
+    * update columns, DO NOTHING is used instead of DO UPDATE.</p>
+    *
+    * @param t The table. Must not be null.
+    * @param key The key whose unique constraint is checked. Must not be null.
+    * @param cols The columns to insert. Must not be null.
+    * @param updateCols The columns to update if the row exists. May be empty.
+    * @return The INSERT string.
+    */
+   public String getInsertOnConflict(Table t, Key key, Vector cols, Vector updateCols)
+   {
+      StringBuffer insert = new StringBuffer(1000);
+
+      insert.append(getInsert(t, cols));
+      insert.append(ONCONFLICT);
+      appendColumnNames(insert, key.getColumns(), null);
+
+      if (updateCols.size() > 0)
+      {
+         insert.append(DOUPDATE);
+         appendAssignments(insert, updateCols, EXCLUDED, null);
+      }
+      else
+      {
+         insert.append(DONOTHING);
+      }
+
+      return insert.toString();
+   }
+
+   /**
+    * Returns a MySQL INSERT ... ON DUPLICATE KEY UPDATE string that inserts a
+    * row or, if a row with the same primary or unique key already exists,
+    * updates it.
+    *
+    * <p>The string has the form:</p>
+    *
+    * <pre>
+    *    INSERT INTO Table (Col, ...) VALUES (?, ...)
+    *       ON DUPLICATE KEY UPDATE UpdateCol = VALUES(UpdateCol), ...
+    * </pre>
+    *
+    * <p>There is one parameter for each column in cols. If there are no update
+    * columns, the first key column is set to itself, so existing rows are
+    * left unchanged.</p>
+    *
+    * @param t The table. Must not be null.
+    * @param key The key. Must not be null.
+    * @param cols The columns to insert. Must not be null.
+    * @param updateCols The columns to update if the row exists. May be empty.
+    * @return The INSERT string.
+    */
+   public String getInsertOnDuplicateKey(Table t, Key key, Vector cols, Vector updateCols)
+   {
+      StringBuffer insert = new StringBuffer(1000);
+      Column       col;
+
+      insert.append(getInsert(t, cols));
+      insert.append(ONDUPLICATE);
+
+      if (updateCols.size() > 0)
+      {
+         appendAssignments(insert, updateCols, VALUESFUNC, CLOSEPAREN);
+      }
+      else
+      {
+         col = (Column)key.getColumns().elementAt(0);
+         insert.append(makeColumnName(col, false));
+         insert.append(EQUALS);
+         insert.append(makeColumnName(col, false));
+      }
+
+      return insert.toString();
+   }
+
    /**
     * Returns a "SELECT * WHERE key = ? ORDER BY ?" SQL string for a 
     * given table. 
@@ -252,6 +438,34 @@ public class DMLGenerator
       return buildSelect(t, whereClause, t.getResultSetColumns(), order);
    }
 
+   /** 
+    * Returns a "SELECT * WHERE Key IN (?, ...) AND &lt;where> ORDER BY ?"
+    * SQL string for a given table.
+    *
+    * <p>This retrieves the rows for several key values at once. If the key
+    * has more than one column, the WHERE clause has the form
+    * "WHERE ((Key1 = ? AND Key2 = ?) OR (Key1 = ? AND Key2 = ?) ...)".
+    * Parameters for the key values precede parameters in the where constraint.</p>
+    * 
+    * @param t The table to select from. Must not be null.
+    * @param key The key to restrict with. Must not be null.
+    * @param numKeyValues The number of key values. Must be 1 or more.
+    * @param where An additional where constraint. May be null.
+    * @param order The sort information. May be null.
+    * @return The SELECT string.
+    */
+   public String getSelect(Table t, Key key, int numKeyValues, String where, OrderInfo order)
+   {
+      String whereClause;
+
+      whereClause = makeWhereIn(key.getColumns(), numKeyValues);
+      if (where != null)
+      {
+         whereClause = whereClause + AND + where;
+      }
+      return buildSelect(t, whereClause, t.getResultSetColumns(), order);
+   }
+
    /**
     * Returns an UPDATE SQL string for a given table, key, and set of columns.
     *
@@ -362,6 +576,61 @@ public class DMLGenerator
       return delete.toString();
    }
 
+   /**
+    * Returns an "EXISTS (SELECT * FROM Parent Alias WHERE Alias.ParentKey =
+    * Child.ChildKey AND &lt;where>)" condition.
+    *
+    * <p>This restricts the rows of a child table to those whose parent row
+    * exists and meets the where constraint. The where constraint may itself
+    * contain an EXISTS condition that links the parent table to its parent.
+    * Unqualified column names in the where constraint refer to the parent table.</p>
+    *
+    * @param parent The parent table. Must not be null.
+    * @param alias The correlation name to use for the parent table. Must not be null.
+    * @param parentKey The key in the parent table. Must not be null.
+    * @param child The name of the child table, as returned by getTableName, or
+    *    its correlation name. Must not be null.
+    * @param childKey The key in the child table. Must not be null.
+    * @param where An additional where constraint on the parent table. May be null.
+    * @return The EXISTS condition.
+    */
+   public String getExistsLink(Table parent, String alias, Key parentKey, String child, Key childKey, String where)
+   {
+      StringBuffer exists = new StringBuffer(1000);
+      Vector       parentCols, childCols;
+
+      exists.append(EXISTS);
+      exists.append(getTableName(parent));
+      exists.append(SPACE);
+      exists.append(alias);
+      exists.append(WHERE);
+
+      // Join the parent key to the child key.
+
+      parentCols = parentKey.getColumns();
+      childCols = childKey.getColumns();
+      for (int i = 0; i < parentCols.size(); i++)
+      {
+         if (i != 0) exists.append(AND);
+         exists.append(alias);
+         exists.append(PERIOD);
+         exists.append(makeColumnName((Column)parentCols.elementAt(i), false));
+         exists.append(EQUALS);
+         exists.append(child);
+         exists.append(PERIOD);
+         exists.append(makeColumnName((Column)childCols.elementAt(i), false));
+      }
+
+      if (where != null)
+      {
+         exists.append(AND);
+         exists.append(where);
+      }
+      exists.append(CLOSEPAREN);
+
+      return exists.toString();
+   }
+
    /** 
     * Returns a properly quoted (with schema, catalog if 
     * necessary) table name.
@@ -448,6 +717,36 @@ public class DMLGenerator
       return select.toString();
    }
 
+   protected void appendColumnNames(StringBuffer sb, Vector cols, String prefix)
+   {
+      // Append a list of the form "prefixCol, prefixCol, ..."
+
+      for (int i = 0; i < cols.size(); i++)
+      {
+         if (i != 0) sb.append(COMMA);
+         if (prefix != null) sb.append(prefix);
+         sb.append(makeColumnName((Column)cols.elementAt(i), false));
+      }
+   }
+
+   protected void appendAssignments(StringBuffer sb, Vector cols, String prefix, String suffix)
+   {
+      String name;
+
+      // Append a list of the form "Col = prefixColsuffix, ..."
+
+      for (int i = 0; i < cols.size(); i++)
+      {
+         name = makeColumnName((Column)cols.elementAt(i), false);
+         if (i != 0) sb.append(COMMA);
+         sb.append(name);
+         sb.append(EQUALS);
+         sb.append(prefix);
+         sb.append(name);
+         if (suffix != null) sb.append(suffix);
+      }
+   }
+
    protected String makeWhereLink(Vector keyColumns)
    {
       // Add WHERE clause.
@@ -467,6 +766,49 @@ public class DMLGenerator
       return where.toString();
    }
 
+   protected String makeWhereIn(Vector keyColumns, int numKeyValues)
+   {
+      StringBuffer where = new StringBuffer(1000);
+
+      where.append(WHERE);
+
+      if (keyColumns.size() == 1)
+      {
+         // Single-column keys use "Key IN (?, ?, ...)".
+
+         where.append(makeColumnName((Column)keyColumns.elementAt(0), false));
+         where.append(IN);
+         where.append(PARAM);
+         for (int i = 1; i < numKeyValues; i++)
+         {
+            where.append(COMMAPARAM);
+         }
+         where.append(CLOSEPAREN);
+      }
+      else
+      {
+         // Multi-column keys use "((Key1 = ? AND Key2 = ?) OR ...)", since
+         // not all databases support row value constructors in IN lists.
+
+         where.append(OPEN);
+         for (int i = 0; i < numKeyValues; i++)
+         {
+            if (i != 0) where.append(OR);
+            where.append(OPEN);
+            for (int j = 0; j < keyColumns.size(); j++)
+            {
+               if (j != 0) where.append(AND);
+               where.append(makeColumnName((Column)keyColumns.elementAt(j), false));
+               where.append(EQUALSPARAM);
+            }
+            where.append(CLOSEPAREN);
+         }
+         where.append(CLOSEPAREN);
+      }
+
+      return where.toString();
+   }
+
    protected void appendOrderBy(StringBuffer stmt, OrderInfo order)
    {
       // Just return if we are using fixed order values
@@ -0,0 +1,251 @@
+// This software is in the public domain.
+//
+// The software is provided "as is", without warranty of any kind,
+// express or implied, including but not limited to the warranties
+// of merchantability, fitness for a particular purpose, and
+// noninfringement. In no event shall the author(s) be liable for any
+// claim, damages, or other liability, whether in an action of
+// contract, tort, or otherwise, arising from, out of, or in connection
+// with the software or the use or other dealings in the software.
+//
+// Parts of this software were originally developed in the Database
+// and Distributed Systems Group at the Technical University of
+// Darmstadt, Germany:
+//
+//    http://www.informatik.tu-darmstadt.de/DVS1/
+
+// Version 2.0
+// Changes from version 1.x: New in version 2.0
+
+package org.xmlmiddleware.xmldbms.tools;
+
+import java.util.*;
+
+/**
+ * Results of storing a set of documents with Transfer.storeXMLDocuments.
+ *
+ * <p>The report gives the number of documents that were stored, the number
+ * that failed, and the throughput of the run. Documents that were neither stored
+ * nor failed were not processed, such as when no worker could connect to the
+ * database.</p>
+ *
+ * <p>The row count is the number of rows sent to the database for stored
+ * documents. It only includes rows written by DataHandlers that extend
+ * DataHandlerBase.</p>
+ *
+ * @version 2.0
+ * @see Transfer
+ */
+
+public class BulkStoreReport
+{
+   // ************************************************************************
+   // Variables
+   // ************************************************************************
+
+   private int       m_documents;
+   private int       m_stored = 0;
+   private long      m_rows = 0;
+   private long      m_start;
+   private long      m_end = 0;
+   private Vector    m_failedLocations = new Vector();
+   private Hashtable m_failures = new Hashtable(); // Exceptions indexed by location
+   private Vector    m_errors = new Vector();      // Exceptions not tied to a document
+
+   // ************************************************************************
+   // Constructor
+   // ************************************************************************
+
+   BulkStoreReport(int documents)
+   {
+      m_documents = documents;
+      m_start = System.currentTimeMillis();
+   }
+
+   // ************************************************************************
+   // Public methods
+   // ************************************************************************
+
+   /**
+    * Get the number of documents to be stored.
+    *
+    * @return The number of documents.
+    */
+   public int getDocumentCount()
+   {
+      return m_documents;
+   }
+
+   /**
+    * Get the number of documents that were stored.
+    *
+    * @return The number of documents.
+    */
+   public synchronized int getStoredCount()
+   {
+      return m_stored;
+   }
+
+   /**
+    * Get the number of documents that could not be stored.
+    *
+    * @return The number of documents.
+    */
+   public synchronized int getFailedCount()
+   {
+      return m_failedLocations.size();
+   }
+
+   /**
+    * Get the number of rows sent to the database for stored documents.
+    *
+    * @return The number of rows.
+    */
+   public synchronized long getRowCount()
+   {
+      return m_rows;
+   }
+
+   /**
+    * Get the elapsed time of the run.
+    *
+    * @return The time in milliseconds.
+    */
+   public synchronized long getElapsedTime()
+   {
+      return ((m_end == 0) ? System.currentTimeMillis() : m_end) - m_start;
+   }
+
+   /**
+    * Get the number of documents stored per second.
+    *
+    * @return The number of documents per second.
+    */
+   public double getDocumentsPerSecond()
+   {
+      return perSecond(getStoredCount());
+   }
+
+   /**
+    * Get the number of rows sent to the database per second.
+    *
+    * @return The number of rows per second.
+    */
+   public double getRowsPerSecond()
+   {
+      return perSecond(getRowCount());
+   }
+
+   /**
+    * Get the locations of the documents that could not be stored.
+    *
+    * @return An Enumeration of location Strings.
+    */
+   public synchronized Enumeration getFailedLocations()
+   {
+      return ((Vector)m_failedLocations.clone()).elements();
+   }
+
+   /**
+    * Get the reason a document could not be stored.
+    *
+    * @param location The location of the document.
+    * @return The exception. Null if the document did not fail.
+    */
+   public synchronized Exception getFailure(String location)
+   {
+      return (Exception)m_failures.get(location);
+   }
+
+   /**
+    * Get errors that did not occur while storing a particular document,
+    * such as errors connecting to the database.
+    *
+    * @return An Enumeration of Exceptions.
+    */
+   public synchronized Enumeration getErrors()
+   {
+      return ((Vector)m_errors.clone()).elements();
+   }
+
+   /**
+    * Get the report as a string.
+    *
+    * <p>The string contains the document and row counts, the throughput, and
+    * the location of each document that failed and the reason it failed.</p>
+    *
+    * @return The report.
+    */
+   public synchronized String toString()
+   {
+      StringBuffer sb = new StringBuffer();
+      String       location;
+      Exception    e;
+
+      sb.append("Documents: ").append(m_documents);
+      sb.append(", stored: ").append(m_stored);
+      sb.append(", failed: ").append(m_failedLocations.size());
+      sb.append(", not processed: ").append(m_documents - m_stored - m_failedLocations.size());
+      sb.append('\n');
+      sb.append("Rows: ").append(m_rows).append('\n');
+      sb.append("Elapsed time: ").append(getElapsedTime()).append(" ms\n");
+      sb.append("Throughput: ").append(round(getDocumentsPerSecond())).append(" docs/s, ");
+      sb.append(round(getRowsPerSecond())).append(" rows/s\n");
+
+      for (int i = 0; i < m_failedLocations.size(); i++)
+      {
+         location = (String)m_failedLocations.elementAt(i);
+         e = (Exception)m_failures.get(location);
+         sb.append("Failed: ").append(location).append(": ").append(e.getMessage()).append('\n');
+      }
+
+      for (int i = 0; i < m_errors.size(); i++)
+      {
+         e = (Exception)m_errors.elementAt(i);
+         sb.append("Error: ").append(e.getMessage()).append('\n');
+      }
+
+      return sb.toString();
+   }
+
+   // ************************************************************************
+   // Package methods -- used by Transfer
+   // ************************************************************************
+
+   synchronized void documentsStored(int documents, long rows)
+   {
+      m_stored += documents;
+      m_rows += rows;
+   }
+
+   synchronized void documentFailed(String location, Exception e)
+   {
+      m_failedLocations.addElement(location);
+      m_failures.put(location, e);
+   }
+
+   synchronized void error(Exception e)
+   {
+      m_errors.addElement(e);
+   }
+
+   synchronized void finish()
+   {
+      m_end = System.currentTimeMillis();
+   }
+
+   // ************************************************************************
+   // Private methods
+   // ************************************************************************
+
+   private double perSecond(long count)
+   {
+      long elapsed = getElapsedTime();
+      return (elapsed == 0) ? 0 : (count * 1000.0) / elapsed;
+   }
+
+   private String round(double value)
+   {
+      return String.valueOf(Math.round(value * 10) / 10.0);
+   }
+}
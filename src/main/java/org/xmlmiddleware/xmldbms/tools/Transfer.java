@@ -21,6 +21,7 @@
 package org.xmlmiddleware.xmldbms.tools;
 
 import org.xmlmiddleware.db.*;
+import org.xmlmiddleware.utils.BoundedQueue;
 import org.xmlmiddleware.utils.XMLMiddlewareException;
 import org.xmlmiddleware.utils.resolvers.*;
 import org.xmlmiddleware.xmldbms.*;
@@ -96,21 +97,23 @@ import javax.sql.*;
  * <li><p>Transfer properties specify what is to be done (store, retrieve, or
  *     delete a document) and the document locations to use. The transfer properties
  *     are Method, MapLocation, XMLLocation, ActionLocation, FilterLocation,
- *     MapResolverClass, XMLResolverClass, ActionResolverClass, and
- *     FilterResolverClass. See below for details.</p></li>
+ *     XMLDirectory, XMLPattern, XMLManifest, MapResolverClass, XMLResolverClass,
+ *     ActionResolverClass, and FilterResolverClass. See below for details.</p></li>
  *
  * <li><p>Select properties specify result sets to use when retrieving data.
  *     The select properties are Select, SelectDBName, and SelectResultSetName.</p></li>
  *
  * <li><p>Configuration properties specify how the underlying data transfer
  *     classes are to function. The configuration properties are Encoding, SystemID,
- *     PublicID, CommitMode, StopOnError, ReturnFilter, KeyGeneratorName, and
+ *     PublicID, CommitMode, BatchSize, Streaming, StopOnError, ReturnFilter,
+ *     Threads, DocumentsPerCommit, Pipelined, PipelineDepth, SetBased,
+ *     IncrementalPropertyUpdates, KeyGeneratorName, and
  *     KeyGeneratorClass. See below for details.</p></li>
  * </ul>
  *
  * <p>When using the command line or the dispatch-style API, the Method property
- * specifies the action to take. Legal values are StoreDocument, RetrieveDocumentByFilter,
- * RetrieveDocumentBySQL, and DeleteDocument. (When using the traditional API, the
+ * specifies the action to take. Legal values are StoreDocument, StoreDocuments,
+ * RetrieveDocumentByFilter, RetrieveDocumentBySQL, and DeleteDocument. (When using the traditional API, the
  * Method property is not needed since this information is inherent in the method called.)
  * The following table shows which transfer properties are used with each value of the
  * Method property:</p>
@@ -119,6 +122,8 @@ import javax.sql.*;
  * <tr><th>Value of Method property</th><th>Transfer properties</th></tr>
  * <tr valign="top"><td>StoreDocument</td><td>MapLocation<br />XMLLocation[1]<br />
  * ActionLocation[1]<br />FilterLocation[1] (when ReturnFilter is "Yes")</td></tr>
+ * <tr valign="top"><td>StoreDocuments</td><td>MapLocation<br />ActionLocation[1]<br />
+ * XMLDirectory[7]<br />XMLPattern[7]<br />XMLManifest[7]</td></tr>
  * <tr valign="top"><td>RetrieveDocumentByFilter</td><td>MapLocation[1]<br />
  * XMLLocation[1]<br />FilterLocation[1][2]<br />INParameters[3]</td></tr>
  * <tr valign="top"><td>RetrieveDocumentBySQL</td><td>MapLocation<br />XMLLocation[1]
@@ -166,7 +171,15 @@ import javax.sql.*;
  * [5] Optional. If no database name is specified, "Default" is used.<br /><br />
  * [6] Optional if there is only one result set, in which case "Default" is used.
  * Required if there is more than one result set. Result set names correspond to
- * result set names in the filter document.</p>
+ * result set names in the filter document.<br /><br />
+ * [7] StoreDocuments stores every document in a directory or every document
+ * listed in a manifest. XMLDirectory is the name of a directory and XMLPattern
+ * is an optional pattern that filenames in the directory must match, such as
+ * "*.xml"; * matches any characters and ? matches a single character.
+ * XMLManifest is the name of a file that contains one document location per
+ * line. Use either XMLManifest or XMLDirectory. Locations are resolved with
+ * XMLResolverClass. When called from the command line, a report of the run is
+ * written to standard output.</p>
  *
  * <p>The following table shows which configuration properties apply to each value
  * of the Method property. These properties are also used by the methods in the
@@ -176,16 +189,20 @@ import javax.sql.*;
  * <tr valign="top"><th>Value of Method property<br />(Method)</th>
  * <th>Configuration properties</th></tr>
  * <tr valign="top"><td>StoreDocument<br />(storeXMLXxxxx)</td><td>CommitMode[1]
- * <br />StopOnError<br />ReturnFilter<br />KeyGeneratorName[2]<br />KeyGeneratorClass[2][3]
+ * <br />BatchSize[9]<br />Streaming[10]<br />StopOnError<br />ReturnFilter<br />IncrementalPropertyUpdates[15]<br />KeyGeneratorName[2]<br />KeyGeneratorClass[2][3]
  * <br />Encoding[4]<br />SystemID[4]<br />PublicID[4]<br />Validate[5]<br />
  * MapResolverClass[6]<br />XMLResolverClass[6]<br />ActionResolverClass[6]
  * <br />FilterResolverClass[6]</td></tr>
+ * <tr valign="top"><td>StoreDocuments<br />(storeXMLDocuments)</td><td>Threads[12]
+ * <br />DocumentsPerCommit[13]<br />Pipelined[16]<br />PipelineDepth[16]<br />CommitMode[1]<br />BatchSize[9]<br />Streaming[10]
+ * <br />StopOnError<br />IncrementalPropertyUpdates[15]<br />KeyGeneratorName[2]<br />KeyGeneratorClass[2][3]<br />Validate[5]
+ * <br />MapResolverClass[6]<br />XMLResolverClass[6]<br />ActionResolverClass[6]</td></tr>
  * <tr valign="top"><td>RetrieveDocumentByFilter<br />RetrieveDocumentBySQL<br />
  * (retrieveXMLXxxx)</td>
- * <td>Encoding<br />SystemID<br />PublicID<br />Validate[7]<br />
+ * <td>FetchBlockSize[11]<br />Streaming[10]<br />Encoding<br />SystemID<br />PublicID<br />Validate[7]<br />
  * MapResolverClass[6]<br />XMLResolverClass[6]<br />FilterResolverClass[6]</td></tr>
  * <tr valign="top"><td>DeleteDocument<br />(deleteXMLDocument)</td>
- * <td>CommitMode[1]<br />Validate[8]<br />MapResolverClass[6]<br />XMLResolverClass[6]
+ * <td>CommitMode[1]<br />SetBased[14]<br />Validate[8]<br />MapResolverClass[6]<br />XMLResolverClass[6]
  * <br />ActionResolverClass[6]<br />FilterResolverClass[6]</td></tr>
  * </table>
  *
@@ -207,7 +224,41 @@ import javax.sql.*;
  * properties are optional; org.xmlmiddleware.utils.resolvers.FilenameResolver
  * is used by default. That is, locations are assumed to be filenames by default.<br /><br />
  * [7] Value is a space-separated list containing Map and/or Filter.<br /><br />
- * [8] Value is a space-separated list containing Map, Action, and/or Filter.</p>
+ * [8] Value is a space-separated list containing Map, Action, and/or Filter.<br /><br />
+ * [9] Number of inserted rows to send to the database in a single JDBC batch.
+ * The default is 0, which means rows are inserted one at a time.<br /><br />
+ * [10] Yes or No. If Yes, the document is stored with SAXToDBMS or retrieved
+ * with DBMSToXML, neither of which builds a DOM tree. Use this for documents that
+ * are too large to fit in memory. When retrieving, this applies to the
+ * retrieveXMLDocument and retrieveXMLOutputStream methods and FetchBlockSize is
+ * ignored. The default is No.<br /><br />
+ * [11] Number of rows whose child rows are retrieved with a single SELECT
+ * statement. The default is 0, which means child rows are retrieved separately
+ * for each row.<br /><br />
+ * [12] Number of documents stored at the same time. Each thread uses its own
+ * connection to each database, so the connection pools must allow this many
+ * connections, and key generators must be thread-safe. The default is the
+ * number of processors.<br /><br />
+ * [13] Number of documents each thread stores in a single transaction. If this
+ * is greater than 1, CommitMode is ignored. If a document in the transaction
+ * cannot be stored, the transaction is rolled back and all of its documents are
+ * reported as failed. The default is 1, which means that documents are committed
+ * according to CommitMode.<br /><br />
+ * [14] Yes or No. If Yes, rows are deleted with one DELETE statement per table
+ * instead of one statement per row, where the map allows this. See DBMSDelete
+ * for details. The default is No.<br /><br />
+ * [15] Yes or No. If Yes, updating a property stored in a property table
+ * changes only the rows whose values have changed, instead of deleting and
+ * reinserting all the rows. See DOMToDBMS.setIncrementalPropertyUpdates for
+ * details. Ignored if Streaming is Yes. The default is No.<br /><br />
+ * [16] If Pipelined is Yes, documents are parsed, converted to rows, and
+ * stored on three separate threads, so that one document can be parsed while
+ * the rows for another are being sent to the database. Documents are stored
+ * in order and each is committed according to CommitMode or DocumentsPerCommit.
+ * PipelineDepth is the number of documents that can wait between each pair of
+ * threads; the default is 4. Threads is ignored. Pipelined cannot be used with
+ * Streaming or with database-generated keys, and IncrementalPropertyUpdates is
+ * ignored. See DeferredDataHandler for details. The default is No.</p>
  *
  * <p>For a complete description of the properties used by Transfer,
  * see ?????.</p>
@@ -322,7 +373,9 @@ public class Transfer extends PropertyProcessor
                resolvers = new Hashtable();
    Vector      conns = new Vector();
    DOMToDBMS   domToDBMS = null;
+   SAXToDBMS   saxToDBMS = null;
    DBMSToDOM   dbmsToDOM = null;
+   DBMSToXML   dbmsToXML = null;
    DBMSDelete  dbmsDelete = null;
 
    // ************************************************************************
@@ -334,11 +387,14 @@ public class Transfer extends PropertyProcessor
    private static String JDBC2DATASOURCE = "org.xmlmiddleware.db.JDBC2DataSource";
    private static String FILENAMERESOLVER = "org.xmlmiddleware.utils.resolvers.FilenameResolver";
    private static String DEFAULT = "Default";
+   private static String UTF8 = "UTF-8";
    private static String YES = "YES";
 
    private static int NORMAL = 0;
    private static int BACKSLASH = 1;
 
+   private static int DEFAULT_PIPELINEDEPTH = 4;
+
    // ************************************************************************
    // Constructor
    // ************************************************************************
@@ -495,6 +551,10 @@ public class Transfer extends PropertyProcessor
       {
          dispatchStoreDocument(props);
       }
+      else if (method.equals(XMLDBMSProps.STOREDOCUMENTS))
+      {
+         dispatchStoreDocuments(props);
+      }
       else if (method.equals(XMLDBMSProps.RETRIEVEDOCUMENTBYSQL))
       {
          dispatchRetrieveDocumentBySQL(props);
@@ -588,6 +648,147 @@ public class Transfer extends PropertyProcessor
       return storeDocumentInternal(configProps, mapLocation, actionLocation, src);
    }
 
+   /**
+    * Store (insert or update) data from a set of XML documents.
+    *
+    * <p>Documents are stored concurrently by the number of threads given by the
+    * Threads property. Each thread has its own DataHandler and connection for each
+    * database. A document that cannot be stored does not stop the other documents
+    * from being stored; instead, it is listed in the returned report. FilterSets
+    * are not returned, regardless of the ReturnFilter property.</p>
+    *
+    * <p>If the Pipelined property is Yes, documents are instead stored in order
+    * by a pipeline of three threads. The first parses documents, the second
+    * converts them to rows with DOMToDBMS and a DeferredDataHandler, and the
+    * third sends the rows to the database. The threads are connected by queues
+    * that hold at most PipelineDepth documents, so a fast stage waits for a slow
+    * one instead of reading ahead without limit. If the third thread cannot
+    * connect to the database, every document is reported as failed.</p>
+    *
+    * <p>See the introduction for details about the configProps, mapLocation,
+    * actionLocation, and xmlLocations parameters.</p>
+    *
+    * @param configProps Configuration properties. May be null.
+    * @param mapLocation Location of the map document.
+    * @param actionLocation Location of the action document.
+    * @param xmlLocations Locations of the XML documents.
+    * @return A report of the documents stored and failed and the throughput.
+    * @exception SQLException Thrown if a database error occurs.
+    * @exception XMLMiddlewareException Thrown for all other errors: file not found,
+    *    invalid map document, class not found, etc.
+    */
+   public BulkStoreReport storeXMLDocuments(Properties configProps, String mapLocation, String actionLocation, String[] xmlLocations)
+      throws SQLException, XMLMiddlewareException
+   {
+      String    validateStr, value;
+      BulkStore job;
+      int       threads, depth;
+      boolean   pipelined;
+      Thread[]  workers;
+
+      if (configProps == null) configProps = new Properties();
+
+      // Create the objects shared by all threads. These are the same objects
+      // that storeDocumentInternal creates for a single document.
+
+      job = new BulkStore();
+      validateStr = " " + configProps.getProperty(XMLDBMSProps.VALIDATE) + " ";
+      job.map = createMap(configProps, mapLocation, (validateStr.indexOf(XMLDBMSProps.MAPTOKEN) != -1));
+      job.actions = createActions(configProps, job.map, actionLocation, (validateStr.indexOf(XMLDBMSProps.ACTIONTOKEN) != -1));
+      job.validate = (validateStr.indexOf(XMLDBMSProps.XMLTOKEN) != -1);
+      job.resolver = getLocationResolver(configProps, XMLDBMSProps.XMLRESOLVERCLASS);
+      job.locations = xmlLocations;
+      job.streaming = isStreaming(configProps);
+
+      value = configProps.getProperty(XMLDBMSProps.DOCUMENTSPERCOMMIT);
+      job.documentsPerCommit = (value == null) ? 1 : getSize(XMLDBMSProps.DOCUMENTSPERCOMMIT, value);
+      if (job.documentsPerCommit < 1) job.documentsPerCommit = 1;
+      job.grouped = (job.documentsPerCommit > 1);
+
+      value = configProps.getProperty(XMLDBMSProps.THREADS);
+      threads = (value == null) ? Runtime.getRuntime().availableProcessors() : getSize(XMLDBMSProps.THREADS, value);
+      if (threads < 1)
+         throw new IllegalArgumentException(XMLDBMSProps.THREADS + " must be 1 or more: " + value);
+      if (threads > xmlLocations.length) threads = Math.max(xmlLocations.length, 1);
+
+      value = configProps.getProperty(XMLDBMSProps.PIPELINED);
+      pipelined = (value != null) && isYes(value);
+      if (pipelined && job.streaming)
+         throw new IllegalArgumentException(XMLDBMSProps.PIPELINED + " cannot be used with " + XMLDBMSProps.STREAMING + ".");
+      value = configProps.getProperty(XMLDBMSProps.PIPELINEDEPTH);
+      depth = (value == null) ? DEFAULT_PIPELINEDEPTH : getSize(XMLDBMSProps.PIPELINEDEPTH, value);
+      if (depth < 1)
+         throw new IllegalArgumentException(XMLDBMSProps.PIPELINEDEPTH + " must be 1 or more: " + value);
+
+      // Configure the DOMToDBMS or SAXToDBMS object. Both are reentrant, so
+      // all threads share it. When documents are committed in groups, the
+      // threads commit them, not DOMToDBMS or SAXToDBMS.
+
+      if (job.streaming)
+      {
+         configSAXToDBMS(configProps);
+         saxToDBMS.setFilterSetReturned(false);
+         if (job.grouped) saxToDBMS.setCommitMode(DataHandler.COMMIT_NONE);
+      }
+      else
+      {
+         configDOMToDBMS(configProps);
+         domToDBMS.setFilterSetReturned(false);
+         if (job.grouped) domToDBMS.setCommitMode(DataHandler.COMMIT_NONE);
+
+         // DeferredDataHandler can't select the existing property table rows.
+
+         if (pipelined) domToDBMS.setIncrementalPropertyUpdates(false);
+      }
+      job.domToDBMS = domToDBMS;
+      job.saxToDBMS = saxToDBMS;
+
+      // Start the threads and wait for them to finish.
+
+      job.report = new BulkStoreReport(xmlLocations.length);
+      if (pipelined)
+      {
+         job.parsed = new BoundedQueue(depth);
+         job.mapped = new BoundedQueue(depth);
+         workers = new Thread[3];
+         workers[0] = new Thread(new PipelineParser(job), "Transfer-PipelineParser");
+         workers[1] = new Thread(new PipelineMapper(job), "Transfer-PipelineMapper");
+         workers[2] = new Thread(new PipelineWriter(job), "Transfer-PipelineWriter");
+      }
+      else
+      {
+         workers = new Thread[threads];
+         for (int i = 0; i < threads; i++)
+         {
+            workers[i] = new Thread(new StoreWorker(job), "Transfer-StoreWorker-" + i);
+         }
+      }
+
+      for (int i = 0; i < workers.length; i++)
+      {
+         workers[i].start();
+      }
+
+      try
+      {
+         for (int i = 0; i < workers.length; i++)
+         {
+            workers[i].join();
+         }
+      }
+      catch (InterruptedException e)
+      {
+         // Stop handing out documents. The threads finish the documents they
+         // are storing and exit.
+
+         job.stop();
+         throw new XMLMiddlewareException(e);
+      }
+
+      job.report.finish();
+      return job.report;
+   }
+
    /**
     * Retrieve data as an XML document.
     *
@@ -612,9 +813,17 @@ public class Transfer extends PropertyProcessor
       LocationResolver resolver;
 
       if (configProps != null) encoding = configProps.getProperty(XMLDBMSProps.ENCODING);
+      resolver = getLocationResolver(configProps, XMLDBMSProps.XMLRESOLVERCLASS);
+
+      // If the document is streamed, DBMSToXML writes it as the data is retrieved.
+
+      if (isStreaming(configProps))
+      {
+         streamDocument(resolver, configProps, mapLocation, null, filterLocation, params, xmlLocation, encoding);
+         return;
+      }
 
       doc = retrieveDocumentInternal(configProps, mapLocation, filterLocation, params);
-      resolver = getLocationResolver(configProps, XMLDBMSProps.XMLRESOLVERCLASS);
       writeDocument(resolver, doc, xmlLocation, encoding);
    }
 
@@ -664,6 +873,14 @@ public class Transfer extends PropertyProcessor
    {
       Document doc;
 
+      // If the document is streamed, DBMSToXML writes it as the data is retrieved.
+
+      if (isStreaming(configProps))
+      {
+         streamDocumentInternal(configProps, mapLocation, null, filterLocation, params, getStreamWriter(configProps, stream));
+         return;
+      }
+
       doc = retrieveDocumentInternal(configProps, mapLocation, filterLocation, params);
       utils.writeDocument(doc, stream);
    }
@@ -695,9 +912,17 @@ public class Transfer extends PropertyProcessor
       LocationResolver resolver;
 
       if (configProps != null) encoding = configProps.getProperty(XMLDBMSProps.ENCODING);
+      resolver = getLocationResolver(configProps, XMLDBMSProps.XMLRESOLVERCLASS);
+
+      // If the document is streamed, DBMSToXML writes it as the data is retrieved.
+
+      if (isStreaming(configProps))
+      {
+         streamDocument(resolver, configProps, mapLocation, selects, filterLocation, params, xmlLocation, encoding);
+         return;
+      }
 
       doc = retrieveDocumentInternal(configProps, mapLocation, selects, filterLocation, params);
-      resolver = getLocationResolver(configProps, XMLDBMSProps.XMLRESOLVERCLASS);
       writeDocument(resolver, doc, xmlLocation, encoding);
    }
 
@@ -753,6 +978,14 @@ public class Transfer extends PropertyProcessor
    {
       Document doc;
 
+      // If the document is streamed, DBMSToXML writes it as the data is retrieved.
+
+      if (isStreaming(configProps))
+      {
+         streamDocumentInternal(configProps, mapLocation, selects, filterLocation, params, getStreamWriter(configProps, stream));
+         return;
+      }
+
       doc = retrieveDocumentInternal(configProps, mapLocation, selects, filterLocation, params);
       utils.writeDocument(doc, stream);
    }
@@ -831,6 +1064,25 @@ public class Transfer extends PropertyProcessor
       }
    }
 
+   private void dispatchStoreDocuments(Properties props)
+      throws XMLMiddlewareException, SQLException
+   {
+      String          mapLocation, actionLocation;
+      String[]        xmlLocations;
+      BulkStoreReport report;
+
+      // Get the names of the map and action locations and the XML locations
+
+      mapLocation = getProperty(props, XMLDBMSProps.MAPLOCATION);
+      actionLocation = getProperty(props, XMLDBMSProps.ACTIONLOCATION);
+      xmlLocations = getXMLLocations(props);
+
+      // Store the documents and write the report.
+
+      report = storeXMLDocuments(props, mapLocation, actionLocation, xmlLocations);
+      System.out.print(report.toString());
+   }
+
    private void writeFilterSet(Properties props, FilterSet filterSet)
       throws XMLMiddlewareException
    {
@@ -980,13 +1232,23 @@ public class Transfer extends PropertyProcessor
       validate = (validateStr.indexOf(XMLDBMSProps.ACTIONTOKEN) != -1);
       actions = createActions(configProps, map, actionLocation, validate);
 
+      validate = (validateStr.indexOf(XMLDBMSProps.XMLTOKEN) != -1);
+
+      // If the document is streamed, configure the SAXToDBMS object and pass
+      // it the InputSource. It stores rows as the document is parsed.
+
+      if (isStreaming(configProps))
+      {
+         configSAXToDBMS(configProps);
+         return saxToDBMS.storeDocument(dbMap, utils.getXMLReader(validate), src, actions);
+      }
+
       // Configure the DOMToDBMS object
 
       configDOMToDBMS(configProps);
 
       // Open a DOM tree over the InputSource and store it in the database
 
-      validate = (validateStr.indexOf(XMLDBMSProps.XMLTOKEN) != -1);
       doc = utils.readDocument(src, validate);
       return domToDBMS.storeDocument(dbMap, doc, actions);
    }
@@ -1064,6 +1326,46 @@ public class Transfer extends PropertyProcessor
       return doc;
    }
 
+   private void streamDocumentInternal(Properties configProps, String mapLocation, Properties selects, String filterLocation, Hashtable params, Writer writer)
+      throws XMLMiddlewareException, SQLException
+   {
+      String       validateStr;
+      boolean      validate;
+      XMLDBMSMap   map;
+      Hashtable    resultSets = null;
+      DBEnabledMap dbMap;
+      FilterSet    filterSet;
+
+      // Create the map, DB-enabled map, and filter set objects.
+
+      validateStr = " " + configProps.getProperty(XMLDBMSProps.VALIDATE) + " ";
+      validate = (validateStr.indexOf(XMLDBMSProps.MAPTOKEN) != -1);
+      map = createMap(configProps, mapLocation, validate);
+      dbMap = createDBEnabledMap(map);
+      validate = (validateStr.indexOf(XMLDBMSProps.FILTERTOKEN) != -1);
+      filterSet = createFilterSet(configProps, map, filterLocation, validate);
+
+      // Configure the DBMSToXML object
+
+      configDBMSToXML(configProps);
+
+      // Write the document. If there are SELECT statements, create the result
+      // sets first, then close them and the connections they use.
+
+      if (selects == null)
+      {
+         dbmsToXML.retrieveDocument(dbMap, filterSet, params, writer);
+      }
+      else
+      {
+         resultSets = createResultSets(selects);
+         initTableMetadata(map, resultSets, filterSet);
+         dbmsToXML.retrieveDocument(dbMap, resultSets, filterSet, params, writer);
+         closeResultSets(resultSets);
+         closeConnections();
+      }
+   }
+
    // ************************************************************************
    // Private methods -- configuration
    // ************************************************************************
@@ -1164,7 +1466,8 @@ public class Transfer extends PropertyProcessor
    private void configDBMSToDOM(Properties configProps)
       throws XMLMiddlewareException
    {
-      String systemID = null, publicID = null;
+      String systemID = null, publicID = null, value;
+      int    blockSize = 0;
 
       // Create a DBMSToDOM object if one doesn't already exist
 
@@ -1178,25 +1481,50 @@ public class Transfer extends PropertyProcessor
       }
 
       // If there are configuration properties, get the system ID and public ID
-      // of the document being created.
+      // of the document being created and the fetch block size.
 
       if (configProps != null)
       {
          systemID = configProps.getProperty(XMLDBMSProps.SYSTEMID);
          publicID = configProps.getProperty(XMLDBMSProps.PUBLICID);
+         value = configProps.getProperty(XMLDBMSProps.FETCHBLOCKSIZE);
+         if (value != null) blockSize = getSize(XMLDBMSProps.FETCHBLOCKSIZE, value);
       }
 
       // Set the system ID and public ID to use. These may be null.
 
       dbmsToDOM.setDTDInfo(systemID, publicID);
+      dbmsToDOM.setBlockSize(blockSize);
+   }
+
+   private void configDBMSToXML(Properties configProps)
+   {
+      String systemID = null, publicID = null;
+
+      // Create a DBMSToXML object if one doesn't already exist
+
+      if (dbmsToXML == null) dbmsToXML = new DBMSToXML();
+
+      // If there are configuration properties, get the system ID and public ID
+      // of the document being written.
+
+      if (configProps != null)
+      {
+         systemID = configProps.getProperty(XMLDBMSProps.SYSTEMID);
+         publicID = configProps.getProperty(XMLDBMSProps.PUBLICID);
+      }
+
+      // Set the system ID and public ID to use. These may be null.
+
+      dbmsToXML.setDTDInfo(systemID, publicID);
    }
 
    private void configDOMToDBMS(Properties configProps)
       throws XMLMiddlewareException
    {
       String  value;
-      int     commitMode = DataHandler.COMMIT_AFTERSTATEMENT;
-      boolean stopOnError = true, returnFilterSet = false;
+      int     commitMode = DataHandler.COMMIT_AFTERSTATEMENT, batchSize = 0;
+      boolean stopOnError = true, returnFilterSet = false, incremental = false;
 
       // Create a DOMToDBMS object if one doesn't already exist
 
@@ -1213,40 +1541,88 @@ public class Transfer extends PropertyProcessor
       {
          value = configProps.getProperty(XMLDBMSProps.COMMITMODE);
          if (value != null) commitMode = getCommitMode(value);
+         value = configProps.getProperty(XMLDBMSProps.BATCHSIZE);
+         if (value != null) batchSize = getSize(XMLDBMSProps.BATCHSIZE, value);
          value = configProps.getProperty(XMLDBMSProps.STOPONERROR);
          if (value != null) stopOnError = isYes(value);
          value = configProps.getProperty(XMLDBMSProps.RETURNFILTER);
          if (value != null) returnFilterSet = isYes(value);
+         value = configProps.getProperty(XMLDBMSProps.INCREMENTALPROPERTYUPDATES);
+         if (value != null) incremental = isYes(value);
       }
 
       // Configure the DOMToDBMS object. Note that we use the default
       // values if for any configuration properties not set.
 
       domToDBMS.setCommitMode(commitMode);
+      domToDBMS.setBatchSize(batchSize);
       domToDBMS.stopOnException(stopOnError);
       domToDBMS.setFilterSetReturned(returnFilterSet);
+      domToDBMS.setIncrementalPropertyUpdates(incremental);
+   }
+
+   private void configSAXToDBMS(Properties configProps)
+      throws XMLMiddlewareException
+   {
+      String  value;
+      int     commitMode = DataHandler.COMMIT_AFTERSTATEMENT, batchSize = 0;
+      boolean stopOnError = true, returnFilterSet = false;
+
+      // Create a SAXToDBMS object if one doesn't already exist. We also need
+      // a DOMToDBMS object, since addKeyGenerators adds key generators to both.
+
+      if (saxToDBMS == null) saxToDBMS = new SAXToDBMS();
+      if (domToDBMS == null) domToDBMS = new DOMToDBMS();
+
+      // Add the key generators (if any).
+
+      addKeyGenerators(configProps);
+
+      // Get the same configuration properties as for DOMToDBMS.
+
+      if (configProps != null)
+      {
+         value = configProps.getProperty(XMLDBMSProps.COMMITMODE);
+         if (value != null) commitMode = getCommitMode(value);
+         value = configProps.getProperty(XMLDBMSProps.BATCHSIZE);
+         if (value != null) batchSize = getSize(XMLDBMSProps.BATCHSIZE, value);
+         value = configProps.getProperty(XMLDBMSProps.STOPONERROR);
+         if (value != null) stopOnError = isYes(value);
+         value = configProps.getProperty(XMLDBMSProps.RETURNFILTER);
+         if (value != null) returnFilterSet = isYes(value);
+      }
+
+      saxToDBMS.setCommitMode(commitMode);
+      saxToDBMS.setBatchSize(batchSize);
+      saxToDBMS.stopOnException(stopOnError);
+      saxToDBMS.setFilterSetReturned(returnFilterSet);
    }
 
    private void configDBMSDelete(Properties configProps)
    {
-      String value;
-      int    commitMode = DataHandler.COMMIT_AFTERSTATEMENT;
+      String  value;
+      int     commitMode = DataHandler.COMMIT_AFTERSTATEMENT;
+      boolean setBased = false;
 
       // Create a DBMSDelete object if one doesn't already exist
 
       if (dbmsDelete == null) dbmsDelete = new DBMSDelete();
 
-      // If there are configuration properties, get the commit mode (if any).
+      // If there are configuration properties, get the commit mode (if any)
+      // and whether to use set-based deletes.
 
       if (configProps != null)
       {
          value = configProps.getProperty(XMLDBMSProps.COMMITMODE);
          if (value != null) commitMode = getCommitMode(value);
+         value = configProps.getProperty(XMLDBMSProps.SETBASED);
+         if (value != null) setBased = isYes(value);
       }
 
-      // Set the commit mode.
+      // Set the commit mode and delete mode.
 
       dbmsDelete.setCommitMode(commitMode);
+      dbmsDelete.setSetBased(setBased);
    }
 
    private void addKeyGenerators(Properties configProps)
@@ -1255,6 +1631,7 @@ public class Transfer extends PropertyProcessor
       // Remove all current key generators.
 
       domToDBMS.removeAllKeyGenerators();
+      if (saxToDBMS != null) saxToDBMS.removeAllKeyGenerators();
 
       // If there are no configuration properties, we are done.
 
@@ -1286,9 +1663,9 @@ public class Transfer extends PropertyProcessor
       className = configProps.getProperty(XMLDBMSProps.KEYGENERATORCLASS);
       keyGen = createKeyGenerator(name, className, configProps, 0);
 
-      // Add the key generator to DOMToDBMS.
+      // Add the key generator to DOMToDBMS (and SAXToDBMS).
 
-      domToDBMS.addKeyGenerator(name, keyGen);
+      addKeyGenerator(name, keyGen);
    }
 
    private void addMultipleKeyGenerators(Properties configProps)
@@ -1311,10 +1688,11 @@ public class Transfer extends PropertyProcessor
          if (classes == null) throw new ArrayIndexOutOfBoundsException();
          for (int i = 0; i < names.length; i++)
          {
-            // Instantiate the key generator and add it to the DOMToDBMS object.
+            // Instantiate the key generator and add it to the DOMToDBMS object
+            // (and SAXToDBMS object).
 
             keyGen = createKeyGenerator(names[i], classes[i], configProps, i);
-            domToDBMS.addKeyGenerator(names[i], keyGen);
+            addKeyGenerator(names[i], keyGen);
          }
       }
       catch (ArrayIndexOutOfBoundsException e)
@@ -1323,6 +1701,12 @@ public class Transfer extends PropertyProcessor
       }
    }
 
+   private void addKeyGenerator(String name, KeyGenerator keyGen)
+   {
+      domToDBMS.addKeyGenerator(name, keyGen);
+      if (saxToDBMS != null) saxToDBMS.addKeyGenerator(name, keyGen);
+   }
+
    // ************************************************************************
    // Private methods -- object creation
    // ************************************************************************
@@ -1429,6 +1813,7 @@ public class Transfer extends PropertyProcessor
       dataHandler = (DataHandler)instantiateObject(dataHandlerClass);
       dataHandler.initialize(dbInfo.dataSource, dbInfo.user, dbInfo.password);
       dataHandlers.put(dbName, dataHandler);
+      dbInfo.dataHandlerClass = dataHandlerClass;
    }
 
    private Hashtable createResultSets(Properties selects)
@@ -1832,11 +2217,31 @@ public class Transfer extends PropertyProcessor
          throw new IllegalArgumentException("Invalid commit mode value: " + modeName);
    }
 
+   private int getSize(String propName, String size)
+   {
+      try
+      {
+         return Integer.parseInt(size);
+      }
+      catch (NumberFormatException e)
+      {
+         throw new IllegalArgumentException("Invalid " + propName + " value: " + size);
+      }
+   }
+
    private boolean isYes(String yesNo)
    {
       return (yesNo.toUpperCase().equals(YES));
    }
 
+   private boolean isStreaming(Properties configProps)
+   {
+      String value;
+
+      value = (configProps == null) ? null : configProps.getProperty(XMLDBMSProps.STREAMING);
+      return (value != null) && isYes(value);
+   }
+
    private void processINParameters(Hashtable params)
    {
       String inParamsString, valueString;
@@ -2052,6 +2457,109 @@ public class Transfer extends PropertyProcessor
       }
    }
 
+   private void closeInputSource(InputSource src)
+   {
+      // Close the Reader or InputStream opened by getInputSource. Parsers
+      // usually do this themselves, but not always after an error.
+
+      try
+      {
+         if (src.getCharacterStream() != null) src.getCharacterStream().close();
+         if (src.getByteStream() != null) src.getByteStream().close();
+      }
+      catch (IOException e)
+      {
+         // Ignore errors. The document has already been processed.
+      }
+   }
+
+   private String[] getXMLLocations(Properties props)
+      throws XMLMiddlewareException
+   {
+      String         manifest, directory, pattern, line;
+      String[]       names, locations;
+      Vector         v = new Vector();
+      BufferedReader reader;
+      File           dir;
+
+      // Get the locations from the manifest file, if any. Blank lines are ignored.
+
+      manifest = props.getProperty(XMLDBMSProps.XMLMANIFEST);
+      if (manifest != null)
+      {
+         try
+         {
+            reader = new BufferedReader(new FileReader(manifest));
+            while ((line = reader.readLine()) != null)
+            {
+               line = line.trim();
+               if (line.length() != 0) v.addElement(line);
+            }
+            reader.close();
+         }
+         catch (IOException e)
+         {
+            throw new XMLMiddlewareException(e);
+         }
+      }
+      else
+      {
+         // Otherwise, get the files in the directory that match the pattern.
+
+         directory = props.getProperty(XMLDBMSProps.XMLDIRECTORY);
+         if (directory == null)
+            throw new IllegalArgumentException("You must specify the " + XMLDBMSProps.XMLMANIFEST + " or " + XMLDBMSProps.XMLDIRECTORY + " property.");
+         pattern = props.getProperty(XMLDBMSProps.XMLPATTERN, "*");
+
+         dir = new File(directory);
+         names = dir.list();
+         if (names == null)
+            throw new XMLMiddlewareException("Not a directory: " + directory);
+         for (int i = 0; i < names.length; i++)
+         {
+            if (matches(names[i], 0, pattern, 0) && new File(dir, names[i]).isFile())
+            {
+               v.addElement(new File(dir, names[i]).getPath());
+            }
+         }
+      }
+
+      locations = new String[v.size()];
+      v.copyInto(locations);
+      return locations;
+   }
+
+   private boolean matches(String name, int n, String pattern, int p)
+   {
+      char c;
+
+      // Match a filename against a pattern in which * matches any characters
+      // and ? matches a single character.
+
+      while (p < pattern.length())
+      {
+         c = pattern.charAt(p);
+         if (c == '*')
+         {
+            // Skip consecutive asterisks. If the asterisk is at the end of the
+            // pattern, it matches the rest of the name. Otherwise, try to match
+            // the rest of the pattern at each remaining position in the name.
+
+            while ((p < pattern.length()) && (pattern.charAt(p) == '*')) p++;
+            if (p == pattern.length()) return true;
+            for (int i = n; i < name.length(); i++)
+            {
+               if (matches(name, i, pattern, p)) return true;
+            }
+            return false;
+         }
+         if ((n == name.length()) || ((c != '?') && (c != name.charAt(n)))) return false;
+         n++;
+         p++;
+      }
+      return (n == name.length());
+   }
+
    private void writeDocument(LocationResolver resolver, Document doc, String location, String encoding)
       throws XMLMiddlewareException
    {
@@ -2082,6 +2590,50 @@ public class Transfer extends PropertyProcessor
       }
    }
 
+   private void streamDocument(LocationResolver resolver, Properties configProps, String mapLocation, Properties selects, String filterLocation, Hashtable params, String location, String encoding)
+      throws XMLMiddlewareException, SQLException
+   {
+      Writer writer;
+
+      try
+      {
+         if (resolver.supportsWriter())
+         {
+            writer = resolver.getWriter(location, encoding);
+         }
+         else
+         {
+            if (encoding != null)
+               throw new XMLMiddlewareException("Encodings not supported by LocationResolver: " + resolver.getClass().getName());
+            writer = new OutputStreamWriter(resolver.getOutputStream(location), UTF8);
+         }
+         streamDocumentInternal(configProps, mapLocation, selects, filterLocation, params, writer);
+         writer.close();
+      }
+      catch (IOException e)
+      {
+         throw new XMLMiddlewareException(e);
+      }
+   }
+
+   private Writer getStreamWriter(Properties configProps, OutputStream stream)
+      throws XMLMiddlewareException
+   {
+      String encoding = null;
+
+      // Use the Encoding property, if any. Otherwise, use UTF-8.
+
+      if (configProps != null) encoding = configProps.getProperty(XMLDBMSProps.ENCODING);
+      try
+      {
+         return new OutputStreamWriter(stream, (encoding == null) ? UTF8 : encoding);
+      }
+      catch (UnsupportedEncodingException e)
+      {
+         throw new XMLMiddlewareException(e);
+      }
+   }
+
    private void processSAXException(SAXException s)
       throws XMLMiddlewareException
    {
@@ -2110,9 +2662,556 @@ public class Transfer extends PropertyProcessor
       DataSource dataSource;
       String     user;
       String     password;
+      String     dataHandlerClass;
 
       DBInfo()
       {
       }
    }
+
+   // Objects shared by the StoreWorkers in a call to storeXMLDocuments.
+   // Workers take document locations from the list one at a time.
+
+   private class BulkStore
+   {
+      String[]         locations;
+      int              next = 0;
+      XMLDBMSMap       map;
+      Actions          actions;
+      LocationResolver resolver;
+      DOMToDBMS        domToDBMS;
+      SAXToDBMS        saxToDBMS;
+      boolean          validate, streaming, grouped;
+      int              documentsPerCommit;
+      BulkStoreReport  report;
+      BoundedQueue     parsed = null;  // Pipelined only: parsed documents
+      BoundedQueue     mapped = null;  // Pipelined only: recorded operations
+
+      BulkStore()
+      {
+      }
+
+      synchronized String nextLocation()
+      {
+         return (next < locations.length) ? locations[next++] : null;
+      }
+
+      synchronized Vector removeLocations()
+      {
+         Vector remaining = new Vector();
+
+         // Remove the locations that have not been handed out, so that no
+         // more documents are started.
+
+         while (next < locations.length)
+         {
+            remaining.addElement(locations[next++]);
+         }
+         return remaining;
+      }
+
+      synchronized void stop()
+      {
+         next = locations.length;
+
+         // Closing the queues means that pipeline threads waiting to put a
+         // document in a queue discard it instead.
+
+         if (parsed != null) parsed.close();
+         if (mapped != null) mapped.close();
+      }
+   }
+
+   // Stores documents in a separate thread. Each worker has its own
+   // DataHandlers (and therefore connections) and its own DBEnabledMap.
+
+   private class StoreWorker implements Runnable
+   {
+      BulkStore    job;
+      DBEnabledMap dbMap;
+      Vector       dataHandlers = new Vector();
+      Vector       pending = new Vector(); // Stored documents not yet committed
+      long         rowCount = 0;           // Row count at the last commit
+
+      StoreWorker(BulkStore job)
+      {
+         this.job = job;
+      }
+
+      public void run()
+      {
+         String location;
+
+         try
+         {
+            connect();
+         }
+         catch (Exception e)
+         {
+            // If the worker cannot connect, other workers store its documents.
+
+            job.report.error(e);
+            close();
+            connectFailed(e);
+            return;
+         }
+
+         while ((location = nextLocation()) != null)
+         {
+            try
+            {
+               store(location);
+            }
+            catch (Exception e)
+            {
+               rollback(location, e);
+               continue;
+            }
+
+            pending.addElement(location);
+            if (pending.size() >= job.documentsPerCommit) commit();
+         }
+
+         commit();
+         close();
+      }
+
+      private void connect()
+         throws SQLException, XMLMiddlewareException
+      {
+         Enumeration dbNames;
+         String      dbName;
+         DBInfo      dbInfo;
+         DataHandler dataHandler;
+
+         // Create a DataHandler for each database and add it to a new DBEnabledMap.
+
+         dbMap = new DBEnabledMap(job.map);
+         dbNames = dbInfos.keys();
+         while (dbNames.hasMoreElements())
+         {
+            dbName = (String)dbNames.nextElement();
+            dbInfo = (DBInfo)dbInfos.get(dbName);
+            dataHandler = (DataHandler)instantiateObject(dbInfo.dataHandlerClass);
+            dataHandler.initialize(dbInfo.dataSource, dbInfo.user, dbInfo.password);
+            dataHandlers.addElement(dataHandler);
+            dbMap.addDataHandler(dbName, dataHandler);
+
+            // Groups of documents are committed with DataHandlerBase.commitTransaction.
+
+            if (job.grouped && !(dataHandler instanceof DataHandlerBase))
+               throw new XMLMiddlewareException(XMLDBMSProps.DOCUMENTSPERCOMMIT + " requires a DataHandler that extends DataHandlerBase: " + dbInfo.dataHandlerClass);
+         }
+      }
+
+      String nextLocation()
+      {
+         return job.nextLocation();
+      }
+
+      void connectFailed(Exception e)
+      {
+      }
+
+      void store(String location)
+         throws SQLException, XMLMiddlewareException
+      {
+         InputSource src;
+
+         src = getInputSource(job.resolver, location);
+         try
+         {
+            if (job.streaming)
+            {
+               job.saxToDBMS.storeDocument(dbMap, utils.getXMLReader(job.validate), src, job.actions);
+            }
+            else
+            {
+               job.domToDBMS.storeDocument(dbMap, utils.readDocument(src, job.validate), job.actions);
+            }
+         }
+         finally
+         {
+            closeInputSource(src);
+         }
+      }
+
+      private void commit()
+      {
+         long count;
+
+         if (pending.size() == 0) return;
+
+         // If documents are committed in groups, commit the group now.
+         // Otherwise, each document was committed according to the commit mode.
+
+         try
+         {
+            if (job.grouped)
+            {
+               for (int i = 0; i < dataHandlers.size(); i++)
+               {
+                  ((DataHandlerBase)dataHandlers.elementAt(i)).commitTransaction();
+               }
+            }
+         }
+         catch (SQLException e)
+         {
+            rollback(null, e);
+            return;
+         }
+
+         count = getModifiedRowCount();
+         job.report.documentsStored(pending.size(), count - rowCount);
+         rowCount = count;
+         pending.removeAllElements();
+      }
+
+      private void rollback(String location, Exception e)
+      {
+         Exception rollbackException;
+
+         // If documents are committed in groups, roll back the uncommitted
+         // documents. These fail along with the document that caused the error.
+         // If the commit itself failed (location is null), they fail with the
+         // commit error.
+
+         if (job.grouped && (pending.size() != 0))
+         {
+            for (int i = 0; i < dataHandlers.size(); i++)
+            {
+               try
+               {
+                  ((DataHandlerBase)dataHandlers.elementAt(i)).rollbackTransaction();
+               }
+               catch (SQLException s)
+               {
+                  job.report.error(s);
+               }
+            }
+
+            rollbackException = (location == null) ? e : new XMLMiddlewareException("Rolled back after failing to store " + location);
+            for (int i = 0; i < pending.size(); i++)
+            {
+               job.report.documentFailed((String)pending.elementAt(i), rollbackException);
+            }
+            pending.removeAllElements();
+         }
+
+         if (location != null) job.report.documentFailed(location, e);
+         rowCount = getModifiedRowCount();
+      }
+
+      private long getModifiedRowCount()
+      {
+         Object dataHandler;
+         long   count = 0;
+
+         for (int i = 0; i < dataHandlers.size(); i++)
+         {
+            dataHandler = dataHandlers.elementAt(i);
+            if (dataHandler instanceof DataHandlerBase)
+            {
+               count += ((DataHandlerBase)dataHandler).getModifiedRowCount();
+            }
+         }
+         return count;
+      }
+
+      private void close()
+      {
+         Object     dataHandler;
+         Connection conn;
+
+         // Close the worker's connections. Pooled connections are returned to
+         // the pool. DataHandlers that don't extend DataHandlerBase don't expose
+         // their connection, so these are closed when they are garbage collected.
+
+         for (int i = 0; i < dataHandlers.size(); i++)
+         {
+            dataHandler = dataHandlers.elementAt(i);
+            if (dataHandler instanceof DataHandlerBase)
+            {
+               conn = ((DataHandlerBase)dataHandler).getConnection();
+               try
+               {
+                  if (conn != null) conn.close();
+               }
+               catch (SQLException e)
+               {
+                  // Ignore errors and continue closing connections
+               }
+            }
+         }
+      }
+   }
+
+   // A document passing through the pipeline. Each stage fills in its part;
+   // if a stage fails, the exception is passed on and reported by the writer,
+   // so that documents are reported in order.
+
+   private class PipelineItem
+   {
+      String    location;
+      Document  document = null;
+      Hashtable operations = null; // Vectors of operations indexed by database name
+      Exception exception = null;
+
+      PipelineItem(String location)
+      {
+         this.location = location;
+      }
+   }
+
+   // First stage of the pipeline: parses documents.
+
+   private class PipelineParser implements Runnable
+   {
+      BulkStore job;
+
+      PipelineParser(BulkStore job)
+      {
+         this.job = job;
+      }
+
+      public void run()
+      {
+         String       location;
+         PipelineItem item;
+         InputSource  src;
+
+         try
+         {
+            while ((location = job.nextLocation()) != null)
+            {
+               item = new PipelineItem(location);
+               try
+               {
+                  src = getInputSource(job.resolver, location);
+                  try
+                  {
+                     item.document = utils.readDocument(src, job.validate);
+                  }
+                  finally
+                  {
+                     closeInputSource(src);
+                  }
+               }
+               catch (Exception e)
+               {
+                  item.exception = e;
+               }
+
+               if (!job.parsed.put(item)) break;
+            }
+         }
+         catch (InterruptedException e)
+         {
+            job.stop();
+         }
+         finally
+         {
+            job.parsed.close();
+         }
+      }
+   }
+
+   // Second stage of the pipeline: converts documents to rows. The rows are
+   // recorded by a DeferredDataHandler for each database instead of being
+   // stored.
+
+   private class PipelineMapper implements Runnable
+   {
+      BulkStore job;
+      Hashtable deferredHandlers = new Hashtable(); // Indexed by database name
+
+      PipelineMapper(BulkStore job)
+      {
+         this.job = job;
+      }
+
+      public void run()
+      {
+         DBEnabledMap        dbMap;
+         Enumeration         dbNames;
+         String              dbName;
+         DeferredDataHandler dataHandler;
+         PipelineItem        item;
+
+         dbMap = new DBEnabledMap(job.map);
+         dbNames = dbInfos.keys();
+         while (dbNames.hasMoreElements())
+         {
+            dbName = (String)dbNames.nextElement();
+            dataHandler = new DeferredDataHandler();
+            deferredHandlers.put(dbName, dataHandler);
+            dbMap.addDataHandler(dbName, dataHandler);
+         }
+
+         try
+         {
+            while ((item = (PipelineItem)job.parsed.take()) != null)
+            {
+               if (item.exception == null)
+               {
+                  try
+                  {
+                     job.domToDBMS.storeDocument(dbMap, item.document, job.actions);
+                     item.operations = removeOperations();
+                  }
+                  catch (Exception e)
+                  {
+                     item.exception = e;
+                     removeOperations();
+                  }
+
+                  // Release the DOM tree now, since the writer doesn't need it.
+
+                  item.document = null;
+               }
+
+               if (!job.mapped.put(item))
+               {
+                  job.stop();
+                  break;
+               }
+            }
+         }
+         catch (InterruptedException e)
+         {
+            job.stop();
+         }
+         finally
+         {
+            job.mapped.close();
+         }
+      }
+
+      private Hashtable removeOperations()
+      {
+         Hashtable   operations = new Hashtable();
+         Enumeration dbNames;
+         String      dbName;
+
+         dbNames = deferredHandlers.keys();
+         while (dbNames.hasMoreElements())
+         {
+            dbName = (String)dbNames.nextElement();
+            operations.put(dbName, ((DeferredDataHandler)deferredHandlers.get(dbName)).removeOperations());
+         }
+         return operations;
+      }
+   }
+
+   // Third stage of the pipeline: executes the recorded operations. This is a
+   // StoreWorker that takes documents from the pipeline instead of parsing them,
+   // so it commits and reports documents in the same way.
+
+   private class PipelineWriter extends StoreWorker
+   {
+      PipelineItem current = null;
+
+      PipelineWriter(BulkStore job)
+      {
+         super(job);
+      }
+
+      String nextLocation()
+      {
+         try
+         {
+            current = (PipelineItem)job.mapped.take();
+         }
+         catch (InterruptedException e)
+         {
+            job.stop();
+            current = null;
+         }
+         return (current == null) ? null : current.location;
+      }
+
+      void connectFailed(Exception e)
+      {
+         Vector remaining;
+         String location;
+
+         // No other thread can store the documents, so they all fail. Stop the
+         // parser from starting new documents, then take the documents that are
+         // already in the pipeline. The parser and mapper finish these and close
+         // their queues, so nextLocation returns null after the last one. The
+         // documents that were never parsed are reported after them.
+
+         remaining = job.removeLocations();
+         while ((location = nextLocation()) != null)
+         {
+            job.report.documentFailed(location, e);
+         }
+         for (int i = 0; i < remaining.size(); i++)
+         {
+            job.report.documentFailed((String)remaining.elementAt(i), e);
+         }
+      }
+
+      void store(String location)
+         throws SQLException, XMLMiddlewareException
+      {
+         Enumeration dbNames;
+         String      dbName;
+         DataHandler dataHandler;
+
+         if (current.exception != null)
+         {
+            if (current.exception instanceof SQLException)
+               throw (SQLException)current.exception;
+            else if (current.exception instanceof XMLMiddlewareException)
+               throw (XMLMiddlewareException)current.exception;
+            else
+               throw new XMLMiddlewareException(current.exception);
+         }
+
+         // Start, execute, and end the document on each DataHandler in the
+         // same way as DOMToDBMS.storeDocument.
+
+         for (int i = 0; i < dataHandlers.size(); i++)
+         {
+            dataHandler = (DataHandler)dataHandlers.elementAt(i);
+            dataHandler.setBatchSize(job.domToDBMS.getBatchSize());
+            dataHandler.startDocument(job.domToDBMS.getCommitMode());
+         }
+
+         try
+         {
+            dbNames = current.operations.keys();
+            while (dbNames.hasMoreElements())
+            {
+               dbName = (String)dbNames.nextElement();
+               DeferredDataHandler.execute((Vector)current.operations.get(dbName), dbMap.getDataHandler(dbName));
+            }
+         }
+         catch (SQLException e)
+         {
+            for (int i = 0; i < dataHandlers.size(); i++)
+            {
+               try
+               {
+                  ((DataHandler)dataHandlers.elementAt(i)).recoverFromException();
+               }
+               catch (SQLException s)
+               {
+                  job.report.error(s);
+               }
+            }
+            throw e;
+         }
+
+         for (int i = 0; i < dataHandlers.size(); i++)
+         {
+            ((DataHandler)dataHandlers.elementAt(i)).endDocument();
+         }
+
+         // Release the operations, which hold the rows.
+
+         current.operations = null;
+      }
+   }
 }
@@ -66,6 +66,10 @@ public class XMLDBMSProps
    public static String DTDLOCATION = "DTDLocation";
    public static String SQLLOCATION = "SQLLocation";
 
+   public static String XMLDIRECTORY = "XMLDirectory";
+   public static String XMLPATTERN = "XMLPattern";
+   public static String XMLMANIFEST = "XMLManifest";
+
    public static String MAPRESOLVERCLASS = "MapResolverClass";
    public static String XMLRESOLVERCLASS = "XMLResolverClass";
    public static String ACTIONRESOLVERCLASS = "ActionResolverClass";
@@ -94,7 +98,16 @@ public class XMLDBMSProps
    public static String SYSTEMID = "SystemID";
    public static String PUBLICID = "PublicID";
    public static String COMMITMODE = "CommitMode";
+   public static String BATCHSIZE = "BatchSize";
+   public static String STREAMING = "Streaming";
+   public static String FETCHBLOCKSIZE = "FetchBlockSize";
    public static String STOPONERROR = "StopOnError";
+   public static String THREADS = "Threads";
+   public static String DOCUMENTSPERCOMMIT = "DocumentsPerCommit";
+   public static String PIPELINED = "Pipelined";
+   public static String PIPELINEDEPTH = "PipelineDepth";
+   public static String SETBASED = "SetBased";
+   public static String INCREMENTALPROPERTYUPDATES = "IncrementalPropertyUpdates";
    public static String RETURNFILTER = "ReturnFilter";
    public static String KEYGENERATORNAME = "KeyGeneratorName";
    public static String KEYGENERATORCLASS = "KeyGeneratorClass";
@@ -114,6 +127,7 @@ public class XMLDBMSProps
    // Property values -- methods / input / output
 
    public static String STOREDOCUMENT = "StoreDocument";
+   public static String STOREDOCUMENTS = "StoreDocuments";
    public static String RETRIEVEDOCUMENTBYSQL = "RetrieveDocumentBySQL";
    public static String RETRIEVEDOCUMENTBYFILTER = "RetrieveDocumentByFilter";
    public static String DELETEDOCUMENT = "DeleteDocument";
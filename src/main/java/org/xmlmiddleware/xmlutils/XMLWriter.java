@@ -405,6 +405,29 @@ public class XMLWriter
       }
    }
 
+   /**
+    * Write a string that contains markup.
+    *
+    * <p>The string is written without escaping any characters. The caller must
+    * ensure that it is well-formed. For pretty-printing purposes, it is treated
+    * as mixed content.</p>
+    *
+    * @param markup The markup.
+    */
+   public void writeMarkup(String markup)
+      throws IOException
+   {
+      writer.write(markup);
+
+      // See notes in writeCharacters().
+
+      charsWritten = true;
+      if (saveIndent == -1)
+      {
+         saveIndent = indent;
+      }
+   }
+
    /**
     * Allocate the attrs and values arrays. Generally, subclasses
     * allocate arrays large enough to handle the maximum number of
@@ -22,6 +22,7 @@
 
 package org.xmlmiddleware.xmlutils.external;
 
+import org.xmlmiddleware.utils.Pool;
 import org.xmlmiddleware.utils.XMLMiddlewareException;
 import org.xmlmiddleware.xmlutils.*;
 
@@ -47,6 +48,11 @@ import javax.xml.parsers.SAXParserFactory;
  * <p>Supports any(?) version of Xerces that supports JAXP. Known to work with
  * versions 1.3.1 and 1.4.4.</p>
  *
+ * <p>Parser factories are created once for each value of the validating flag
+ * and shared by all ParserUtilsXerces objects. readDocument uses a pool of
+ * DocumentBuilders, which are reset and reused after each document is parsed.
+ * This class is thread-safe.</p>
+ *
  * @author Adam Flinton
  * @author Paul Gubbay
  * @version 2.0
@@ -60,6 +66,21 @@ public class ParserUtilsXerces implements ParserUtils
 
    private static final String VALIDATION = "http://xml.org/sax/features/validation";
 
+   // Idle DocumentBuilders are closed after one minute.
+   private static final long BUILDER_IDLETIMEOUT = 60000;
+
+   // ***********************************************************************
+   // Class variables
+   // ***********************************************************************
+
+   // Factories, indexed by validating flag. JAXP factories are not
+   // thread-safe, so all use of a factory is synchronized on the factory.
+
+   private static SAXParserFactory       s_saxFactory, s_validatingSAXFactory;
+   private static DocumentBuilderFactory s_domFactory, s_validatingDOMFactory;
+
+   private static BuilderPool s_builders = new BuilderPool();
+
    // ***********************************************************************
    // Constructors
    // ***********************************************************************
@@ -89,14 +110,19 @@ public class ParserUtilsXerces implements ParserUtils
    {
       // Instantiate a SAXParser using the SAXParserFactory.
       // This process ensures compatability across multiple version of Xerces
+      //
+      // The XMLReader is returned to the caller, who never gives it back, so
+      // it cannot be pooled. Caching the factory avoids the service lookup.
 
-      SAXParserFactory factory = SAXParserFactory.newInstance();
-      factory.setValidating(validating);
+      SAXParserFactory factory = getSAXParserFactory(validating);
       try
       {
          // Return the XMLReader that is wrapped by the SAXParser
 
-         return factory.newSAXParser().getXMLReader();
+         synchronized (factory)
+         {
+            return factory.newSAXParser().getXMLReader();
+         }
       }
       catch (Exception e)
       {
@@ -137,15 +163,13 @@ public class ParserUtilsXerces implements ParserUtils
    public Document readDocument(InputSource src, boolean validate)
       throws XMLMiddlewareException
    {
-      // Instantiate a DocumentBuilder parser using the DocumentBuilderFactory.
-      // This process ensures compatability across multiple version of Xerces
+      // Check a DocumentBuilder out of the pool. New DocumentBuilders are
+      // created with the DocumentBuilderFactory. This process ensures
+      // compatability across multiple version of Xerces
 
-      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-      factory.setNamespaceAware(true);
-      factory.setValidating(validate);
+      DocumentBuilder builder = (DocumentBuilder)s_builders.checkOut(validate ? Boolean.TRUE : Boolean.FALSE);
       try
       {
-         DocumentBuilder builder = factory.newDocumentBuilder();
          // Return the DOM tree
          return builder.parse(src);
       }
@@ -153,6 +177,10 @@ public class ParserUtilsXerces implements ParserUtils
       {
          throw new XMLMiddlewareException(e);
       }
+      finally
+      {
+         s_builders.release(builder);
+      }
    }
 
    /**
@@ -248,4 +276,135 @@ public class ParserUtilsXerces implements ParserUtils
       }
       return stream.toString();
    }
-}
\ No newline at end of file
+
+   // ***********************************************************************
+   // Private methods
+   // ***********************************************************************
+
+   private static synchronized SAXParserFactory getSAXParserFactory(boolean validating)
+   {
+      if (validating)
+      {
+         if (s_validatingSAXFactory == null)
+            s_validatingSAXFactory = createSAXParserFactory(true);
+         return s_validatingSAXFactory;
+      }
+      else
+      {
+         if (s_saxFactory == null)
+            s_saxFactory = createSAXParserFactory(false);
+         return s_saxFactory;
+      }
+   }
+
+   private static SAXParserFactory createSAXParserFactory(boolean validating)
+   {
+      SAXParserFactory factory = SAXParserFactory.newInstance();
+      factory.setValidating(validating);
+      return factory;
+   }
+
+   private static synchronized DocumentBuilderFactory getDocumentBuilderFactory(boolean validating)
+   {
+      if (validating)
+      {
+         if (s_validatingDOMFactory == null)
+            s_validatingDOMFactory = createDocumentBuilderFactory(true);
+         return s_validatingDOMFactory;
+      }
+      else
+      {
+         if (s_domFactory == null)
+            s_domFactory = createDocumentBuilderFactory(false);
+         return s_domFactory;
+      }
+   }
+
+   private static DocumentBuilderFactory createDocumentBuilderFactory(boolean validating)
+   {
+      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+      factory.setNamespaceAware(true);
+      factory.setValidating(validating);
+      return factory;
+   }
+
+   // ***********************************************************************
+   // Inner classes
+   // ***********************************************************************
+
+   // A pool of DocumentBuilders. The pool ID is the validating flag (a Boolean).
+
+   static class BuilderPool extends Pool
+   {
+      BuilderPool()
+      {
+         setIdleTimeout(BUILDER_IDLETIMEOUT);
+      }
+
+      void release(DocumentBuilder builder)
+      {
+         // Reset the builder so it doesn't hold on to the error handler, entity
+         // resolver, or parser state of the last document. If this isn't
+         // supported (pre-JAXP 1.3), or the builder can't be checked in, throw
+         // it away.
+
+         try
+         {
+            builder.reset();
+         }
+         catch (UnsupportedOperationException e)
+         {
+            discard(builder);
+            return;
+         }
+         catch (AbstractMethodError e)
+         {
+            discard(builder);
+            return;
+         }
+
+         try
+         {
+            checkIn(builder);
+         }
+         catch (XMLMiddlewareException e)
+         {
+            discard(builder);
+         }
+      }
+
+      private void discard(DocumentBuilder builder)
+      {
+         try
+         {
+            remove(builder);
+         }
+         catch (XMLMiddlewareException e)
+         {
+            // The builder isn't in the pool, so there is nothing to remove.
+         }
+      }
+
+      protected Object createObject(Object id)
+         throws XMLMiddlewareException
+      {
+         DocumentBuilderFactory factory = getDocumentBuilderFactory(((Boolean)id).booleanValue());
+         try
+         {
+            synchronized (factory)
+            {
+               return factory.newDocumentBuilder();
+            }
+         }
+         catch (Exception e)
+         {
+            throw new XMLMiddlewareException(e);
+         }
+      }
+
+      protected void closeObject(Object obj)
+      {
+         // DocumentBuilders have no resources to release.
+      }
+   }
+}
@@ -0,0 +1,251 @@
+// This software is in the public domain.
+//
+// The software is provided "as is", without warranty of any kind,
+// express or implied, including but not limited to the warranties
+// of merchantability, fitness for a particular purpose, and
+// noninfringement. In no event shall the author(s) be liable for any
+// claim, damages, or other liability, whether in an action of
+// contract, tort, or otherwise, arising from, out of, or in connection
+// with the software or the use or other dealings in the software.
+
+package org.xmlmiddleware.utils;
+
+import java.util.*;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for BoundedQueue.
+ */
+
+public class BoundedQueueTest extends TestCase
+{
+   private BoundedQueue m_queue;
+
+   protected void setUp()
+   {
+      m_queue = new BoundedQueue(2);
+   }
+
+   /**
+    * A thread that puts objects in the queue and records whether each was added.
+    */
+   class Producer extends Thread
+   {
+      Object[]  objects;
+      Vector    added = new Vector();
+      Exception exception;
+
+      Producer(Object[] objects)
+      {
+         this.objects = objects;
+      }
+
+      public void run()
+      {
+         try
+         {
+            for (int i = 0; i < objects.length; i++)
+            {
+               added.addElement(new Boolean(m_queue.put(objects[i])));
+            }
+         }
+         catch (Exception e)
+         {
+            exception = e;
+         }
+      }
+   }
+
+   /**
+    * A thread that takes objects from the queue until take returns null.
+    */
+   class Consumer extends Thread
+   {
+      Vector    taken = new Vector();
+      Exception exception;
+
+      public void run()
+      {
+         Object obj;
+
+         try
+         {
+            while ((obj = m_queue.take()) != null)
+            {
+               taken.addElement(obj);
+            }
+         }
+         catch (Exception e)
+         {
+            exception = e;
+         }
+      }
+   }
+
+   private static void waitUntilWaiting(Thread thread)
+      throws Exception
+   {
+      for (int i = 0; (i < 500) && (thread.getState() != Thread.State.WAITING); i++)
+      {
+         Thread.sleep(10);
+      }
+      assertEquals(Thread.State.WAITING, thread.getState());
+   }
+
+   // ************************************************************************
+   // Order
+   // ************************************************************************
+
+   public void testObjectsAreTakenInOrder()
+      throws Exception
+   {
+      assertTrue(m_queue.put("a"));
+      assertTrue(m_queue.put("b"));
+      assertEquals(2, m_queue.size());
+
+      assertEquals("a", m_queue.take());
+      assertTrue(m_queue.put("c"));
+      assertEquals("b", m_queue.take());
+      assertEquals("c", m_queue.take());
+      assertEquals(0, m_queue.size());
+   }
+
+   public void testConsumerReceivesEverythingInOrder()
+      throws Exception
+   {
+      Producer producer = new Producer(new Object[] {"a", "b", "c", "d", "e"});
+      Consumer consumer = new Consumer();
+
+      consumer.start();
+      producer.start();
+      producer.join(5000);
+      m_queue.close();
+      consumer.join(5000);
+
+      assertNull(producer.exception);
+      assertNull(consumer.exception);
+      assertEquals("[a, b, c, d, e]", consumer.taken.toString());
+   }
+
+   // ************************************************************************
+   // Waiting
+   // ************************************************************************
+
+   public void testPutWaitsWhileFull()
+      throws Exception
+   {
+      Producer producer = new Producer(new Object[] {"a", "b", "c"});
+
+      producer.start();
+      waitUntilWaiting(producer);
+      assertEquals(2, m_queue.size());
+
+      assertEquals("a", m_queue.take());
+      producer.join(5000);
+      assertNull(producer.exception);
+      assertEquals("[true, true, true]", producer.added.toString());
+      assertEquals(2, m_queue.size());
+   }
+
+   public void testTakeWaitsWhileEmpty()
+      throws Exception
+   {
+      Consumer consumer = new Consumer();
+
+      consumer.start();
+      waitUntilWaiting(consumer);
+      assertEquals(0, consumer.taken.size());
+
+      m_queue.put("a");
+      m_queue.close();
+      consumer.join(5000);
+      assertNull(consumer.exception);
+      assertEquals("[a]", consumer.taken.toString());
+   }
+
+   // ************************************************************************
+   // Closing
+   // ************************************************************************
+
+   public void testRemainingObjectsAreTakenAfterClose()
+      throws Exception
+   {
+      m_queue.put("a");
+      m_queue.put("b");
+      m_queue.close();
+
+      assertTrue(m_queue.isClosed());
+      assertEquals("a", m_queue.take());
+      assertEquals("b", m_queue.take());
+      assertNull(m_queue.take());
+   }
+
+   public void testPutAfterCloseDiscardsObject()
+      throws Exception
+   {
+      m_queue.close();
+
+      assertFalse(m_queue.put("a"));
+      assertEquals(0, m_queue.size());
+   }
+
+   public void testCloseWakesWaitingProducer()
+      throws Exception
+   {
+      Producer producer = new Producer(new Object[] {"a", "b", "c"});
+
+      producer.start();
+      waitUntilWaiting(producer);
+
+      m_queue.close();
+      producer.join(5000);
+      assertNull(producer.exception);
+      assertEquals("[true, true, false]", producer.added.toString());
+      assertEquals(2, m_queue.size());
+   }
+
+   public void testCloseWakesWaitingConsumer()
+      throws Exception
+   {
+      Consumer consumer = new Consumer();
+
+      consumer.start();
+      waitUntilWaiting(consumer);
+
+      m_queue.close();
+      consumer.join(5000);
+      assertFalse(consumer.isAlive());
+      assertNull(consumer.exception);
+      assertEquals(0, consumer.taken.size());
+   }
+
+   // ************************************************************************
+   // Arguments
+   // ************************************************************************
+
+   public void testMaximumSizeMustBePositive()
+   {
+      try
+      {
+         new BoundedQueue(0);
+         fail("Queue created with a maximum size of 0.");
+      }
+      catch (IllegalArgumentException e)
+      {
+      }
+   }
+
+   public void testNullIsRejected()
+      throws Exception
+   {
+      try
+      {
+         m_queue.put(null);
+         fail("Null put in queue.");
+      }
+      catch (IllegalArgumentException e)
+      {
+      }
+   }
+}
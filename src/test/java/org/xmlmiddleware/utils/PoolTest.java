@@ -0,0 +1,339 @@
+// This software is in the public domain.
+//
+// The software is provided "as is", without warranty of any kind,
+// express or implied, including but not limited to the warranties
+// of merchantability, fitness for a particular purpose, and
+// noninfringement. In no event shall the author(s) be liable for any
+// claim, damages, or other liability, whether in an action of
+// contract, tort, or otherwise, arising from, out of, or in connection
+// with the software or the use or other dealings in the software.
+
+package org.xmlmiddleware.utils;
+
+import java.util.*;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for Pool.
+ */
+
+public class PoolTest extends TestCase
+{
+   private TestPool m_pool;
+
+   protected void setUp()
+   {
+      m_pool = new TestPool();
+   }
+
+   /**
+    * A pool of Strings. Each object is "id#n", where n counts the objects
+    * created by the pool.
+    */
+   static class TestPool extends Pool
+   {
+      Vector  closed = new Vector();
+      boolean valid = true;
+      int     created = 0;
+
+      protected synchronized Object createObject(Object id)
+      {
+         return id + "#" + (++created);
+      }
+
+      protected void closeObject(Object obj)
+      {
+         closed.addElement(obj);
+      }
+
+      protected boolean validateObject(Object obj)
+      {
+         return valid;
+      }
+   }
+
+   /**
+    * A thread that checks an object out, records it, and checks it back in.
+    */
+   class Borrower extends Thread
+   {
+      Vector    order;
+      Exception exception;
+
+      Borrower(String name, Vector order)
+      {
+         super(name);
+         this.order = order;
+      }
+
+      public void run()
+      {
+         try
+         {
+            Object obj = m_pool.checkOut("a");
+            order.addElement(getName());
+            m_pool.checkIn(obj);
+         }
+         catch (Exception e)
+         {
+            exception = e;
+         }
+      }
+   }
+
+   private static void waitUntilWaiting(Thread thread)
+      throws Exception
+   {
+      for (int i = 0; (i < 500) && (thread.getState() != Thread.State.WAITING); i++)
+      {
+         Thread.sleep(10);
+      }
+      assertEquals(Thread.State.WAITING, thread.getState());
+   }
+
+   // ************************************************************************
+   // Reuse
+   // ************************************************************************
+
+   public void testCheckedInObjectIsReused()
+      throws Exception
+   {
+      Object obj = m_pool.checkOut("a");
+
+      m_pool.checkIn(obj);
+      assertSame(obj, m_pool.checkOut("a"));
+      assertEquals(1, m_pool.getSize());
+   }
+
+   public void testObjectsWithDifferentIDsAreNotShared()
+      throws Exception
+   {
+      m_pool.checkIn(m_pool.checkOut("a"));
+
+      assertEquals("b#2", m_pool.checkOut("b"));
+      assertEquals(2, m_pool.getSize());
+   }
+
+   public void testCheckInOfUnknownObjectFails()
+   {
+      try
+      {
+         m_pool.checkIn("x");
+         fail("Unknown object checked in.");
+      }
+      catch (XMLMiddlewareException e)
+      {
+      }
+   }
+
+   public void testInvalidObjectIsClosed()
+      throws Exception
+   {
+      m_pool.checkIn(m_pool.checkOut("a"));
+      m_pool.valid = false;
+
+      assertEquals("a#2", m_pool.checkOut("a"));
+      assertEquals("a#1", m_pool.closed.elementAt(0));
+      assertEquals(1, m_pool.getSize());
+   }
+
+   // ************************************************************************
+   // Maximum size
+   // ************************************************************************
+
+   public void testFullPoolFailsWithoutWaiting()
+      throws Exception
+   {
+      m_pool.setMaxSize(2);
+      m_pool.setWaitTimeout(0);
+      m_pool.checkOut("a");
+      m_pool.checkOut("a");
+
+      try
+      {
+         m_pool.checkOut("a");
+         fail("Pool grew beyond its maximum size.");
+      }
+      catch (XMLMiddlewareException e)
+      {
+         assertTrue(e.getMessage().indexOf("full") != -1);
+      }
+      assertEquals(2, m_pool.getSize());
+      assertEquals(2, m_pool.created);
+   }
+
+   public void testFullPoolClosesIdleObjectWithOtherID()
+      throws Exception
+   {
+      m_pool.setMaxSize(1);
+      m_pool.setWaitTimeout(0);
+      m_pool.checkIn(m_pool.checkOut("a"));
+
+      assertEquals("b#2", m_pool.checkOut("b"));
+      assertEquals("a#1", m_pool.closed.elementAt(0));
+      assertEquals(1, m_pool.getSize());
+   }
+
+   public void testRemovedObjectMakesRoom()
+      throws Exception
+   {
+      Object obj;
+
+      m_pool.setMaxSize(1);
+      m_pool.setWaitTimeout(0);
+      obj = m_pool.checkOut("a");
+      m_pool.remove(obj);
+
+      assertEquals(0, m_pool.getSize());
+      assertEquals("a#2", m_pool.checkOut("a"));
+   }
+
+   // ************************************************************************
+   // Waiting
+   // ************************************************************************
+
+   public void testWaitTimesOut()
+      throws Exception
+   {
+      long start;
+
+      m_pool.setMaxSize(1);
+      m_pool.setWaitTimeout(200);
+      m_pool.checkOut("a");
+
+      start = System.currentTimeMillis();
+      try
+      {
+         m_pool.checkOut("a");
+         fail("Pool grew beyond its maximum size.");
+      }
+      catch (XMLMiddlewareException e)
+      {
+         assertTrue(e.getMessage().indexOf("Timed out") != -1);
+      }
+      assertTrue(System.currentTimeMillis() - start >= 200);
+   }
+
+   public void testWaitingThreadGetsCheckedInObject()
+      throws Exception
+   {
+      Vector   order = new Vector();
+      Object   obj;
+      Borrower borrower;
+
+      m_pool.setMaxSize(1);
+      m_pool.setWaitTimeout(-1);
+      obj = m_pool.checkOut("a");
+
+      borrower = new Borrower("A", order);
+      borrower.start();
+      waitUntilWaiting(borrower);
+      assertEquals(0, order.size());
+
+      m_pool.checkIn(obj);
+      borrower.join(5000);
+      assertNull(borrower.exception);
+      assertEquals(1, order.size());
+      assertEquals(1, m_pool.created);
+   }
+
+   public void testWaitingThreadsAreServedInOrder()
+      throws Exception
+   {
+      Vector     order = new Vector();
+      Object     obj;
+      Borrower[] borrowers = new Borrower[3];
+
+      m_pool.setMaxSize(1);
+      m_pool.setWaitTimeout(-1);
+      obj = m_pool.checkOut("a");
+
+      // Start the threads one at a time, so they arrive in a known order.
+
+      for (int i = 0; i < borrowers.length; i++)
+      {
+         borrowers[i] = new Borrower(String.valueOf((char)('A' + i)), order);
+         borrowers[i].start();
+         waitUntilWaiting(borrowers[i]);
+      }
+
+      m_pool.checkIn(obj);
+      for (int i = 0; i < borrowers.length; i++)
+      {
+         borrowers[i].join(5000);
+         assertNull(borrowers[i].exception);
+      }
+      assertEquals("[A, B, C]", order.toString());
+      assertEquals(1, m_pool.created);
+   }
+
+   public void testRaisingMaximumSizeWakesWaitingThread()
+      throws Exception
+   {
+      Vector   order = new Vector();
+      Borrower borrower;
+
+      m_pool.setMaxSize(1);
+      m_pool.setWaitTimeout(-1);
+      m_pool.checkOut("a");
+
+      borrower = new Borrower("A", order);
+      borrower.start();
+      waitUntilWaiting(borrower);
+
+      m_pool.setMaxSize(2);
+      borrower.join(5000);
+      assertEquals(1, order.size());
+      assertEquals(2, m_pool.getSize());
+   }
+
+   // ************************************************************************
+   // Idle objects
+   // ************************************************************************
+
+   public void testIdleObjectsAreEvicted()
+      throws Exception
+   {
+      Object a1 = m_pool.checkOut("a"), a2 = m_pool.checkOut("a");
+
+      m_pool.setIdleTimeout(50);
+      m_pool.checkIn(a1);
+      m_pool.checkIn(a2);
+      Thread.sleep(100);
+      m_pool.evictIdleObjects();
+
+      assertEquals(2, m_pool.closed.size());
+      assertEquals(0, m_pool.getSize());
+   }
+
+   public void testEvictionStopsAtMinimumSize()
+      throws Exception
+   {
+      Object a1 = m_pool.checkOut("a"), a2 = m_pool.checkOut("a");
+
+      m_pool.setIdleTimeout(50);
+      m_pool.setMinSize(1);
+      m_pool.checkIn(a1);
+      m_pool.checkIn(a2);
+      Thread.sleep(100);
+      m_pool.evictIdleObjects();
+
+      // The oldest object is evicted first.
+
+      assertEquals(1, m_pool.closed.size());
+      assertEquals(a1, m_pool.closed.elementAt(0));
+      assertEquals(1, m_pool.getSize());
+   }
+
+   public void testRecentlyUsedObjectsAreNotEvicted()
+      throws Exception
+   {
+      m_pool.setIdleTimeout(60000);
+      m_pool.checkIn(m_pool.checkOut("a"));
+      m_pool.evictIdleObjects();
+
+      assertEquals(0, m_pool.closed.size());
+      assertEquals(1, m_pool.getSize());
+   }
+}
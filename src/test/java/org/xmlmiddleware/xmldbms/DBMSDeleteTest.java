@@ -0,0 +1,314 @@
+// This software is in the public domain.
+//
+// The software is provided "as is", without warranty of any kind,
+// express or implied, including but not limited to the warranties
+// of merchantability, fitness for a particular purpose, and
+// noninfringement. In no event shall the author(s) be liable for any
+// claim, damages, or other liability, whether in an action of
+// contract, tort, or otherwise, arising from, out of, or in connection
+// with the software or the use or other dealings in the software.
+
+package org.xmlmiddleware.xmldbms;
+
+import org.xmlmiddleware.xmldbms.actions.*;
+import org.xmlmiddleware.xmldbms.datahandlers.*;
+import org.xmlmiddleware.xmldbms.filters.*;
+import org.xmlmiddleware.xmldbms.maps.*;
+
+import java.lang.reflect.*;
+import java.sql.*;
+import java.util.*;
+import javax.sql.*;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for set-based deletes in DBMSDelete.
+ *
+ * <p>The DataHandlers use a Connection that logs the statements it executes.
+ * DELETE statements are logged with their parameters, as in
+ * "DELETE FROM Orders WHERE ((Number = ? )) [A1]". Runs of spaces are logged
+ * as a single space. SELECT statements are logged as "select Table". Each
+ * SELECT returns m_rowsPerQuery rows, in which every column has the value 1.</p>
+ */
+
+public class DBMSDeleteTest extends TestCase
+{
+   private XMLDBMSMap m_map;
+   private Vector     m_log = new Vector();
+   private int        m_rowsPerQuery = 0;
+
+   protected void setUp()
+      throws Exception
+   {
+      m_map = StoreTestUtils.compileMap("delete.map");
+   }
+
+   // ************************************************************************
+   // JDBC objects
+   // ************************************************************************
+
+   private Object createProxy(Class type, String sql)
+   {
+      return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {type}, new Handler(sql));
+   }
+
+   class Handler implements InvocationHandler
+   {
+      String    sql;
+      Hashtable params = new Hashtable();
+      int       rows;
+
+      Handler(String sql)
+      {
+         this.sql = sql;
+      }
+
+      public Object invoke(Object proxy, Method method, Object[] args)
+      {
+         String name = method.getName();
+
+         if (name.equals("getConnection"))
+            return createProxy(Connection.class, null);
+         if (name.equals("getMetaData"))
+            return createProxy(DatabaseMetaData.class, null);
+         if (name.equals("getIdentifierQuoteString"))
+            return "";
+         if (name.equals("getDatabaseProductName"))
+            return "Test";
+         if (name.equals("getAutoCommit"))
+            return Boolean.TRUE;
+         if (name.equals("prepareStatement"))
+            return createProxy(PreparedStatement.class, (String)args[0]);
+         if (name.equals("executeUpdate"))
+         {
+            m_log.addElement(sql.trim().replaceAll(" +", " ") + " " + getParams());
+            return new Integer(1);
+         }
+         if (name.equals("executeQuery"))
+         {
+            Handler handler = new Handler(null);
+
+            m_log.addElement("select " + getTable());
+            handler.rows = m_rowsPerQuery;
+            return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {ResultSet.class}, handler);
+         }
+         if (name.equals("next"))
+            return new Boolean(rows-- > 0);
+         if (name.equals("getObject"))
+            return new Integer(1);
+         if (name.startsWith("set") && (args != null) && (args.length == 2) && (args[0] instanceof Integer))
+         {
+            params.put(args[0], args[1]);
+            return null;
+         }
+         if (name.equals("equals"))
+            return new Boolean(proxy == args[0]);
+         if (name.equals("hashCode"))
+            return new Integer(System.identityHashCode(proxy));
+         if (name.equals("toString"))
+            return String.valueOf(sql);
+         if (method.getReturnType() == Boolean.TYPE)
+            return Boolean.FALSE;
+         if (method.getReturnType() == Integer.TYPE)
+            return new Integer(0);
+         return null;
+      }
+
+      private String getTable()
+      {
+         int start = sql.indexOf("FROM ") + 5, end = sql.indexOf(' ', start);
+
+         return (end == -1) ? sql.substring(start) : sql.substring(start, end);
+      }
+
+      private Vector getParams()
+      {
+         Vector values = new Vector();
+
+         for (int i = 1; params.containsKey(new Integer(i)); i++)
+         {
+            values.addElement(params.get(new Integer(i)));
+         }
+         return values;
+      }
+   }
+
+   // ************************************************************************
+   // Helpers
+   // ************************************************************************
+
+   private DataHandler createHandler()
+      throws Exception
+   {
+      DataHandler handler = new GenericHandler();
+
+      handler.initialize((DataSource)createProxy(DataSource.class, null), null, null);
+      return handler;
+   }
+
+   private void delete(FilterSet filterSet, Hashtable params, Actions actions)
+      throws Exception
+   {
+      DBMSDelete   dbmsDelete = new DBMSDelete();
+      DBEnabledMap dbMap = new DBEnabledMap(m_map, null, createHandler());
+
+      dbMap.addDataHandler("Other", createHandler());
+      dbmsDelete.setSetBased(true);
+      dbmsDelete.deleteDocument(dbMap, filterSet, params, actions);
+   }
+
+   private Actions createActions(String[] noneElementTypes)
+      throws Exception
+   {
+      Actions actions = new Actions(m_map);
+      Action  action = new Action();
+
+      // Elements of the given types are not deleted. All others are.
+
+      action.setAction(Action.DELETE);
+      actions.setDefaultAction(action);
+      for (int i = 0; i < noneElementTypes.length; i++)
+      {
+         actions.createAction(null, noneElementTypes[i]).setAction(Action.NONE);
+      }
+      return actions;
+   }
+
+   private FilterSet createFilterSet(String tableName, String condition)
+      throws Exception
+   {
+      FilterSet  filterSet = new FilterSet(m_map);
+      RootFilter rootFilter = filterSet.createRootFilter();
+
+      rootFilter.createRootFilterConditions(null, null, null, tableName).addCondition(condition);
+      return filterSet;
+   }
+
+   private Vector getLog(String prefix)
+   {
+      Vector entries = new Vector();
+
+      for (int i = 0; i < m_log.size(); i++)
+      {
+         if (((String)m_log.elementAt(i)).startsWith(prefix)) entries.addElement(m_log.elementAt(i));
+      }
+      return entries;
+   }
+
+   // ************************************************************************
+   // Set-based deletes
+   // ************************************************************************
+
+   public void testNestedExistsConditions()
+      throws Exception
+   {
+      FilterSet   filterSet = createFilterSet("Orders", "Number = $Number");
+      RootFilter  rootFilter = (RootFilter)filterSet.getFilters().elementAt(0);
+      Hashtable   params = new Hashtable();
+
+      // Filter each level of Orders / Items / Parts. The parameters of each
+      // statement must be in the order of their markers, which is from the
+      // deepest table to the root table.
+
+      rootFilter.createTableFilter(null, null, null, "Orders")
+                .createRelatedTableFilter(null, null, null, "Items", null, null)
+                .addCondition("Number > $Number$Item");
+      rootFilter.createTableFilter(null, null, null, "Items")
+                .createRelatedTableFilter(null, null, null, "Parts", null, null)
+                .addCondition("Part = $Part");
+      params.put("$Number", "A1");
+      params.put("$Number$Item", new Integer(2));
+      params.put("$Part", "P");
+
+      delete(filterSet, params, createActions(new String[] {"Customer"}));
+
+      assertEquals(4, m_log.size());
+      assertEquals("DELETE FROM Parts WHERE ((Part = ? )) AND " +
+                   "EXISTS (SELECT * FROM Items P2 WHERE P2.OrderId = Parts.OrderId AND P2.Number = Parts.ItemNumber AND ((Number > ? )) AND " +
+                   "EXISTS (SELECT * FROM Orders P1 WHERE P1.Id = P2.OrderId AND ((Number = ? )))) [P, 2, A1]",
+                   m_log.elementAt(0));
+      assertEquals("DELETE FROM Items WHERE ((Number > ? )) AND " +
+                   "EXISTS (SELECT * FROM Orders P1 WHERE P1.Id = Items.OrderId AND ((Number = ? ))) [2, A1]",
+                   m_log.elementAt(1));
+      assertEquals("DELETE FROM Notes WHERE " +
+                   "EXISTS (SELECT * FROM Orders P1 WHERE P1.Id = Notes.OrderId AND ((Number = ? ))) [A1]",
+                   m_log.elementAt(2));
+      assertEquals("DELETE FROM Orders WHERE ((Number = ? )) [A1]", m_log.elementAt(3));
+   }
+
+   public void testUnfilteredTablesAreRestrictedByAncestors()
+      throws Exception
+   {
+      Hashtable params = new Hashtable();
+
+      params.put("$Number", "A1");
+      delete(createFilterSet("Orders", "Number = $Number"), params, createActions(new String[] {"Customer"}));
+
+      assertEquals("DELETE FROM Parts WHERE " +
+                   "EXISTS (SELECT * FROM Items P2 WHERE P2.OrderId = Parts.OrderId AND P2.Number = Parts.ItemNumber AND " +
+                   "EXISTS (SELECT * FROM Orders P1 WHERE P1.Id = P2.OrderId AND ((Number = ? )))) [A1]",
+                   m_log.elementAt(0));
+   }
+
+   public void testDescendantsOfUndeletedTablesAreDeleted()
+      throws Exception
+   {
+      Hashtable params = new Hashtable();
+
+      // Items are not deleted, but their Parts are.
+
+      params.put("$Number", "A1");
+      delete(createFilterSet("Orders", "Number = $Number"), params, createActions(new String[] {"Customer", "Item"}));
+
+      assertEquals(0, getLog("select").size());
+      assertEquals(0, getLog("DELETE FROM Items").size());
+      assertEquals(1, getLog("DELETE FROM Parts").size());
+      assertEquals(1, getLog("DELETE FROM Orders").size());
+   }
+
+   // ************************************************************************
+   // Fallback to row-by-row deletes
+   // ************************************************************************
+
+   public void testParentKeyNotUniqueFallsBack()
+      throws Exception
+   {
+      Hashtable params = new Hashtable();
+
+      // Customers are pointed to by Orders, so they must be deleted after
+      // Orders, when they can no longer be found with an EXISTS condition.
+
+      params.put("$Number", "A1");
+      m_rowsPerQuery = 1;
+      delete(createFilterSet("Orders", "Number = $Number"), params, createActions(new String[0]));
+
+      // The Orders and Items rows are read. Customers and Parts are leaf
+      // tables, so they are not read; their rows are deleted by key.
+
+      assertEquals(new Vector(Arrays.asList(new String[] {"select Orders", "select Items"})), getLog("select"));
+      assertEquals(0, getLog("DELETE FROM Parts WHERE EXISTS").size());
+      assertEquals("DELETE FROM Parts WHERE OrderId = ? AND ItemNumber = ? [1, 1]", getLog("DELETE FROM Parts").elementAt(0));
+      assertEquals("DELETE FROM Customers WHERE Id = ? [1]", m_log.lastElement());
+   }
+
+   public void testRecursiveMapFallsBack()
+      throws Exception
+   {
+      delete(createFilterSet("Categories", "Id = 1"), null, createActions(new String[0]));
+
+      assertEquals("select Categories", m_log.elementAt(0));
+      assertEquals("DELETE FROM Categories WHERE (Id = 1 ) []", m_log.lastElement());
+      assertEquals(2, m_log.size());
+   }
+
+   public void testDifferentDatabasesFallBack()
+      throws Exception
+   {
+      delete(createFilterSet("Invoices", "Id = 1"), null, createActions(new String[0]));
+
+      assertEquals("select Invoices", m_log.elementAt(0));
+      assertEquals(0, getLog("DELETE FROM Payments").size());
+      assertEquals("DELETE FROM Invoices WHERE (Id = 1 ) []", m_log.lastElement());
+   }
+}
@@ -0,0 +1,199 @@
+// This software is in the public domain.
+//
+// The software is provided "as is", without warranty of any kind,
+// express or implied, including but not limited to the warranties
+// of merchantability, fitness for a particular purpose, and
+// noninfringement. In no event shall the author(s) be liable for any
+// claim, damages, or other liability, whether in an action of
+// contract, tort, or otherwise, arising from, out of, or in connection
+// with the software or the use or other dealings in the software.
+
+package org.xmlmiddleware.xmldbms;
+
+import org.xmlmiddleware.xmldbms.filters.*;
+import org.xmlmiddleware.xmldbms.maps.*;
+import org.xmlmiddleware.xmlutils.*;
+import org.xmlmiddleware.xmlutils.external.*;
+
+import java.util.*;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that DBMSToDOM builds the same document in block mode as when it
+ * retrieves the child rows of each row separately.
+ *
+ * <p>The rows are held in memory by a TableDataHandler. Orders have a
+ * two-column key whose Number column repeats across regions, so child rows
+ * are only matched to the right parent if both columns are compared.</p>
+ */
+
+public class DBMSToDOMTest extends TestCase
+{
+   private XMLDBMSMap       m_map;
+   private TableDataHandler m_dataHandler;
+   private ParserUtils      m_utils = new ParserUtilsXerces();
+
+   private static final String[] ORDERCOLS = {"Region", "Number", "CustId"};
+   private static final String[] ITEMCOLS = {"OrderRegion", "OrderNumber", "Part", "Line"};
+   private static final String[] TAGCOLS = {"OrderRegion", "OrderNumber", "Part", "Tag"};
+   private static final String[] NOTECOLS = {"OrderRegion", "OrderNumber", "Note", "NoteOrder"};
+   private static final String[] PRIORITYCOLS = {"OrderRegion", "OrderNumber", "Priority"};
+   private static final String[] COLORCOLS = {"OrderRegion", "OrderNumber", "Part", "Color", "ColorOrder"};
+
+   protected void setUp()
+      throws Exception
+   {
+      m_map = StoreTestUtils.compileMap("retrieve.map");
+      m_dataHandler = createDataHandler();
+   }
+
+   // ************************************************************************
+   // Helpers
+   // ************************************************************************
+
+   /**
+    * Create a TableDataHandler holding the rows retrieved with retrieve.map.
+    */
+   static TableDataHandler createDataHandler()
+   {
+      TableDataHandler dataHandler = new TableDataHandler();
+
+      // Orders E1 and E2 share customer 1. W2 has no customer and no children,
+      // but has a priority.
+      // The rows of each child table are added in an order that differs from
+      // their order columns, and some order values are NULL.
+
+      dataHandler.addRow("Customers", new String[] {"Id", "Name"}, new Object[] {new Integer(1), "Ace"});
+      dataHandler.addRow("Customers", new String[] {"Id", "Name"}, new Object[] {new Integer(2), "Best"});
+
+      dataHandler.addRow("Orders", ORDERCOLS, new Object[] {"E", new Integer(1), new Integer(1)});
+      dataHandler.addRow("Orders", ORDERCOLS, new Object[] {"W", new Integer(1), new Integer(2)});
+      dataHandler.addRow("Orders", ORDERCOLS, new Object[] {"E", new Integer(2), new Integer(1)});
+      dataHandler.addRow("Orders", ORDERCOLS, new Object[] {"W", new Integer(2), null});
+      dataHandler.addRow("Orders", ORDERCOLS, new Object[] {"E", new Integer(3), new Integer(2)});
+
+      dataHandler.addRow("Priorities", PRIORITYCOLS, new Object[] {"E", new Integer(1), "high"});
+      dataHandler.addRow("Priorities", PRIORITYCOLS, new Object[] {"W", new Integer(2), "low"});
+
+      dataHandler.addRow("Items", ITEMCOLS, new Object[] {"W", new Integer(1), "x", new Integer(1)});
+      dataHandler.addRow("Items", ITEMCOLS, new Object[] {"E", new Integer(1), "b", new Integer(2)});
+      dataHandler.addRow("Items", ITEMCOLS, new Object[] {"E", new Integer(1), "n", null});
+      dataHandler.addRow("Items", ITEMCOLS, new Object[] {"E", new Integer(2), "p", null});
+      dataHandler.addRow("Items", ITEMCOLS, new Object[] {"E", new Integer(1), "a", new Integer(1)});
+      dataHandler.addRow("Items", ITEMCOLS, new Object[] {"W", new Integer(1), "y", null});
+      dataHandler.addRow("Items", ITEMCOLS, new Object[] {"E", new Integer(3), "z", new Integer(5)});
+      dataHandler.addRow("Items", ITEMCOLS, new Object[] {"E", new Integer(1), "c", new Integer(3)});
+      dataHandler.addRow("Items", ITEMCOLS, new Object[] {"E", new Integer(2), "q", null});
+
+      dataHandler.addRow("Tags", TAGCOLS, new Object[] {"E", new Integer(1), "a", "t1"});
+      dataHandler.addRow("Tags", TAGCOLS, new Object[] {"W", new Integer(1), "x", "t2"});
+      dataHandler.addRow("Tags", TAGCOLS, new Object[] {"E", new Integer(1), "a", "t3"});
+      dataHandler.addRow("Tags", TAGCOLS, new Object[] {"E", new Integer(3), "z", "t4"});
+
+      dataHandler.addRow("Colors", COLORCOLS, new Object[] {"E", new Integer(1), "a", "blue", new Integer(2)});
+      dataHandler.addRow("Colors", COLORCOLS, new Object[] {"E", new Integer(1), "a", "green", null});
+      dataHandler.addRow("Colors", COLORCOLS, new Object[] {"W", new Integer(1), "x", "black", null});
+      dataHandler.addRow("Colors", COLORCOLS, new Object[] {"E", new Integer(1), "a", "red", new Integer(1)});
+      dataHandler.addRow("Colors", COLORCOLS, new Object[] {"E", new Integer(3), "z", "white", new Integer(1)});
+
+      dataHandler.addRow("Notes", NOTECOLS, new Object[] {"E", new Integer(1), "second", new Integer(2)});
+      dataHandler.addRow("Notes", NOTECOLS, new Object[] {"W", new Integer(1), "west", null});
+      dataHandler.addRow("Notes", NOTECOLS, new Object[] {"E", new Integer(1), "unordered", null});
+      dataHandler.addRow("Notes", NOTECOLS, new Object[] {"E", new Integer(3), "third", new Integer(7)});
+      dataHandler.addRow("Notes", NOTECOLS, new Object[] {"E", new Integer(1), "first", new Integer(1)});
+      return dataHandler;
+   }
+
+   /**
+    * Create a FilterSet that retrieves all orders inside an Orders element.
+    */
+   static FilterSet createFilterSet(XMLDBMSMap map)
+      throws Exception
+   {
+      FilterSet filterSet = new FilterSet(map);
+
+      filterSet.addWrapperName(XMLName.create(null, "Orders"), 0);
+      filterSet.createRootFilter().createRootFilterConditions(null, null, null, "Orders").addCondition("Number > 0");
+      return filterSet;
+   }
+
+   /**
+    * Retrieve all orders with a given block size and return the serialized document.
+    */
+   private String retrieve(int blockSize)
+      throws Exception
+   {
+      DBMSToDOM dbmsToDOM = new DBMSToDOM(m_utils);
+
+      dbmsToDOM.setBlockSize(blockSize);
+      m_dataHandler.log.removeAllElements();
+      return m_utils.writeDocument(dbmsToDOM.retrieveDocument(new DBEnabledMap(m_map, null, m_dataHandler), createFilterSet(m_map), null, null));
+   }
+
+   // ************************************************************************
+   // Tests
+   // ************************************************************************
+
+   public void testRowByRowDocument()
+      throws Exception
+   {
+      String doc = retrieve(0);
+
+      // Items and Notes are sorted together by their order columns. Children
+      // with a NULL order value follow them in the order they were retrieved.
+      // Each order gets only the children with both of its key values. Tokens
+      // with a NULL order value follow the other tokens.
+
+      assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<Orders>" +
+                   "<Order Number=\"1\" Priority=\"high\" Region=\"E\"><Item Colors=\"red blue green\" Part=\"a\"><Tag>t1</Tag><Tag>t3</Tag></Item>" +
+                   "<Note>first</Note><Item Part=\"b\"/><Note>second</Note><Item Part=\"c\"/>" +
+                   "<Item Part=\"n\"/><Customer Name=\"Ace\"/><Note>unordered</Note></Order>" +
+                   "<Order Number=\"1\" Region=\"W\"><Item Colors=\"black\" Part=\"x\"><Tag>t2</Tag></Item><Item Part=\"y\"/>" +
+                   "<Customer Name=\"Best\"/><Note>west</Note></Order>" +
+                   "<Order Number=\"2\" Region=\"E\"><Item Part=\"p\"/><Item Part=\"q\"/><Customer Name=\"Ace\"/></Order>" +
+                   "<Order Number=\"2\" Priority=\"low\" Region=\"W\"/>" +
+                   "<Order Number=\"3\" Region=\"E\"><Item Colors=\"white\" Part=\"z\"><Tag>t4</Tag></Item><Note>third</Note>" +
+                   "<Customer Name=\"Best\"/></Order></Orders>",
+                   doc.trim());
+      assertEquals(0, m_dataHandler.count("selectForKeys"));
+   }
+
+   public void testBlockModeMatchesRowByRow()
+      throws Exception
+   {
+      String expected = retrieve(0);
+      int    rowSelects = m_dataHandler.count("select ");
+
+      // Block sizes of 2 and 3 split the orders and items into several
+      // blocks; a block size of 100 holds all of them.
+
+      assertEquals(expected, retrieve(2));
+      assertEquals(expected, retrieve(3));
+      assertEquals(expected, retrieve(100));
+
+      // With one block, each child table is selected once, plus once for the
+      // root table.
+
+      assertEquals(1, m_dataHandler.count("select "));
+      assertEquals(6, m_dataHandler.count("selectForKeys"));
+      assertTrue(rowSelects > 7);
+   }
+
+   public void testBlockSelectsEachKeyValueOnce()
+      throws Exception
+   {
+      retrieve(100);
+
+      // Four orders have a customer, but only two customers are selected.
+      // All five orders are selected for items, notes, and priorities, and
+      // the nine items are selected for tags and colors.
+
+      assertEquals(1, m_dataHandler.count("selectForKeys Customers 2"));
+      assertEquals(1, m_dataHandler.count("selectForKeys Items 5"));
+      assertEquals(1, m_dataHandler.count("selectForKeys Notes 5"));
+      assertEquals(1, m_dataHandler.count("selectForKeys Priorities 5"));
+      assertEquals(1, m_dataHandler.count("selectForKeys Tags 9"));
+      assertEquals(1, m_dataHandler.count("selectForKeys Colors 9"));
+   }
+}
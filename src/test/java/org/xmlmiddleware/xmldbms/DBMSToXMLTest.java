@@ -0,0 +1,140 @@
+// This software is in the public domain.
+//
+// The software is provided "as is", without warranty of any kind,
+// express or implied, including but not limited to the warranties
+// of merchantability, fitness for a particular purpose, and
+// noninfringement. In no event shall the author(s) be liable for any
+// claim, damages, or other liability, whether in an action of
+// contract, tort, or otherwise, arising from, out of, or in connection
+// with the software or the use or other dealings in the software.
+
+package org.xmlmiddleware.xmldbms;
+
+import org.xmlmiddleware.xmldbms.actions.*;
+import org.xmlmiddleware.xmldbms.filters.*;
+import org.xmlmiddleware.xmldbms.maps.*;
+import org.xmlmiddleware.xmlutils.*;
+import org.xmlmiddleware.xmlutils.external.*;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.TestCase;
+import org.xml.sax.*;
+
+/**
+ * Tests that DBMSToXML writes the same document as DBMSToDOM followed by
+ * ParserUtils.writeDocument.
+ *
+ * <p>The rows are held in memory by a TableDataHandler. The sample documents
+ * are first stored with DOMToDBMS, so the rows are those stored for the
+ * sample maps.</p>
+ */
+
+public class DBMSToXMLTest extends TestCase
+{
+   private ParserUtils m_utils = new ParserUtilsXerces();
+
+   // The table of the root class element in each of
+   // DOMToDBMSSamplesTest.SAMPLES.
+
+   private static final String[] ROOTTABLES = {"Orders", "Orders", "Books", "t1", "BookReviews",
+                                               "Root", "Customers", "Prec"};
+
+   // ************************************************************************
+   // Helpers
+   // ************************************************************************
+
+   private String retrieveWithDOM(DBEnabledMap dbMap, FilterSet filterSet)
+      throws Exception
+   {
+      DBMSToDOM dbmsToDOM = new DBMSToDOM(m_utils);
+
+      return m_utils.writeDocument(dbmsToDOM.retrieveDocument(dbMap, filterSet, null, null));
+   }
+
+   private String retrieveWithXML(DBEnabledMap dbMap, FilterSet filterSet)
+      throws Exception
+   {
+      DBMSToXML    dbmsToXML = new DBMSToXML();
+      StringWriter writer = new StringWriter();
+
+      dbmsToXML.retrieveDocument(dbMap, filterSet, null, writer);
+      return writer.toString();
+   }
+
+   private void assertSameDocument(String message, DBEnabledMap dbMap, FilterSet filterSet)
+      throws Exception
+   {
+      String expected = retrieveWithDOM(dbMap, filterSet), actual = retrieveWithXML(dbMap, filterSet);
+
+      // DBMSToXML writes attributes in the order they are mapped, while the
+      // DOM serializer sorts them, so the document written by DBMSToXML is
+      // parsed and written again before it is compared.
+
+      assertEquals(message, expected, m_utils.writeDocument(m_utils.readDocument(new InputSource(new StringReader(actual)), false)));
+   }
+
+   private FilterSet createFilterSet(XMLDBMSMap map, String tableName)
+      throws Exception
+   {
+      FilterSet   filterSet = new FilterSet(map);
+      Enumeration tables = map.getTables();
+      Table       table;
+
+      // Retrieve every row of the table inside a Document element.
+
+      do
+      {
+         table = (Table)tables.nextElement();
+      } while (!table.getTableName().equals(tableName));
+
+      filterSet.addWrapperName(XMLName.create(null, "Document"), 0);
+      filterSet.createRootFilter().createRootFilterConditions(table.getDatabaseName(), table.getCatalogName(), table.getSchemaName(), tableName).addCondition("1 = 1");
+      return filterSet;
+   }
+
+   // ************************************************************************
+   // Tests
+   // ************************************************************************
+
+   public void testSamplesMatchDBMSToDOM()
+      throws Exception
+   {
+      String           name;
+      XMLDBMSMap       map;
+      TableDataHandler dataHandler;
+      DBEnabledMap     dbMap;
+      FilterSet        filterSet;
+
+      for (int i = 0; i < DOMToDBMSSamplesTest.SAMPLES.length; i++)
+      {
+         // Store the sample document, then retrieve it both ways.
+
+         name = DOMToDBMSSamplesTest.SAMPLES[i];
+         map = DOMToDBMSSamplesTest.compileSample(name);
+         dataHandler = new TableDataHandler();
+         dbMap = DOMToDBMSSamplesTest.createDBEnabledMap(map, dataHandler);
+         DOMToDBMSSamplesTest.createDOMToDBMS().storeDocument(dbMap,
+                                                              StoreTestUtils.parse(DOMToDBMSSamplesTest.readResource(name + ".xml")).getDocumentElement(),
+                                                              Action.INSERT);
+
+         filterSet = createFilterSet(map, ROOTTABLES[i]);
+         assertSameDocument(name, dbMap, filterSet);
+      }
+   }
+
+   public void testOrdersMatchDBMSToDOM()
+      throws Exception
+   {
+      XMLDBMSMap   map = StoreTestUtils.compileMap("retrieve.map");
+      DBEnabledMap dbMap = new DBEnabledMap(map, null, DBMSToDOMTest.createDataHandler());
+
+      // The orders have attributes and token lists read from property tables,
+      // which DBMSToXML holds until the start tag is written, and child rows
+      // with NULL order values, which it holds until the other children have
+      // been written.
+
+      assertSameDocument(null, dbMap, DBMSToDOMTest.createFilterSet(map));
+   }
+}
@@ -0,0 +1,200 @@
+// This software is in the public domain.
+//
+// The software is provided "as is", without warranty of any kind,
+// express or implied, including but not limited to the warranties
+// of merchantability, fitness for a particular purpose, and
+// noninfringement. In no event shall the author(s) be liable for any
+// claim, damages, or other liability, whether in an action of
+// contract, tort, or otherwise, arising from, out of, or in connection
+// with the software or the use or other dealings in the software.
+
+package org.xmlmiddleware.xmldbms;
+
+import org.xmlmiddleware.xmldbms.actions.*;
+import org.xmlmiddleware.xmldbms.datahandlers.*;
+import org.xmlmiddleware.xmldbms.keygenerators.*;
+import org.xmlmiddleware.xmldbms.maps.*;
+import org.xmlmiddleware.xmldbms.maps.factories.*;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.TestCase;
+import org.xml.sax.*;
+
+/**
+ * Regression tests that store the sample documents with the sample maps.
+ *
+ * <p>The calls made to the DataHandler and the stored rows are compared to
+ * golden files in the samples directory of the test resources, so these
+ * tests check that changes to DOMToDBMS store the same rows with the same
+ * statements in the same order.</p>
+ *
+ * <p>To recreate the golden files, run main() from the project directory.</p>
+ */
+
+public class DOMToDBMSSamplesTest extends TestCase
+{
+   // The sample maps are not test resources, so they are read from the source
+   // tree. Tests are run from the project directory.
+
+   private static final String MAPDIR = "src/main/samples/maps/v2.0/";
+   private static final String GOLDENDIR = "src/test/resources/org/xmlmiddleware/xmldbms/samples/";
+
+   // inherit.map is not included because MapCompiler doesn't implement
+   // Extends. format.map is not included because its formats depend on the
+   // default locale and time zone.
+
+   static final String[] SAMPLES = {"orders", "databases", "inline", "inline2", "mixed",
+                                    "tokenlist", "complextype", "precision"};
+
+   // ************************************************************************
+   // Helper methods
+   // ************************************************************************
+
+   static XMLDBMSMap compileSample(String name)
+      throws Exception
+   {
+      MapCompiler compiler = new MapCompiler(StoreTestUtils.createXMLReader());
+      return compiler.compile(new InputSource(new File(MAPDIR + name + ".map").toURI().toString()));
+   }
+
+   static String readResource(String name)
+      throws Exception
+   {
+      InputStream  in = DOMToDBMSSamplesTest.class.getResourceAsStream("samples/" + name);
+      Reader       reader = new InputStreamReader(in, "UTF-8");
+      StringBuffer sb = new StringBuffer();
+      int          c;
+
+      while ((c = reader.read()) != -1)
+      {
+         sb.append((char)c);
+      }
+      reader.close();
+      return sb.toString();
+   }
+
+   static DOMToDBMS createDOMToDBMS()
+   {
+      DOMToDBMS domToDBMS = new DOMToDBMS();
+
+      // tokenlist.map uses the HighLow key generator. Keys are numbered from 1
+      // so that the stored rows are the same on each run.
+
+      domToDBMS.addKeyGenerator("HighLow", new KeyGenerator()
+      {
+         private int m_key = 0;
+
+         public void initialize(Properties props, int suffix)
+         {
+         }
+
+         public Vector generateKey()
+         {
+            Vector key = new Vector();
+
+            key.addElement(new Integer(++m_key));
+            return key;
+         }
+
+         public void close()
+         {
+         }
+      });
+      domToDBMS.setBatchSize(0);
+      return domToDBMS;
+   }
+
+   static DBEnabledMap createDBEnabledMap(XMLDBMSMap map, DataHandler dataHandler)
+   {
+      DBEnabledMap dbMap = new DBEnabledMap(map);
+      Hashtable    dbNames = new Hashtable();
+      Enumeration  tables;
+      String       dbName;
+
+      // databases.map uses more than one database. All of them use the same
+      // DataHandler, so foreign keys can be checked across databases.
+
+      tables = map.getTables();
+      while (tables.hasMoreElements())
+      {
+         dbName = ((Table)tables.nextElement()).getDatabaseName();
+         if (dbNames.get(dbName) != null) continue;
+         dbNames.put(dbName, dbName);
+         dbMap.addDataHandler(dbName, dataHandler);
+      }
+      return dbMap;
+   }
+
+   /**
+    * Store a sample document and return the log and the stored rows.
+    */
+   static String storeSample(String name)
+      throws Exception
+   {
+      RecordingDataHandler dataHandler = new RecordingDataHandler();
+      StringBuffer         sb = new StringBuffer();
+
+      createDOMToDBMS().storeDocument(createDBEnabledMap(compileSample(name), dataHandler),
+                                      StoreTestUtils.parse(readResource(name + ".xml")).getDocumentElement(),
+                                      Action.INSERT);
+
+      sb.append("# log\n");
+      for (int i = 0; i < dataHandler.log.size(); i++)
+      {
+         sb.append(dataHandler.log.elementAt(i)).append('\n');
+      }
+      sb.append("# stored\n");
+      for (int i = 0; i < dataHandler.stored.size(); i++)
+      {
+         sb.append(dataHandler.stored.elementAt(i)).append('\n');
+      }
+      return sb.toString();
+   }
+
+   // ************************************************************************
+   // Tests
+   // ************************************************************************
+
+   public void testSamplesMatchGoldenFiles()
+      throws Exception
+   {
+      for (int i = 0; i < SAMPLES.length; i++)
+      {
+         assertEquals(SAMPLES[i], readResource(SAMPLES[i] + ".out"), storeSample(SAMPLES[i]));
+      }
+   }
+
+   public void testSamplesStoreRows()
+      throws Exception
+   {
+      // Guard against golden files that were created from a map that didn't
+      // match its sample document.
+
+      for (int i = 0; i < SAMPLES.length; i++)
+      {
+         assertFalse(SAMPLES[i], readResource(SAMPLES[i] + ".out").endsWith("# stored\n"));
+      }
+   }
+
+   // ************************************************************************
+   // Golden file generation
+   // ************************************************************************
+
+   /**
+    * Recreate the golden files.
+    */
+   public static void main(String[] args)
+      throws Exception
+   {
+      Writer writer;
+
+      for (int i = 0; i < SAMPLES.length; i++)
+      {
+         writer = new OutputStreamWriter(new FileOutputStream(GOLDENDIR + SAMPLES[i] + ".out"), "UTF-8");
+         writer.write(storeSample(SAMPLES[i]));
+         writer.close();
+      }
+   }
+}
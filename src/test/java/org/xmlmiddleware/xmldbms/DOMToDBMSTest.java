@@ -0,0 +1,231 @@
+// This software is in the public domain.
+//
+// The software is provided "as is", without warranty of any kind,
+// express or implied, including but not limited to the warranties
+// of merchantability, fitness for a particular purpose, and
+// noninfringement. In no event shall the author(s) be liable for any
+// claim, damages, or other liability, whether in an action of
+// contract, tort, or otherwise, arising from, out of, or in connection
+// with the software or the use or other dealings in the software.
+
+package org.xmlmiddleware.xmldbms;
+
+import org.xmlmiddleware.utils.*;
+import org.xmlmiddleware.xmldbms.actions.*;
+import org.xmlmiddleware.xmldbms.datahandlers.*;
+import org.xmlmiddleware.xmldbms.maps.*;
+
+import java.lang.ref.*;
+import java.util.*;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for DOMToDBMS.
+ */
+
+public class DOMToDBMSTest extends TestCase
+{
+   private XMLDBMSMap           m_map;
+   private RecordingDataHandler m_dataHandler;
+
+   protected void setUp()
+      throws Exception
+   {
+      m_map = StoreTestUtils.compileMap("orders.map");
+      m_dataHandler = new RecordingDataHandler();
+   }
+
+   static String createOrders(int numOrders, int itemsPerOrder)
+   {
+      StringBuffer sb = new StringBuffer("<Orders>");
+
+      for (int i = 1; i <= numOrders; i++)
+      {
+         sb.append("<Order Number='").append(i).append("'><Customer Name='C").append(i).append("'/>");
+         for (int j = 1; j <= itemsPerOrder; j++)
+         {
+            sb.append("<Item Number='").append(j).append("'><Quantity>").append(i * j).append("</Quantity></Item>");
+         }
+         sb.append("</Order>");
+      }
+      return sb.append("</Orders>").toString();
+   }
+
+   private void store(String xml, int batchSize)
+      throws Exception
+   {
+      DOMToDBMS domToDBMS = new DOMToDBMS();
+
+      domToDBMS.setBatchSize(batchSize);
+      domToDBMS.storeDocument(new DBEnabledMap(m_map, null, m_dataHandler),
+                              StoreTestUtils.parse(xml).getDocumentElement(), Action.INSERT);
+   }
+
+   // ************************************************************************
+   // Batching
+   // ************************************************************************
+
+   public void testUnbatchedRowsAreStoredInDocumentOrder()
+      throws Exception
+   {
+      store(createOrders(2, 1), 0);
+
+      assertEquals(0, m_dataHandler.count("executeBatch"));
+      assertEquals("Customers(Id=1, Name=C1)", m_dataHandler.stored.elementAt(0));
+      assertEquals("Orders(Id=1, Number=1, CustId=1)", m_dataHandler.stored.elementAt(1));
+      assertEquals("Items(OrderId=1, Number=1, Quantity=1)", m_dataHandler.stored.elementAt(2));
+      assertEquals("Customers(Id=2, Name=C2)", m_dataHandler.stored.elementAt(3));
+      assertEquals(6, m_dataHandler.stored.size());
+   }
+
+   // ************************************************************************
+   // Errors
+   // ************************************************************************
+
+   public void testRuntimeExceptionFailsOnlyTheDocument()
+      throws Exception
+   {
+      m_dataHandler = new RecordingDataHandler()
+      {
+         public void insert(Table table, Row row)
+         {
+            throw new IllegalStateException("Bad DataHandler.");
+         }
+      };
+
+      try
+      {
+         store(createOrders(1, 1), 0);
+         fail("Exception not reported.");
+      }
+      catch (XMLMiddlewareException e)
+      {
+         assertTrue(e.getMessage().indexOf("Bad DataHandler.") != -1);
+      }
+      assertTrue(m_dataHandler.log.contains("recoverFromException"));
+
+      // The DOMToDBMS can still be used.
+
+      m_dataHandler = new RecordingDataHandler();
+      store(createOrders(1, 1), 0);
+      assertEquals(3, m_dataHandler.stored.size());
+   }
+
+   public void testFailedCallReleasesDataHandlers()
+      throws Exception
+   {
+      DOMToDBMS     domToDBMS = new DOMToDBMS();
+      String        xml = createOrders(1, 1).replaceFirst("<Quantity>1</Quantity>", "<Quantity>x</Quantity>");
+      WeakReference ref = new WeakReference(m_dataHandler);
+
+      try
+      {
+         domToDBMS.storeDocument(new DBEnabledMap(m_map, null, m_dataHandler),
+                                 StoreTestUtils.parse(xml).getDocumentElement(), Action.INSERT);
+         fail("Bad Quantity accepted.");
+      }
+      catch (XMLMiddlewareException e)
+      {
+      }
+
+      // The context of the call is kept on this thread, but it must not keep
+      // the DataHandler (and its connection) reachable.
+
+      m_dataHandler = null;
+      for (int i = 0; (i < 50) && (ref.get() != null); i++)
+      {
+         System.gc();
+         Thread.sleep(10);
+      }
+      assertNull(ref.get());
+      assertNull(domToDBMS.getExceptions());
+   }
+
+   // ************************************************************************
+   // Incremental property table updates
+   // ************************************************************************
+
+   private void updateMemo(String[] oldLines, String[] newLines)
+      throws Exception
+   {
+      DOMToDBMS    domToDBMS = new DOMToDBMS();
+      Vector       rows = new Vector();
+      Hashtable    row;
+      StringBuffer sb = new StringBuffer("<Memo Number='1'>");
+
+      // The existing MemoLines rows are returned by the DataHandler.
+
+      for (int i = 0; i < oldLines.length; i++)
+      {
+         row = new Hashtable();
+         row.put("MemoNumber", new Integer(1));
+         row.put("Line", oldLines[i]);
+         row.put("LineOrder", new Integer(i + 1));
+         rows.addElement(row);
+      }
+      m_dataHandler.selectRows.put("MemoLines", rows);
+
+      for (int i = 0; i < newLines.length; i++)
+      {
+         sb.append("<Line>").append(newLines[i]).append("</Line>");
+      }
+      sb.append("</Memo>");
+
+      domToDBMS.setIncrementalPropertyUpdates(true);
+      domToDBMS.storeDocument(new DBEnabledMap(m_map, null, m_dataHandler),
+                              StoreTestUtils.parse(sb.toString()).getDocumentElement(), Action.UPDATE);
+   }
+
+   private Vector getStoredLines()
+   {
+      Vector lines = new Vector();
+      String row;
+
+      // Skip the update of the Memos row.
+
+      for (int i = 0; i < m_dataHandler.stored.size(); i++)
+      {
+         row = (String)m_dataHandler.stored.elementAt(i);
+         if (row.indexOf("MemoLines") != -1) lines.addElement(row);
+      }
+      Collections.sort(lines);
+      return lines;
+   }
+
+   public void testShrinkingListDeletesLeftoverRows()
+      throws Exception
+   {
+      updateMemo(new String[] {"a", "b", "c", "d"}, new String[] {"a", "b"});
+
+      assertEquals(2, m_dataHandler.count("delete MemoLines"));
+      assertEquals(0, m_dataHandler.count("update MemoLines"));
+      assertEquals(0, m_dataHandler.count("batchInsert MemoLines") + m_dataHandler.count("insert MemoLines"));
+      assertEquals(2, getStoredLines().size());
+      assertEquals("delete MemoLines(MemoNumber=1, LineOrder=3)", getStoredLines().elementAt(0));
+      assertEquals("delete MemoLines(MemoNumber=1, LineOrder=4)", getStoredLines().elementAt(1));
+   }
+
+   public void testGrowingListInsertsNewRows()
+      throws Exception
+   {
+      updateMemo(new String[] {"a", "b"}, new String[] {"a", "b", "c"});
+
+      assertEquals(0, m_dataHandler.count("delete MemoLines"));
+      assertEquals(0, m_dataHandler.count("update MemoLines"));
+      assertEquals(1, getStoredLines().size());
+      assertEquals("MemoLines(MemoNumber=1, Line=c, LineOrder=3)", getStoredLines().elementAt(0));
+   }
+
+   public void testReorderedListUpdatesChangedRows()
+      throws Exception
+   {
+      updateMemo(new String[] {"a", "b", "c"}, new String[] {"c", "b", "a"});
+
+      assertEquals(0, m_dataHandler.count("delete MemoLines"));
+      assertEquals(2, m_dataHandler.count("update MemoLines"));
+      assertEquals(2, getStoredLines().size());
+      assertEquals("update MemoLines(Line=a)", getStoredLines().elementAt(0));
+      assertEquals("update MemoLines(Line=c)", getStoredLines().elementAt(1));
+   }
+}
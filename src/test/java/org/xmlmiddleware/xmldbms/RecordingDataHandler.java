@@ -0,0 +1,319 @@
+// This software is in the public domain.
+//
+// The software is provided "as is", without warranty of any kind,
+// express or implied, including but not limited to the warranties
+// of merchantability, fitness for a particular purpose, and
+// noninfringement. In no event shall the author(s) be liable for any
+// claim, damages, or other liability, whether in an action of
+// contract, tort, or otherwise, arising from, out of, or in connection
+// with the software or the use or other dealings in the software.
+
+package org.xmlmiddleware.xmldbms;
+
+import org.xmlmiddleware.xmldbms.datahandlers.*;
+import org.xmlmiddleware.xmldbms.maps.*;
+
+import java.lang.reflect.*;
+import java.sql.*;
+import java.util.*;
+import javax.sql.*;
+
+/**
+ * A DataHandler that records what it is asked to do instead of using a
+ * database.
+ *
+ * <p>Batched rows are stored when the batch is executed, either explicitly
+ * or when the batch size is reached. Database-generated keys are numbered
+ * from 1 for each table when a row is stored. When a row is stored, its
+ * foreign keys must point to rows that have already been stored; otherwise,
+ * an SQLException is thrown, as a database would do.</p>
+ */
+
+public class RecordingDataHandler implements DataHandler
+{
+   /** The calls made to the DataHandler, such as "batchInsert Orders" or "executeBatch". */
+   public Vector log = new Vector();
+
+   /** The stored rows, as "Table(Column=value, ...)", in the order they were stored. */
+   public Vector stored = new Vector();
+
+   /** Rows returned by select, indexed by table name. Each row is a Hashtable of column name -> value. */
+   public Hashtable selectRows = new Hashtable();
+
+   private int       m_batchSize = 0;
+   private Vector    m_batch = new Vector(); // Object[] { Table, Row }
+   private Hashtable m_keys = new Hashtable(); // Stored key values, indexed by table name
+   private Hashtable m_counters = new Hashtable();
+
+   // ********************************************************************
+   // DataHandler methods
+   // ********************************************************************
+
+   public void initialize(DataSource dataSource, String user, String password)
+      throws SQLException
+   {
+   }
+
+   public void startDocument(int commitMode)
+   {
+      log.addElement("startDocument");
+   }
+
+   public void endDocument()
+      throws SQLException
+   {
+      executeBatch();
+      log.addElement("endDocument");
+   }
+
+   public void recoverFromException()
+   {
+      m_batch.removeAllElements();
+      log.addElement("recoverFromException");
+   }
+
+   public void insert(Table table, Row row)
+      throws SQLException
+   {
+      log.addElement("insert " + table.getTableName());
+      store(table, row);
+   }
+
+   public void setBatchSize(int batchSize)
+   {
+      m_batchSize = batchSize;
+   }
+
+   public int getBatchSize()
+   {
+      return m_batchSize;
+   }
+
+   public void batchInsert(Table table, Row row)
+      throws SQLException
+   {
+      log.addElement("batchInsert " + table.getTableName());
+      m_batch.addElement(new Object[] {table, row});
+      if (m_batch.size() >= m_batchSize) executeBatch();
+   }
+
+   public void executeBatch()
+      throws SQLException
+   {
+      Object[] entry;
+
+      if (m_batch.size() == 0) return;
+
+      log.addElement("executeBatch");
+      for (int i = 0; i < m_batch.size(); i++)
+      {
+         entry = (Object[])m_batch.elementAt(i);
+         store((Table)entry[0], (Row)entry[1]);
+      }
+      m_batch.removeAllElements();
+   }
+
+   public void update(Table table, Row row, Vector columns)
+      throws SQLException
+   {
+      executeBatch();
+      log.addElement("update " + table.getTableName());
+      stored.addElement("update " + format(table, row, columns));
+
+      // The updated row exists, so rows can point to it.
+
+      addKey(table, row);
+   }
+
+   public void updateOrInsert(Table table, Row row)
+      throws SQLException
+   {
+      log.addElement("updateOrInsert " + table.getTableName());
+      store(table, row);
+   }
+
+   public void batchUpdateOrInsert(Table table, Row row)
+      throws SQLException
+   {
+      updateOrInsert(table, row);
+   }
+
+   public void delete(Table table, Row row, Key key)
+      throws SQLException
+   {
+      executeBatch();
+      log.addElement("delete " + table.getTableName());
+      stored.addElement("delete " + format(table, row, key.getColumns()));
+   }
+
+   public void delete(Table table, Key key, Vector keyValue, String where, Vector paramColumns, Vector paramValues)
+   {
+      throw new UnsupportedOperationException();
+   }
+
+   public ResultSet select(Table table, Key key, Vector keyValue, String where, Vector paramColumns, Vector paramValues, OrderInfo orderInfo)
+      throws SQLException
+   {
+      Vector rows = (Vector)selectRows.get(table.getTableName());
+
+      executeBatch();
+      log.addElement("select " + table.getTableName());
+      return createResultSet(table, (rows == null) ? new Vector() : rows);
+   }
+
+   public ResultSet selectForKeys(Table table, Key key, Vector keyValues, String where, Vector paramColumns, Vector paramValues, OrderInfo orderInfo)
+      throws SQLException
+   {
+      throw new UnsupportedOperationException();
+   }
+
+   // ********************************************************************
+   // Helper methods
+   // ********************************************************************
+
+   /**
+    * Count the entries in the log that start with a prefix.
+    */
+   public int count(String prefix)
+   {
+      int count = 0;
+
+      for (int i = 0; i < log.size(); i++)
+      {
+         if (((String)log.elementAt(i)).startsWith(prefix)) count++;
+      }
+      return count;
+   }
+
+   private void store(Table table, Row row)
+      throws SQLException
+   {
+      Key         priKey = table.getPrimaryKey();
+      Enumeration fks;
+      Key         fk;
+      Vector      keys;
+      Integer     counter;
+
+      // Generate the key.
+
+      if ((priKey != null) && (priKey.getKeyGeneration() == Key.DATABASE))
+      {
+         counter = (Integer)m_counters.get(table.getTableName());
+         counter = new Integer((counter == null) ? 1 : counter.intValue() + 1);
+         m_counters.put(table.getTableName(), counter);
+         row.setColumnValue((Column)priKey.getColumns().elementAt(0), counter);
+      }
+
+      // Check the foreign keys.
+
+      fks = table.getForeignKeys();
+      while (fks.hasMoreElements())
+      {
+         fk = (Key)fks.nextElement();
+         keys = (Vector)m_keys.get(fk.getRemoteTable().getTableName());
+         if ((keys == null) || !keys.contains(row.getColumnValues(fk.getColumns())))
+            throw new SQLException("Foreign key violation: " + format(table, row, null));
+      }
+
+      addKey(table, row);
+      stored.addElement(format(table, row, null));
+      rowStored(table, row);
+   }
+
+   /**
+    * Called after a row is stored. Does nothing; subclasses can override it.
+    */
+   void rowStored(Table table, Row row)
+   {
+   }
+
+   private void addKey(Table table, Row row)
+   {
+      Key    priKey = table.getPrimaryKey();
+      Vector keys;
+
+      if (priKey == null) return;
+
+      keys = (Vector)m_keys.get(table.getTableName());
+      if (keys == null)
+      {
+         keys = new Vector();
+         m_keys.put(table.getTableName(), keys);
+      }
+      keys.addElement(row.getColumnValues(priKey.getColumns()));
+   }
+
+   private String format(Table table, Row row, Vector columns)
+   {
+      StringBuffer sb = new StringBuffer(table.getTableName());
+      Column       column;
+      boolean      first = true;
+
+      // Columns are listed in the order they are defined in the map.
+
+      sb.append('(');
+      for (int i = 0; i < table.getOrdinalCount(); i++)
+      {
+         column = table.getColumn(i);
+         if ((column == null) || ((columns != null) && !columns.contains(column))) continue;
+         if (!first) sb.append(", ");
+         sb.append(column.getName()).append('=').append(row.getColumnValue(column));
+         first = false;
+      }
+      return sb.append(')').toString();
+   }
+
+   ResultSet createResultSet(final Table table, final Vector rows)
+   {
+      InvocationHandler handler = new InvocationHandler()
+      {
+         int     index = -1;
+         boolean wasNull = false;
+
+         public Object invoke(Object proxy, Method method, Object[] args)
+         {
+            String  name = method.getName();
+            Object  value;
+
+            if (name.equals("next"))
+               return new Boolean(++index < rows.size());
+            if (name.equals("close"))
+               return null;
+            if (name.equals("wasNull"))
+               return new Boolean(wasNull);
+            if (name.startsWith("get") && (args != null) && (args[0] instanceof Integer))
+            {
+               value = getValue(((Integer)args[0]).intValue());
+               wasNull = (value == null);
+               return convert(value, method.getReturnType());
+            }
+            throw new UnsupportedOperationException(name);
+         }
+
+         private Object getValue(int resultSetIndex)
+         {
+            Vector columns = table.getResultSetColumns();
+
+            for (int i = 0; i < columns.size(); i++)
+            {
+               Column column = (Column)columns.elementAt(i);
+               if (column.getResultSetIndex() == resultSetIndex)
+                  return ((Hashtable)rows.elementAt(index)).get(column.getName());
+            }
+            return null;
+         }
+      };
+      return (ResultSet)Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+                                               new Class[] {ResultSet.class}, handler);
+   }
+
+   private static Object convert(Object value, Class type)
+   {
+      if (type == Object.class) return value;
+      if (type == String.class) return (value == null) ? null : value.toString();
+      if (type == Integer.TYPE) return new Integer((value == null) ? 0 : ((Number)value).intValue());
+      if (type == Long.TYPE) return new Long((value == null) ? 0 : ((Number)value).longValue());
+      if (type == Double.TYPE) return new Double((value == null) ? 0 : ((Number)value).doubleValue());
+      return value;
+   }
+}
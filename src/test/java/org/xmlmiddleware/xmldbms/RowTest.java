@@ -0,0 +1,219 @@
+// This software is in the public domain.
+//
+// The software is provided "as is", without warranty of any kind,
+// express or implied, including but not limited to the warranties
+// of merchantability, fitness for a particular purpose, and
+// noninfringement. In no event shall the author(s) be liable for any
+// claim, damages, or other liability, whether in an action of
+// contract, tort, or otherwise, arising from, out of, or in connection
+// with the software or the use or other dealings in the software.
+
+package org.xmlmiddleware.xmldbms;
+
+import org.xmlmiddleware.xmldbms.maps.*;
+
+import java.util.*;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for Row.
+ *
+ * <p>Orders.Number and Items.OrderNumber both have ordinal 0, so a Row that
+ * holds both has to store one of them outside the array.</p>
+ */
+
+public class RowTest extends TestCase
+{
+   private Table  m_orders, m_items;
+   private Column m_number, m_customer, m_orderNumber, m_quantity;
+   private Row    m_row;
+
+   protected void setUp()
+   {
+      m_orders = Table.create(null, null, null, "Orders");
+      m_number = m_orders.createColumn("Number");
+      m_customer = m_orders.createColumn("Customer");
+
+      m_items = Table.create(null, null, null, "Items");
+      m_orderNumber = m_items.createColumn("OrderNumber");
+      m_quantity = m_items.createColumn("Quantity");
+
+      m_row = new Row();
+   }
+
+   private static Vector vector(Object o1, Object o2)
+   {
+      Vector v = new Vector();
+
+      v.addElement(o1);
+      if (o2 != null) v.addElement(o2);
+      return v;
+   }
+
+   // ************************************************************************
+   // Values by ordinal
+   // ************************************************************************
+
+   public void testValuesAreStoredByOrdinal()
+   {
+      assertEquals(0, m_number.getOrdinal());
+      assertEquals(1, m_customer.getOrdinal());
+
+      m_row.setColumnValue(m_number, "1");
+      m_row.setColumnValue(m_customer, "C1");
+
+      assertEquals("1", m_row.getColumnValue(m_number));
+      assertEquals("C1", m_row.getColumnValue(m_customer));
+      assertEquals(vector(m_number, m_customer), m_row.getColumnVectorFor(m_orders));
+   }
+
+   public void testNullValueIsSet()
+   {
+      m_row.setColumnValue(m_customer, null);
+
+      assertNull(m_row.getColumnValue(m_customer));
+      assertTrue(m_row.isColumnSet(m_customer));
+      assertFalse(m_row.isColumnSet(m_number));
+      assertEquals(vector(m_customer, null), m_row.getColumnVectorFor(m_orders));
+   }
+
+   public void testRemovedValueIsNotSet()
+   {
+      m_row.setColumnValue(m_number, "1");
+      m_row.removeColumnValue(m_number);
+
+      assertFalse(m_row.isColumnSet(m_number));
+      assertNull(m_row.getColumnValue(m_number));
+      assertEquals(0, m_row.getColumnVectorFor(m_orders).size());
+   }
+
+   public void testArraysGrow()
+   {
+      Table  table = Table.create(null, null, null, "Wide");
+      Column last = null;
+
+      for (int i = 0; i < 40; i++)
+      {
+         last = table.createColumn("C" + i);
+      }
+      m_row.setColumnValue(m_number, "1");
+      m_row.setColumnValue(last, "last");
+
+      assertEquals(39, last.getOrdinal());
+      assertEquals("last", m_row.getColumnValue(last));
+      assertEquals("1", m_row.getColumnValue(m_number));
+   }
+
+   // ************************************************************************
+   // Fallback when the position is taken
+   // ************************************************************************
+
+   public void testColumnsWithSameOrdinalKeepTheirValues()
+   {
+      assertEquals(m_number.getOrdinal(), m_orderNumber.getOrdinal());
+
+      m_row.setColumnValue(m_number, "1");
+      m_row.setColumnValue(m_orderNumber, "2");
+
+      assertEquals("1", m_row.getColumnValue(m_number));
+      assertEquals("2", m_row.getColumnValue(m_orderNumber));
+      assertTrue(m_row.isColumnSet(m_orderNumber));
+   }
+
+   public void testColumnsWithSameOrdinalAreReportedForTheirTable()
+   {
+      BitSet bits = new BitSet();
+
+      m_row.setColumnValue(m_number, "1");
+      m_row.setColumnValue(m_orderNumber, "1");
+      m_row.setColumnValue(m_quantity, new Integer(5));
+
+      assertEquals(vector(m_number, null), m_row.getColumnVectorFor(m_orders));
+      assertEquals(vector(m_orderNumber, m_quantity), m_row.getColumnVectorFor(m_items));
+
+      bits.set(0);
+      bits.set(1);
+      assertEquals(bits, m_row.getColumnBitSetFor(m_items));
+      bits.clear(1);
+      assertEquals(bits, m_row.getColumnBitSetFor(m_orders));
+   }
+
+   public void testNullFallbackValueIsSet()
+   {
+      m_row.setColumnValue(m_number, "1");
+      m_row.setColumnValue(m_orderNumber, null);
+
+      assertTrue(m_row.isColumnSet(m_orderNumber));
+      assertNull(m_row.getColumnValue(m_orderNumber));
+      assertTrue(m_row.areColumnsSet(vector(m_orderNumber, m_number)));
+   }
+
+   public void testFallbackValueIsReplaced()
+   {
+      m_row.setColumnValue(m_number, "1");
+      m_row.setColumnValue(m_orderNumber, "2");
+      m_row.setColumnValue(m_orderNumber, "3");
+
+      assertEquals("3", m_row.getColumnValue(m_orderNumber));
+      assertEquals("1", m_row.getColumnValue(m_number));
+   }
+
+   public void testFallbackValueMovesToFreedPosition()
+   {
+      m_row.setColumnValue(m_number, "1");
+      m_row.setColumnValue(m_orderNumber, "2");
+      m_row.removeColumnValue(m_number);
+
+      // The value is still found while it is outside the array.
+
+      assertEquals("2", m_row.getColumnValue(m_orderNumber));
+
+      // Setting it again moves it into the freed position. The old value
+      // must not be found afterwards.
+
+      m_row.setColumnValue(m_orderNumber, "3");
+      assertEquals("3", m_row.getColumnValue(m_orderNumber));
+      m_row.removeColumnValue(m_orderNumber);
+      assertFalse(m_row.isColumnSet(m_orderNumber));
+      assertNull(m_row.getColumnValue(m_orderNumber));
+   }
+
+   public void testRemovingFallbackValueKeepsPositionHolder()
+   {
+      m_row.setColumnValue(m_number, "1");
+      m_row.setColumnValue(m_orderNumber, "2");
+      m_row.removeColumnValue(m_orderNumber);
+
+      assertFalse(m_row.isColumnSet(m_orderNumber));
+      assertEquals("1", m_row.getColumnValue(m_number));
+   }
+
+   public void testColumnWithoutOrdinal()
+   {
+      Column column = Column.create("Loose");
+
+      assertEquals(-1, column.getOrdinal());
+      m_row.setColumnValue(column, "x");
+      m_row.setColumnValue(m_number, "1");
+
+      assertEquals("x", m_row.getColumnValue(column));
+      assertEquals("1", m_row.getColumnValue(m_number));
+   }
+
+   public void testRemoveAllColumnValues()
+   {
+      m_row.setColumnValue(m_number, "1");
+      m_row.setColumnValue(m_orderNumber, "2");
+      m_row.removeAllColumnValues();
+
+      assertFalse(m_row.isColumnSet(m_number));
+      assertFalse(m_row.isColumnSet(m_orderNumber));
+
+      // The Row can be reused.
+
+      m_row.setColumnValue(m_orderNumber, "3");
+      assertEquals("3", m_row.getColumnValue(m_orderNumber));
+      assertNull(m_row.getColumnValue(m_number));
+   }
+}
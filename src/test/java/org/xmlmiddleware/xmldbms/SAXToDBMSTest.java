@@ -0,0 +1,191 @@
+// This software is in the public domain.
+//
+// The software is provided "as is", without warranty of any kind,
+// express or implied, including but not limited to the warranties
+// of merchantability, fitness for a particular purpose, and
+// noninfringement. In no event shall the author(s) be liable for any
+// claim, damages, or other liability, whether in an action of
+// contract, tort, or otherwise, arising from, out of, or in connection
+// with the software or the use or other dealings in the software.
+
+package org.xmlmiddleware.xmldbms;
+
+import org.xmlmiddleware.utils.*;
+import org.xmlmiddleware.xmldbms.actions.*;
+import org.xmlmiddleware.xmldbms.maps.*;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.TestCase;
+import org.xml.sax.*;
+import org.xml.sax.helpers.*;
+
+/**
+ * Tests for SAXToDBMS.
+ */
+
+public class SAXToDBMSTest extends TestCase
+{
+   private XMLDBMSMap           m_map;
+   private RecordingDataHandler m_dataHandler;
+
+   protected void setUp()
+      throws Exception
+   {
+      m_map = StoreTestUtils.compileMap("orders.map");
+      m_dataHandler = new RecordingDataHandler();
+   }
+
+   private static String createShipment(int numParcels)
+   {
+      StringBuffer sb = new StringBuffer("<Shipment Carrier='Post'>");
+
+      for (int i = 1; i <= numParcels; i++)
+      {
+         sb.append("<Parcel Number='").append(i).append("' Weight='").append(i * 10).append("'/>");
+      }
+      return sb.append("</Shipment>").toString();
+   }
+
+   private void store(XMLReader xmlReader, String xml, int batchSize, int action)
+      throws Exception
+   {
+      SAXToDBMS saxToDBMS = new SAXToDBMS();
+
+      saxToDBMS.setBatchSize(batchSize);
+      saxToDBMS.storeDocument(new DBEnabledMap(m_map, null, m_dataHandler), xmlReader,
+                              new InputSource(new StringReader(xml)), action);
+   }
+
+   public void testSameRowsAsDOMToDBMS()
+      throws Exception
+   {
+      RecordingDataHandler domDataHandler = new RecordingDataHandler();
+      DOMToDBMS            domToDBMS = new DOMToDBMS();
+      String               xml = DOMToDBMSTest.createOrders(3, 2);
+      Vector               saxRows, domRows;
+
+      store(StoreTestUtils.createXMLReader(), xml, 0, Action.INSERT);
+      domToDBMS.storeDocument(new DBEnabledMap(m_map, null, domDataHandler),
+                              StoreTestUtils.parse(xml).getDocumentElement(), Action.INSERT);
+
+      saxRows = (Vector)m_dataHandler.stored.clone();
+      domRows = (Vector)domDataHandler.stored.clone();
+      Collections.sort(saxRows);
+      Collections.sort(domRows);
+      assertEquals(domRows, saxRows);
+   }
+
+   public void testRowsPointingToRootRowAreNotKept()
+      throws Exception
+   {
+      final Vector storedAtEnd = new Vector();
+
+      // The Shipment row is complete at its start tag, so it is stored then
+      // and each Parcel row is stored at the end tag of the Parcel element,
+      // not at the end of the document.
+
+      XMLFilterImpl filter = new XMLFilterImpl(StoreTestUtils.createXMLReader())
+      {
+         public void endElement(String uri, String localName, String qName)
+            throws SAXException
+         {
+            super.endElement(uri, localName, qName);
+            if (localName.equals("Parcel"))
+            {
+               storedAtEnd.addElement(new Integer(m_dataHandler.stored.size()));
+            }
+         }
+      };
+
+      store(filter, createShipment(3), 0, Action.INSERT);
+
+      assertEquals(new Integer(2), storedAtEnd.elementAt(0));
+      assertEquals(new Integer(3), storedAtEnd.elementAt(1));
+      assertEquals(new Integer(4), storedAtEnd.elementAt(2));
+      assertEquals("Shipments(Id=1, Carrier=Post)", m_dataHandler.stored.elementAt(0));
+      assertEquals("Parcels(ShipmentId=1, Number=3, Weight=30)", m_dataHandler.stored.elementAt(3));
+   }
+
+   public void testDeleteIsNotSupported()
+      throws Exception
+   {
+      try
+      {
+         store(StoreTestUtils.createXMLReader(), createShipment(1), 0, Action.DELETE);
+         fail("DELETE action accepted.");
+      }
+      catch (XMLMiddlewareException e)
+      {
+         assertTrue(e.getMessage().indexOf("DELETE") != -1);
+      }
+   }
+
+   public void testCallsDoNotShareState()
+      throws Exception
+   {
+      final SAXToDBMS            saxToDBMS = new SAXToDBMS();
+      final RecordingDataHandler nested = new RecordingDataHandler();
+
+      // Store a second document with the same SAXToDBMS object while the
+      // first is being parsed. Neither document sees the other's open
+      // elements or rows.
+
+      XMLFilterImpl filter = new XMLFilterImpl(StoreTestUtils.createXMLReader())
+      {
+         public void endElement(String uri, String localName, String qName)
+            throws SAXException
+         {
+            super.endElement(uri, localName, qName);
+            if (localName.equals("Parcel") && nested.stored.isEmpty())
+            {
+               try
+               {
+                  saxToDBMS.storeDocument(new DBEnabledMap(m_map, null, nested), StoreTestUtils.createXMLReader(),
+                                          new InputSource(new StringReader(createShipment(2))), Action.INSERT);
+               }
+               catch (Exception e)
+               {
+                  throw new SAXException(e);
+               }
+            }
+         }
+      };
+
+      saxToDBMS.storeDocument(new DBEnabledMap(m_map, null, m_dataHandler), filter,
+                              new InputSource(new StringReader(createShipment(3))), Action.INSERT);
+
+      assertEquals(3, nested.stored.size());
+      assertEquals(4, m_dataHandler.stored.size());
+      assertEquals("Parcels(ShipmentId=1, Number=3, Weight=30)", m_dataHandler.stored.elementAt(3));
+   }
+
+   public void testObjectIsReusableAfterFailedCall()
+      throws Exception
+   {
+      SAXToDBMS            saxToDBMS = new SAXToDBMS();
+      RecordingDataHandler fresh = new RecordingDataHandler();
+      String               xml = DOMToDBMSTest.createOrders(2, 1);
+
+      // The document is cut off in the middle of an element, so the call
+      // fails with open elements and unprocessed text.
+
+      try
+      {
+         saxToDBMS.storeDocument(new DBEnabledMap(m_map, null, new RecordingDataHandler()), StoreTestUtils.createXMLReader(),
+                                 new InputSource(new StringReader(xml.substring(0, xml.lastIndexOf("</Quantity>")))), Action.INSERT);
+         fail("Unterminated document stored.");
+      }
+      catch (XMLMiddlewareException e)
+      {
+      }
+
+      saxToDBMS.storeDocument(new DBEnabledMap(m_map, null, m_dataHandler), StoreTestUtils.createXMLReader(),
+                              new InputSource(new StringReader(xml)), Action.INSERT);
+      new SAXToDBMS().storeDocument(new DBEnabledMap(m_map, null, fresh), StoreTestUtils.createXMLReader(),
+                                    new InputSource(new StringReader(xml)), Action.INSERT);
+
+      assertEquals(fresh.stored, m_dataHandler.stored);
+   }
+}
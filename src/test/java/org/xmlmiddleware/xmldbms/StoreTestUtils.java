@@ -0,0 +1,76 @@
+// This software is in the public domain.
+//
+// The software is provided "as is", without warranty of any kind,
+// express or implied, including but not limited to the warranties
+// of merchantability, fitness for a particular purpose, and
+// noninfringement. In no event shall the author(s) be liable for any
+// claim, damages, or other liability, whether in an action of
+// contract, tort, or otherwise, arising from, out of, or in connection
+// with the software or the use or other dealings in the software.
+
+package org.xmlmiddleware.xmldbms;
+
+import org.xmlmiddleware.xmldbms.maps.*;
+import org.xmlmiddleware.xmldbms.maps.factories.*;
+
+import java.io.*;
+import javax.xml.parsers.*;
+
+import org.w3c.dom.*;
+import org.xml.sax.*;
+
+/**
+ * Helper methods for the tests of the store and retrieve engines.
+ */
+
+class StoreTestUtils
+{
+   // The DTDs are not test resources, so they are read from the source tree.
+   // Tests are run from the project directory.
+
+   private static final String DTDDIR = "src/main/dtds/";
+
+   /**
+    * Compile a map in the test resources of this package.
+    */
+   static XMLDBMSMap compileMap(String name)
+      throws Exception
+   {
+      MapCompiler compiler = new MapCompiler(createXMLReader());
+      return compiler.compile(new InputSource(StoreTestUtils.class.getResource(name).toString()));
+   }
+
+   /**
+    * Create an XMLReader that supports namespaces and reads DTDs from the source tree.
+    */
+   static XMLReader createXMLReader()
+      throws Exception
+   {
+      SAXParserFactory factory = SAXParserFactory.newInstance();
+      XMLReader        xmlReader;
+
+      factory.setNamespaceAware(true);
+      xmlReader = factory.newSAXParser().getXMLReader();
+      xmlReader.setEntityResolver(new EntityResolver()
+      {
+         public InputSource resolveEntity(String publicId, String systemId)
+         {
+            if ((systemId == null) || !systemId.endsWith(".dtd")) return null;
+            return new InputSource(new File(DTDDIR + systemId.substring(systemId.lastIndexOf('/') + 1)).toURI().toString());
+         }
+      });
+      return xmlReader;
+   }
+
+   /**
+    * Parse a string into a DOM Document.
+    */
+   static Document parse(String xml)
+      throws Exception
+   {
+      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+
+      factory.setNamespaceAware(true);
+      return factory.newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+   }
+}
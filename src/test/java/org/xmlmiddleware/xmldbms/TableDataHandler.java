@@ -0,0 +1,178 @@
+// This software is in the public domain.
+//
+// The software is provided "as is", without warranty of any kind,
+// express or implied, including but not limited to the warranties
+// of merchantability, fitness for a particular purpose, and
+// noninfringement. In no event shall the author(s) be liable for any
+// claim, damages, or other liability, whether in an action of
+// contract, tort, or otherwise, arising from, out of, or in connection
+// with the software or the use or other dealings in the software.
+
+package org.xmlmiddleware.xmldbms;
+
+import org.xmlmiddleware.db.*;
+import org.xmlmiddleware.xmldbms.maps.*;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * A RecordingDataHandler that selects rows from tables held in memory.
+ *
+ * <p>select and selectForKeys return the rows of a table whose key matches
+ * the given key values, sorted by the order column, if any. Rows with a NULL
+ * order value are returned after the other rows, and rows with the same
+ * order value are returned in the order they were added. WHERE conditions
+ * are not evaluated, so filters used with this class must select every row.</p>
+ *
+ * <p>Rows stored through the DataHandler methods are added to the tables, so
+ * documents stored with DOMToDBMS can be retrieved again.</p>
+ */
+
+public class TableDataHandler extends RecordingDataHandler
+{
+   /** The rows in each table, indexed by table name. Each row is a Hashtable of column name -> value. */
+   public Hashtable tables = new Hashtable();
+
+   // ********************************************************************
+   // Rows
+   // ********************************************************************
+
+   /**
+    * Add a row to a table.
+    *
+    * @param tableName The name of the table.
+    * @param names The column names.
+    * @param values The column values. Null values are not added.
+    */
+   public void addRow(String tableName, String[] names, Object[] values)
+   {
+      Hashtable row = new Hashtable();
+
+      for (int i = 0; i < names.length; i++)
+      {
+         if (values[i] != null) row.put(names[i], values[i]);
+      }
+      getRows(tableName).addElement(row);
+   }
+
+   void rowStored(Table table, Row row)
+   {
+      Hashtable values = new Hashtable();
+      Column    column;
+      Object    value;
+
+      // As in a database, values stored in character columns are strings,
+      // even if they were copied from a numeric key.
+
+      for (int i = 0; i < table.getOrdinalCount(); i++)
+      {
+         column = table.getColumn(i);
+         if (column == null) continue;
+         value = row.getColumnValue(column);
+         if (value == null) continue;
+         if (JDBCTypes.typeIsChar(column.getType())) value = value.toString();
+         values.put(column.getName(), value);
+      }
+      getRows(table.getTableName()).addElement(values);
+   }
+
+   // ********************************************************************
+   // DataHandler methods
+   // ********************************************************************
+
+   public ResultSet select(Table table, Key key, Vector keyValue, String where, Vector paramColumns, Vector paramValues, OrderInfo orderInfo)
+      throws SQLException
+   {
+      Vector keyValues = new Vector();
+
+      executeBatch();
+      log.addElement("select " + table.getTableName());
+      if (keyValue != null) keyValues.addElement(keyValue);
+      return createResultSet(table, getRows(table, (key == null) ? null : key.getColumns(), keyValues, orderInfo));
+   }
+
+   public ResultSet selectForKeys(Table table, Key key, Vector keyValues, String where, Vector paramColumns, Vector paramValues, OrderInfo orderInfo)
+      throws SQLException
+   {
+      executeBatch();
+      log.addElement("selectForKeys " + table.getTableName() + " " + keyValues.size());
+      return createResultSet(table, getRows(table, key.getColumns(), keyValues, orderInfo));
+   }
+
+   // ********************************************************************
+   // Helper methods
+   // ********************************************************************
+
+   private Vector getRows(String tableName)
+   {
+      Vector rows = (Vector)tables.get(tableName);
+
+      if (rows == null)
+      {
+         rows = new Vector();
+         tables.put(tableName, rows);
+      }
+      return rows;
+   }
+
+   private Vector getRows(Table table, Vector keyColumns, Vector keyValues, OrderInfo orderInfo)
+   {
+      Vector    rows = getRows(table.getTableName()), selected = new Vector();
+      Hashtable row;
+
+      for (int i = 0; i < rows.size(); i++)
+      {
+         row = (Hashtable)rows.elementAt(i);
+         if ((keyColumns == null) || matchesAny(row, keyColumns, keyValues)) selected.addElement(row);
+      }
+
+      if ((orderInfo != null) && !orderInfo.orderValueIsFixed())
+      {
+         final String  name = orderInfo.getOrderColumn().getName();
+         final boolean ascending = orderInfo.isAscending();
+
+         Collections.sort(selected, new Comparator()
+         {
+            public int compare(Object o1, Object o2)
+            {
+               Object v1 = ((Hashtable)o1).get(name), v2 = ((Hashtable)o2).get(name);
+               double d;
+
+               if ((v1 == null) || (v2 == null)) return ((v1 == null) ? 1 : 0) - ((v2 == null) ? 1 : 0);
+               d = ((Number)v1).doubleValue() - ((Number)v2).doubleValue();
+               return (d == 0) ? 0 : ((d < 0) == ascending) ? -1 : 1;
+            }
+         });
+      }
+      return selected;
+   }
+
+   private boolean matchesAny(Hashtable row, Vector keyColumns, Vector keyValues)
+   {
+      Vector  keyValue;
+      boolean matches;
+
+      for (int i = 0; i < keyValues.size(); i++)
+      {
+         keyValue = (Vector)keyValues.elementAt(i);
+         matches = true;
+         for (int j = 0; matches && (j < keyColumns.size()); j++)
+         {
+            matches = equal(row.get(((Column)keyColumns.elementAt(j)).getName()), keyValue.elementAt(j));
+         }
+         if (matches) return true;
+      }
+      return false;
+   }
+
+   private static boolean equal(Object o1, Object o2)
+   {
+      // NULL is not equal to anything. Numbers are compared by value.
+
+      if ((o1 == null) || (o2 == null)) return false;
+      if ((o1 instanceof Number) && (o2 instanceof Number))
+         return ((Number)o1).doubleValue() == ((Number)o2).doubleValue();
+      return o1.equals(o2);
+   }
+}
@@ -0,0 +1,545 @@
+// This software is in the public domain.
+//
+// The software is provided "as is", without warranty of any kind,
+// express or implied, including but not limited to the warranties
+// of merchantability, fitness for a particular purpose, and
+// noninfringement. In no event shall the author(s) be liable for any
+// claim, damages, or other liability, whether in an action of
+// contract, tort, or otherwise, arising from, out of, or in connection
+// with the software or the use or other dealings in the software.
+
+package org.xmlmiddleware.xmldbms.datahandlers;
+
+import org.xmlmiddleware.xmldbms.*;
+import org.xmlmiddleware.xmldbms.maps.*;
+
+import java.lang.reflect.*;
+import java.sql.*;
+import java.util.*;
+import javax.sql.*;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for batching in DataHandlerBase.
+ *
+ * <p>The DataHandler uses a Connection that logs the statements it
+ * prepares and executes. Log entries name the table of the statement, so
+ * "addBatch Parent [1, a]" means a row with the values 1 and a was added to
+ * a batch for an INSERT into Parent.</p>
+ */
+
+public class DataHandlerBaseTest extends TestCase
+{
+   private Vector      m_log = new Vector();
+   private int         m_nextKey = 1;
+   private String      m_product = "Test";
+   private TestHandler m_handler;
+   private Table       m_parent, m_child, m_other;
+   private Column      m_id, m_name, m_parentId, m_text, m_x;
+
+   protected void setUp()
+      throws Exception
+   {
+      Key    primaryKey, foreignKey;
+      Vector cols;
+
+      m_parent = Table.create(null, null, null, "Parent");
+      m_id = m_parent.createColumn("Id");
+      m_name = m_parent.createColumn("Name");
+      m_id.setType(Types.INTEGER);
+      m_name.setType(Types.VARCHAR);
+      primaryKey = m_parent.createPrimaryKey(null);
+      cols = new Vector();
+      cols.addElement(m_id);
+      primaryKey.setColumns(cols);
+
+      m_child = Table.create(null, null, null, "Child");
+      m_parentId = m_child.createColumn("ParentId");
+      m_text = m_child.createColumn("Text");
+      m_parentId.setType(Types.INTEGER);
+      m_text.setType(Types.VARCHAR);
+      foreignKey = m_child.createForeignKey("ParentFK");
+      cols = new Vector();
+      cols.addElement(m_parentId);
+      foreignKey.setColumns(cols);
+      foreignKey.setRemoteKey(m_parent, primaryKey);
+
+      m_other = Table.create(null, null, null, "Other");
+      m_x = m_other.createColumn("X");
+      m_x.setType(Types.VARCHAR);
+
+      m_handler = new TestHandler();
+      m_handler.initialize((DataSource)createProxy(DataSource.class, null), null, null);
+   }
+
+   /**
+    * A GenericHandler that can batch rows with database-generated keys.
+    */
+   static class TestHandler extends GenericHandler
+   {
+      boolean batchKeys = false;
+
+      protected boolean canBatchGeneratedKeys(Table table)
+      {
+         return batchKeys;
+      }
+   }
+
+   // ************************************************************************
+   // JDBC objects
+   // ************************************************************************
+
+   private Object createProxy(Class type, String sql)
+   {
+      return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {type}, new Handler(sql));
+   }
+
+   class Handler implements InvocationHandler
+   {
+      String    sql;
+      Hashtable params = new Hashtable();
+      int       batchedRows = 0, keys = 0;
+
+      Handler(String sql)
+      {
+         this.sql = sql;
+      }
+
+      public Object invoke(Object proxy, Method method, Object[] args)
+         throws Throwable
+      {
+         String name = method.getName();
+
+         if (name.equals("getConnection"))
+            return createProxy(Connection.class, null);
+         if (name.equals("getMetaData"))
+            return createProxy(DatabaseMetaData.class, null);
+         if (name.equals("getIdentifierQuoteString"))
+            return "";
+         if (name.equals("getDatabaseProductName"))
+            return m_product;
+         if (name.equals("getAutoCommit"))
+            return Boolean.TRUE;
+         if (name.equals("prepareStatement"))
+         {
+            m_log.addElement("prepare " + args[0] + ((args.length > 1) ? " " + Arrays.asList((String[])args[1]) : ""));
+            return createProxy(PreparedStatement.class, (String)args[0]);
+         }
+         if (name.equals("addBatch"))
+         {
+            m_log.addElement("addBatch " + getTable() + " " + getParams());
+            batchedRows++;
+            return null;
+         }
+         if (name.equals("executeBatch"))
+         {
+            m_log.addElement("executeBatch " + getTable());
+            keys = batchedRows;
+            batchedRows = 0;
+            return new int[keys];
+         }
+         if (name.equals("executeUpdate"))
+         {
+            m_log.addElement("executeUpdate " + getTable() + " " + getParams());
+            return new Integer(1);
+         }
+         if (name.equals("executeQuery"))
+         {
+            m_log.addElement("executeQuery " + getParams());
+            return null;
+         }
+         if (name.equals("getGeneratedKeys"))
+         {
+            Handler handler = new Handler(null);
+
+            handler.keys = keys;
+            return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {ResultSet.class}, handler);
+         }
+         if (name.equals("next"))
+            return new Boolean(keys-- > 0);
+         if (name.equals("getObject"))
+            return new Integer(m_nextKey++);
+         if (name.equals("commit"))
+         {
+            m_log.addElement("commit");
+            return null;
+         }
+         if (name.equals("rollback"))
+         {
+            m_log.addElement((args == null) ? "rollback" : "rollback " + args[0]);
+            return null;
+         }
+         if (name.equals("setSavepoint"))
+         {
+            m_log.addElement("setSavepoint");
+            return createProxy(Savepoint.class, "savepoint");
+         }
+         if (name.equals("releaseSavepoint"))
+         {
+            m_log.addElement("releaseSavepoint " + args[0]);
+            return null;
+         }
+         if (name.startsWith("set") && (args != null) && (args.length == 2) && (args[0] instanceof Integer))
+         {
+            params.put(args[0], args[1]);
+            return null;
+         }
+         if (name.equals("equals"))
+            return new Boolean(proxy == args[0]);
+         if (name.equals("hashCode"))
+            return new Integer(System.identityHashCode(proxy));
+         if (name.equals("toString"))
+            return String.valueOf(sql);
+         if (method.getReturnType() == Boolean.TYPE)
+            return Boolean.FALSE;
+         if (method.getReturnType() == Integer.TYPE)
+            return new Integer(0);
+         return null;
+      }
+
+      private String getTable()
+      {
+         int start = sql.indexOf("INTO ") + 5;
+
+         return sql.substring(start, sql.indexOf(' ', start));
+      }
+
+      private Vector getParams()
+      {
+         Vector values = new Vector();
+
+         for (int i = 1; params.containsKey(new Integer(i)); i++)
+         {
+            values.addElement(params.get(new Integer(i)));
+         }
+         return values;
+      }
+   }
+
+   // ************************************************************************
+   // Helpers
+   // ************************************************************************
+
+   /**
+    * Create a new DataHandler for a database product.
+    */
+   private void createHandler(String product)
+      throws Exception
+   {
+      m_product = product;
+      m_handler = new TestHandler();
+      m_handler.initialize((DataSource)createProxy(DataSource.class, null), null, null);
+   }
+
+   private Row parentRow(int id, String name)
+   {
+      Row row = new Row();
+
+      if (id != 0) row.setColumnValue(m_id, new Integer(id));
+      row.setColumnValue(m_name, name);
+      return row;
+   }
+
+   private Row childRow(int parentId, String text)
+   {
+      Row row = new Row();
+
+      row.setColumnValue(m_parentId, new Integer(parentId));
+      row.setColumnValue(m_text, text);
+      return row;
+   }
+
+   private Row otherRow(String x)
+   {
+      Row row = new Row();
+
+      row.setColumnValue(m_x, x);
+      return row;
+   }
+
+   /**
+    * Get the log entries that start with a prefix.
+    */
+   private Vector getLog(String prefix)
+   {
+      Vector entries = new Vector();
+
+      for (int i = 0; i < m_log.size(); i++)
+      {
+         if (((String)m_log.elementAt(i)).startsWith(prefix)) entries.addElement(m_log.elementAt(i));
+      }
+      return entries;
+   }
+
+   /**
+    * Get the log entries other than prepared statements.
+    */
+   private Vector getStatementLog()
+   {
+      Vector entries = new Vector();
+
+      for (int i = 0; i < m_log.size(); i++)
+      {
+         if (!((String)m_log.elementAt(i)).startsWith("prepare")) entries.addElement(m_log.elementAt(i));
+      }
+      return entries;
+   }
+
+   private static Vector vector(Object[] entries)
+   {
+      return new Vector(Arrays.asList(entries));
+   }
+
+   // ************************************************************************
+   // Flush boundaries
+   // ************************************************************************
+
+   public void testRowsAreInsertedImmediatelyWithoutBatchSize()
+      throws Exception
+   {
+      m_handler.batchInsert(m_parent, parentRow(1, "a"));
+
+      assertEquals(vector(new String[] {"executeUpdate Parent [1, a]"}), getLog("execute"));
+      assertEquals(0, getLog("addBatch").size());
+      assertEquals(0, m_handler.getBatchedRowCount());
+   }
+
+   public void testBatchIsExecutedAtBatchSize()
+      throws Exception
+   {
+      m_handler.setBatchSize(3);
+      m_handler.batchInsert(m_parent, parentRow(1, "a"));
+      m_handler.batchInsert(m_parent, parentRow(2, "b"));
+
+      assertEquals(2, m_handler.getBatchedRowCount());
+      assertEquals(0, getLog("execute").size());
+
+      m_handler.batchInsert(m_parent, parentRow(3, "c"));
+
+      assertEquals(0, m_handler.getBatchedRowCount());
+      assertEquals(3, m_handler.getModifiedRowCount());
+      assertEquals(vector(new String[] {"addBatch Parent [1, a]",
+                                        "addBatch Parent [2, b]",
+                                        "addBatch Parent [3, c]",
+                                        "executeBatch Parent"}), getStatementLog());
+      assertEquals(1, getLog("prepare").size());
+
+      // The next row starts a new batch.
+
+      m_handler.batchInsert(m_parent, parentRow(4, "d"));
+      assertEquals(1, m_handler.getBatchedRowCount());
+   }
+
+   public void testEndDocumentExecutesBatch()
+      throws Exception
+   {
+      m_handler.setBatchSize(10);
+      m_handler.startDocument(DataHandler.COMMIT_AFTERDOCUMENT);
+      m_handler.batchInsert(m_parent, parentRow(1, "a"));
+      m_handler.batchInsert(m_parent, parentRow(2, "b"));
+      m_handler.endDocument();
+
+      assertEquals(vector(new String[] {"addBatch Parent [1, a]",
+                                        "addBatch Parent [2, b]",
+                                        "executeBatch Parent",
+                                        "commit"}), getStatementLog());
+      assertEquals(0, m_handler.getBatchedRowCount());
+   }
+
+   public void testRecoverFromExceptionDiscardsBatch()
+      throws Exception
+   {
+      m_handler.setBatchSize(10);
+      m_handler.batchInsert(m_parent, parentRow(1, "a"));
+      m_handler.recoverFromException();
+      m_handler.executeBatch();
+
+      assertEquals(0, getLog("execute").size());
+      assertEquals(0, m_handler.getBatchedRowCount());
+      assertEquals(0, m_handler.getModifiedRowCount());
+   }
+
+   // ************************************************************************
+   // Ordering
+   // ************************************************************************
+
+   public void testBatchesAreExecutedInOrderStarted()
+      throws Exception
+   {
+      m_handler.setBatchSize(10);
+      m_handler.batchInsert(m_parent, parentRow(1, "a"));
+      m_handler.batchInsert(m_child, childRow(1, "c1"));
+      m_handler.batchInsert(m_other, otherRow("x"));
+      m_handler.batchInsert(m_parent, parentRow(2, "b"));
+      m_handler.batchInsert(m_child, childRow(2, "c2"));
+      m_handler.executeBatch();
+
+      assertEquals(vector(new String[] {"executeBatch Parent",
+                                        "executeBatch Child",
+                                        "executeBatch Other"}), getLog("execute"));
+      assertEquals(3, getLog("prepare").size());
+      assertEquals(5, m_handler.getModifiedRowCount());
+   }
+
+   public void testBatchReferencingLaterBatchIsExecutedFirst()
+      throws Exception
+   {
+      m_handler.setBatchSize(10);
+      m_handler.batchInsert(m_child, childRow(1, "c1"));
+      m_handler.batchInsert(m_parent, parentRow(2, "b"));
+
+      // c2 may reference b, so it can't be added to the Child batch, which is
+      // executed before the Parent batch.
+
+      m_handler.batchInsert(m_child, childRow(2, "c2"));
+
+      assertEquals(vector(new String[] {"executeBatch Child",
+                                        "executeBatch Parent"}), getLog("execute"));
+      assertEquals(1, m_handler.getBatchedRowCount());
+      assertEquals("addBatch Child [2, c2]", m_log.lastElement());
+   }
+
+   public void testRowInUnrelatedTableDoesNotExecuteBatch()
+      throws Exception
+   {
+      m_handler.setBatchSize(10);
+      m_handler.batchInsert(m_other, otherRow("x"));
+      m_handler.batchInsert(m_parent, parentRow(1, "a"));
+      m_handler.batchInsert(m_other, otherRow("y"));
+
+      assertEquals(0, getLog("execute").size());
+      assertEquals(3, m_handler.getBatchedRowCount());
+   }
+
+   public void testUnbatchedInsertExecutesBatchFirst()
+      throws Exception
+   {
+      m_handler.setBatchSize(10);
+      m_handler.batchInsert(m_parent, parentRow(1, "a"));
+      m_handler.insert(m_child, childRow(1, "c1"));
+
+      assertEquals(vector(new String[] {"executeBatch Parent",
+                                        "executeUpdate Child [1, c1]"}), getLog("execute"));
+   }
+
+   // ************************************************************************
+   // Statement reuse
+   // ************************************************************************
+
+   public void testBatchStatementIsReusedAfterFlush()
+      throws Exception
+   {
+      m_handler.setBatchSize(2);
+      m_handler.batchInsert(m_parent, parentRow(1, "a"));
+      m_handler.batchInsert(m_parent, parentRow(2, "b"));
+      m_handler.batchInsert(m_parent, parentRow(3, "c"));
+      m_handler.batchInsert(m_parent, parentRow(4, "d"));
+      m_handler.insert(m_parent, parentRow(5, "e"));
+
+      assertEquals(vector(new String[] {"executeBatch Parent",
+                                        "executeBatch Parent",
+                                        "executeUpdate Parent [5, e]"}), getLog("execute"));
+      assertEquals(1, getLog("prepare").size());
+   }
+
+   public void testUpsertStatementIsReused()
+      throws Exception
+   {
+      createHandler("H2");
+      m_handler.setBatchSize(2);
+      m_handler.batchUpdateOrInsert(m_parent, parentRow(1, "a"));
+      m_handler.batchUpdateOrInsert(m_parent, parentRow(2, "b"));
+      m_handler.batchUpdateOrInsert(m_parent, parentRow(3, "c"));
+      m_handler.updateOrInsert(m_parent, parentRow(4, "d"));
+
+      assertEquals(vector(new String[] {"executeBatch Parent",
+                                        "executeBatch Parent",
+                                        "executeUpdate Parent [4, d]"}), getLog("execute"));
+      assertEquals(1, getLog("prepare MERGE").size());
+      assertEquals(1, getLog("prepare").size());
+   }
+
+   public void testBatchedStatementsAreNotEvicted()
+      throws Exception
+   {
+      m_handler.getInsertCache().setMaxSize(1);
+      m_handler.setBatchSize(10);
+      m_handler.batchInsert(m_parent, parentRow(1, "a"));
+      m_handler.batchInsert(m_child, childRow(1, "c1"));
+      m_handler.batchInsert(m_other, otherRow("x"));
+      assertEquals(3, m_handler.getInsertCache().getSize());
+
+      m_handler.executeBatch();
+
+      assertEquals(vector(new String[] {"executeBatch Parent",
+                                        "executeBatch Child",
+                                        "executeBatch Other"}), getLog("execute"));
+      assertEquals(1, m_handler.getInsertCache().getSize());
+   }
+
+   // ************************************************************************
+   // SELECT for several key values
+   // ************************************************************************
+
+   public void testSelectForKeysSetsKeyParametersBeforeWhereParameters()
+      throws Exception
+   {
+      Vector keyValues = new Vector(), paramColumns = new Vector(), paramValues = new Vector();
+      String select;
+
+      keyValues.addElement(vector(new Object[] {new Integer(1)}));
+      keyValues.addElement(vector(new Object[] {new Integer(2)}));
+      paramColumns.addElement(m_name);
+      paramValues.addElement("x");
+
+      m_handler.selectForKeys(m_parent, m_parent.getPrimaryKey(), keyValues, "Name = ?", paramColumns, paramValues, null);
+
+      // The markers for the key values come before the WHERE markers.
+
+      select = (String)getLog("prepare").elementAt(0);
+      assertTrue(select, select.endsWith(" FROM Parent WHERE Id IN (? , ? ) AND Name = ?"));
+      assertEquals(vector(new String[] {"executeQuery [1, 2, x]"}), getLog("executeQuery"));
+   }
+
+   // ************************************************************************
+   // Upserts
+   // ************************************************************************
+
+   private String getMerge(String product)
+      throws Exception
+   {
+      Vector merges;
+
+      createHandler(product);
+      m_handler.updateOrInsert(m_parent, parentRow(1, "a"));
+
+      merges = getLog("prepare MERGE");
+      return (merges.size() == 0) ? null : (String)merges.elementAt(0);
+   }
+
+   public void testSQLServerMergeIsTerminated()
+      throws Exception
+   {
+      String merge = getMerge("Microsoft SQL Server");
+
+      assertNotNull(merge);
+      assertTrue(merge, merge.endsWith(");"));
+   }
+
+   public void testOtherMergesAreNotTerminated()
+      throws Exception
+   {
+      String merge = getMerge("H2");
+
+      assertNotNull(merge);
+      assertTrue(merge, merge.endsWith(")"));
+   }
+
+   public void testUnknownDatabaseDoesNotMerge()
+      throws Exception
+   {
+      assertNull(getMerge("Test"));
+      assertEquals(1, getLog("prepare UPDATE").size());
+   }
+}
@@ -0,0 +1,152 @@
+// This software is in the public domain.
+//
+// The software is provided "as is", without warranty of any kind,
+// express or implied, including but not limited to the warranties
+// of merchantability, fitness for a particular purpose, and
+// noninfringement. In no event shall the author(s) be liable for any
+// claim, damages, or other liability, whether in an action of
+// contract, tort, or otherwise, arising from, out of, or in connection
+// with the software or the use or other dealings in the software.
+
+package org.xmlmiddleware.xmldbms.datahandlers;
+
+import org.xmlmiddleware.xmldbms.*;
+import org.xmlmiddleware.xmldbms.maps.*;
+
+import java.sql.*;
+import java.util.*;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for DeferredDataHandler.
+ *
+ * <p>Recorded operations are executed against a RecordingDataHandler, whose
+ * log shows the calls that were replayed.</p>
+ */
+
+public class DeferredDataHandlerTest extends TestCase
+{
+   private DeferredDataHandler  m_deferred;
+   private RecordingDataHandler m_recorder;
+   private Table                m_table;
+   private Column               m_a;
+
+   protected void setUp()
+   {
+      m_deferred = new DeferredDataHandler();
+      m_recorder = new RecordingDataHandler();
+      m_table = Table.create(null, null, null, "T");
+      m_a = m_table.createColumn("A");
+      m_a.setType(Types.VARCHAR);
+   }
+
+   private Row row(String value)
+   {
+      Row row = new Row();
+
+      row.setColumnValue(m_a, value);
+      return row;
+   }
+
+   private void replay()
+      throws SQLException
+   {
+      DeferredDataHandler.execute(m_deferred.removeOperations(), m_recorder);
+   }
+
+   // ************************************************************************
+   // Replay
+   // ************************************************************************
+
+   public void testOperationsAreReplayedInOrder()
+      throws Exception
+   {
+      Key    key = m_table.createPrimaryKey(null);
+      Vector columns = new Vector();
+
+      columns.addElement(m_a);
+      key.setColumns(columns);
+      m_recorder.setBatchSize(10);
+
+      m_deferred.insert(m_table, row("1"));
+      m_deferred.batchInsert(m_table, row("2"));
+      m_deferred.batchInsert(m_table, row("3"));
+      m_deferred.executeBatch();
+      m_deferred.update(m_table, row("1"), columns);
+      m_deferred.updateOrInsert(m_table, row("4"));
+      m_deferred.delete(m_table, row("2"), key);
+      replay();
+
+      assertEquals("[insert T, batchInsert T, batchInsert T, executeBatch, " +
+                   "update T, updateOrInsert T, delete T]",
+                   m_recorder.log.toString());
+      assertEquals("[T(A=1), T(A=2), T(A=3), update T(A=1), T(A=4), delete T(A=2)]",
+                   m_recorder.stored.toString());
+   }
+
+   public void testRemoveOperationsStartsNewList()
+      throws Exception
+   {
+      Vector first;
+
+      m_deferred.insert(m_table, row("1"));
+      first = m_deferred.removeOperations();
+      m_deferred.insert(m_table, row("2"));
+
+      DeferredDataHandler.execute(first, m_recorder);
+      assertEquals("[T(A=1)]", m_recorder.stored.toString());
+
+      replay();
+      assertEquals("[T(A=1), T(A=2)]", m_recorder.stored.toString());
+      assertEquals(0, m_deferred.removeOperations().size());
+   }
+
+   public void testReplayStopsAtFailedOperation()
+      throws Exception
+   {
+      final SQLException failure = new SQLException("insert failed");
+
+      m_recorder = new RecordingDataHandler()
+      {
+         public void insert(Table table, Row row)
+            throws SQLException
+         {
+            if ("2".equals(row.getColumnValue(m_a))) throw failure;
+            super.insert(table, row);
+         }
+      };
+
+      m_deferred.insert(m_table, row("1"));
+      m_deferred.insert(m_table, row("2"));
+      m_deferred.insert(m_table, row("3"));
+
+      try
+      {
+         replay();
+         fail("Failed insert not reported.");
+      }
+      catch (SQLException e)
+      {
+         assertSame(failure, e);
+      }
+      assertEquals("[T(A=1)]", m_recorder.stored.toString());
+   }
+
+   public void testDatabaseGeneratedKeysAreRejected()
+      throws Exception
+   {
+      Key key = m_table.createPrimaryKey(null);
+
+      key.setKeyGeneration(Key.DATABASE, null);
+      try
+      {
+         m_deferred.insert(m_table, row("1"));
+         fail("Row with database-generated key deferred.");
+      }
+      catch (SQLException e)
+      {
+      }
+      assertEquals(0, m_deferred.removeOperations().size());
+   }
+}
@@ -0,0 +1,278 @@
+// This software is in the public domain.
+//
+// The software is provided "as is", without warranty of any kind,
+// express or implied, including but not limited to the warranties
+// of merchantability, fitness for a particular purpose, and
+// noninfringement. In no event shall the author(s) be liable for any
+// claim, damages, or other liability, whether in an action of
+// contract, tort, or otherwise, arising from, out of, or in connection
+// with the software or the use or other dealings in the software.
+
+package org.xmlmiddleware.xmldbms.datahandlers;
+
+import org.xmlmiddleware.xmldbms.*;
+import org.xmlmiddleware.xmldbms.maps.*;
+import org.xmlmiddleware.xmldbms.maps.utils.*;
+
+import java.lang.reflect.*;
+import java.sql.*;
+import java.util.*;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for InsertCache.
+ *
+ * <p>The cache prepares statements on a Connection that records the SQL
+ * strings it prepares and the statements that are closed.</p>
+ */
+
+public class InsertCacheTest extends TestCase
+{
+   private Vector      m_prepared = new Vector();  // SQL strings, in order prepared
+   private Vector      m_closed = new Vector();    // SQL strings of closed statements
+   private boolean     m_fail = false;             // Whether executeUpdate fails
+   private InsertCache m_cache;
+   private Table       m_table;
+   private Column      m_a, m_b, m_c;
+
+   protected void setUp()
+      throws Exception
+   {
+      Connection conn = (Connection)createProxy(Connection.class, null);
+
+      m_cache = new InsertCache(conn, new DMLGenerator(conn.getMetaData()));
+      m_table = Table.create(null, null, null, "T");
+      m_a = m_table.createColumn("A");
+      m_b = m_table.createColumn("B");
+      m_c = m_table.createColumn("C");
+      m_a.setType(Types.VARCHAR);
+      m_b.setType(Types.VARCHAR);
+      m_c.setType(Types.VARCHAR);
+   }
+
+   private Object createProxy(final Class type, final String sql)
+   {
+      InvocationHandler handler = new InvocationHandler()
+      {
+         public Object invoke(Object proxy, Method method, Object[] args)
+            throws Throwable
+         {
+            String name = method.getName();
+
+            if (name.equals("getMetaData"))
+               return createProxy(DatabaseMetaData.class, null);
+            if (name.equals("getIdentifierQuoteString"))
+               return "";
+            if (name.equals("prepareStatement"))
+            {
+               m_prepared.addElement(args[0]);
+               return createProxy(PreparedStatement.class, (String)args[0]);
+            }
+            if (name.equals("executeUpdate"))
+            {
+               if (m_fail) throw new SQLException("Failed.");
+               return new Integer(1);
+            }
+            if (name.equals("close"))
+            {
+               m_closed.addElement(sql);
+               return null;
+            }
+            if (name.equals("equals"))
+               return new Boolean(proxy == args[0]);
+            if (name.equals("hashCode"))
+               return new Integer(System.identityHashCode(proxy));
+            if (name.equals("toString"))
+               return String.valueOf(sql);
+            if (method.getReturnType() == Boolean.TYPE)
+               return Boolean.FALSE;
+            return null;
+         }
+      };
+      return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {type}, handler);
+   }
+
+   private PreparedStatement insert(Column c1, Column c2)
+      throws SQLException
+   {
+      Row row = new Row();
+
+      row.setColumnValue(c1, "1");
+      if (c2 != null) row.setColumnValue(c2, "2");
+      return m_cache.getInsert(m_table, row);
+   }
+
+   private String sql(String cols, String params)
+   {
+      return "INSERT INTO T (" + cols + ") VALUES (" + params + ")";
+   }
+
+   // ************************************************************************
+   // Hits and misses
+   // ************************************************************************
+
+   public void testRowsWithSameColumnsShareStatement()
+      throws Exception
+   {
+      PreparedStatement stmt = insert(m_a, m_b);
+
+      assertSame(stmt, insert(m_a, m_b));
+      assertEquals(1, m_prepared.size());
+      assertEquals(1, m_cache.getMisses());
+      assertEquals(1, m_cache.getHits());
+   }
+
+   public void testRowsWithDifferentColumnsUseDifferentStatements()
+      throws Exception
+   {
+      insert(m_a, m_b);
+      insert(m_a, null);
+      insert(m_b, m_c);
+
+      assertEquals(3, m_prepared.size());
+      assertEquals(3, m_cache.getSize());
+      assertEquals(sql("A, B", "? , ? "), m_prepared.elementAt(0));
+      assertEquals(sql("A", "? "), m_prepared.elementAt(1));
+   }
+
+   public void testColumnsFromOtherTablesAreIgnored()
+      throws Exception
+   {
+      Table  other = Table.create(null, null, null, "Other");
+      Column x = other.createColumn("X");
+      Row    row = new Row();
+
+      row.setColumnValue(m_a, "1");
+      row.setColumnValue(x, "x");
+      m_cache.getInsert(m_table, row);
+      insert(m_a, null);
+
+      assertEquals(1, m_prepared.size());
+      assertEquals(sql("A", "? "), m_prepared.elementAt(0));
+   }
+
+   public void testResetStatistics()
+      throws Exception
+   {
+      insert(m_a, null);
+      insert(m_a, null);
+      m_cache.resetStatistics();
+
+      assertEquals(0, m_cache.getHits());
+      assertEquals(0, m_cache.getMisses());
+      assertEquals(1, m_cache.getSize());
+   }
+
+   // ************************************************************************
+   // Eviction
+   // ************************************************************************
+
+   public void testLeastRecentlyUsedStatementIsEvicted()
+      throws Exception
+   {
+      m_cache.setMaxSize(2);
+      insert(m_a, null);
+      insert(m_b, null);
+
+      // Using A makes B the least recently used statement.
+
+      insert(m_a, null);
+      insert(m_c, null);
+
+      assertEquals(2, m_cache.getSize());
+      assertEquals(1, m_closed.size());
+      assertEquals(sql("B", "? "), m_closed.elementAt(0));
+
+      // A is still cached. B must be prepared again, which evicts C.
+
+      insert(m_a, null);
+      assertEquals(3, m_prepared.size());
+      insert(m_b, null);
+      assertEquals(4, m_prepared.size());
+      assertEquals(sql("C", "? "), m_closed.elementAt(1));
+   }
+
+   public void testShrinkingCacheClosesStatements()
+      throws Exception
+   {
+      insert(m_a, null);
+      insert(m_b, null);
+      insert(m_c, null);
+      m_cache.setMaxSize(1);
+
+      assertEquals(1, m_cache.getSize());
+      assertEquals(2, m_closed.size());
+      assertEquals(sql("A", "? "), m_closed.elementAt(0));
+      assertEquals(sql("B", "? "), m_closed.elementAt(1));
+   }
+
+   public void testHeldStatementIsNotEvicted()
+      throws Exception
+   {
+      Row row = new Row();
+
+      m_cache.setMaxSize(1);
+      insert(m_a, null);
+      row.setColumnValue(m_a, "1");
+      m_cache.hold(m_cache.getSignature(m_table, row, InsertCache.TYPE_INSERT));
+      insert(m_b, null);
+
+      assertEquals(2, m_cache.getSize());
+      assertEquals(0, m_closed.size());
+
+      // Once released, the least recently used statement is evicted.
+
+      m_cache.releaseHolds();
+      assertEquals(1, m_cache.getSize());
+      assertEquals(sql("A", "? "), m_closed.elementAt(0));
+   }
+
+   public void testInvalidMaxSizeIsRejected()
+   {
+      try
+      {
+         m_cache.setMaxSize(0);
+         fail("Maximum size of 0 accepted.");
+      }
+      catch (IllegalArgumentException e)
+      {
+      }
+   }
+
+   public void testClearClosesAllStatements()
+      throws Exception
+   {
+      insert(m_a, null);
+      insert(m_b, null);
+      m_cache.clear();
+
+      assertEquals(0, m_cache.getSize());
+      assertEquals(2, m_closed.size());
+   }
+
+   public void testStatementIsReplacedAfterError()
+      throws Exception
+   {
+      PreparedStatement stmt = insert(m_a, null);
+
+      // An error removes the statement from the pool, so the cache must
+      // prepare a new one instead of returning the invalid statement.
+
+      m_fail = true;
+      try
+      {
+         stmt.executeUpdate();
+         fail("executeUpdate did not fail.");
+      }
+      catch (SQLException e)
+      {
+      }
+      m_fail = false;
+
+      assertNotSame(stmt, insert(m_a, null));
+      assertEquals(2, m_prepared.size());
+      assertEquals(1, m_cache.getSize());
+      assertEquals(1, m_closed.size());
+   }
+}
@@ -0,0 +1,247 @@
+// This software is in the public domain.
+//
+// The software is provided "as is", without warranty of any kind,
+// express or implied, including but not limited to the warranties
+// of merchantability, fitness for a particular purpose, and
+// noninfringement. In no event shall the author(s) be liable for any
+// claim, damages, or other liability, whether in an action of
+// contract, tort, or otherwise, arising from, out of, or in connection
+// with the software or the use or other dealings in the software.
+
+package org.xmlmiddleware.xmldbms.keygenerators;
+
+import java.lang.reflect.*;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * A JDBC driver for a database that contains only a high key table.
+ *
+ * <p>Each UPDATE statement increments the high key value and each SELECT
+ * statement returns it. The driver is registered when the class is loaded,
+ * so it can be named in the Driver property used by JDBC1DataSource. URLs
+ * start with "jdbc:highkey:".</p>
+ *
+ * <p>If the driver is blocked, UPDATE statements wait until it is
+ * unblocked. This lets tests hold a fetch of the high key value while it is
+ * in progress.</p>
+ */
+
+public class HighKeyDriver implements Driver
+{
+   /** The URL of the database. */
+   public static final String URL = "jdbc:highkey:";
+
+   private static int     highKey = 0;
+   private static int     updates = 0;
+   private static boolean blocked = false;
+   private static boolean updating = false;
+   private static Vector  sql = new Vector();
+
+   static
+   {
+      try
+      {
+         DriverManager.registerDriver(new HighKeyDriver());
+      }
+      catch (SQLException e)
+      {
+         throw new IllegalStateException(e.getMessage());
+      }
+   }
+
+   // ********************************************************************
+   // Test methods
+   // ********************************************************************
+
+   /**
+    * Set the high key value to 0 and unblock the driver.
+    */
+   public static synchronized void reset()
+   {
+      highKey = 0;
+      updates = 0;
+      blocked = false;
+      updating = false;
+      sql.removeAllElements();
+      HighKeyDriver.class.notifyAll();
+   }
+
+   /**
+    * Get the number of times the high key value has been incremented.
+    */
+   public static synchronized int getUpdates()
+   {
+      return updates;
+   }
+
+   /**
+    * Get the SQL statements that have been executed, in order.
+    */
+   public static synchronized Vector getSQL()
+   {
+      return (Vector)sql.clone();
+   }
+
+   /**
+    * Block or unblock UPDATE statements.
+    */
+   public static synchronized void setBlocked(boolean block)
+   {
+      blocked = block;
+      HighKeyDriver.class.notifyAll();
+   }
+
+   /**
+    * Wait until an UPDATE statement is blocked.
+    */
+   public static synchronized void waitForBlockedUpdate()
+      throws InterruptedException
+   {
+      long deadline = System.currentTimeMillis() + 5000;
+
+      while (!updating && (System.currentTimeMillis() < deadline))
+      {
+         HighKeyDriver.class.wait(100);
+      }
+      if (!updating) throw new IllegalStateException("No UPDATE statement was executed.");
+   }
+
+   /**
+    * Wait until the high key value has been incremented a number of times.
+    */
+   public static synchronized void waitForUpdates(int count)
+      throws InterruptedException
+   {
+      long deadline = System.currentTimeMillis() + 5000;
+
+      while ((updates < count) && (System.currentTimeMillis() < deadline))
+      {
+         HighKeyDriver.class.wait(100);
+      }
+   }
+
+   private static synchronized void update(String statement)
+      throws InterruptedException
+   {
+      sql.addElement(statement);
+      updating = true;
+      HighKeyDriver.class.notifyAll();
+      while (blocked)
+      {
+         HighKeyDriver.class.wait();
+      }
+      updating = false;
+      highKey++;
+      updates++;
+      HighKeyDriver.class.notifyAll();
+   }
+
+   private static synchronized int select(String statement)
+   {
+      sql.addElement(statement);
+      return highKey;
+   }
+
+   // ********************************************************************
+   // Driver methods
+   // ********************************************************************
+
+   public Connection connect(String url, Properties info)
+   {
+      if (!acceptsURL(url)) return null;
+      return (Connection)createProxy(Connection.class, null);
+   }
+
+   public boolean acceptsURL(String url)
+   {
+      return url.startsWith(URL);
+   }
+
+   public DriverPropertyInfo[] getPropertyInfo(String url, Properties info)
+   {
+      return new DriverPropertyInfo[0];
+   }
+
+   public int getMajorVersion()
+   {
+      return 1;
+   }
+
+   public int getMinorVersion()
+   {
+      return 0;
+   }
+
+   public boolean jdbcCompliant()
+   {
+      return false;
+   }
+
+   public java.util.logging.Logger getParentLogger()
+      throws SQLFeatureNotSupportedException
+   {
+      throw new SQLFeatureNotSupportedException();
+   }
+
+   // ********************************************************************
+   // JDBC objects
+   // ********************************************************************
+
+   private static Object createProxy(final Class type, final String statement)
+   {
+      InvocationHandler handler = new InvocationHandler()
+      {
+         boolean beforeFirst = true;
+
+         public Object invoke(Object proxy, Method method, Object[] args)
+            throws Throwable
+         {
+            String name = method.getName();
+
+            if (name.equals("getMetaData"))
+               return createProxy(DatabaseMetaData.class, null);
+            if (name.equals("createStatement"))
+               return createProxy(Statement.class, null);
+            if (name.equals("executeUpdate"))
+            {
+               update((String)args[0]);
+               return new Integer(1);
+            }
+            if (name.equals("executeQuery"))
+               return createProxy(ResultSet.class, (String)args[0]);
+            if (name.equals("next"))
+            {
+               if (!beforeFirst) return Boolean.FALSE;
+               beforeFirst = false;
+               return Boolean.TRUE;
+            }
+            if (name.equals("getInt"))
+               return new Integer(select(statement));
+            if (name.equals("getIdentifierQuoteString"))
+               return "";
+            if (name.equals("getAutoCommit"))
+               return Boolean.TRUE;
+            if (name.equals("equals"))
+               return new Boolean(proxy == args[0]);
+            if (name.equals("hashCode"))
+               return new Integer(System.identityHashCode(proxy));
+            if (name.equals("toString"))
+               return type.getName();
+
+            // Other methods, such as close and commit, do nothing.
+
+            return defaultValue(method.getReturnType());
+         }
+      };
+      return Proxy.newProxyInstance(HighKeyDriver.class.getClassLoader(), new Class[] {type}, handler);
+   }
+
+   private static Object defaultValue(Class type)
+   {
+      if (type == Boolean.TYPE) return Boolean.FALSE;
+      if (type == Integer.TYPE) return new Integer(0);
+      if (type == Long.TYPE) return new Long(0);
+      return null;
+   }
+}
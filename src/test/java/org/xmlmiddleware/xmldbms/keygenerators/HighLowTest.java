@@ -0,0 +1,300 @@
+// This software is in the public domain.
+//
+// The software is provided "as is", without warranty of any kind,
+// express or implied, including but not limited to the warranties
+// of merchantability, fitness for a particular purpose, and
+// noninfringement. In no event shall the author(s) be liable for any
+// claim, damages, or other liability, whether in an action of
+// contract, tort, or otherwise, arising from, out of, or in connection
+// with the software or the use or other dealings in the software.
+
+package org.xmlmiddleware.xmldbms.keygenerators;
+
+import org.xmlmiddleware.utils.*;
+import org.xmlmiddleware.xmldbms.tools.*;
+
+import java.util.*;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for HighLow.
+ *
+ * <p>HighLow uses a HighKeyDriver database. The first high key value it
+ * retrieves is 1, so the first block of keys starts at the block size.</p>
+ */
+
+public class HighLowTest extends TestCase
+{
+   private HighLow m_highLow;
+
+   protected void setUp()
+   {
+      HighKeyDriver.reset();
+   }
+
+   protected void tearDown()
+      throws Exception
+   {
+      HighKeyDriver.setBlocked(false);
+      if (m_highLow != null) m_highLow.close();
+   }
+
+   private HighLow createHighLow(int blockSize, int prefetch)
+      throws Exception
+   {
+      Properties props = new Properties();
+
+      props.put(XMLDBMSProps.DATASOURCECLASS, "org.xmlmiddleware.db.JDBC1DataSource");
+      props.put(XMLDBMSProps.DRIVER, HighKeyDriver.class.getName());
+      props.put(XMLDBMSProps.URL, HighKeyDriver.URL);
+      props.put(HighLow.HIGHLOWBLOCKSIZE, String.valueOf(blockSize));
+      props.put(HighLow.HIGHLOWPREFETCH, String.valueOf(prefetch));
+
+      m_highLow = new HighLow();
+      m_highLow.initialize(props, 0);
+      return m_highLow;
+   }
+
+   private int nextKey()
+      throws Exception
+   {
+      return ((Integer)m_highLow.generateKey().elementAt(0)).intValue();
+   }
+
+   // ************************************************************************
+   // Blocks
+   // ************************************************************************
+
+   public void testKeysComeFromBlocks()
+      throws Exception
+   {
+      createHighLow(4, 0);
+
+      assertEquals(1, HighKeyDriver.getUpdates());
+      for (int i = 4; i < 8; i++)
+      {
+         assertEquals(i, nextKey());
+      }
+      assertEquals(1, HighKeyDriver.getUpdates());
+
+      // The block is used up, so the next key needs a new high key value.
+
+      assertEquals(8, nextKey());
+      assertEquals(2, HighKeyDriver.getUpdates());
+   }
+
+   public void testDefaultTableAndColumn()
+      throws Exception
+   {
+      Vector sql;
+
+      createHighLow(4, 0);
+
+      sql = HighKeyDriver.getSQL();
+      assertEquals("UPDATE XMLDBMSKey SET HighKey = HighKey + 1", sql.elementAt(0));
+      assertEquals("SELECT HighKey FROM XMLDBMSKey", sql.elementAt(1));
+   }
+
+   public void testBlockSizeOfOne()
+      throws Exception
+   {
+      createHighLow(1, 0);
+
+      // Each key needs a new high key value.
+
+      assertEquals(1, nextKey());
+      assertEquals(2, nextKey());
+      assertEquals(2, HighKeyDriver.getUpdates());
+   }
+
+   public void testInvalidBlockSizeIsRejected()
+      throws Exception
+   {
+      try
+      {
+         createHighLow(0, 0);
+         fail("Block size of 0 accepted.");
+      }
+      catch (XMLMiddlewareException e)
+      {
+         m_highLow = null;
+      }
+   }
+
+   public void testInvalidPrefetchIsRejected()
+      throws Exception
+   {
+      try
+      {
+         createHighLow(4, 101);
+         fail("Prefetch of 101% accepted.");
+      }
+      catch (XMLMiddlewareException e)
+      {
+         m_highLow = null;
+      }
+   }
+
+   public void testUninitializedGeneratorFails()
+      throws Exception
+   {
+      try
+      {
+         new HighLow().generateKey();
+         fail("Key generated before initialize.");
+      }
+      catch (IllegalStateException e)
+      {
+      }
+   }
+
+   // ************************************************************************
+   // Prefetching
+   // ************************************************************************
+
+   public void testNextBlockIsPrefetched()
+      throws Exception
+   {
+      createHighLow(10, 50);
+
+      // Using half the block starts a fetch in the background.
+
+      for (int i = 10; i < 15; i++)
+      {
+         assertEquals(i, nextKey());
+      }
+      HighKeyDriver.waitForUpdates(2);
+      assertEquals(2, HighKeyDriver.getUpdates());
+
+      // The rest of the block is used, then the prefetched block.
+
+      for (int i = 15; i < 25; i++)
+      {
+         assertEquals(i, nextKey());
+      }
+      HighKeyDriver.waitForUpdates(3);
+      assertEquals(3, HighKeyDriver.getUpdates());
+      assertEquals(25, nextKey());
+   }
+
+   public void testGenerateKeyWaitsForFetchInProgress()
+      throws Exception
+   {
+      Thread unblocker;
+
+      createHighLow(10, 50);
+      HighKeyDriver.setBlocked(true);
+      for (int i = 10; i < 15; i++)
+      {
+         nextKey();
+      }
+      HighKeyDriver.waitForBlockedUpdate();
+
+      // The prefetch is blocked in the database. Use the rest of the block.
+
+      for (int i = 15; i < 20; i++)
+      {
+         assertEquals(i, nextKey());
+      }
+
+      // The next key must come from the block being fetched: generateKey
+      // waits for the fetch instead of starting a second one.
+
+      unblocker = new Thread()
+      {
+         public void run()
+         {
+            try
+            {
+               Thread.sleep(100);
+            }
+            catch (InterruptedException e)
+            {
+            }
+            HighKeyDriver.setBlocked(false);
+         }
+      };
+      unblocker.start();
+
+      assertEquals(20, nextKey());
+      assertEquals(2, HighKeyDriver.getUpdates());
+      unblocker.join();
+   }
+
+   public void testKeysAreUniqueAcrossThreads()
+      throws Exception
+   {
+      final Hashtable keys = new Hashtable();
+      final Vector    errors = new Vector();
+      Thread[]        threads = new Thread[4];
+
+      createHighLow(16, 50);
+
+      for (int i = 0; i < threads.length; i++)
+      {
+         threads[i] = new Thread()
+         {
+            public void run()
+            {
+               try
+               {
+                  for (int j = 0; j < 500; j++)
+                  {
+                     Object key = m_highLow.generateKey().elementAt(0);
+                     if (keys.put(key, key) != null) errors.addElement("Duplicate key: " + key);
+                  }
+               }
+               catch (Exception e)
+               {
+                  errors.addElement(e.toString());
+               }
+            }
+         };
+         threads[i].start();
+      }
+      for (int i = 0; i < threads.length; i++)
+      {
+         threads[i].join();
+      }
+
+      assertEquals(new Vector(), errors);
+      assertEquals(2000, keys.size());
+   }
+
+   public void testCloseWaitsForFetchInProgress()
+      throws Exception
+   {
+      final HighLow highLow = createHighLow(10, 50);
+      Thread        closer;
+
+      HighKeyDriver.setBlocked(true);
+      for (int i = 0; i < 5; i++)
+      {
+         nextKey();
+      }
+      HighKeyDriver.waitForBlockedUpdate();
+
+      closer = new Thread()
+      {
+         public void run()
+         {
+            try
+            {
+               highLow.close();
+            }
+            catch (XMLMiddlewareException e)
+            {
+            }
+         }
+      };
+      closer.start();
+      closer.join(200);
+      assertTrue(closer.isAlive());
+
+      HighKeyDriver.setBlocked(false);
+      closer.join(5000);
+      assertFalse(closer.isAlive());
+      m_highLow = null;
+   }
+}
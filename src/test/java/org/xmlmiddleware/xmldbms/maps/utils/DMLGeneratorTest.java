@@ -0,0 +1,186 @@
+// This software is in the public domain.
+//
+// The software is provided "as is", without warranty of any kind,
+// express or implied, including but not limited to the warranties
+// of merchantability, fitness for a particular purpose, and
+// noninfringement. In no event shall the author(s) be liable for any
+// claim, damages, or other liability, whether in an action of
+// contract, tort, or otherwise, arising from, out of, or in connection
+// with the software or the use or other dealings in the software.
+
+package org.xmlmiddleware.xmldbms.maps.utils;
+
+import org.xmlmiddleware.xmldbms.maps.*;
+
+import java.lang.reflect.*;
+import java.sql.*;
+import java.util.*;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the upsert and block SELECT strings built by DMLGenerator.
+ *
+ * <p>The table T has the columns A, B, C, and D. The primary key is (A, B)
+ * and the metadata does not quote identifiers.</p>
+ */
+
+public class DMLGeneratorTest extends TestCase
+{
+   private DMLGenerator m_dml;
+   private Table        m_table;
+   private Column       m_a, m_b, m_c, m_d;
+   private Key          m_key;
+
+   protected void setUp()
+      throws Exception
+   {
+      InvocationHandler handler = new InvocationHandler()
+      {
+         public Object invoke(Object proxy, Method method, Object[] args)
+         {
+            if (method.getName().equals("getIdentifierQuoteString"))
+               return "";
+            if (method.getReturnType() == Boolean.TYPE)
+               return Boolean.FALSE;
+            return null;
+         }
+      };
+
+      m_dml = new DMLGenerator((DatabaseMetaData)Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {DatabaseMetaData.class}, handler));
+      m_table = Table.create(null, null, null, "T");
+      m_a = m_table.createColumn("A");
+      m_b = m_table.createColumn("B");
+      m_c = m_table.createColumn("C");
+      m_d = m_table.createColumn("D");
+      m_key = m_table.createPrimaryKey(null);
+      m_key.setColumns(columns(m_a, m_b, null));
+   }
+
+   private static Vector columns(Column c1, Column c2, Column c3)
+   {
+      Vector cols = new Vector();
+
+      if (c1 != null) cols.addElement(c1);
+      if (c2 != null) cols.addElement(c2);
+      if (c3 != null) cols.addElement(c3);
+      return cols;
+   }
+
+   // ************************************************************************
+   // MERGE
+   // ************************************************************************
+
+   public void testMerge()
+   {
+      assertEquals("MERGE INTO T T USING (VALUES (? , ? , ? )) AS S (A, B, C) " +
+                   "ON (T.A = S.A AND T.B = S.B) " +
+                   "WHEN MATCHED THEN UPDATE SET C = S.C " +
+                   "WHEN NOT MATCHED THEN INSERT (A, B, C) VALUES (S.A, S.B, S.C)",
+                   m_dml.getMerge(m_table, m_key, columns(m_a, m_b, m_c), columns(m_c, null, null)));
+   }
+
+   public void testMergeWithSeveralUpdateColumns()
+   {
+      String merge = m_dml.getMerge(m_table, m_key, columns(m_a, m_b, m_d), columns(m_b, m_d, null));
+
+      assertTrue(merge, merge.indexOf(" UPDATE SET B = S.B, D = S.D ") != -1);
+   }
+
+   public void testMergeWithoutUpdateColumnsOnlyInserts()
+   {
+      assertEquals("MERGE INTO T T USING (VALUES (? , ? )) AS S (A, B) " +
+                   "ON (T.A = S.A AND T.B = S.B) " +
+                   "WHEN NOT MATCHED THEN INSERT (A, B) VALUES (S.A, S.B)",
+                   m_dml.getMerge(m_table, m_key, columns(m_a, m_b, null), new Vector()));
+   }
+
+   // ************************************************************************
+   // INSERT ... ON CONFLICT
+   // ************************************************************************
+
+   public void testInsertOnConflictDoUpdate()
+   {
+      assertEquals("INSERT INTO T (A, B, C, D) VALUES (? , ? , ? , ? ) " +
+                   "ON CONFLICT (A, B) DO UPDATE SET C = EXCLUDED.C, D = EXCLUDED.D",
+                   m_dml.getInsertOnConflict(m_table, m_key, columns4(), columns(m_c, m_d, null)));
+   }
+
+   public void testInsertOnConflictDoNothing()
+   {
+      assertEquals("INSERT INTO T (A, B) VALUES (? , ? ) ON CONFLICT (A, B) DO NOTHING",
+                   m_dml.getInsertOnConflict(m_table, m_key, columns(m_a, m_b, null), new Vector()));
+   }
+
+   // ************************************************************************
+   // INSERT ... ON DUPLICATE KEY UPDATE
+   // ************************************************************************
+
+   public void testInsertOnDuplicateKey()
+   {
+      assertEquals("INSERT INTO T (A, B, C, D) VALUES (? , ? , ? , ? ) " +
+                   "ON DUPLICATE KEY UPDATE C = VALUES(C), D = VALUES(D)",
+                   m_dml.getInsertOnDuplicateKey(m_table, m_key, columns4(), columns(m_c, m_d, null)));
+   }
+
+   public void testInsertOnDuplicateKeyWithoutUpdateColumnsKeepsRow()
+   {
+      assertEquals("INSERT INTO T (A, B) VALUES (? , ? ) ON DUPLICATE KEY UPDATE A = A",
+                   m_dml.getInsertOnDuplicateKey(m_table, m_key, columns(m_a, m_b, null), new Vector()));
+   }
+
+   // ************************************************************************
+   // SELECT for several key values
+   // ************************************************************************
+
+   public void testSelectForSingleColumnKeyUsesInList()
+      throws Exception
+   {
+      Key key = m_table.createUniqueKey("U");
+
+      setResultSetColumns();
+      key.setColumns(columns(m_c, null, null));
+      assertEquals("SELECT A, B, C, D FROM T WHERE C IN (? , ? , ? )",
+                   m_dml.getSelect(m_table, key, 3, null, null));
+   }
+
+   public void testSelectForMultiColumnKeyUsesOrOfAnds()
+   {
+      setResultSetColumns();
+      assertEquals("SELECT A, B, C, D FROM T WHERE ((A = ?  AND B = ? ) OR (A = ?  AND B = ? ))",
+                   m_dml.getSelect(m_table, m_key, 2, null, null));
+   }
+
+   public void testSelectForKeysAddsWhereAndOrderBy()
+   {
+      OrderInfo orderInfo = OrderInfo.create();
+
+      setResultSetColumns();
+      orderInfo.setOrderColumn(m_d);
+      orderInfo.setIsAscending(false);
+      assertEquals("SELECT A, B, C, D FROM T WHERE ((A = ?  AND B = ? )) AND C > ? ORDER BY D DESC",
+                   m_dml.getSelect(m_table, m_key, 1, "C > ?", orderInfo));
+   }
+
+   private void setResultSetColumns()
+   {
+      Vector cols = columns4();
+
+      // Columns without a type are not selected. The result set indexes
+      // give the order of the selected columns.
+
+      for (int i = 0; i < cols.size(); i++)
+      {
+         ((Column)cols.elementAt(i)).setType(Types.INTEGER);
+         ((Column)cols.elementAt(i)).setResultSetIndex(i + 1);
+      }
+   }
+
+   private Vector columns4()
+   {
+      Vector cols = columns(m_a, m_b, m_c);
+
+      cols.addElement(m_d);
+      return cols;
+   }
+}
@@ -0,0 +1,231 @@
+// This software is in the public domain.
+//
+// The software is provided "as is", without warranty of any kind,
+// express or implied, including but not limited to the warranties
+// of merchantability, fitness for a particular purpose, and
+// noninfringement. In no event shall the author(s) be liable for any
+// claim, damages, or other liability, whether in an action of
+// contract, tort, or otherwise, arising from, out of, or in connection
+// with the software or the use or other dealings in the software.
+
+package org.xmlmiddleware.xmldbms.tools;
+
+import org.xmlmiddleware.utils.*;
+import org.xmlmiddleware.xmldbms.*;
+import org.xmlmiddleware.xmlutils.external.*;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+import javax.sql.*;
+
+import junit.framework.TestCase;
+
+import org.xml.sax.*;
+
+/**
+ * Tests for the pipeline used by Transfer.storeXMLDocuments.
+ *
+ * <p>Each document is a file containing a single Order element. Documents are
+ * stored with TestHandler, a RecordingDataHandler that keeps track of the
+ * instances Transfer creates, so the rows stored by the pipeline's writer
+ * can be checked.</p>
+ */
+
+public class TransferTest extends TestCase
+{
+   private Transfer   m_transfer;
+   private Properties m_configProps;
+   private File       m_dir;
+
+   // The DTDs are not test resources, so they are read from the source tree.
+   // Tests are run from the project directory.
+
+   private static final String DTDDIR = "src/main/dtds/";
+
+   protected void setUp()
+      throws Exception
+   {
+      Properties dbProps = new Properties();
+
+      // JDBC1DataSource only loads the driver class; TestHandler never asks
+      // it for a connection.
+
+      dbProps.put(XMLDBMSProps.DATASOURCECLASS, "org.xmlmiddleware.db.JDBC1DataSource");
+      dbProps.put(XMLDBMSProps.DRIVER, TestHandler.class.getName());
+      dbProps.put(XMLDBMSProps.URL, "jdbc:test");
+      dbProps.put(XMLDBMSProps.DATAHANDLERCLASS, TestHandler.class.getName());
+      m_transfer = new Transfer(new TestParserUtils());
+      m_transfer.setDatabaseProperties(dbProps);
+
+      m_configProps = new Properties();
+      m_configProps.put(XMLDBMSProps.PIPELINED, "Yes");
+      m_configProps.put(XMLDBMSProps.PIPELINEDEPTH, "2");
+
+      m_dir = File.createTempFile("transfer", "");
+      m_dir.delete();
+      m_dir.mkdir();
+
+      TestHandler.handlers.removeAllElements();
+      TestHandler.initializeException = null;
+   }
+
+   protected void tearDown()
+   {
+      File[] files = m_dir.listFiles();
+
+      for (int i = 0; i < files.length; i++)
+      {
+         files[i].delete();
+      }
+      m_dir.delete();
+      TestHandler.initializeException = null;
+   }
+
+   // ************************************************************************
+   // Test objects
+   // ************************************************************************
+
+   /**
+    * A RecordingDataHandler that records each instance that is initialized.
+    */
+   public static class TestHandler extends RecordingDataHandler
+   {
+      static Vector       handlers = new Vector();
+      static SQLException initializeException = null;
+
+      public void initialize(DataSource dataSource, String user, String password)
+         throws SQLException
+      {
+         if (initializeException != null) throw initializeException;
+         handlers.addElement(this);
+      }
+   }
+
+   /**
+    * ParserUtilsXerces with XMLReaders that read DTDs from the source tree.
+    */
+   static class TestParserUtils extends ParserUtilsXerces
+   {
+      public XMLReader getXMLReader(boolean validating)
+         throws XMLMiddlewareException
+      {
+         XMLReader xmlReader = super.getXMLReader(validating);
+
+         xmlReader.setEntityResolver(new EntityResolver()
+         {
+            public InputSource resolveEntity(String publicId, String systemId)
+            {
+               if ((systemId == null) || !systemId.endsWith(".dtd")) return null;
+               return new InputSource(new File(DTDDIR + systemId.substring(systemId.lastIndexOf('/') + 1)).toURI().toString());
+            }
+         });
+         return xmlReader;
+      }
+   }
+
+   // ************************************************************************
+   // Helpers
+   // ************************************************************************
+
+   private String[] createDocuments(int count, int badDocument)
+      throws Exception
+   {
+      String[]   locations = new String[count];
+      File       file;
+      FileWriter writer;
+
+      // Document i contains Order i. If badDocument is not -1, that
+      // document is not well-formed.
+
+      for (int i = 0; i < count; i++)
+      {
+         file = new File(m_dir, "order" + i + ".xml");
+         writer = new FileWriter(file);
+         writer.write((i == badDocument) ? "<Order Number='" : "<Order Number='" + i + "'/>");
+         writer.close();
+         locations[i] = file.getPath();
+      }
+      return locations;
+   }
+
+   private BulkStoreReport store(String[] locations)
+      throws Exception
+   {
+      return m_transfer.storeXMLDocuments(m_configProps, getResource("transfer.map"), getResource("transfer.act"), locations);
+   }
+
+   private String getResource(String name)
+   {
+      return new File(getClass().getResource(name).getFile()).getPath();
+   }
+
+   // ************************************************************************
+   // Pipeline
+   // ************************************************************************
+
+   public void testPipelineStoresDocumentsInOrder()
+      throws Exception
+   {
+      String[]        locations = createDocuments(20, 7);
+      BulkStoreReport report;
+      StringBuffer    expected = new StringBuffer();
+
+      report = store(locations);
+
+      // The parser fails on document 7. The other documents are stored in
+      // order by the writer, which is the only DataHandler created.
+
+      assertEquals(19, report.getStoredCount());
+      assertEquals(1, report.getFailedCount());
+      assertEquals(locations[7], report.getFailedLocations().nextElement());
+      assertNotNull(report.getFailure(locations[7]));
+
+      assertEquals(1, TestHandler.handlers.size());
+      expected.append('[');
+      for (int i = 0; i < 20; i++)
+      {
+         if (i == 7) continue;
+         if (expected.length() > 1) expected.append(", ");
+         expected.append("Orders(Number=").append(i).append(')');
+      }
+      expected.append(']');
+      assertEquals(expected.toString(), ((TestHandler)TestHandler.handlers.elementAt(0)).stored.toString());
+   }
+
+   public void testPipelineFailsEveryDocumentIfWriterCannotConnect()
+      throws Exception
+   {
+      String[]        locations = createDocuments(20, -1);
+      BulkStoreReport report;
+      Enumeration     failed;
+
+      // Documents that were already parsed or mapped when the writer failed,
+      // as well as those that were never handed out, are reported in order.
+
+      TestHandler.initializeException = new SQLException("No connection.");
+      m_configProps.put(XMLDBMSProps.PIPELINEDEPTH, "1");
+      report = store(locations);
+
+      assertEquals(0, report.getStoredCount());
+      assertEquals(20, report.getFailedCount());
+      failed = report.getFailedLocations();
+      for (int i = 0; i < 20; i++)
+      {
+         assertEquals(locations[i], failed.nextElement());
+         assertSame(TestHandler.initializeException, report.getFailure(locations[i]));
+      }
+      assertSame(TestHandler.initializeException, report.getErrors().nextElement());
+      assertEquals(0, TestHandler.handlers.size());
+   }
+
+   public void testPipelineWithSingleDocument()
+      throws Exception
+   {
+      BulkStoreReport report = store(createDocuments(1, -1));
+
+      assertEquals(1, report.getStoredCount());
+      assertEquals(0, report.getFailedCount());
+      assertEquals("[startDocument, insert Orders, endDocument]", ((TestHandler)TestHandler.handlers.elementAt(0)).log.toString());
+   }
+}
@@ -0,0 +1,236 @@
+// This software is in the public domain.
+//
+// The software is provided "as is", without warranty of any kind,
+// express or implied, including but not limited to the warranties
+// of merchantability, fitness for a particular purpose, and
+// noninfringement. In no event shall the author(s) be liable for any
+// claim, damages, or other liability, whether in an action of
+// contract, tort, or otherwise, arising from, out of, or in connection
+// with the software or the use or other dealings in the software.
+
+package org.xmlmiddleware.xmlutils.external;
+
+import org.xmlmiddleware.utils.*;
+
+import java.io.*;
+import java.util.*;
+import javax.xml.parsers.*;
+
+import junit.framework.TestCase;
+import org.w3c.dom.*;
+import org.xml.sax.*;
+
+/**
+ * Tests for ParserUtilsXerces and its pool of DocumentBuilders.
+ */
+
+public class ParserUtilsXercesTest extends TestCase
+{
+   /**
+    * A DocumentBuilder whose reset method throws an exception or error. If
+    * failure is null, reset is not overridden, so it throws the
+    * UnsupportedOperationException of pre-JAXP 1.3 DocumentBuilders.
+    */
+   static class TestBuilder extends DocumentBuilder
+   {
+      Throwable failure;
+
+      TestBuilder(Throwable failure)
+      {
+         this.failure = failure;
+      }
+
+      public void reset()
+      {
+         if (failure == null) super.reset();
+         if (failure instanceof RuntimeException) throw (RuntimeException)failure;
+         throw (Error)failure;
+      }
+
+      // The pool never parses documents, so the other methods do nothing.
+
+      public Document parse(InputSource is)
+      {
+         return null;
+      }
+
+      public boolean isNamespaceAware()
+      {
+         return true;
+      }
+
+      public boolean isValidating()
+      {
+         return false;
+      }
+
+      public void setEntityResolver(EntityResolver er)
+      {
+      }
+
+      public void setErrorHandler(ErrorHandler eh)
+      {
+      }
+
+      public Document newDocument()
+      {
+         return null;
+      }
+
+      public DOMImplementation getDOMImplementation()
+      {
+         return null;
+      }
+   }
+
+   /**
+    * A pool of TestBuilders.
+    */
+   static class TestPool extends ParserUtilsXerces.BuilderPool
+   {
+      Throwable failure;
+
+      protected Object createObject(Object id)
+      {
+         return new TestBuilder(failure);
+      }
+   }
+
+   private static Document read(String xml)
+      throws Exception
+   {
+      return new ParserUtilsXerces().readDocument(new InputSource(new StringReader(xml)), false);
+   }
+
+   // ************************************************************************
+   // Pool
+   // ************************************************************************
+
+   public void testBuilderIsReused()
+      throws Exception
+   {
+      ParserUtilsXerces.BuilderPool pool = new ParserUtilsXerces.BuilderPool();
+      DocumentBuilder               builder = (DocumentBuilder)pool.checkOut(Boolean.FALSE);
+
+      pool.release(builder);
+      assertSame(builder, pool.checkOut(Boolean.FALSE));
+      assertEquals(1, pool.getSize());
+   }
+
+   public void testBuilderWithoutResetIsDiscarded()
+      throws Exception
+   {
+      TestPool        pool = new TestPool();
+      DocumentBuilder builder = (DocumentBuilder)pool.checkOut(Boolean.FALSE);
+
+      pool.release(builder);
+      assertEquals(0, pool.getSize());
+      assertNotSame(builder, pool.checkOut(Boolean.FALSE));
+   }
+
+   public void testBuilderWithMissingResetIsDiscarded()
+      throws Exception
+   {
+      TestPool pool = new TestPool();
+
+      pool.failure = new AbstractMethodError();
+      pool.release((DocumentBuilder)pool.checkOut(Boolean.FALSE));
+      assertEquals(0, pool.getSize());
+   }
+
+   public void testOtherErrorsAreNotSwallowed()
+      throws Exception
+   {
+      TestPool        pool = new TestPool();
+      DocumentBuilder builder;
+
+      pool.failure = new OutOfMemoryError("Test.");
+      builder = (DocumentBuilder)pool.checkOut(Boolean.FALSE);
+      try
+      {
+         pool.release(builder);
+         fail("Error swallowed.");
+      }
+      catch (OutOfMemoryError e)
+      {
+         assertEquals("Test.", e.getMessage());
+      }
+
+      pool.failure = new IllegalStateException("Test.");
+      builder = (DocumentBuilder)pool.checkOut(Boolean.FALSE);
+      try
+      {
+         pool.release(builder);
+         fail("Exception swallowed.");
+      }
+      catch (IllegalStateException e)
+      {
+      }
+   }
+
+   // ************************************************************************
+   // readDocument
+   // ************************************************************************
+
+   public void testReadDocument()
+      throws Exception
+   {
+      Document doc = read("<doc a='1'><child/></doc>");
+
+      assertEquals("doc", doc.getDocumentElement().getLocalName());
+      assertEquals("1", doc.getDocumentElement().getAttribute("a"));
+   }
+
+   public void testParseErrorDoesNotBreakLaterDocuments()
+      throws Exception
+   {
+      try
+      {
+         read("<doc>");
+         fail("Malformed document parsed.");
+      }
+      catch (XMLMiddlewareException e)
+      {
+      }
+      assertEquals("doc", read("<doc/>").getDocumentElement().getTagName());
+   }
+
+   public void testReadDocumentOnManyThreads()
+      throws Exception
+   {
+      final Vector errors = new Vector();
+      Thread[]     threads = new Thread[8];
+
+      for (int i = 0; i < threads.length; i++)
+      {
+         final int thread = i;
+
+         threads[i] = new Thread()
+         {
+            public void run()
+            {
+               try
+               {
+                  for (int j = 0; j < 50; j++)
+                  {
+                     String value = thread + "." + j;
+                     Document doc = read("<doc value='" + value + "'/>");
+                     if (!value.equals(doc.getDocumentElement().getAttribute("value")))
+                        errors.addElement("Wrong document: " + value);
+                  }
+               }
+               catch (Exception e)
+               {
+                  errors.addElement(e.toString());
+               }
+            }
+         };
+         threads[i].start();
+      }
+      for (int i = 0; i < threads.length; i++)
+      {
+         threads[i].join();
+      }
+      assertEquals(new Vector(), errors);
+   }
+}